@@ -0,0 +1,162 @@
+package io.jrest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Writes one line per request to a file: time, remote address, method, path, status, body bytes sent and duration.
+ * Each line is a json object so it can be read by log tools without a custom pattern.
+ * <br>
+ * Lines are handed to a writer thread and written in batches, so requests never wait on the file. When the file
+ * grows past {@link #getMaxFileSize()} it is rolled over to name.1, name.1 to name.2 and so on, keeping
+ * {@link #getMaxFiles()} old files.
+ */
+public class AccessLog {
+
+	/** Lines waiting to be written **/
+	private final AsyncAppender<String> appender;
+
+	private final File file;
+
+	private long maxFileSize = 10 * 1024 * 1024;
+
+	private int maxFiles = 5;
+
+	/** Open file, created by the writer thread **/
+	private Writer writer;
+
+	/** Bytes in the open file **/
+	private long size;
+
+	/**
+	 * Access log written to the given file. Lines are appended if the file already exists.
+	 */
+	public AccessLog(String path) {
+		this.file = new File(path);
+		this.appender = new AsyncAppender<>("JRest Access Log", 8192, this::write);
+	}
+
+	/**
+	 * Record a request. Duration is in nanoseconds, bytes is -1 if the response was not completed.
+	 */
+	public void log(HttpRequest<?> request, HttpStatus status, long bytes, long duration) {
+		StringBuilder line = new StringBuilder(160);
+		line.append("{\"time\":\"").append(Instant.now()).append('"');
+		if ( request.getRemoteAddress() != null ) {
+			line.append(",\"remote\":");
+			MarshallerJson.writeString(request.getRemoteAddress().getHostAddress(), line);
+		}
+		line.append(",\"method\":\"").append(request.getMethod()).append('"');
+		line.append(",\"path\":");
+		MarshallerJson.writeString(request.getPath(), line);
+		line.append(",\"status\":").append(status.value());
+		line.append(",\"bytes\":").append(bytes);
+		line.append(",\"duration_ms\":").append(duration / 1000 / 1000.0);
+		line.append('}');
+
+		appender.append(line.toString());
+	}
+
+	/**
+	 * Number of lines dropped because the writer could not keep up.
+	 */
+	public long getDropped() {
+		return appender.getDropped();
+	}
+
+	/**
+	 * Size in bytes the file can grow to before it is rolled over.
+	 */
+	public long getMaxFileSize() {
+		return this.maxFileSize;
+	}
+
+	/**
+	 * Set the size in bytes the file can grow to before it is rolled over.
+	 */
+	public AccessLog setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+		return this;
+	}
+
+	/**
+	 * Number of rolled over files kept.
+	 */
+	public int getMaxFiles() {
+		return this.maxFiles;
+	}
+
+	/**
+	 * Set the number of rolled over files kept. 0 keeps none, the file is emptied when it is full.
+	 */
+	public AccessLog setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+		return this;
+	}
+
+	/**
+	 * Write out the lines already queued and close the file.
+	 */
+	public void close() {
+		appender.close();
+		try {
+			if ( writer != null )
+				writer.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void write(List<String> batch, long dropped) throws IOException {
+		if ( writer == null )
+			open();
+
+		for (String line : batch) {
+			if ( size >= maxFileSize )
+				rollOver();
+
+			writer.write(line);
+			writer.write('\n');
+
+			// Lines are ascii apart from the path, close enough for deciding when to roll over
+			size += line.length() + 1;
+		}
+
+		writer.flush();
+	}
+
+	private void open() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if ( parent != null )
+			parent.mkdirs();
+
+		this.size = file.length();
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	private void rollOver() throws IOException {
+		writer.close();
+
+		// Shift name.1 to name.2 and so on, dropping the oldest
+		new File(file.getPath() + "." + maxFiles).delete();
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			File from = new File(file.getPath() + "." + i);
+			if ( from.exists() )
+				from.renameTo(new File(file.getPath() + "." + (i + 1)));
+		}
+
+		if ( maxFiles > 0 )
+			file.renameTo(new File(file.getPath() + ".1"));
+		else
+			file.delete();
+
+		open();
+	}
+}
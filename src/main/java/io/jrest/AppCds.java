@@ -0,0 +1,106 @@
+package io.jrest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates an AppCDS (application class data sharing) archive of an application, so the JVM maps the
+ * classes it needs from the archive instead of loading and verifying them at every start.
+ * <br>
+ * The application is run once as a training run with the same classpath. Its servers warm up as they
+ * would normally (see {@link JRest#setWarmUp(long)}) and the JVM exits as soon as the first server has
+ * warmed up, so every class of the request pipeline is in the archive. Register endpoints before
+ * calling {@link JRest#start()} for their classes to be included.
+ * <pre>
+ * java -cp app.jar io.jrest.AppCds app.jsa com.example.Main [args...]
+ * java -XX:SharedArchiveFile=app.jsa -cp app.jar com.example.Main
+ * </pre>
+ * Needs Java 10 or newer, and a classpath of jar files only, the JVM does not archive classes from directories.
+ */
+public class AppCds {
+
+	/** System property telling a server it is in a training run and should exit after warming up **/
+	public static final String TRAINING_PROPERTY = "jrest.cds.training";
+
+	/** Warm-up time of a training run for servers that do not set one **/
+	static final long TRAINING_WARM_UP = 2000;
+
+	private AppCds() {
+		//
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if ( args.length < 2 ) {
+			System.err.println("Usage: java -cp <classpath> io.jrest.AppCds <archive> <main class> [args...]");
+			System.exit(1);
+		}
+
+		File archive = new File(args[0]);
+		createArchive(archive, args[1], Arrays.copyOfRange(args, 2, args.length));
+		System.out.println("Created " + archive + ", start the application with -XX:SharedArchiveFile=" + archive);
+	}
+
+	/**
+	 * Run a training run of a main class with this JVM's classpath and create an archive of the classes it loaded.
+	 */
+	public static void createArchive(File archive, String mainClass, String... args) throws IOException, InterruptedException {
+		int version = getJavaVersion();
+		if ( version < 10 )
+			throw new IOException("AppCDS archives need Java 10 or newer, running " + System.getProperty("java.specification.version"));
+
+		if ( version >= 13 ) {
+			// Dumped by the training run when it exits
+			run(mainClass, args, "-XX:ArchiveClassesAtExit=" + archive);
+		} else {
+			// Record the classes the training run loads, then dump them
+			File classList = File.createTempFile("jrest", ".classlist");
+			try {
+				run(mainClass, args, "-XX:+UseAppCDS", "-XX:DumpLoadedClassList=" + classList);
+				run(null, null, "-XX:+UseAppCDS", "-Xshare:dump", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive);
+			} finally {
+				classList.delete();
+			}
+		}
+
+		if ( !archive.isFile() )
+			throw new IOException("Training run did not create " + archive);
+	}
+
+	/**
+	 * Run a JVM with this JVM's classpath, sharing its output.
+	 */
+	private static void run(String mainClass, String[] args, String... options) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(Arrays.asList(options));
+		command.add("-D" + TRAINING_PROPERTY + "=true");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		if ( mainClass != null ) {
+			command.add(mainClass);
+			command.addAll(Arrays.asList(args));
+		}
+
+		int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if ( exit != 0 )
+			throw new IOException("Training run exited with " + exit + ": " + command);
+	}
+
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version");
+		if ( version.startsWith("1.") )
+			version = version.substring(2);
+
+		return Integer.parseInt(version);
+	}
+
+	/**
+	 * Returns whether this JVM is a training run.
+	 */
+	static boolean isTraining() {
+		return Boolean.getBoolean(TRAINING_PROPERTY);
+	}
+}
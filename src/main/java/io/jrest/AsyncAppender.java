@@ -0,0 +1,101 @@
+package io.jrest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands entries to a dedicated writer thread through a bounded ring buffer, so the threads producing them
+ * never wait on I/O. When the buffer is full new entries are dropped and counted rather than blocking.
+ * The writer takes entries in batches of whatever has queued up since its last write.
+ */
+class AsyncAppender<E> {
+
+	/**
+	 * Writes a batch of entries. Runs on the writer thread only.
+	 */
+	interface Sink<E> {
+		void write(List<E> batch, long dropped) throws Exception;
+	}
+
+	/** Largest number of entries written in one batch **/
+	private static final int MAX_BATCH = 512;
+
+	private final ArrayBlockingQueue<E> buffer;
+
+	private final Sink<E> sink;
+
+	private final Thread writer;
+
+	/** Entries dropped since the writer last reported them **/
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** Entries dropped in total **/
+	private final AtomicLong droppedTotal = new AtomicLong();
+
+	private volatile boolean closed;
+
+	public AsyncAppender(String name, int capacity, Sink<E> sink) {
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+		this.sink = sink;
+		this.writer = new Thread(this::run, name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queue an entry for the writer. Returns false if the buffer was full and the entry was dropped.
+	 */
+	public boolean append(E entry) {
+		if ( !closed && buffer.offer(entry) )
+			return true;
+
+		dropped.incrementAndGet();
+		droppedTotal.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Number of entries dropped because the buffer was full.
+	 */
+	public long getDropped() {
+		return droppedTotal.get();
+	}
+
+	/**
+	 * Stop accepting entries, and wait for the writer to write what is already queued.
+	 */
+	public void close() {
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		List<E> batch = new ArrayList<>(MAX_BATCH);
+		while (!closed || !buffer.isEmpty()) {
+			try {
+				E first = buffer.poll(100, TimeUnit.MILLISECONDS);
+				if ( first == null && dropped.get() == 0 )
+					continue;
+
+				if ( first != null )
+					batch.add(first);
+				buffer.drainTo(batch, MAX_BATCH - batch.size());
+				sink.write(batch, dropped.getAndSet(0));
+			} catch(InterruptedException e) {
+				// Closing, write what is left
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+
+			batch.clear();
+		}
+	}
+}
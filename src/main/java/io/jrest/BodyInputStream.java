@@ -0,0 +1,94 @@
+package io.jrest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream over the body of a single HTTP message. Reads stop at the Content-Length of the message,
+ * so the body can be handed straight to a {@link Marshaller} without over-reading the connection.
+ * If the length is unknown, data is read until the connection has nothing more available.
+ */
+class BodyInputStream extends FilterInputStream {
+
+	/** Bytes left in the body, or -1 if the length is unknown **/
+	private long remaining;
+
+	public BodyInputStream(InputStream in, long contentLength) {
+		super(in);
+		this.remaining = contentLength;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ( isFinished() )
+			return -1;
+
+		int b = in.read();
+		if ( b != -1 && remaining > 0 )
+			remaining--;
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if ( length == 0 )
+			return 0;
+
+		if ( isFinished() )
+			return -1;
+
+		int max = remaining < 0 ? Math.min(length, in.available()) : (int) Math.min(length, remaining);
+		int read = in.read(buffer, offset, max);
+		if ( read > 0 && remaining > 0 )
+			remaining -= read;
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && read() != -1)
+			skipped++;
+
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if ( remaining < 0 )
+			return in.available();
+
+		return (int) Math.min(remaining, in.available());
+	}
+
+	/**
+	 * Reads and discards whatever is left of the body.
+	 */
+	public void drain() throws IOException {
+		byte[] buffer = new byte[512];
+		while (read(buffer, 0, buffer.length) != -1) {
+			//
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The connection owns the underlying stream
+		drain();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private boolean isFinished() throws IOException {
+		if ( remaining == 0 )
+			return true;
+
+		return remaining < 0 && in.available() == 0;
+	}
+}
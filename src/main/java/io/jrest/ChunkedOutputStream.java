@@ -0,0 +1,91 @@
+package io.jrest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a body with chunked transfer encoding. Data is collected in to chunks of up to
+ * {@link #CHUNK_SIZE} bytes; {@link #flush()} sends whatever is buffered as a chunk straight away.
+ * Closing writes the terminating chunk but leaves the connection open.
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final byte[] buffer = new byte[CHUNK_SIZE];
+
+	private int size;
+
+	/** Data bytes written so far, without the chunk framing **/
+	private long count;
+
+	private boolean closed;
+
+	public ChunkedOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if ( size == buffer.length )
+			writeChunk();
+
+		buffer[size++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			if ( size == buffer.length )
+				writeChunk();
+
+			int count = Math.min(length, buffer.length - size);
+			System.arraycopy(data, offset, buffer, size, count);
+			size += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeChunk();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if ( closed )
+			return;
+
+		closed = true;
+		writeChunk();
+		out.write('0');
+		out.write(CRLF);
+		out.write(CRLF);
+		out.flush();
+	}
+
+	/**
+	 * Number of data bytes written, without the chunk framing.
+	 */
+	public long getCount() {
+		return count + size;
+	}
+
+	private void writeChunk() throws IOException {
+		if ( size == 0 )
+			return;
+
+		count += size;
+		out.write(Integer.toHexString(size).getBytes(StandardCharsets.US_ASCII));
+		out.write(CRLF);
+		out.write(buffer, 0, size);
+		out.write(CRLF);
+		size = 0;
+	}
+}
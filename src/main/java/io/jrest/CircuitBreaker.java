@@ -0,0 +1,189 @@
+package io.jrest;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-host circuit breaker used by {@link RequestEntity}. After a number of consecutive failures
+ * the circuit opens and requests to that host fail fast until the open duration has passed.
+ * The first request after that is let through as a trial; success closes the circuit again.
+ */
+public class CircuitBreaker {
+
+	/** Breakers shared by every RequestEntity, keyed by host:port **/
+	private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+	/** Number of latency samples kept for percentile estimation **/
+	private static final int SAMPLE_SIZE = 128;
+
+	/** Default consecutive failures required to open a circuit **/
+	private static int defaultFailureThreshold = 5;
+
+	/** Default time in milliseconds a circuit stays open **/
+	private static long defaultOpenDuration = 10000;
+
+	public static enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN;
+	}
+
+	private final String host;
+
+	private final AtomicReference<State> state;
+
+	private final AtomicInteger failures;
+
+	private final AtomicLong openedAt;
+
+	private final AtomicLongArray samples;
+
+	private final AtomicLong sampleIndex;
+
+	private volatile int failureThreshold;
+
+	private volatile long openDuration;
+
+	private CircuitBreaker(String host) {
+		this.host = host;
+		this.state = new AtomicReference<>(State.CLOSED);
+		this.failures = new AtomicInteger();
+		this.openedAt = new AtomicLong();
+		this.samples = new AtomicLongArray(SAMPLE_SIZE);
+		this.sampleIndex = new AtomicLong();
+		this.failureThreshold = defaultFailureThreshold;
+		this.openDuration = defaultOpenDuration;
+	}
+
+	/**
+	 * Get the circuit breaker for the host of a url.
+	 */
+	public static CircuitBreaker forHost(URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return forHost(url.getHost() + ":" + port);
+	}
+
+	/**
+	 * Get the circuit breaker for a host:port string.
+	 */
+	public static CircuitBreaker forHost(String host) {
+		return breakers.computeIfAbsent(host, CircuitBreaker::new);
+	}
+
+	/**
+	 * Set the failure threshold used for breakers created after this call.
+	 */
+	public static void setDefaultFailureThreshold(int failures) {
+		defaultFailureThreshold = Math.max(1, failures);
+	}
+
+	/**
+	 * Set the open duration used for breakers created after this call.
+	 */
+	public static void setDefaultOpenDuration(long millis) {
+		defaultOpenDuration = Math.max(0, millis);
+	}
+
+	/**
+	 * Returns whether a request may be sent to this host. An open circuit moves to
+	 * {@link State#HALF_OPEN} once its open duration has passed, letting exactly one trial request through.
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		if ( current == State.CLOSED )
+			return true;
+
+		if ( current == State.OPEN && System.currentTimeMillis() - openedAt.get() >= openDuration )
+			return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+
+		return false;
+	}
+
+	/**
+	 * Record a successful exchange and how long it took.
+	 */
+	public void recordSuccess(long nanos) {
+		failures.set(0);
+		state.set(State.CLOSED);
+
+		long index = sampleIndex.getAndIncrement();
+		samples.set((int) (index % SAMPLE_SIZE), nanos);
+	}
+
+	/**
+	 * Record a failed exchange. Opens the circuit once the failure threshold is reached,
+	 * or immediately if the failed request was a half-open trial.
+	 */
+	public void recordFailure() {
+		int count = failures.incrementAndGet();
+		if ( state.get() == State.HALF_OPEN || count >= failureThreshold ) {
+			openedAt.set(System.currentTimeMillis());
+			state.set(State.OPEN);
+		}
+	}
+
+	/**
+	 * Returns the latency in milliseconds below which the given fraction (0-1) of recent successful exchanges completed.
+	 * Returns -1 if no samples have been recorded yet.
+	 */
+	public long getLatencyPercentile(double percentile) {
+		long nanos = getLatencyPercentileNanos(percentile);
+		return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Returns the latency in nanoseconds below which the given fraction (0-1) of recent successful exchanges completed.
+	 * Returns -1 if no samples have been recorded yet.
+	 */
+	public long getLatencyPercentileNanos(double percentile) {
+		int count = (int) Math.min(sampleIndex.get(), SAMPLE_SIZE);
+		if ( count == 0 )
+			return -1;
+
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++)
+			sorted[i] = samples.get(i);
+		Arrays.sort(sorted);
+
+		int index = (int) Math.ceil(percentile * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))];
+	}
+
+	public State getState() {
+		return this.state.get();
+	}
+
+	public String getHost() {
+		return this.host;
+	}
+
+	public CircuitBreaker setFailureThreshold(int failures) {
+		this.failureThreshold = Math.max(1, failures);
+		return this;
+	}
+
+	public CircuitBreaker setOpenDuration(long millis) {
+		this.openDuration = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Force the circuit closed and forget recorded failures.
+	 */
+	public void reset() {
+		failures.set(0);
+		state.set(State.CLOSED);
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreaker[" + host + ", " + state.get() + "]";
+	}
+}
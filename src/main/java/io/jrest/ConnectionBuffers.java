@@ -0,0 +1,176 @@
+package io.jrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Read and write buffers owned by a server thread and reused for every connection it handles,
+ * so handling a request does not allocate fresh 8KB stream buffers.
+ * The streams returned here are only valid until the thread handles its next connection.
+ */
+final class ConnectionBuffers {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<ConnectionBuffers> buffers = ThreadLocal.withInitial(ConnectionBuffers::new);
+
+	private final byte[] input = new byte[BUFFER_SIZE];
+
+	private final byte[] output = new byte[BUFFER_SIZE];
+
+	/** Scratch space the request head is read in to. Grows up to the largest head this thread has seen **/
+	private byte[] head = new byte[1024];
+
+	private ConnectionBuffers() {
+		//
+	}
+
+	/**
+	 * Buffers of the current thread.
+	 */
+	static ConnectionBuffers get() {
+		return buffers.get();
+	}
+
+	/**
+	 * Buffered input stream for a connection, using this thread's read buffer.
+	 */
+	InputStream input(InputStream in) {
+		return new Input(in, input);
+	}
+
+	/**
+	 * Buffered output stream for a connection, using this thread's write buffer.
+	 */
+	OutputStream output(OutputStream out) {
+		return new Output(out, output);
+	}
+
+	/**
+	 * Scratch buffer for the request head, at least the given size.
+	 */
+	byte[] head(int size) {
+		if ( head.length < size )
+			head = Arrays.copyOf(head, Math.max(size, head.length * 2));
+
+		return head;
+	}
+
+	private static final class Input extends InputStream {
+		private final InputStream in;
+
+		private final byte[] buffer;
+
+		private int position;
+
+		private int limit;
+
+		Input(InputStream in, byte[] buffer) {
+			this.in = in;
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ( position == limit && !fill() )
+				return -1;
+
+			return buffer[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int offset, int length) throws IOException {
+			if ( length == 0 )
+				return 0;
+
+			if ( position == limit ) {
+				// Large reads skip the buffer
+				if ( length >= buffer.length )
+					return in.read(b, offset, length);
+
+				if ( !fill() )
+					return -1;
+			}
+
+			int count = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, b, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (limit - position) + in.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private boolean fill() throws IOException {
+			int read = in.read(buffer, 0, buffer.length);
+			position = 0;
+			limit = Math.max(read, 0);
+			return read > 0;
+		}
+	}
+
+	private static final class Output extends OutputStream {
+		private final OutputStream out;
+
+		private final byte[] buffer;
+
+		private int size;
+
+		Output(OutputStream out, byte[] buffer) {
+			this.out = out;
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if ( size == buffer.length )
+				flushBuffer();
+
+			buffer[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) throws IOException {
+			// Large writes skip the buffer
+			if ( length >= buffer.length ) {
+				flushBuffer();
+				out.write(b, offset, length);
+				return;
+			}
+
+			if ( length > buffer.length - size )
+				flushBuffer();
+
+			System.arraycopy(b, offset, buffer, size, length);
+			size += length;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			out.close();
+		}
+
+		private void flushBuffer() throws IOException {
+			if ( size > 0 ) {
+				out.write(buffer, 0, size);
+				size = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package io.jrest;
+
+import java.net.HttpCookie;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Cookie request headers and writes Set-Cookie response headers (RFC 6265). Holds no state,
+ * the server parses the cookies of each request on its own.
+ */
+class CookieCodec {
+
+	/**
+	 * Parse a Cookie header ("name=value; name2=value2") in to cookies. Cookies with names
+	 * {@link HttpCookie} does not accept are skipped.
+	 */
+	static List<HttpCookie> parse(String header) {
+		List<HttpCookie> cookies = new ArrayList<>();
+		if ( header == null )
+			return cookies;
+
+		int start = 0;
+		int length = header.length();
+		while (start < length) {
+			int end = header.indexOf(';', start);
+			if ( end == -1 )
+				end = length;
+
+			int equals = header.indexOf('=', start);
+			if ( equals != -1 && equals < end ) {
+				String name = header.substring(start, equals).trim();
+				if ( name.length() > 0 ) {
+					try {
+						cookies.add(new HttpCookie(name, unquote(header.substring(equals + 1, end).trim())));
+					} catch(IllegalArgumentException e) {
+						// Reserved or invalid name
+					}
+				}
+			}
+
+			start = end + 1;
+		}
+
+		return cookies;
+	}
+
+	/**
+	 * Value of one cookie in a Cookie header, without parsing the others. Returns null if it is not there.
+	 */
+	static String getValue(String header, String name) {
+		if ( header == null )
+			return null;
+
+		int start = 0;
+		int length = header.length();
+		while (start < length) {
+			int end = header.indexOf(';', start);
+			if ( end == -1 )
+				end = length;
+
+			// Skip leading spaces, then compare the name in place. Cookie names are case-sensitive
+			while (start < end && header.charAt(start) == ' ')
+				start++;
+
+			int nameEnd = start + name.length();
+			if ( nameEnd < end && header.regionMatches(start, name, 0, name.length()) ) {
+				int equals = nameEnd;
+				while (equals < end && header.charAt(equals) == ' ')
+					equals++;
+
+				if ( equals < end && header.charAt(equals) == '=' )
+					return unquote(header.substring(equals + 1, end).trim());
+			}
+
+			start = end + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Write a cookie as the value of a Set-Cookie header, with its attributes.
+	 */
+	static String encodeSetCookie(HttpCookie cookie) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(cookie.getName()).append('=');
+		if ( cookie.getValue() != null )
+			builder.append(cookie.getValue());
+
+		if ( cookie.getMaxAge() >= 0 )
+			builder.append("; Max-Age=").append(cookie.getMaxAge());
+		if ( cookie.getDomain() != null )
+			builder.append("; Domain=").append(cookie.getDomain());
+		if ( cookie.getPath() != null )
+			builder.append("; Path=").append(cookie.getPath());
+		if ( cookie.getSecure() )
+			builder.append("; Secure");
+		if ( cookie.isHttpOnly() )
+			builder.append("; HttpOnly");
+
+		return builder.toString();
+	}
+
+	/**
+	 * Write cookies as the value of a Cookie request header.
+	 */
+	static String encodeCookies(List<HttpCookie> cookies) {
+		StringBuilder builder = new StringBuilder();
+		for (HttpCookie cookie : cookies) {
+			if ( builder.length() > 0 )
+				builder.append("; ");
+
+			builder.append(cookie.getName()).append('=');
+			if ( cookie.getValue() != null )
+				builder.append(cookie.getValue());
+		}
+
+		return builder.toString();
+	}
+
+	private static String unquote(String value) {
+		if ( value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' )
+			return value.substring(1, value.length() - 1);
+
+		return value;
+	}
+}
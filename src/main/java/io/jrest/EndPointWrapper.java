@@ -1,16 +1,27 @@
 package io.jrest;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 class EndPointWrapper<P, Q> {
 	private EndPoint<Q,P> endpoint;
 	private MediaType consumes;
 	private MediaType produces;
 	private Class<P> bodyType;
+	private Marshaller.Decoder<P> decoder;
+	
+	/** Metrics of the route this endpoint is registered on, null for response handlers **/
+	RouteMetrics metrics;
+	
+	/** Limit on how often each client can call this endpoint, null for none **/
+	RateLimit rateLimit;
 
 	public EndPointWrapper(EndPoint<Q,P> endpoint, MediaType consumes, MediaType produces, Class<P> bodyType) {
 		this.endpoint = endpoint;
 		this.consumes = consumes;
 		this.produces = produces;
 		this.bodyType = bodyType;
+		this.decoder = RestUtil.getDecoder(bodyType);
 	}
 
 	/**
@@ -41,25 +52,28 @@ class EndPointWrapper<P, Q> {
 		return this.bodyType;
 	}
 
+	/**
+	 * Decode a request body in to {@link #getBodyType()}. Bodies sent as a media type with a registered
+	 * marshaller use that marshaller, anything else uses the decode path resolved at registration.
+	 * @throws MarshallerException if the body is not valid for the body type
+	 */
+	public P decodeBody(InputStream body, String contentType) throws IOException {
+		Marshaller marshaller = JRest.marshallers.get(contentType);
+		if ( marshaller == null || marshaller == RestUtil.getJsonMarshaller() )
+			return decoder.decode(body);
+		
+		return marshaller.getDecoder(bodyType).decode(body);
+	}
+
 	/**
 	 * Query the endpoint with a given request object.
+	 * @throws MarshallerException if the endpoint reads a body that can not be decoded
 	 */
 	public ResponseEntity<Q> query(HttpRequest<P> request) {
 		try {
-			HttpRequest<P> useRequest = new HttpRequest<P>(request.getMethod(), request.getHeaders(), request.getBody());
-			useRequest.uri = request.getURI();
-			useRequest.urlParams = request.getUrlParameters();
-			useRequest.cookies = request.getCookies();
-			
-			if ( request.hasSession() )
-				useRequest.setSession(request.session());
-			
-			ResponseEntity<Q> response = getEndpoint().run(useRequest);
-			
-			if ( useRequest.hasSession() )
-				request.setSession(useRequest.session());
-			
-			return response;
+			return getEndpoint().run(request);
+		} catch (MarshallerException e) {
+			throw e;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
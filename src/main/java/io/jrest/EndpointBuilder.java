@@ -8,6 +8,7 @@ public class EndpointBuilder<P,Q> {
 	private Class<P> receiveType;
 	private Class<Q> returnType;
 	private EndPoint<Q,P> callback;
+	private RateLimit rateLimit;
 	
 	public EndpointBuilder() {
 		this(null);
@@ -57,6 +58,14 @@ public class EndpointBuilder<P,Q> {
 		this.callback = callback;
 		return this;
 	}
+	
+	/**
+	 * Limit how often each client can call the endpoint. Null for no limit, the default.
+	 */
+	public EndpointBuilder<P,Q> setRateLimit(RateLimit rateLimit) {
+		this.rateLimit = rateLimit;
+		return this;
+	}
 
 	public String getEndpoint() {
 		return this.endpoint;
@@ -82,6 +91,10 @@ public class EndpointBuilder<P,Q> {
 		return this.returnType;
 	}
 
+	public RateLimit getRateLimit() {
+		return this.rateLimit;
+	}
+
 	protected EndPoint<Q,P> getRequest() {
 		return callback;
 	}
@@ -0,0 +1,139 @@
+package io.jrest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the same events to every {@link EventStream} subscribed to it. Each event is encoded once, and
+ * the encoded bytes are queued on every subscriber as they are, so a broadcast costs the same to encode
+ * for one subscriber as for thousands. A subscriber whose send queue is full is a slow consumer, handled
+ * by the hub's {@link SlowConsumerPolicy}.
+ */
+public class EventHub {
+
+	/**
+	 * What happens to a subscriber that has not caught up with earlier events when a new one is broadcast.
+	 */
+	public enum SlowConsumerPolicy {
+		/** The subscriber misses the event, and gets later ones once it has caught up **/
+		DROP_EVENTS,
+
+		/** The subscriber is disconnected, EventSource clients reconnect and can resume from their last event id **/
+		DISCONNECT;
+	}
+
+	private final Set<EventStream> subscribers = ConcurrentHashMap.newKeySet();
+
+	private volatile SlowConsumerPolicy slowConsumerPolicy;
+
+	/** Events subscribers missed because their queue was full **/
+	private final LongAdder droppedEvents = new LongAdder();
+
+	/** Subscribers disconnected for being too slow **/
+	private final LongAdder disconnected = new LongAdder();
+
+	public EventHub() {
+		this(SlowConsumerPolicy.DROP_EVENTS);
+	}
+
+	public EventHub(SlowConsumerPolicy slowConsumerPolicy) {
+		this.slowConsumerPolicy = slowConsumerPolicy;
+	}
+
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return this.slowConsumerPolicy;
+	}
+
+	public EventHub setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+		this.slowConsumerPolicy = slowConsumerPolicy;
+		return this;
+	}
+
+	/**
+	 * Send the stream every event broadcast from now on, until it closes.
+	 */
+	public EventHub subscribe(EventStream stream) {
+		if ( !stream.isOpen() )
+			return this;
+
+		subscribers.add(stream);
+		stream.hubs.add(this);
+
+		// Closed meanwhile, it might have left its hubs before this one was added
+		if ( !stream.isOpen() )
+			unsubscribe(stream);
+		return this;
+	}
+
+	public EventHub unsubscribe(EventStream stream) {
+		subscribers.remove(stream);
+		stream.hubs.remove(this);
+		return this;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * Events not sent to subscribers that were behind, with {@link SlowConsumerPolicy#DROP_EVENTS}.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.sum();
+	}
+
+	/**
+	 * Subscribers disconnected for being behind, with {@link SlowConsumerPolicy#DISCONNECT}.
+	 */
+	public long getDisconnected() {
+		return disconnected.sum();
+	}
+
+	/**
+	 * Send an unnamed event to every subscriber. Returns how many it was queued for.
+	 */
+	public int broadcast(Object data) {
+		return broadcast(null, null, data);
+	}
+
+	/**
+	 * Send a named event to every subscriber. Returns how many it was queued for.
+	 */
+	public int broadcast(String event, Object data) {
+		return broadcast(null, event, data);
+	}
+
+	/**
+	 * Send an event with an id to every subscriber. Returns how many it was queued for.
+	 */
+	public int broadcast(String id, String event, Object data) {
+		byte[] encoded = EventStream.encode(id, event, data);
+		SlowConsumerPolicy policy = this.slowConsumerPolicy;
+
+		int sent = 0;
+		for (EventStream subscriber : subscribers) {
+			if ( subscriber.enqueue(encoded) ) {
+				sent++;
+				continue;
+			}
+
+			if ( !subscriber.isOpen() ) {
+				unsubscribe(subscriber);
+			} else if ( policy == SlowConsumerPolicy.DISCONNECT ) {
+				unsubscribe(subscriber);
+				subscriber.disconnect();
+				disconnected.increment();
+			} else {
+				droppedEvents.increment();
+			}
+		}
+
+		return sent;
+	}
+
+	@Override
+	public String toString() {
+		return "EventHub[" + subscribers.size() + " subscribers, " + slowConsumerPolicy + "]";
+	}
+}
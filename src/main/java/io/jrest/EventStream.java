@@ -0,0 +1,415 @@
+package io.jrest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A client's connection to an event stream endpoint (text/event-stream, the format of the browser's
+ * EventSource). The response is kept open and events are written to it as they are sent. Like a
+ * {@link WebSocket}, events are queued and written by a worker, and the queue is bounded by
+ * {@link JRest#setEventStreamSendQueue(int)} bytes so a slow client can not make the server hold
+ * everything sent to it. To send the same events to many clients, subscribe them to an {@link EventHub}.
+ */
+public class EventStream {
+
+	/** Milliseconds between checks of the connection while the client sends nothing **/
+	private static final int IDLE_CHECK = 1000;
+
+	/** Milliseconds to wait for queued events to be written, and for the client to close after the server did **/
+	private static final int CLOSE_TIMEOUT = 2000;
+
+	/** Comment line that keeps idle connections open through proxies **/
+	private static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final JRest server;
+
+	private final Socket socket;
+
+	private final InputStream input;
+
+	/** Written by the connection thread until the response head is out, then only by the worker draining the queue **/
+	private final OutputStream output;
+
+	private final Executor workers;
+
+	private final EventStreamHandler handler;
+
+	private final HttpRequest<?> request;
+
+	/** Encoded events waiting to be written, guarded by itself **/
+	private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+	private int queuedBytes;
+
+	/** Whether a worker is draining the queue **/
+	private boolean writing;
+
+	/** Whether the server closed the stream, nothing can be sent after it **/
+	private boolean closed;
+
+	private long closedAt;
+
+	private volatile boolean open;
+
+	/** When something was last written to the client, to know when a keep alive is due **/
+	private volatile long lastWritten;
+
+	/** Hubs the stream is subscribed to, left when it closes **/
+	final List<EventHub> hubs = new CopyOnWriteArrayList<>();
+
+	private final int maxQueuedBytes;
+
+	private final long keepAliveInterval;
+
+	EventStream(JRest server, Socket socket, InputStream input, Executor workers, EventStreamHandler handler, HttpRequest<?> request) throws IOException {
+		this.server = server;
+		this.socket = socket;
+		this.input = input;
+		this.output = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		this.workers = workers;
+		this.handler = handler;
+		this.request = request;
+		this.maxQueuedBytes = server.getEventStreamSendQueue();
+		this.keepAliveInterval = server.getEventStreamKeepAlive();
+	}
+
+	/**
+	 * The request the client opened the stream with, for its headers, parameters and session.
+	 */
+	public HttpRequest<?> getRequest() {
+		return this.request;
+	}
+
+	/**
+	 * Id of the last event a reconnecting client received, from its Last-Event-ID header, or null.
+	 */
+	public String getLastEventId() {
+		return this.request.getHeaders().get(HttpHeaders.LAST_EVENT_ID);
+	}
+
+	/**
+	 * Returns whether events can be sent.
+	 */
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Bytes queued that the client has not been sent yet.
+	 */
+	public int getQueuedBytes() {
+		synchronized (queue) {
+			return this.queuedBytes;
+		}
+	}
+
+	/**
+	 * Send an unnamed event. Strings are sent as they are, anything else encoded as JSON.
+	 * Returns false if the stream is closed or the send queue is full.
+	 */
+	public boolean send(Object data) {
+		return send(null, null, data);
+	}
+
+	/**
+	 * Send a named event, which EventSource clients receive through addEventListener(event, ...).
+	 * Returns false if the stream is closed or the send queue is full.
+	 */
+	public boolean send(String event, Object data) {
+		return send(null, event, data);
+	}
+
+	/**
+	 * Send an event with an id, sent back by a reconnecting client in its Last-Event-ID header.
+	 * Returns false if the stream is closed or the send queue is full.
+	 */
+	public boolean send(String id, String event, Object data) {
+		return enqueue(encode(id, event, data));
+	}
+
+	/**
+	 * End the stream once the events queued so far are written.
+	 */
+	public void close() {
+		synchronized (queue) {
+			if ( closed )
+				return;
+
+			closed = true;
+			closedAt = System.currentTimeMillis();
+			open = false;
+
+			// The worker ends the response when it finishes the queue
+			if ( writing )
+				return;
+		}
+
+		endResponse();
+	}
+
+	/**
+	 * Encode an event in the text/event-stream format. Each line of the data is sent as a data field.
+	 */
+	static byte[] encode(String id, String event, Object data) {
+		String text;
+		if ( data instanceof String ) {
+			text = (String) data;
+		} else {
+			try {
+				text = new String(RestUtil.getJsonMarshaller().encode(data), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new MarshallerException("Could not encode event: " + e.getMessage(), e);
+			}
+		}
+
+		StringBuilder builder = new StringBuilder(text.length() + 32);
+		if ( id != null )
+			field(builder, "id", id);
+		if ( event != null )
+			field(builder, "event", event);
+
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ( c != '\n' && c != '\r' )
+				continue;
+
+			builder.append("data: ").append(text, start, i).append('\n');
+			if ( c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n' )
+				i++;
+			start = i + 1;
+		}
+		builder.append("data: ").append(text, start, text.length()).append("\n\n");
+
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void field(StringBuilder builder, String name, String value) {
+		if ( value.indexOf('\n') != -1 || value.indexOf('\r') != -1 )
+			throw new IllegalArgumentException("Event " + name + " can not contain line breaks");
+
+		builder.append(name).append(": ").append(value).append('\n');
+	}
+
+	/**
+	 * Queue an encoded event, starting a worker to write it if none is. The same array can be queued
+	 * on many streams, it is never changed.
+	 */
+	boolean enqueue(byte[] event) {
+		synchronized (queue) {
+			if ( closed )
+				return false;
+
+			// An event larger than the whole queue still goes out on its own
+			if ( queuedBytes > 0 && queuedBytes + event.length > maxQueuedBytes )
+				return false;
+
+			queue.add(event);
+			queuedBytes += event.length;
+			if ( writing )
+				return true;
+
+			writing = true;
+		}
+
+		try {
+			workers.execute(this::writeQueued);
+		} catch (RejectedExecutionException e) {
+			// Server stopped, nothing will write the queue
+			abort();
+		}
+		return true;
+	}
+
+	/**
+	 * Write queued events until the queue is empty.
+	 */
+	private void writeQueued() {
+		try {
+			while (true) {
+				byte[] event;
+				synchronized (queue) {
+					event = queue.poll();
+				}
+
+				if ( event == null ) {
+					// Flush outside the lock, then check again for events queued meanwhile
+					output.flush();
+					lastWritten = System.currentTimeMillis();
+					boolean end;
+					synchronized (queue) {
+						if ( !queue.isEmpty() )
+							continue;
+
+						writing = false;
+						end = closed;
+						queue.notifyAll();
+					}
+
+					if ( end )
+						endResponse();
+					return;
+				}
+
+				output.write(event);
+				synchronized (queue) {
+					queuedBytes -= event.length;
+				}
+			}
+		} catch (IOException e) {
+			abort();
+		}
+	}
+
+	/**
+	 * Drop the connection without writing what is still queued.
+	 */
+	void disconnect() {
+		abort();
+	}
+
+	/**
+	 * Tell the client the response is complete, it closes the connection in turn.
+	 */
+	private void endResponse() {
+		try {
+			socket.shutdownOutput();
+		} catch (IOException e) {
+			abort();
+		}
+	}
+
+	/**
+	 * Drop the connection, the reader stops as the client went away.
+	 */
+	private void abort() {
+		synchronized (queue) {
+			queue.clear();
+			queuedBytes = 0;
+			writing = false;
+			if ( !closed ) {
+				closed = true;
+				closedAt = System.currentTimeMillis();
+			}
+			open = false;
+			queue.notifyAll();
+		}
+
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Closed already
+		}
+	}
+
+	/**
+	 * Wait for queued events to be written.
+	 */
+	private void awaitWritten(long millis) throws InterruptedIOException {
+		long deadline = System.currentTimeMillis() + millis;
+		synchronized (queue) {
+			long left;
+			while (writing && (left = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					queue.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted writing events");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the response head and keep the connection open until the client or the server closes it.
+	 * Clients send nothing on an event stream, reading only finds out when they go away.
+	 */
+	void serve() {
+		try {
+			HttpHeaders headers = HttpHeaders.empty()
+					.put(HttpHeaders.CACHE_CONTROL, "no-cache")
+					.put(HttpHeaders.CONNECTION, "close");
+			StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+			for (Entry<String, String> header : RestUtil.getResponseHeaders(server.getServerName(), headers).entrySet())
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			head.append(HttpHeaders.CONTENT_TYPE).append(": ").append(MediaType.TEXT_EVENT_STREAM_VALUE).append("; charset=utf-8\r\n\r\n");
+			output.write(head.toString().getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			lastWritten = System.currentTimeMillis();
+			socket.setSoTimeout(keepAliveInterval > 0 ? (int) Math.max(1, Math.min(IDLE_CHECK, keepAliveInterval / 2)) : IDLE_CHECK);
+		} catch (IOException e) {
+			return;
+		}
+
+		open = true;
+		try {
+			handler.onOpen(this);
+
+			byte[] ignored = new byte[256];
+			while (true) {
+				if ( open && (server.isDraining() || !server.isStarted()) )
+					close();
+
+				int read;
+				try {
+					read = input.read(ignored);
+				} catch (SocketTimeoutException e) {
+					long now = System.currentTimeMillis();
+					synchronized (queue) {
+						if ( closed && now - closedAt > CLOSE_TIMEOUT )
+							break;
+					}
+
+					if ( open && keepAliveInterval > 0 && now - lastWritten >= keepAliveInterval && getQueuedBytes() == 0 )
+						enqueue(KEEP_ALIVE);
+					continue;
+				}
+
+				if ( read == -1 )
+					break;
+			}
+		} catch (IOException e) {
+			// Connection lost
+		} catch (RuntimeException e) {
+			server.getLogger().error(e);
+			close();
+		} finally {
+			try {
+				awaitWritten(CLOSE_TIMEOUT);
+			} catch (InterruptedIOException e) {
+				// Closing anyway
+			}
+
+			synchronized (queue) {
+				closed = true;
+				open = false;
+			}
+
+			for (EventHub hub : hubs)
+				hub.unsubscribe(this);
+
+			try {
+				handler.onClose(this);
+			} catch (RuntimeException e) {
+				server.getLogger().error(e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EventStream[" + request.getPath() + ", " + request.getRemoteAddress() + ":" + request.getRemotePort() + "]";
+	}
+}
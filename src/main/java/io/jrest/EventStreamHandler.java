@@ -0,0 +1,20 @@
+package io.jrest;
+
+/**
+ * Business logic of an event stream endpoint, see {@link JRest#addEventStream(String, EventStreamHandler)}.
+ */
+@FunctionalInterface
+public interface EventStreamHandler {
+
+	/**
+	 * A client connected. Events can be sent from here on, from any thread, or the stream subscribed to a hub.
+	 */
+	public void onOpen(EventStream stream);
+
+	/**
+	 * The stream closed, because the client went away, the server closed it, or the server is stopping.
+	 */
+	public default void onClose(EventStream stream) {
+		//
+	}
+}
@@ -0,0 +1,20 @@
+package io.jrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a DTO class for which JRest generates a serializer at compile time (see {@link SerializerProcessor}).
+ * The generated serializer reads and writes the DTO without reflection, and is used by the json and cbor
+ * marshallers instead of Gson. Fields are serialized by name like Gson does; static and transient fields are skipped.
+ * Private fields need a getter and setter. The class needs a no-argument constructor.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateSerializer {
+	//
+}
@@ -0,0 +1,249 @@
+package io.jrest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class of the serializers generated for {@link GenerateSerializer} DTOs. Generated serializers are
+ * found with {@link ServiceLoader} the first time a serializer is looked up, and can also be registered by hand.
+ * Bodies are read from the same trees of Maps, Lists and primitives the marshallers already decode in to.
+ */
+public abstract class GeneratedSerializer<T> {
+
+	/** Serializers by DTO type **/
+	private static final Map<Class<?>, GeneratedSerializer<?>> serializers = new ConcurrentHashMap<>();
+
+	/** Whether generated serializers on the class path have been registered **/
+	private static volatile boolean loaded;
+
+	/**
+	 * Returns the DTO type this serializer handles.
+	 */
+	public abstract Class<T> getType();
+
+	/**
+	 * Write a DTO as a json object.
+	 */
+	public abstract void write(T value, StringBuilder out);
+
+	/**
+	 * Convert a DTO in to a Map of its fields. Values are not converted further.
+	 */
+	public abstract Map<String, Object> toTree(T value);
+
+	/**
+	 * Create a DTO from a decoded json or cbor object.
+	 */
+	protected abstract T fromTree(Map<?, ?> tree);
+
+	/**
+	 * Create a DTO from a decoded json or cbor value.
+	 * @throws MarshallerException if the value is not an object or a field has the wrong type
+	 */
+	public T decode(Object tree) {
+		if ( tree == null )
+			return null;
+
+		if ( !(tree instanceof Map) )
+			throw new MarshallerException("Could not decode body as " + getType().getSimpleName() + ": found " + tree.getClass().getSimpleName());
+
+		try {
+			return fromTree((Map<?, ?>) tree);
+		} catch(MarshallerException e) {
+			throw e;
+		} catch(RuntimeException e) {
+			throw new MarshallerException("Could not decode body as " + getType().getSimpleName() + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Register a serializer, replacing any serializer already registered for its type.
+	 */
+	public static void register(GeneratedSerializer<?> serializer) {
+		serializers.put(serializer.getType(), serializer);
+	}
+
+	/**
+	 * Get the serializer for a DTO type. Returns null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> GeneratedSerializer<T> get(Class<T> type) {
+		if ( !loaded )
+			load();
+
+		return (GeneratedSerializer<T>) serializers.get(type);
+	}
+
+	/**
+	 * Write a value as json if it has a serializer. Returns false if it does not.
+	 */
+	@SuppressWarnings("unchecked")
+	static boolean writeJson(Object value, StringBuilder out) {
+		GeneratedSerializer<Object> serializer = (GeneratedSerializer<Object>) get(value.getClass());
+		if ( serializer == null )
+			return false;
+
+		serializer.write(value, out);
+		return true;
+	}
+
+	/**
+	 * Convert a value in to a Map of its fields if it has a serializer. Returns null if it does not.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> toTreeOf(Object value) {
+		GeneratedSerializer<Object> serializer = (GeneratedSerializer<Object>) get(value.getClass());
+		return serializer == null ? null : serializer.toTree(value);
+	}
+
+	private static synchronized void load() {
+		if ( loaded )
+			return;
+
+		load(GeneratedSerializer.class.getClassLoader());
+		ClassLoader context = Thread.currentThread().getContextClassLoader();
+		if ( context != null && context != GeneratedSerializer.class.getClassLoader() )
+			load(context);
+
+		loaded = true;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void load(ClassLoader loader) {
+		try {
+			for (GeneratedSerializer serializer : ServiceLoader.load(GeneratedSerializer.class, loader))
+				serializers.putIfAbsent(serializer.getType(), serializer);
+		} catch(ServiceConfigurationError e) {
+			System.err.println("Could not load generated serializers: " + e.getMessage());
+		}
+	}
+
+	protected static int toInt(Object value) {
+		return value instanceof String ? Integer.parseInt((String) value) : toNumber(value).intValue();
+	}
+
+	protected static long toLong(Object value) {
+		return value instanceof String ? Long.parseLong((String) value) : toNumber(value).longValue();
+	}
+
+	protected static short toShort(Object value) {
+		return value instanceof String ? Short.parseShort((String) value) : toNumber(value).shortValue();
+	}
+
+	protected static byte toByte(Object value) {
+		return value instanceof String ? Byte.parseByte((String) value) : toNumber(value).byteValue();
+	}
+
+	protected static double toDouble(Object value) {
+		return value instanceof String ? Double.parseDouble((String) value) : toNumber(value).doubleValue();
+	}
+
+	protected static float toFloat(Object value) {
+		return value instanceof String ? Float.parseFloat((String) value) : toNumber(value).floatValue();
+	}
+
+	protected static boolean toBoolean(Object value) {
+		return value instanceof String ? Boolean.parseBoolean((String) value) : (Boolean) value;
+	}
+
+	protected static char toChar(Object value) {
+		String string = toStr(value);
+		if ( string.length() != 1 )
+			throw new MarshallerException("Expected a single character: " + string);
+
+		return string.charAt(0);
+	}
+
+	protected static String toStr(Object value) {
+		return value instanceof String ? (String) value : String.valueOf(value);
+	}
+
+	/**
+	 * Convert a decoded value to any supported type: primitives, enums, Maps, Lists and DTOs with a serializer.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static <X> X convert(Object value, Class<X> type) {
+		if ( value == null || type.isInstance(value) )
+			return (X) value;
+
+		if ( type == Integer.class )
+			return (X) Integer.valueOf(toInt(value));
+		if ( type == Long.class )
+			return (X) Long.valueOf(toLong(value));
+		if ( type == Double.class )
+			return (X) Double.valueOf(toDouble(value));
+		if ( type == Float.class )
+			return (X) Float.valueOf(toFloat(value));
+		if ( type == Short.class )
+			return (X) Short.valueOf(toShort(value));
+		if ( type == Byte.class )
+			return (X) Byte.valueOf(toByte(value));
+		if ( type == Boolean.class )
+			return (X) Boolean.valueOf(toBoolean(value));
+		if ( type == Character.class )
+			return (X) Character.valueOf(toChar(value));
+		if ( type == String.class )
+			return (X) toStr(value);
+		if ( type.isEnum() )
+			return (X) Enum.valueOf((Class<Enum>) type, toStr(value));
+
+		GeneratedSerializer<X> serializer = get(type);
+		if ( serializer != null )
+			return serializer.decode(value);
+
+		throw new MarshallerException("Cannot convert " + value.getClass().getSimpleName() + " to " + type.getSimpleName() + ": no generated serializer");
+	}
+
+	protected static <E> ArrayList<E> toList(Object value, Class<E> elementType) {
+		if ( !(value instanceof Iterable) )
+			throw new MarshallerException("Expected an array, found " + value.getClass().getSimpleName());
+
+		ArrayList<E> list = value instanceof List ? new ArrayList<>(((List<?>) value).size()) : new ArrayList<>();
+		for (Object element : (Iterable<?>) value)
+			list.add(convert(element, elementType));
+
+		return list;
+	}
+
+	protected static <E> LinkedHashSet<E> toSet(Object value, Class<E> elementType) {
+		return new LinkedHashSet<>(toList(value, elementType));
+	}
+
+	protected static <V> LinkedHashMap<String, V> toMap(Object value, Class<V> valueType) {
+		if ( !(value instanceof Map) )
+			throw new MarshallerException("Expected an object, found " + value.getClass().getSimpleName());
+
+		LinkedHashMap<String, V> map = new LinkedHashMap<>();
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+			map.put(String.valueOf(entry.getKey()), convert(entry.getValue(), valueType));
+
+		return map;
+	}
+
+	/**
+	 * Write a json string, or null.
+	 */
+	protected static void writeString(String value, StringBuilder out) {
+		if ( value == null )
+			out.append("null");
+		else
+			MarshallerJson.writeString(value, out);
+	}
+
+	protected static void writeNumber(double value, StringBuilder out) {
+		MarshallerJson.writeNumber(value, out);
+	}
+
+	private static Number toNumber(Object value) {
+		if ( value instanceof Number )
+			return (Number) value;
+
+		throw new MarshallerException("Expected a number, found " + value.getClass().getSimpleName());
+	}
+}
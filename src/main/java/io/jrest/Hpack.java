@@ -0,0 +1,512 @@
+package io.jrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541). Each connection has a decoder for the headers it
+ * receives and an encoder for the headers it sends, each with its own dynamic table. Names and values are
+ * ISO-8859-1, like headers read from HTTP/1.1, so a character is an octet.
+ */
+final class Hpack {
+
+	/** Size of the dynamic tables, the default every peer starts with **/
+	static final int TABLE_SIZE = 4096;
+
+	/** Entries 1 to 61, shared by every connection **/
+	private static final String[][] STATIC_TABLE = {
+		{ ":authority", "" },
+		{ ":method", "GET" },
+		{ ":method", "POST" },
+		{ ":path", "/" },
+		{ ":path", "/index.html" },
+		{ ":scheme", "http" },
+		{ ":scheme", "https" },
+		{ ":status", "200" },
+		{ ":status", "204" },
+		{ ":status", "206" },
+		{ ":status", "304" },
+		{ ":status", "400" },
+		{ ":status", "404" },
+		{ ":status", "500" },
+		{ "accept-charset", "" },
+		{ "accept-encoding", "gzip, deflate" },
+		{ "accept-language", "" },
+		{ "accept-ranges", "" },
+		{ "accept", "" },
+		{ "access-control-allow-origin", "" },
+		{ "age", "" },
+		{ "allow", "" },
+		{ "authorization", "" },
+		{ "cache-control", "" },
+		{ "content-disposition", "" },
+		{ "content-encoding", "" },
+		{ "content-language", "" },
+		{ "content-length", "" },
+		{ "content-location", "" },
+		{ "content-range", "" },
+		{ "content-type", "" },
+		{ "cookie", "" },
+		{ "date", "" },
+		{ "etag", "" },
+		{ "expect", "" },
+		{ "expires", "" },
+		{ "from", "" },
+		{ "host", "" },
+		{ "if-match", "" },
+		{ "if-modified-since", "" },
+		{ "if-none-match", "" },
+		{ "if-range", "" },
+		{ "if-unmodified-since", "" },
+		{ "last-modified", "" },
+		{ "link", "" },
+		{ "location", "" },
+		{ "max-forwards", "" },
+		{ "proxy-authenticate", "" },
+		{ "proxy-authorization", "" },
+		{ "range", "" },
+		{ "referer", "" },
+		{ "refresh", "" },
+		{ "retry-after", "" },
+		{ "server", "" },
+		{ "set-cookie", "" },
+		{ "strict-transport-security", "" },
+		{ "transfer-encoding", "" },
+		{ "user-agent", "" },
+		{ "vary", "" },
+		{ "via", "" },
+		{ "www-authenticate", "" }
+	};
+
+	/** Huffman code of each octet, in the low bits **/
+	private static final int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+		0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+		0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+		0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+		0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+		0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+		0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+		0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+		0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+		0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+		0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+		0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+		0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+		0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+		0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+		0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+		0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+		0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+		0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+		0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+		0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+		0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+	};
+
+	/** Length in bits of each Huffman code **/
+	private static final byte[] HUFFMAN_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+	};
+
+	/** End of string code, only ever seen as padding **/
+	private static final int EOS_CODE = 0x3fffffff;
+
+	private static final int EOS_LENGTH = 30;
+
+	/** Huffman decoding tree. Node n has its 0 child at 2n and its 1 child at 2n + 1, leaves are -1 - symbol **/
+	private static final int[] HUFFMAN_TREE = buildTree();
+
+	/** Static table index of the first entry with each name **/
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+	static {
+		for (int i = STATIC_TABLE.length - 1; i >= 0; i--)
+			STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+	}
+
+	private Hpack() {
+		//
+	}
+
+	private static int[] buildTree() {
+		int[] tree = new int[2 * 256];
+		int nodes = 1;
+		for (int symbol = 0; symbol <= 256; symbol++) {
+			int code = symbol == 256 ? EOS_CODE : HUFFMAN_CODES[symbol];
+			int length = symbol == 256 ? EOS_LENGTH : HUFFMAN_LENGTHS[symbol];
+			int node = 0;
+			for (int bit = length - 1; bit > 0; bit--) {
+				int child = 2 * node + ((code >>> bit) & 1);
+				if ( tree[child] == 0 )
+					tree[child] = nodes++;
+				node = tree[child];
+			}
+			tree[2 * node + (code & 1)] = -1 - symbol;
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Header decoding failed. The connection can not go on, the dynamic table may no longer match the peer's.
+	 */
+	static class HpackException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		HpackException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Entries added while coding header blocks, newest last. Oldest entries are evicted to stay within the size.
+	 */
+	static final class Table {
+		private final List<String[]> entries = new ArrayList<>();
+
+		private int size;
+
+		private int maxSize;
+
+		Table(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		/**
+		 * Entry at an index counted from 1 across the static and then the dynamic table.
+		 */
+		String[] get(int index) throws HpackException {
+			if ( index > 0 && index <= STATIC_TABLE.length )
+				return STATIC_TABLE[index - 1];
+
+			int dynamic = index - STATIC_TABLE.length - 1;
+			if ( index <= 0 || dynamic >= entries.size() )
+				throw new HpackException("Header table has no index " + index);
+
+			return entries.get(entries.size() - 1 - dynamic);
+		}
+
+		void add(String name, String value) {
+			int entrySize = entrySize(name, value);
+			evict(maxSize - entrySize);
+
+			// Too large entries empty the table and are not added
+			if ( entrySize <= maxSize ) {
+				entries.add(new String[] { name, value });
+				size += entrySize;
+			}
+		}
+
+		void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+			evict(maxSize);
+		}
+
+		int getMaxSize() {
+			return this.maxSize;
+		}
+
+		/**
+		 * Index of an entry with a name and value, or with just the name as a negative index, 0 if neither is found.
+		 */
+		int find(String name, String value) {
+			int nameIndex = 0;
+			Integer staticIndex = STATIC_NAMES.get(name);
+			if ( staticIndex != null ) {
+				for (int i = staticIndex; i <= STATIC_TABLE.length && STATIC_TABLE[i - 1][0].equals(name); i++) {
+					if ( STATIC_TABLE[i - 1][1].equals(value) )
+						return i;
+				}
+				nameIndex = -staticIndex;
+			}
+
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				String[] entry = entries.get(i);
+				if ( !entry[0].equals(name) )
+					continue;
+
+				int index = STATIC_TABLE.length + entries.size() - i;
+				if ( entry[1].equals(value) )
+					return index;
+				if ( nameIndex == 0 )
+					nameIndex = -index;
+			}
+
+			return nameIndex;
+		}
+
+		private void evict(int available) {
+			while (size > Math.max(available, 0) && !entries.isEmpty()) {
+				String[] oldest = entries.remove(0);
+				size -= entrySize(oldest[0], oldest[1]);
+			}
+		}
+
+		private static int entrySize(String name, String value) {
+			return name.length() + value.length() + 32;
+		}
+	}
+
+	/**
+	 * Decodes the header blocks a connection receives. Not thread safe, blocks must be decoded in the order they arrive.
+	 */
+	static final class Decoder {
+		private final Table table = new Table(TABLE_SIZE);
+
+		private byte[] block;
+
+		private int position;
+
+		private int end;
+
+		/**
+		 * Decode a complete header block in to name and value pairs.
+		 */
+		List<String[]> decode(byte[] block, int offset, int length) throws HpackException {
+			this.block = block;
+			this.position = offset;
+			this.end = offset + length;
+
+			List<String[]> headers = new ArrayList<>();
+			while (position < end) {
+				int b = block[position] & 0xff;
+				if ( (b & 0x80) != 0 ) {
+					// Indexed
+					String[] entry = table.get(readInt(7));
+					headers.add(entry);
+				} else if ( (b & 0x40) != 0 ) {
+					// Literal, added to the table
+					String[] header = readLiteral(6);
+					table.add(header[0], header[1]);
+					headers.add(header);
+				} else if ( (b & 0x20) != 0 ) {
+					// Table size update, never more than we allow
+					int size = readInt(5);
+					if ( size > TABLE_SIZE )
+						throw new HpackException("Header table size " + size + " is larger than " + TABLE_SIZE);
+					table.setMaxSize(size);
+				} else {
+					// Literal, never or not indexed
+					headers.add(readLiteral(4));
+				}
+			}
+
+			this.block = null;
+			return headers;
+		}
+
+		private String[] readLiteral(int prefix) throws HpackException {
+			int index = readInt(prefix);
+			String name = index == 0 ? readString() : table.get(index)[0];
+			return new String[] { name, readString() };
+		}
+
+		private int readInt(int prefix) throws HpackException {
+			int max = (1 << prefix) - 1;
+			int value = block[position++] & max;
+			if ( value < max )
+				return value;
+
+			for (int shift = 0; shift <= 21; shift += 7) {
+				if ( position == end )
+					throw new HpackException("Header block ends inside an integer");
+
+				int b = block[position++] & 0xff;
+				value += (b & 0x7f) << shift;
+				if ( (b & 0x80) == 0 )
+					return value;
+			}
+
+			throw new HpackException("Integer in header block is too large");
+		}
+
+		private String readString() throws HpackException {
+			if ( position == end )
+				throw new HpackException("Header block ends before a string");
+
+			boolean huffman = (block[position] & 0x80) != 0;
+			int length = readInt(7);
+			if ( length > end - position )
+				throw new HpackException("String is longer than the header block");
+
+			int start = position;
+			position += length;
+			if ( !huffman )
+				return new String(block, start, length, StandardCharsets.ISO_8859_1);
+
+			return decodeHuffman(block, start, length);
+		}
+
+		private static String decodeHuffman(byte[] data, int offset, int length) throws HpackException {
+			StringBuilder decoded = new StringBuilder(length * 8 / 5);
+			int node = 0;
+			int bits = 0;
+			boolean ones = true;
+			for (int i = offset; i < offset + length; i++) {
+				for (int shift = 7; shift >= 0; shift--) {
+					int bit = (data[i] >>> shift) & 1;
+					int next = HUFFMAN_TREE[2 * node + bit];
+					bits++;
+					ones &= bit == 1;
+					if ( next < 0 ) {
+						if ( next == -1 - 256 )
+							throw new HpackException("Huffman string contains end of string");
+						decoded.append((char) (-1 - next));
+						node = 0;
+						bits = 0;
+						ones = true;
+					} else {
+						node = next;
+					}
+				}
+			}
+
+			// Padding is the start of the end of string code, shorter than an octet
+			if ( bits > 7 || !ones )
+				throw new HpackException("Invalid Huffman padding");
+
+			return decoded.toString();
+		}
+	}
+
+	/**
+	 * Encodes the header blocks a connection sends. Not thread safe, blocks must be sent in the order they are encoded.
+	 */
+	static final class Encoder {
+		private final Table table = new Table(TABLE_SIZE);
+
+		/** Table size to announce at the start of the next block, -1 if it has not changed **/
+		private int sizeUpdate = -1;
+
+		/**
+		 * Use a smaller table, after the peer asked for one in its settings.
+		 */
+		void setMaxTableSize(int size) {
+			size = Math.min(size, TABLE_SIZE);
+			if ( size == table.getMaxSize() )
+				return;
+
+			table.setMaxSize(size);
+			sizeUpdate = size;
+		}
+
+		/**
+		 * Encode headers, names must be lower case. Headers that change with every response are not added to the table,
+		 * and cookies are never indexed, so intermediaries do not index them either.
+		 */
+		byte[] encode(List<String[]> headers) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(headers.size() * 16);
+			if ( sizeUpdate != -1 ) {
+				writeInt(out, 0x20, 5, sizeUpdate);
+				sizeUpdate = -1;
+			}
+
+			for (String[] header : headers) {
+				String name = header[0];
+				String value = header[1];
+				int index = table.find(name, value);
+				if ( index > 0 ) {
+					writeInt(out, 0x80, 7, index);
+					continue;
+				}
+
+				int nameIndex = -index;
+				if ( name.equals("set-cookie") || name.equals("cookie") ) {
+					writeInt(out, 0x10, 4, nameIndex);
+				} else if ( name.equals("content-length") || name.equals("server-timing") || name.equals("date") ) {
+					writeInt(out, 0x00, 4, nameIndex);
+				} else {
+					writeInt(out, 0x40, 6, nameIndex);
+					table.add(name, value);
+				}
+
+				if ( nameIndex == 0 )
+					writeString(out, name);
+				writeString(out, value);
+			}
+
+			return out.toByteArray();
+		}
+
+		private static void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+			int max = (1 << prefix) - 1;
+			if ( value < max ) {
+				out.write(flags | value);
+				return;
+			}
+
+			out.write(flags | max);
+			value -= max;
+			while (value >= 0x80) {
+				out.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+
+		/**
+		 * Write a string, Huffman coded when that is shorter.
+		 */
+		private static void writeString(ByteArrayOutputStream out, String string) {
+			long bits = 0;
+			for (int i = 0; i < string.length(); i++)
+				bits += HUFFMAN_LENGTHS[string.charAt(i) & 0xff];
+
+			int huffmanLength = (int) ((bits + 7) / 8);
+			if ( huffmanLength >= string.length() ) {
+				writeInt(out, 0x00, 7, string.length());
+				for (int i = 0; i < string.length(); i++)
+					out.write(string.charAt(i));
+				return;
+			}
+
+			writeInt(out, 0x80, 7, huffmanLength);
+			long buffer = 0;
+			int buffered = 0;
+			for (int i = 0; i < string.length(); i++) {
+				int symbol = string.charAt(i) & 0xff;
+				buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+				buffered += HUFFMAN_LENGTHS[symbol];
+				while (buffered >= 8) {
+					buffered -= 8;
+					out.write((int) (buffer >>> buffered));
+				}
+			}
+
+			// Pad with the start of the end of string code
+			if ( buffered > 0 )
+				out.write((int) ((buffer << (8 - buffered)) | (0xff >>> buffered)));
+		}
+	}
+}
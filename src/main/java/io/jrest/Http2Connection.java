@@ -0,0 +1,1125 @@
+package io.jrest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpCookie;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Server side of a clear text HTTP/2 connection (h2c, RFC 7540), started with prior knowledge or by upgrading
+ * a HTTP/1.1 request. The thread serving the connection only reads frames: each request is handed to a worker
+ * as soon as its headers are in, so one connection carries many requests at once. Responses are sent within the
+ * windows the client grants, and a request body is granted again as the endpoint reads it, so a client can not
+ * send more than the endpoint keeps up with.
+ */
+final class Http2Connection {
+
+	/** Sent by clients before anything else **/
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Part of the preface that reads like a request head, up to the blank line **/
+	private static final int PREFACE_HEAD = 18;
+
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int PRIORITY = 0x2;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PUSH_PROMISE = 0x5;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+
+	private static final int FLAG_END_STREAM = 0x1;
+	private static final int FLAG_ACK = 0x1;
+	private static final int FLAG_END_HEADERS = 0x4;
+	private static final int FLAG_PADDED = 0x8;
+	private static final int FLAG_PRIORITY = 0x20;
+
+	private static final int NO_ERROR = 0x0;
+	private static final int PROTOCOL_ERROR = 0x1;
+	private static final int INTERNAL_ERROR = 0x2;
+	private static final int FLOW_CONTROL_ERROR = 0x3;
+	private static final int STREAM_CLOSED = 0x5;
+	private static final int FRAME_SIZE_ERROR = 0x6;
+	private static final int REFUSED_STREAM = 0x7;
+	private static final int COMPRESSION_ERROR = 0x9;
+	private static final int ENHANCE_YOUR_CALM = 0xb;
+
+	private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	/** Largest frame payload read, the protocol default **/
+	private static final int MAX_FRAME_SIZE = 16384;
+
+	/** Largest frame payload the protocol allows a peer to ask for **/
+	private static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+
+	/** Largest header block accepted, the same as the largest HTTP/1.1 request head **/
+	private static final int MAX_HEADER_BLOCK = 64 * 1024;
+
+	/** Window of each stream and of the connection until the peer's settings say otherwise **/
+	private static final int DEFAULT_WINDOW = 65535;
+
+	/** Body a client can send on a stream before the endpoint has read any of it **/
+	private static final int STREAM_WINDOW = 256 * 1024;
+
+	/** Data a client can send on the connection before it is granted again, which happens as it arrives **/
+	private static final int CONNECTION_WINDOW = 1024 * 1024;
+
+	/** Milliseconds between checks of whether the server is going away while the connection is idle **/
+	private static final int IDLE_CHECK = 1000;
+
+	/** Connection specific headers, which HTTP/2 does not allow **/
+	private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"));
+
+	private final JRest server;
+
+	private final Socket socket;
+
+	private final InputStream input;
+
+	/** Frames are written whole under this lock **/
+	private final OutputStream output;
+
+	private final Executor workers;
+
+	private final StreamHandler handler;
+
+	private final int maxConcurrentStreams;
+
+	/** Streams being answered **/
+	private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+	private final Hpack.Decoder decoder = new Hpack.Decoder();
+
+	/** Guarded by output, blocks have to be sent in the order they are encoded **/
+	private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+	private final byte[] frameHead = new byte[9];
+
+	private final byte[] frame = new byte[MAX_FRAME_SIZE];
+
+	/** Header block being read from a HEADERS frame and its CONTINUATION frames **/
+	private ByteArrayOutputStream headerBlock;
+
+	private int headerStreamId;
+
+	private boolean headerEndStream;
+
+	/** Highest stream the client started **/
+	private int lastStreamId;
+
+	/** Data received since the connection window was last granted again **/
+	private int received;
+
+	/** Connection window of the client, and the window new streams start with. Guarded by this **/
+	private int sendWindow = DEFAULT_WINDOW;
+
+	private int initialSendWindow = DEFAULT_WINDOW;
+
+	private volatile int peerMaxFrameSize = MAX_FRAME_SIZE;
+
+	/** Whether either side sent GOAWAY, no new streams are started once it has **/
+	private volatile boolean goingAway;
+
+	private boolean goAwaySent;
+
+	private volatile boolean closed;
+
+	/**
+	 * Answers the request of a stream, on a worker.
+	 */
+	interface StreamHandler {
+		void handle(Stream stream) throws IOException;
+	}
+
+	/**
+	 * A connection whose preface, or upgrade request, has been read from an input stream.
+	 */
+	Http2Connection(JRest server, Socket socket, InputStream input, Executor workers, StreamHandler handler) throws IOException {
+		this.server = server;
+		this.socket = socket;
+		this.input = input;
+		this.output = new BufferedOutputStream(socket.getOutputStream(), MAX_FRAME_SIZE + frameHead.length);
+		this.workers = workers;
+		this.handler = handler;
+		this.maxConcurrentStreams = server.getMaxConcurrentStreams();
+	}
+
+	/**
+	 * Returns whether a request head is the start of the HTTP/2 preface.
+	 */
+	static boolean isPreface(byte[] head) {
+		if ( head.length != PREFACE_HEAD )
+			return false;
+
+		for (int i = 0; i < PREFACE_HEAD; i++) {
+			if ( head[i] != PREFACE[i] )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Serve the connection until the client closes it, or until it has gone away and its last stream is answered.
+	 * A request the connection was upgraded with is answered on stream 1, with the settings the client sent along.
+	 */
+	void serve(HttpRequest<?> upgraded, byte[] upgradeSettings) throws IOException {
+		try {
+			socket.setSoTimeout(IDLE_CHECK);
+			writeSettings();
+			if ( upgraded != null ) {
+				applySettings(upgradeSettings, upgradeSettings.length);
+				readPreface(0);
+
+				// The request was complete before the connection switched protocols
+				Stream stream = new Stream(1, false);
+				stream.request = upgraded;
+				lastStreamId = 1;
+				start(stream);
+			} else {
+				readPreface(PREFACE_HEAD);
+			}
+
+			while (!goingAway || !streams.isEmpty()) {
+				if ( !goingAway && (server.isDraining() || !server.isStarted()) )
+					goAway(NO_ERROR);
+
+				if ( !readFrame() )
+					break;
+			}
+		} catch (Http2Exception e) {
+			server.getLogger().debug(() -> "HTTP/2 connection error: " + e.getMessage());
+			goAway(e.code);
+		} finally {
+			close();
+		}
+	}
+
+	private void readPreface(int offset) throws IOException {
+		byte[] preface = new byte[PREFACE.length - offset];
+		readFully(preface, 0, preface.length);
+		for (int i = 0; i < preface.length; i++) {
+			if ( preface[i] != PREFACE[offset + i] )
+				throw new Http2Exception(PROTOCOL_ERROR, "Invalid connection preface");
+		}
+	}
+
+	/**
+	 * Read and handle a frame. Returns false if the client closed the connection.
+	 */
+	private boolean readFrame() throws IOException {
+		int first;
+		try {
+			first = input.read();
+		} catch (SocketTimeoutException e) {
+			// Idle, the loop checks whether the server is going away
+			return true;
+		}
+
+		if ( first == -1 )
+			return false;
+
+		frameHead[0] = (byte) first;
+		readFully(frameHead, 1, frameHead.length - 1);
+		int length = (first << 16) | ((frameHead[1] & 0xff) << 8) | (frameHead[2] & 0xff);
+		int type = frameHead[3] & 0xff;
+		int flags = frameHead[4] & 0xff;
+		int streamId = readInt(frameHead, 5) & 0x7fffffff;
+		if ( length > MAX_FRAME_SIZE )
+			throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes is larger than " + MAX_FRAME_SIZE);
+
+		readFully(frame, 0, length);
+		if ( headerBlock != null && type != CONTINUATION )
+			throw new Http2Exception(PROTOCOL_ERROR, "Header block of stream " + headerStreamId + " was interrupted");
+
+		switch (type) {
+			case DATA:
+				onData(flags, streamId, length);
+				break;
+			case HEADERS:
+				onHeaders(flags, streamId, length);
+				break;
+			case PRIORITY:
+				// Every stream is answered as soon as it can be
+				if ( streamId == 0 )
+					throw new Http2Exception(PROTOCOL_ERROR, "PRIORITY frame on stream 0");
+				break;
+			case RST_STREAM:
+				onReset(streamId, length);
+				break;
+			case SETTINGS:
+				onSettings(flags, streamId, length);
+				break;
+			case PUSH_PROMISE:
+				throw new Http2Exception(PROTOCOL_ERROR, "Clients can not push");
+			case PING:
+				onPing(flags, streamId, length);
+				break;
+			case GOAWAY:
+				if ( streamId != 0 )
+					throw new Http2Exception(PROTOCOL_ERROR, "GOAWAY frame on stream " + streamId);
+				goingAway = true;
+				break;
+			case WINDOW_UPDATE:
+				onWindowUpdate(streamId, length);
+				break;
+			case CONTINUATION:
+				onContinuation(flags, streamId, length);
+				break;
+			default:
+				// Unknown frames are ignored
+		}
+
+		return true;
+	}
+
+	private void onData(int flags, int streamId, int length) throws IOException {
+		if ( streamId == 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "DATA frame on stream 0");
+
+		int dataLength = unpad(flags, length);
+		int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+
+		// The connection window is granted again straight away, streams hold back their own
+		received += length;
+		if ( received >= CONNECTION_WINDOW / 2 ) {
+			writeWindowUpdate(0, received);
+			received = 0;
+		}
+
+		Stream stream = streams.get(streamId);
+		if ( stream == null ) {
+			if ( streamId > lastStreamId )
+				throw new Http2Exception(PROTOCOL_ERROR, "DATA frame on idle stream " + streamId);
+
+			// Answered or reset already
+			return;
+		}
+
+		if ( stream.body == null || stream.body.isEnded() ) {
+			resetStream(stream.id, STREAM_CLOSED);
+			return;
+		}
+
+		if ( !stream.body.receive(frame, offset, dataLength, length - dataLength, (flags & FLAG_END_STREAM) != 0) )
+			resetStream(stream.id, FLOW_CONTROL_ERROR);
+	}
+
+	private void onHeaders(int flags, int streamId, int length) throws IOException {
+		if ( streamId == 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+
+		int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+		int blockLength = unpad(flags, length);
+		if ( (flags & FLAG_PRIORITY) != 0 ) {
+			offset += 5;
+			blockLength -= 5;
+			if ( blockLength < 0 )
+				throw new Http2Exception(FRAME_SIZE_ERROR, "HEADERS frame is too short for its priority");
+		}
+
+		headerBlock = new ByteArrayOutputStream(Math.max(blockLength, 64));
+		headerBlock.write(frame, offset, blockLength);
+		headerStreamId = streamId;
+		headerEndStream = (flags & FLAG_END_STREAM) != 0;
+		if ( (flags & FLAG_END_HEADERS) != 0 )
+			endHeaders();
+	}
+
+	private void onContinuation(int flags, int streamId, int length) throws IOException {
+		if ( headerBlock == null || streamId != headerStreamId )
+			throw new Http2Exception(PROTOCOL_ERROR, "CONTINUATION frame without a header block on stream " + streamId);
+
+		if ( headerBlock.size() + length > MAX_HEADER_BLOCK )
+			throw new Http2Exception(ENHANCE_YOUR_CALM, "Header block is larger than " + MAX_HEADER_BLOCK + " bytes");
+
+		headerBlock.write(frame, 0, length);
+		if ( (flags & FLAG_END_HEADERS) != 0 )
+			endHeaders();
+	}
+
+	/**
+	 * A complete header block was read. Starts a stream, or ends the body of one with trailers.
+	 */
+	private void endHeaders() throws IOException {
+		byte[] block = headerBlock.toByteArray();
+		int streamId = headerStreamId;
+		boolean endStream = headerEndStream;
+		headerBlock = null;
+
+		// Decoded even for streams that are refused, to keep the table in step with the client's
+		List<String[]> fields;
+		try {
+			fields = decoder.decode(block, 0, block.length);
+		} catch (Hpack.HpackException e) {
+			throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+		}
+
+		if ( streamId <= lastStreamId ) {
+			Stream stream = streams.get(streamId);
+			if ( stream == null )
+				return;
+
+			// Trailers, only the end of the body matters
+			if ( !endStream || stream.body == null )
+				throw new Http2Exception(PROTOCOL_ERROR, "Unexpected HEADERS frame on stream " + streamId);
+			stream.body.end();
+			return;
+		}
+
+		if ( (streamId & 1) == 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "Clients start odd numbered streams, not " + streamId);
+
+		lastStreamId = streamId;
+		if ( goingAway || streams.size() >= maxConcurrentStreams ) {
+			resetStream(streamId, REFUSED_STREAM);
+			return;
+		}
+
+		Stream stream = new Stream(streamId, !endStream);
+		StringBuilder cookie = null;
+		String authority = null;
+		for (String[] field : fields) {
+			String name = field[0];
+			String value = field[1];
+			if ( name.startsWith(":") ) {
+				if ( name.equals(":method") )
+					stream.method = value;
+				else if ( name.equals(":path") )
+					stream.path = value;
+				else if ( name.equals(":authority") )
+					authority = value;
+			} else if ( name.equals("cookie") ) {
+				// Sent as one header per cookie, so they compress well
+				cookie = cookie == null ? new StringBuilder(value) : cookie.append("; ").append(value);
+			} else {
+				stream.headers.add(name, value);
+			}
+		}
+
+		if ( stream.method == null || stream.path == null ) {
+			resetStream(streamId, PROTOCOL_ERROR);
+			return;
+		}
+
+		if ( authority != null && !stream.headers.contains(HttpHeaders.HOST) )
+			stream.headers.add(HttpHeaders.HOST, authority);
+		if ( cookie != null )
+			stream.headers.add(HttpHeaders.COOKIE, cookie.toString());
+
+		start(stream);
+	}
+
+	private void onReset(int streamId, int length) throws IOException {
+		if ( streamId == 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM frame on stream 0");
+		if ( length != 4 )
+			throw new Http2Exception(FRAME_SIZE_ERROR, "RST_STREAM frame of " + length + " bytes");
+
+		Stream stream = streams.get(streamId);
+		if ( stream != null )
+			stream.reset();
+	}
+
+	private void onSettings(int flags, int streamId, int length) throws IOException {
+		if ( streamId != 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS frame on stream " + streamId);
+
+		if ( (flags & FLAG_ACK) != 0 ) {
+			if ( length != 0 )
+				throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+			return;
+		}
+
+		if ( length % 6 != 0 )
+			throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS frame of " + length + " bytes");
+
+		applySettings(frame, length);
+		writeFrame(SETTINGS, FLAG_ACK, 0, frame, 0, 0);
+	}
+
+	private void applySettings(byte[] settings, int length) throws IOException {
+		for (int i = 0; i + 6 <= length; i += 6) {
+			int id = ((settings[i] & 0xff) << 8) | (settings[i + 1] & 0xff);
+			int value = readInt(settings, i + 2);
+			switch (id) {
+				case SETTINGS_HEADER_TABLE_SIZE:
+					synchronized (output) {
+						encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					}
+					break;
+				case SETTINGS_ENABLE_PUSH:
+					if ( value != 0 && value != 1 )
+						throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH " + value);
+					break;
+				case SETTINGS_INITIAL_WINDOW_SIZE:
+					if ( value < 0 )
+						throw new Http2Exception(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE " + (value & 0xffffffffL));
+
+					// Open streams move by the difference
+					synchronized (this) {
+						int delta = value - initialSendWindow;
+						initialSendWindow = value;
+						for (Stream stream : streams.values())
+							stream.sendWindow += delta;
+						notifyAll();
+					}
+					break;
+				case SETTINGS_MAX_FRAME_SIZE:
+					if ( value < MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT )
+						throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE " + value);
+					peerMaxFrameSize = value;
+					break;
+				default:
+					// Settings for clients, or unknown
+			}
+		}
+	}
+
+	private void onPing(int flags, int streamId, int length) throws IOException {
+		if ( streamId != 0 )
+			throw new Http2Exception(PROTOCOL_ERROR, "PING frame on stream " + streamId);
+		if ( length != 8 )
+			throw new Http2Exception(FRAME_SIZE_ERROR, "PING frame of " + length + " bytes");
+
+		if ( (flags & FLAG_ACK) == 0 )
+			writeFrame(PING, FLAG_ACK, 0, frame, 0, 8);
+	}
+
+	private void onWindowUpdate(int streamId, int length) throws IOException {
+		if ( length != 4 )
+			throw new Http2Exception(FRAME_SIZE_ERROR, "WINDOW_UPDATE frame of " + length + " bytes");
+
+		int increment = readInt(frame, 0) & 0x7fffffff;
+		if ( increment == 0 ) {
+			if ( streamId == 0 )
+				throw new Http2Exception(PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+			resetStream(streamId, PROTOCOL_ERROR);
+			return;
+		}
+
+		boolean overflow = false;
+		synchronized (this) {
+			if ( streamId == 0 ) {
+				if ( (long) sendWindow + increment > Integer.MAX_VALUE )
+					throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window larger than 2^31-1");
+				sendWindow += increment;
+			} else {
+				Stream stream = streams.get(streamId);
+				if ( stream != null ) {
+					overflow = (long) stream.sendWindow + increment > Integer.MAX_VALUE;
+					if ( !overflow )
+						stream.sendWindow += increment;
+				}
+			}
+			notifyAll();
+		}
+
+		if ( overflow )
+			resetStream(streamId, FLOW_CONTROL_ERROR);
+	}
+
+	/**
+	 * Length of the data in a frame that may be padded. The data starts after the pad length, if there is one.
+	 */
+	private int unpad(int flags, int length) throws Http2Exception {
+		if ( (flags & FLAG_PADDED) == 0 )
+			return length;
+
+		int padding = length == 0 ? 0 : frame[0] & 0xff;
+		if ( length == 0 || padding >= length )
+			throw new Http2Exception(PROTOCOL_ERROR, "Padding is longer than the frame");
+
+		return length - 1 - padding;
+	}
+
+	/**
+	 * Answer a stream on a worker. Refused if the workers are shut down.
+	 */
+	private void start(Stream stream) throws IOException {
+		streams.put(stream.id, stream);
+		try {
+			workers.execute(() -> answer(stream));
+		} catch (RejectedExecutionException e) {
+			streams.remove(stream.id);
+			resetStream(stream.id, REFUSED_STREAM);
+		}
+	}
+
+	private void answer(Stream stream) {
+		try {
+			handler.handle(stream);
+		} catch (Exception e) {
+			// Streams cut off by the connection closing are expected to fail
+			if ( !closed && !stream.reset )
+				server.getLogger().error(e);
+		} finally {
+			try {
+				stream.close();
+
+				// Tell a client still sending a body nobody will read to stop
+				if ( stream.body != null && !stream.body.isEnded() && !stream.reset )
+					resetStream(stream.id, NO_ERROR);
+			} catch (IOException e) {
+				// Connection is gone
+			}
+
+			streams.remove(stream.id);
+		}
+	}
+
+	private void writeSettings() throws IOException {
+		byte[] settings = new byte[12];
+		writeSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+		writeSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+		writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+		writeWindowUpdate(0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+	}
+
+	private static void writeSetting(byte[] settings, int offset, int id, int value) {
+		settings[offset] = (byte) (id >>> 8);
+		settings[offset + 1] = (byte) id;
+		writeInt(settings, offset + 2, value);
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] payload = new byte[4];
+		writeInt(payload, 0, increment);
+		writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+	}
+
+	private void resetStream(int streamId, int code) throws IOException {
+		Stream stream = streams.get(streamId);
+		if ( stream != null )
+			stream.finished = true;
+
+		byte[] payload = new byte[4];
+		writeInt(payload, 0, code);
+		writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+	}
+
+	/**
+	 * Tell the client no new streams will be answered. Streams it already started still are.
+	 */
+	private void goAway(int code) {
+		goingAway = true;
+		if ( goAwaySent )
+			return;
+
+		goAwaySent = true;
+		byte[] payload = new byte[8];
+		writeInt(payload, 0, lastStreamId);
+		writeInt(payload, 4, code);
+		try {
+			writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+		} catch (IOException e) {
+			// Connection is gone already
+		}
+	}
+
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+		synchronized (output) {
+			writeFrameHead(length, type, flags, streamId);
+			output.write(payload, offset, length);
+			output.flush();
+		}
+	}
+
+	private void writeFrameHead(int length, int type, int flags, int streamId) throws IOException {
+		output.write(length >>> 16);
+		output.write(length >>> 8);
+		output.write(length);
+		output.write(type);
+		output.write(flags);
+		output.write(streamId >>> 24);
+		output.write(streamId >>> 16);
+		output.write(streamId >>> 8);
+		output.write(streamId);
+	}
+
+	/**
+	 * Encode and write a header block, split in to CONTINUATION frames if it is larger than the client reads at once.
+	 */
+	private void writeHeaders(Stream stream, List<String[]> fields, boolean endStream) throws IOException {
+		synchronized (output) {
+			byte[] block = encoder.encode(fields);
+			int maxFrameSize = peerMaxFrameSize;
+			int length = Math.min(block.length, maxFrameSize);
+			int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+			writeFrameHead(length, HEADERS, flags, stream.id);
+			output.write(block, 0, length);
+			for (int offset = length; offset < block.length; offset += length) {
+				length = Math.min(block.length - offset, maxFrameSize);
+				writeFrameHead(length, CONTINUATION, offset + length == block.length ? FLAG_END_HEADERS : 0, stream.id);
+				output.write(block, offset, length);
+			}
+			output.flush();
+		}
+
+		if ( endStream )
+			stream.finished = true;
+	}
+
+	/**
+	 * Write data in frames as the client's windows allow, waiting for it to grant more when they are used up.
+	 */
+	private void writeData(Stream stream, byte[] data, int offset, int length, boolean endStream) throws IOException {
+		do {
+			int size;
+			synchronized (this) {
+				while (true) {
+					if ( stream.reset || closed )
+						throw new IOException("Stream " + stream.id + " was reset");
+
+					size = Math.min(Math.min(length, peerMaxFrameSize), Math.min(stream.sendWindow, sendWindow));
+					if ( size > 0 || length == 0 )
+						break;
+
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for the window of stream " + stream.id);
+					}
+				}
+
+				size = Math.max(size, 0);
+				stream.sendWindow -= size;
+				sendWindow -= size;
+			}
+
+			boolean last = size == length;
+			writeFrame(DATA, last && endStream ? FLAG_END_STREAM : 0, stream.id, data, offset, size);
+			offset += size;
+			length -= size;
+		} while (length > 0);
+
+		if ( endStream )
+			stream.finished = true;
+	}
+
+	private void readFully(byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read;
+			try {
+				read = input.read(buffer, offset, length);
+			} catch (SocketTimeoutException e) {
+				// The rest of the frame is on its way
+				continue;
+			}
+
+			if ( read == -1 )
+				throw new EOFException("Connection closed in the middle of a frame");
+
+			offset += read;
+			length -= read;
+		}
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Stop every stream still being answered, the connection is done.
+	 */
+	private void close() {
+		closed = true;
+		synchronized (this) {
+			notifyAll();
+		}
+
+		for (Stream stream : streams.values())
+			stream.reset();
+	}
+
+	/**
+	 * Connection level error, answered with GOAWAY.
+	 */
+	private static class Http2Exception extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int code;
+
+		Http2Exception(int code, String message) {
+			super(message);
+			this.code = code;
+		}
+	}
+
+	/**
+	 * A request and the response to it, written by the worker answering the request.
+	 */
+	final class Stream implements ResponseWriter {
+
+		final int id;
+
+		/** Request headers, without the pseudo headers **/
+		final HttpHeaders headers = HttpHeaders.empty();
+
+		String method;
+
+		/** Request target, path and query **/
+		String path;
+
+		/** Time the request headers were read **/
+		final long received = System.nanoTime();
+
+		/** Request the connection was upgraded with, already parsed **/
+		HttpRequest<?> request;
+
+		/** Request body, null if the request has none **/
+		private final RequestBody body;
+
+		/** Client's window for this stream, guarded by the connection **/
+		private int sendWindow;
+
+		/** Whether the response was sent completely or the stream was reset **/
+		private volatile boolean finished;
+
+		/** Whether the client reset the stream **/
+		private volatile boolean reset;
+
+		private Stream(int id, boolean hasBody) {
+			this.id = id;
+			this.body = hasBody ? new RequestBody(id) : null;
+			synchronized (Http2Connection.this) {
+				this.sendWindow = initialSendWindow;
+			}
+		}
+
+		/**
+		 * Body of the request as the client sends it, or null if there is none.
+		 */
+		InputStream getBody() {
+			return this.body;
+		}
+
+		private void reset() {
+			reset = true;
+			finished = true;
+			if ( body != null )
+				body.cancel();
+
+			synchronized (Http2Connection.this) {
+				Http2Connection.this.notifyAll();
+			}
+		}
+
+		@Override
+		public long write(HttpStatus status, MediaType produces, byte[] body, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+			Map<String, String> responseHeaders = RestUtil.getResponseHeaders(server.getServerName(), headers);
+			byte[] finalBody = RestUtil.isGzip(responseHeaders) ? RestUtil.gzip(body, timer) : body;
+			if ( timer != null && timer.sendHeader )
+				responseHeaders.put(HttpHeaders.SERVER_TIMING, timer.toServerTiming());
+
+			long start = System.nanoTime();
+			List<String[]> fields = getFields(status, responseHeaders, cookiesList);
+			fields.add(new String[] { "content-length", String.valueOf(finalBody.length) });
+			fields.add(new String[] { "content-type", produces.getType() });
+			writeHeaders(this, fields, finalBody.length == 0);
+			if ( finalBody.length > 0 )
+				writeData(this, finalBody, 0, finalBody.length, true);
+			if ( timer != null )
+				timer.since(RequestTimer.Phase.WRITE, start);
+
+			return finalBody.length;
+		}
+
+		@Override
+		public long writeStream(HttpStatus status, MediaType produces, Marshaller marshaller, Iterator<?> elements, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+			Map<String, String> responseHeaders = RestUtil.getResponseHeaders(server.getServerName(), headers);
+			if ( timer != null && timer.sendHeader )
+				responseHeaders.put(HttpHeaders.SERVER_TIMING, timer.toServerTiming());
+
+			long start = System.nanoTime();
+			List<String[]> fields = getFields(status, responseHeaders, cookiesList);
+			fields.add(new String[] { "content-type", produces.getType() });
+			writeHeaders(this, fields, false);
+
+			// Frames take the place of chunks
+			DataFrames data = new DataFrames(this);
+			OutputStream output = RestUtil.isGzip(responseHeaders) ? new GZIPOutputStream(data, true) : data;
+
+			boolean first = true;
+			marshaller.writeSequenceStart(output);
+			while (elements.hasNext()) {
+				marshaller.writeSequenceElement(output, elements.next(), first);
+
+				// Get the first element to the client straight away
+				if ( first )
+					output.flush();
+				first = false;
+			}
+			marshaller.writeSequenceEnd(output);
+			output.close();
+			if ( timer != null )
+				timer.since(RequestTimer.Phase.WRITE, start);
+
+			return data.count;
+		}
+
+		@Override
+		public void writeEmpty(HttpStatus status) throws IOException {
+			List<String[]> fields = new ArrayList<>(2);
+			fields.add(new String[] { ":status", String.valueOf(status.value()) });
+			fields.add(new String[] { "server", octets(server.getServerName()) });
+			writeHeaders(this, fields, true);
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Cut off, the client must not take what it got for the whole response
+			if ( !finished )
+				resetStream(id, INTERNAL_ERROR);
+		}
+
+		/**
+		 * Response headers with lower case names, without the headers HTTP/2 has no use for.
+		 */
+		private List<String[]> getFields(HttpStatus status, Map<String, String> headers, List<HttpCookie> cookiesList) {
+			List<String[]> fields = new ArrayList<>(headers.size() + 4);
+			fields.add(new String[] { ":status", String.valueOf(status.value()) });
+			for (Entry<String, String> header : headers.entrySet()) {
+				String name = header.getKey().toLowerCase(Locale.ROOT);
+				if ( !CONNECTION_HEADERS.contains(name) )
+					fields.add(new String[] { name, octets(header.getValue()) });
+			}
+
+			if ( cookiesList != null ) {
+				for (HttpCookie cookie : cookiesList)
+					fields.add(new String[] { "set-cookie", octets(CookieCodec.encodeSetCookie(cookie)) });
+			}
+
+			return fields;
+		}
+
+		/**
+		 * A header value as the octets of its UTF-8 encoding, the way HTTP/1.1 responses send it.
+		 */
+		private String octets(String value) {
+			for (int i = 0; i < value.length(); i++) {
+				if ( value.charAt(i) > 0x7f )
+					return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+			}
+
+			return value;
+		}
+	}
+
+	/**
+	 * Streamed response body, sent a frame at a time. Closing it ends the stream.
+	 */
+	private final class DataFrames extends OutputStream {
+
+		private final Stream stream;
+
+		private final byte[] buffer = new byte[MAX_FRAME_SIZE];
+
+		private int length;
+
+		/** Body bytes written **/
+		private long count;
+
+		DataFrames(Stream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if ( length == buffer.length )
+				flush();
+
+			buffer[length++] = (byte) b;
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if ( length == buffer.length )
+					flush();
+
+				int size = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, size);
+				length += size;
+				count += size;
+				off += size;
+				len -= size;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if ( length > 0 )
+				writeData(stream, buffer, 0, length, false);
+			length = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if ( stream.finished )
+				return;
+
+			writeData(stream, buffer, 0, length, true);
+			length = 0;
+		}
+	}
+
+	/**
+	 * Request body as the client sends it, read by the worker answering the request. The stream's window
+	 * is granted again as the body is read.
+	 */
+	private final class RequestBody extends InputStream {
+
+		private final int streamId;
+
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+		/** Read position in the first chunk **/
+		private int position;
+
+		private int buffered;
+
+		/** What the client can still send **/
+		private int window = STREAM_WINDOW;
+
+		/** Read, or padding, since the window was last granted again **/
+		private int consumed;
+
+		private boolean ended;
+
+		private boolean reset;
+
+		RequestBody(int streamId) {
+			this.streamId = streamId;
+		}
+
+		/**
+		 * Data from a frame. Returns false if the client sent more than its window.
+		 */
+		synchronized boolean receive(byte[] data, int offset, int length, int padding, boolean end) {
+			if ( length + padding > window )
+				return false;
+
+			window -= length + padding;
+			consumed += padding;
+			if ( length > 0 ) {
+				chunks.add(Arrays.copyOfRange(data, offset, offset + length));
+				buffered += length;
+			}
+			ended |= end;
+			notifyAll();
+			return true;
+		}
+
+		synchronized void end() {
+			ended = true;
+			notifyAll();
+		}
+
+		synchronized void cancel() {
+			reset = true;
+			chunks.clear();
+			buffered = 0;
+			notifyAll();
+		}
+
+		synchronized boolean isEnded() {
+			return ended || reset;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if ( length == 0 )
+				return 0;
+
+			int read;
+			int grant = 0;
+			synchronized (this) {
+				while (chunks.isEmpty()) {
+					if ( reset )
+						throw new IOException("Stream " + streamId + " was reset");
+					if ( ended )
+						return -1;
+
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted reading the body of stream " + streamId);
+					}
+				}
+
+				byte[] chunk = chunks.peek();
+				read = Math.min(length, chunk.length - position);
+				System.arraycopy(chunk, position, buffer, offset, read);
+				position += read;
+				buffered -= read;
+				if ( position == chunk.length ) {
+					chunks.poll();
+					position = 0;
+				}
+
+				// No need to grant anything once the client is done sending
+				consumed += read;
+				if ( !ended && consumed >= STREAM_WINDOW / 2 ) {
+					grant = consumed;
+					window += consumed;
+					consumed = 0;
+				}
+			}
+
+			if ( grant > 0 )
+				writeWindowUpdate(streamId, grant);
+
+			return read;
+		}
+
+		@Override
+		public synchronized int available() {
+			return buffered;
+		}
+	}
+}
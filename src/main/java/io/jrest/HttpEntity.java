@@ -7,14 +7,13 @@ import java.util.List;
 public class HttpEntity<T> {
 	private HttpHeaders headers;
 	
-	private T body;
+	protected T body;
 	
 	protected List<HttpCookie> cookies;
 	
 	public HttpEntity(HttpHeaders headers, T body) {
 		this.headers = headers;
 		this.body = body;
-		this.cookies = new ArrayList<>();
 	}
 	
 	/**
@@ -35,6 +34,9 @@ public class HttpEntity<T> {
 	 * HTTP Cookies attached to this entity.
 	 */
 	public List<HttpCookie> getCookies() {
+		if ( this.cookies == null )
+			this.cookies = new ArrayList<>();
+		
 		return this.cookies;
 	}
 	
@@ -42,6 +44,7 @@ public class HttpEntity<T> {
 	 * Search for cookie matching a given name attached to this HTTP entity.
 	 */
 	public HttpCookie getCookie(String key) {
+		List<HttpCookie> cookies = getCookies();
 		if ( cookies == null || key == null )
 			return null;
 		
@@ -1,23 +1,37 @@
 package io.jrest;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+/**
+ * HTTP headers. Names are case-insensitive and a name may have more than one value.
+ * Headers are kept in insertion order in small arrays rather than a map; parsed request headers keep their
+ * values in the request head and only turn them in to Strings when they are read.
+ */
 public class HttpHeaders {
 	public static final String USER_AGENT = "User-Agent";
-	
+
 	public static final String ACCEPT = "Accept";
-	
+
 	public static final String HOST = "Host";
-	
+
 	public static final String ACCEPT_ENCODING = "Accept-Encoding";
-	
+
 	public static final String CONTENT_ENCODING = "Content-Encoding";
-	
+
 	public static final String CONTENT_TYPE = "Content-Type";
-	
+
+	public static final String CONTENT_LENGTH = "Content-Length";
+
 	public static final String AUTHORIZATION = "Authorization";
 
 	public static final String KEEP_ALIVE = "Keep-Alive";
@@ -25,92 +39,385 @@ public class HttpHeaders {
 	public static final String SERVER = "Server";
 
 	public static final String CONNECTION = "Connection";
-	
-	private Map<String, String> data;
-	
+
+	public static final String COOKIE = "Cookie";
+
+	public static final String SET_COOKIE = "Set-Cookie";
+
+	public static final String CACHE_CONTROL = "Cache-Control";
+
+	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+
+	public static final String SERVER_TIMING = "Server-Timing";
+
+	public static final String UPGRADE = "Upgrade";
+
+	public static final String HTTP2_SETTINGS = "HTTP2-Settings";
+
+	public static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+
+	public static final String SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+
+	public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+	public static final String RETRY_AFTER = "Retry-After";
+
+	/** Parsed names matching one of these use the constant instead of a new String **/
+	private static final String[] KNOWN_NAMES = {
+		HOST, USER_AGENT, ACCEPT, ACCEPT_ENCODING, "Accept-Language", CONNECTION, KEEP_ALIVE, CONTENT_TYPE,
+		CONTENT_LENGTH, CONTENT_ENCODING, TRANSFER_ENCODING, COOKIE, AUTHORIZATION, CACHE_CONTROL, "Pragma",
+		"Origin", "Referer", UPGRADE, "Upgrade-Insecure-Requests", "If-None-Match", "If-Modified-Since", "Expect",
+		"X-Forwarded-For", "X-Forwarded-Proto", "X-Requested-With", "Sec-Fetch-Site", "Sec-Fetch-Mode", "Sec-Fetch-Dest",
+		"Sec-Fetch-User", "DNT", SERVER, SET_COOKIE
+	};
+
+	/** Header names, in the order they were added **/
+	private String[] names;
+
+	/** Header values. Null for parsed values that have not been read yet **/
+	private String[] values;
+
+	/** Request head parsed values are read from, null if the headers were not parsed **/
+	private byte[] head;
+
+	/** Start and end of each parsed value in the head **/
+	private int[] ranges;
+
+	private int size;
+
+	/**
+	 * Headers with the defaults JRest sends: accept anything, gzip encoding, plain text content and no caching.
+	 */
 	public HttpHeaders() {
-		this.data = new HashMap<>();
-		
+		this(8);
+
 		this.setAccept(MediaType.ALL);
 		this.setAcceptEncoding("gzip, deflate");
 		this.setContentEncoding("gzip");
 		this.setContentType(MediaType.TEXT_PLAIN);
-		this.put("Cache-control", "no-cache");
+		this.put(CACHE_CONTROL, "no-cache");
 	}
-	
+
+	private HttpHeaders(int capacity) {
+		this.names = new String[capacity];
+		this.values = new String[capacity];
+	}
+
+	/**
+	 * Headers without any defaults.
+	 */
+	public static HttpHeaders empty() {
+		return new HttpHeaders(8);
+	}
+
+	/**
+	 * Parse the header lines of a request head. Lines without a colon are skipped.
+	 */
+	static HttpHeaders parse(byte[] head, int start, int end) {
+		HttpHeaders headers = new HttpHeaders(16);
+		headers.head = head;
+		headers.ranges = new int[32];
+
+		while (start < end) {
+			int lineEnd = start;
+			while (lineEnd < end && head[lineEnd] != '\n')
+				lineEnd++;
+
+			int colon = start;
+			while (colon < lineEnd && head[colon] != ':')
+				colon++;
+
+			if ( colon < lineEnd ) {
+				int nameEnd = trimEnd(head, start, colon);
+				int valueStart = trimStart(head, colon + 1, lineEnd);
+				int valueEnd = trimEnd(head, valueStart, lineEnd);
+				if ( nameEnd > start )
+					headers.addParsed(getName(head, start, nameEnd), valueStart, valueEnd);
+			}
+
+			start = lineEnd + 1;
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Set a header, replacing every value it had.
+	 */
 	public HttpHeaders put(String key, String value) {
-		this.data.put(key, value);
+		int index = indexOf(key, 0);
+		if ( index == -1 )
+			return add(key, value);
+
+		this.values[index] = value;
+		if ( this.ranges != null )
+			this.ranges[index * 2] = -1;
+
+		// Drop any other values
+		int next;
+		while ((next = indexOf(key, index + 1)) != -1)
+			removeAt(next);
+
 		return this;
 	}
-	
+
+	/**
+	 * Add a value to a header, keeping the values it already has.
+	 */
+	public HttpHeaders add(String key, String value) {
+		ensureCapacity();
+		this.names[size] = key;
+		this.values[size] = value;
+		if ( this.ranges != null )
+			this.ranges[size * 2] = -1;
+		this.size++;
+		return this;
+	}
+
+	/**
+	 * Returns the first value of a header, or null if it is not set.
+	 */
 	public String get(String key) {
-		return this.data.get(key);
+		int index = indexOf(key, 0);
+		return index == -1 ? null : getValue(index);
+	}
+
+	/**
+	 * Returns every value of a header, in the order they were added. Empty if it is not set.
+	 */
+	public List<String> getAll(String key) {
+		List<String> list = null;
+		for (int index = indexOf(key, 0); index != -1; index = indexOf(key, index + 1)) {
+			if ( list == null )
+				list = new ArrayList<>(2);
+			list.add(getValue(index));
+		}
+
+		return list == null ? Collections.emptyList() : list;
+	}
+
+	/**
+	 * Returns whether a header is set.
+	 */
+	public boolean contains(String key) {
+		return indexOf(key, 0) != -1;
+	}
+
+	/**
+	 * Remove every value of a header.
+	 */
+	public HttpHeaders remove(String key) {
+		int index;
+		while ((index = indexOf(key, 0)) != -1)
+			removeAt(index);
+
+		return this;
+	}
+
+	/**
+	 * Number of header values.
+	 */
+	public int size() {
+		return this.size;
 	}
-	
+
 	public HttpHeaders setContentType(MediaType type) {
 		this.put(CONTENT_TYPE, type.toString());
 		return this;
 	}
-	
+
 	public String getContentType() {
 		return this.get(CONTENT_TYPE);
 	}
-	
+
 	public HttpHeaders setAuthorization(String authorization) {
 		this.put(AUTHORIZATION, authorization);
 		return this;
 	}
-	
+
 	public String getAuthorization() {
 		return this.get(AUTHORIZATION);
 	}
-	
+
 	public HttpHeaders setUserAgent(String agent) {
 		this.put(USER_AGENT, agent);
 		return this;
 	}
-	
+
 	public String getUserAgent() {
 		return this.get(USER_AGENT);
 	}
-	
+
 	public HttpHeaders setAccept(MediaType data) {
 		this.put(ACCEPT, data.toString());
 		return this;
 	}
-	
+
 	public String getAccept() {
 		return this.get(ACCEPT);
 	}
-	
+
 	public HttpHeaders setHost(String host) {
 		this.put(HOST, host);
 		return this;
 	}
-	
+
 	public String getHost() {
 		return this.get(HOST);
 	}
-	
+
 	public HttpHeaders setAcceptEncoding(String encoding) {
 		this.put(ACCEPT_ENCODING, encoding);
 		return this;
 	}
-	
+
 	public String getAcceptEncoding() {
 		return this.get(ACCEPT_ENCODING);
 	}
-	
+
 	public HttpHeaders setContentEncoding(String encoding) {
 		this.put(CONTENT_ENCODING, encoding);
 		return this;
 	}
-	
+
 	public String getContentEncoding() {
 		return this.get(CONTENT_ENCODING);
 	}
 
+	/**
+	 * Every header value in order. A header with several values appears once per value.
+	 */
 	public Set<Entry<String, String>> entrySet() {
-		return this.data.entrySet();
+		return new AbstractSet<Entry<String, String>>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new Iterator<Entry<String, String>>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < size;
+					}
+
+					@Override
+					public Entry<String, String> next() {
+						if ( index >= size )
+							throw new NoSuchElementException();
+
+						Entry<String, String> entry = new SimpleImmutableEntry<>(names[index], getValue(index));
+						index++;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			if ( i > 0 )
+				builder.append(", ");
+			builder.append(names[i]).append('=').append(getValue(i));
+		}
+
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * Index of the next value of a header at or after an index, or -1.
+	 */
+	private int indexOf(String key, int from) {
+		for (int i = from; i < size; i++) {
+			String name = names[i];
+			if ( name == key || name.equalsIgnoreCase(key) )
+				return i;
+		}
+
+		return -1;
+	}
+
+	private String getValue(int index) {
+		String value = values[index];
+		if ( value == null && ranges != null && ranges[index * 2] != -1 ) {
+			value = new String(head, ranges[index * 2], ranges[index * 2 + 1] - ranges[index * 2], StandardCharsets.ISO_8859_1);
+			values[index] = value;
+		}
+
+		return value;
+	}
+
+	private void addParsed(String name, int start, int end) {
+		ensureCapacity();
+		this.names[size] = name;
+		this.ranges[size * 2] = start;
+		this.ranges[size * 2 + 1] = end;
+		this.size++;
+	}
+
+	private void removeAt(int index) {
+		int moved = size - index - 1;
+		System.arraycopy(names, index + 1, names, index, moved);
+		System.arraycopy(values, index + 1, values, index, moved);
+		if ( ranges != null )
+			System.arraycopy(ranges, (index + 1) * 2, ranges, index * 2, moved * 2);
+
+		size--;
+		names[size] = null;
+		values[size] = null;
+	}
+
+	private void ensureCapacity() {
+		if ( size < names.length )
+			return;
+
+		names = Arrays.copyOf(names, size * 2);
+		values = Arrays.copyOf(values, size * 2);
+		if ( ranges != null )
+			ranges = Arrays.copyOf(ranges, size * 4);
+	}
+
+	/**
+	 * Header name from the head, sharing the constant for well known names.
+	 */
+	private static String getName(byte[] head, int start, int end) {
+		int length = end - start;
+		for (String known : KNOWN_NAMES) {
+			if ( known.length() != length )
+				continue;
+
+			int i = 0;
+			while (i < length && toLowerCase(head[start + i]) == toLowerCase((byte) known.charAt(i)))
+				i++;
+
+			if ( i == length )
+				return known;
+		}
+
+		return new String(head, start, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private static int toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+	}
+
+	private static int trimStart(byte[] head, int start, int end) {
+		while (start < end && (head[start] == ' ' || head[start] == '\t'))
+			start++;
+
+		return start;
+	}
+
+	private static int trimEnd(byte[] head, int start, int end) {
+		while (end > start && (head[end - 1] == ' ' || head[end - 1] == '\t' || head[end - 1] == '\r'))
+			end--;
+
+		return end;
 	}
 }
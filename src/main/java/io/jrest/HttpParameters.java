@@ -0,0 +1,261 @@
+package io.jrest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Query string or form url encoded parameters of a request. Parameters are read straight from the raw bytes
+ * when they are first asked for; looking up one parameter does not decode the others. Names and values are
+ * percent-decoded as UTF-8 and '+' is read as a space.
+ * <br>
+ * As a Map, each name maps to its first value. Use {@link #getAll(String)} for parameters sent more than once.
+ * The parameters can not be modified.
+ */
+public class HttpParameters extends AbstractMap<String, String> {
+
+	private static final byte[][] NO_SOURCES = new byte[0][];
+
+	/** No parameters **/
+	static final HttpParameters EMPTY = new HttpParameters();
+
+	/** Raw url encoded parameters, such as the query string followed by a form body **/
+	private final byte[][] sources;
+
+	/** All parameters, decoded the first time the whole map is needed **/
+	private Map<String, List<String>> decoded;
+
+	/** First value of each parameter, for the Map view **/
+	private Set<Entry<String, String>> entries;
+
+	/**
+	 * Parameters read from one or more url encoded sources, in order. Null sources are ignored.
+	 */
+	public HttpParameters(byte[]... sources) {
+		int count = 0;
+		for (byte[] source : sources)
+			if ( source != null && source.length > 0 )
+				count++;
+
+		this.sources = count == 0 ? NO_SOURCES : new byte[count][];
+		int i = 0;
+		for (byte[] source : sources)
+			if ( source != null && source.length > 0 )
+				this.sources[i++] = source;
+	}
+
+	/**
+	 * Parameters of a query string, without the leading '?'.
+	 */
+	public HttpParameters(String query) {
+		this(query == null ? null : query.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the first value of a parameter, or null if it was not sent. A parameter sent without '=' has an empty value.
+	 */
+	public String getFirst(String name) {
+		if ( decoded != null ) {
+			List<String> values = decoded.get(name);
+			return values == null ? null : values.get(0);
+		}
+
+		byte[] target = name.getBytes(StandardCharsets.UTF_8);
+		for (byte[] source : sources) {
+			int start = 0;
+			while (start <= source.length) {
+				int end = indexOf(source, (byte) '&', start, source.length);
+				int equals = indexOf(source, (byte) '=', start, end);
+				if ( end > start && nameEquals(source, start, equals, target) )
+					return decode(source, Math.min(equals + 1, end), end);
+
+				start = end + 1;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns every value of a parameter in the order they were sent. Empty if it was not sent.
+	 */
+	public List<String> getAll(String name) {
+		if ( decoded != null ) {
+			List<String> values = decoded.get(name);
+			return values == null ? Collections.emptyList() : values;
+		}
+
+		List<String> values = null;
+		byte[] target = name.getBytes(StandardCharsets.UTF_8);
+		for (byte[] source : sources) {
+			int start = 0;
+			while (start <= source.length) {
+				int end = indexOf(source, (byte) '&', start, source.length);
+				int equals = indexOf(source, (byte) '=', start, end);
+				if ( end > start && nameEquals(source, start, equals, target) ) {
+					if ( values == null )
+						values = new ArrayList<>(2);
+					values.add(decode(source, Math.min(equals + 1, end), end));
+				}
+
+				start = end + 1;
+			}
+		}
+
+		return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+	}
+
+	/**
+	 * Returns all parameters with all of their values.
+	 */
+	public Map<String, List<String>> getMultiValueMap() {
+		if ( decoded == null ) {
+			Map<String, List<String>> map = new LinkedHashMap<>();
+			for (byte[] source : sources) {
+				int start = 0;
+				while (start <= source.length) {
+					int end = indexOf(source, (byte) '&', start, source.length);
+					int equals = indexOf(source, (byte) '=', start, end);
+					if ( end > start ) {
+						String name = decode(source, start, equals);
+						String value = decode(source, Math.min(equals + 1, end), end);
+						map.computeIfAbsent(name, (key) -> new ArrayList<>(1)).add(value);
+					}
+
+					start = end + 1;
+				}
+			}
+
+			for (Entry<String, List<String>> entry : map.entrySet())
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			decoded = Collections.unmodifiableMap(map);
+		}
+
+		return decoded;
+	}
+
+	@Override
+	public String get(Object key) {
+		return key instanceof String ? getFirst((String) key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if ( !(key instanceof String) )
+			return false;
+
+		if ( decoded != null )
+			return decoded.containsKey(key);
+
+		byte[] target = ((String) key).getBytes(StandardCharsets.UTF_8);
+		for (byte[] source : sources) {
+			int start = 0;
+			while (start <= source.length) {
+				int end = indexOf(source, (byte) '&', start, source.length);
+				if ( end > start && nameEquals(source, start, indexOf(source, (byte) '=', start, end), target) )
+					return true;
+
+				start = end + 1;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return sources.length == 0 || getMultiValueMap().isEmpty();
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		if ( entries == null ) {
+			Map<String, String> first = new LinkedHashMap<>();
+			for (Entry<String, List<String>> entry : getMultiValueMap().entrySet())
+				first.put(entry.getKey(), entry.getValue().get(0));
+			entries = Collections.unmodifiableMap(first).entrySet();
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Compare a url encoded name with the UTF-8 bytes of a name, decoding as we go.
+	 */
+	private static boolean nameEquals(byte[] source, int start, int end, byte[] target) {
+		int j = 0;
+		for (int i = start; i < end; i++, j++) {
+			int b = source[i];
+			if ( b == '+' ) {
+				b = ' ';
+			} else if ( b == '%' && isEscape(source, i, end) ) {
+				b = (byte) ((hex(source[i + 1]) << 4) | hex(source[i + 2]));
+				i += 2;
+			}
+
+			if ( j >= target.length || target[j] != (byte) b )
+				return false;
+		}
+
+		return j == target.length;
+	}
+
+	/**
+	 * Decode a url encoded range. Invalid escapes are kept as they are.
+	 */
+	private static String decode(byte[] source, int start, int end) {
+		// Most names and values need no decoding
+		boolean plain = true;
+		for (int i = start; i < end && plain; i++)
+			plain = source[i] != '%' && source[i] != '+';
+
+		if ( plain )
+			return new String(source, start, end - start, StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+		for (int i = start; i < end; i++) {
+			byte b = source[i];
+			if ( b == '+' ) {
+				out.write(' ');
+			} else if ( b == '%' && isEscape(source, i, end) ) {
+				out.write((hex(source[i + 1]) << 4) | hex(source[i + 2]));
+				i += 2;
+			} else {
+				out.write(b);
+			}
+		}
+
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static boolean isEscape(byte[] source, int percent, int end) {
+		return percent + 2 < end && hex(source[percent + 1]) != -1 && hex(source[percent + 2]) != -1;
+	}
+
+	private static int hex(byte b) {
+		if ( b >= '0' && b <= '9' )
+			return b - '0';
+		if ( b >= 'a' && b <= 'f' )
+			return b - 'a' + 10;
+		if ( b >= 'A' && b <= 'F' )
+			return b - 'A' + 10;
+		return -1;
+	}
+
+	/**
+	 * Index of a byte in a range, or the end of the range if it is not there.
+	 */
+	private static int indexOf(byte[] source, byte b, int start, int end) {
+		for (int i = start; i < end; i++)
+			if ( source[i] == b )
+				return i;
+
+		return end;
+	}
+}
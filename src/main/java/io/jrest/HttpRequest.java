@@ -1,19 +1,66 @@
 package io.jrest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpCookie;
+import java.net.InetAddress;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class HttpRequest<P> extends HttpEntity<P> {
 	
 	private HttpMethod method;
 	
+	/** Created from the path and remote address the first time it is asked for **/
 	protected URI uri;
+	
+	/** Request target path as sent, still url encoded **/
+	protected String rawPath;
+	
+	/** Decoded path, created when first needed **/
+	private String path;
+	
+	/** Address the request came from. Null for requests not received by the server **/
+	protected InetAddress remoteAddress;
+	
+	protected int remotePort;
+	
+	/** {@link System#nanoTime()} when the request head was read **/
+	long received;
+	
+	/** Time spent in each phase of handling the request, null for requests not received by the server **/
+	RequestTimer timer;
+	
+	/** Content-Length of the request, -1 if it was not sent **/
+	long contentLength = -1;
+	
+	/** Whether the request was replayed to warm up rather than sent by a client **/
+	boolean warmUp;
+	
+	/** Endpoint the request was routed to when it was parsed **/
+	protected EndPointWrapper<?, ?> endpoint;
+	
+	/** Seconds the client has to wait when the endpoint's rate limit refused the request, 0 if it was allowed **/
+	long retryAfter;
 
-	protected Map<String, String> urlParams;
+	protected HttpParameters urlParams;
 	
 	private HttpSession session;
 	
+	/** Cookie header the cookies of this request are parsed from when first needed **/
+	protected String cookieHeader;
+	
+	/** Body still waiting on the connection, read when the endpoint first asks for it **/
+	BodyInputStream bodyStream;
+	
+	/** Body bytes as sent, once read **/
+	protected byte[] rawBody;
+	
+	/** Whether the body has been decoded in to {@link #getBody()} yet **/
+	private boolean bodyDecoded;
+	
 	public HttpRequest(HttpHeaders headers) {
 		this(HttpMethod.GET, headers);
 	}
@@ -25,7 +72,7 @@ public class HttpRequest<P> extends HttpEntity<P> {
 	public HttpRequest(HttpMethod method, HttpHeaders headers, P body) {
 		super(headers, body);
 		this.method = method;
-		this.urlParams = new HashMap<>();
+		this.urlParams = HttpParameters.EMPTY;
 	}
 	
 	/**
@@ -46,21 +93,145 @@ public class HttpRequest<P> extends HttpEntity<P> {
 	 * URI of this request.
 	 */
 	public URI getURI() {
+		if ( this.uri == null && this.rawPath != null ) {
+			String host = remoteAddress == null ? "localhost" : remoteAddress.getHostAddress().replace("0:0:0:0:0:0:0:1", "127.0.0.1");
+			this.uri = URI.create("http://" + host + ":" + remotePort + rawPath);
+		}
+		
 		return this.uri;
 	}
 	
+	/**
+	 * Decoded path of this request, without the query string.
+	 */
+	public String getPath() {
+		if ( this.path == null ) {
+			if ( this.rawPath != null )
+				this.path = StringUtil.decodePath(this.rawPath);
+			else if ( this.uri != null )
+				this.path = this.uri.getPath();
+		}
+		
+		return this.path;
+	}
+	
+	/**
+	 * Address of the client that sent this request, or null if it was not received by the server.
+	 */
+	public InetAddress getRemoteAddress() {
+		return this.remoteAddress;
+	}
+	
+	/**
+	 * Port of the client that sent this request.
+	 */
+	public int getRemotePort() {
+		return this.remotePort;
+	}
+	
+	/**
+	 * Body of this request, decoded in to the endpoints body type the first time it is asked for.
+	 * Endpoints that never call this do not pay for decoding the body.
+	 * @throws MarshallerException if the body is not valid for the body type. The server answers these with {@link HttpStatus#BAD_REQUEST}
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public P getBody() {
+		if ( !bodyDecoded && (bodyStream != null || rawBody != null) ) {
+			bodyDecoded = true;
+			long start = System.nanoTime();
+			InputStream input = rawBody != null ? new ByteArrayInputStream(rawBody) : bodyStream;
+			bodyStream = null;
+			
+			try {
+				// Requests that did not match an endpoint keep their body as text
+				if ( endpoint == null )
+					this.body = (P) StringUtil.utf8(RestUtil.readFully(input));
+				else
+					this.body = (P) endpoint.decodeBody(input, getHeaders().getContentType());
+			} catch(IOException e) {
+				throw new MarshallerException("Could not read body: " + e.getMessage(), e);
+			} finally {
+				if ( timer != null )
+					timer.since(RequestTimer.Phase.BODY, start);
+			}
+		}
+		
+		return super.getBody();
+	}
+	
+	/**
+	 * Body of this request as sent, without decoding it. Useful for endpoints that pass the body on.
+	 * Returns null if there is no body, if it was already decoded with {@link #getBody()} straight from the connection,
+	 * or for form url encoded bodies, which are read in to {@link #getParameters()}.
+	 */
+	public byte[] getRawBody() {
+		if ( rawBody == null && bodyStream != null ) {
+			long start = System.nanoTime();
+			try {
+				rawBody = RestUtil.readFully(bodyStream);
+			} catch(IOException e) {
+				throw new MarshallerException("Could not read body: " + e.getMessage(), e);
+			} finally {
+				if ( timer != null )
+					timer.since(RequestTimer.Phase.BODY, start);
+			}
+			bodyStream = null;
+		}
+		
+		return rawBody;
+	}
+	
+	/**
+	 * Skip whatever is left of the body on the connection, so the response is not cut short by unread data.
+	 */
+	void drainBody() throws IOException {
+		if ( bodyStream != null )
+			bodyStream.drain();
+	}
+	
 	@Override
 	public String toString() {
-		return "HttpRequest["+uri+", "+method+"]";
+		return "HttpRequest["+getPath()+", "+method+"]";
 	}
 
 	/**
-	 * Parameters included in the URI of this HTTP Request.
+	 * Parameters included in the URI of this HTTP Request, and in the body of form url encoded requests.
+	 * Each name maps to its first value.
 	 */
 	public Map<String,String> getUrlParameters() {
 		return urlParams;
 	}
 	
+	/**
+	 * Parameters included in the URI of this HTTP Request, and in the body of form url encoded requests.
+	 * Supports parameters sent more than once.
+	 */
+	public HttpParameters getParameters() {
+		return urlParams;
+	}
+	
+	/**
+	 * HTTP Cookies sent with this request, except the session cookie. Parsed from the Cookie header the first time they are needed.
+	 */
+	@Override
+	public List<HttpCookie> getCookies() {
+		if ( this.cookies == null ) {
+			this.cookies = CookieCodec.parse(this.cookieHeader);
+			this.cookies.removeIf((cookie) -> cookie.getName().equals(HttpSession.SESSION_NAME));
+		}
+		
+		return this.cookies;
+	}
+	
+	/**
+	 * Use the cookies of a Cookie header, replacing any cookies this request has.
+	 */
+	protected void setCookieHeader(String header) {
+		this.cookieHeader = header;
+		this.cookies = null;
+	}
+	
 	/**
 	 * Returns whether or not this request has a session attached to it.
 	 */
@@ -77,10 +248,11 @@ public class HttpRequest<P> extends HttpEntity<P> {
 
 	/**
 	 * Gets the session object associated with this request. If no session object exists, one will be created.
+	 * Warm-up requests get a session that is not stored, so replaying them does not fill the session storage.
 	 */
 	public HttpSession session() {
 		if ( this.session == null )
-			this.setSession(JRest.sessionStorage.create());
+			this.setSession(this.warmUp ? new HttpSession() : JRest.sessionStorage.create());
 		
 		return this.session;
 	}
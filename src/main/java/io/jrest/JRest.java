@@ -1,44 +1,69 @@
 package io.jrest;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.CookieManager;
 import java.net.HttpCookie;
 import java.net.Inet4Address;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.net.URI;
-import java.text.SimpleDateFormat;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.BaseStream;
+
+import javax.net.ssl.SSLSocket;
 
 import io.jrest.Logger.LogType;
 
 public class JRest {
 	
-	/** Internal server socket used to send data to clients **/
-	private static ServerSocket server;
+	/** Sockets the server listens on, empty when it is not started **/
+	private final List<ServerSocket> serverSockets;
+	
+	/** Addresses to listen on. If empty the server listens on {@link #port} on every interface **/
+	private final List<InetSocketAddress> addresses;
 	
-	/** Internal map to quickly locate endpoints **/
-	private final Map<String, Map<HttpMethod, EndPointWrapper<?,?>>> endpointMap;
+	/** Routes requests are looked up in, replaced as a whole whenever a route is registered **/
+	private volatile RouteTable routes;
 	
-	private final Map<HttpStatus, EndPointWrapper<?,?>> responseHandlerMap;
+	/** Routes registered so far, guarded by itself **/
+	private final RouteTable.Builder routeBuilder;
 
 	/** Whether the server is started **/
-	private boolean started;
+	private volatile boolean started;
+	
+	/** Whether the server has stopped accepting and is waiting for the requests it has to finish **/
+	private volatile boolean draining;
+	
+	/** Connections being handled **/
+	private final Set<Socket> connections;
 	
 	/** Whether the server encountered an error starting **/
 	private boolean error;
 	
-	/** Whether the server is currently initializing **/
-	private boolean initializing;
-	
 	/** Name of the server when a request is made **/
 	private String serverName;
 	
@@ -48,33 +73,113 @@ public class JRest {
 	/** Whether the JREST server will keep the application alive if no other NON-DAEMON threads are running **/
 	private boolean keepApplicationAlive;
 	
+	/** Connections waiting to be accepted before new ones are refused, 0 for the default **/
+	private int backlog;
+	
+	/** Threads accepting connections on each listen socket **/
+	private int acceptors;
+	
+	/** Whether TCP_NODELAY is set on accepted connections **/
+	private boolean tcpNoDelay;
+	
+	/** SO_RCVBUF and SO_SNDBUF of connections, 0 leaves the system default **/
+	private int receiveBufferSize;
+	
+	private int sendBufferSize;
+	
+	/** Longest time requests are replayed to warm up the JIT before listening, 0 to not warm up **/
+	private long warmUpMillis;
+	
+	/** Requests replayed to warm up, one per GET endpoint if none are added **/
+	private final WarmUp warmUp;
+	
+	/** Key material and settings connections are secured with, null to listen in plain text **/
+	private TlsConfig tls;
+	
+	/** Pool connections are handled on while the server is started **/
+	private ThreadPoolExecutor workers;
+	
+	/** Whether clear text connections can speak HTTP/2, with prior knowledge or by upgrading **/
+	private boolean http2;
+	
+	/** Requests a HTTP/2 connection can have in progress at once **/
+	private int maxConcurrentStreams;
+	
+	/** Milliseconds between pings of idle WebSocket connections, 0 to not ping **/
+	private long webSocketPingInterval;
+	
+	/** Largest message a WebSocket client can send **/
+	private int webSocketMaxMessageSize;
+	
+	/** Bytes queued for a WebSocket client before sending to it is refused **/
+	private int webSocketSendQueue;
+	
+	/** Bytes queued for an event stream client before sending to it is refused **/
+	private int eventStreamSendQueue;
+	
+	/** Milliseconds without events before an event stream is sent a comment to keep it open, 0 to send none **/
+	private long eventStreamKeepAlive;
+	
 	/** Client use of cookies **/
 	protected static CookieManager cookieManager;
 	
-	/** Server use of cookies **/
-	private static Map<JRest, Map<Socket, CookieManager>> cookieManagerServer;
-	
 	/** Server use of sessions **/
 	protected static SessionStorage sessionStorage;
 	
+	/** Request methods, so parsing does not copy {@link HttpMethod#values()} **/
+	private static final HttpMethod[] METHODS = HttpMethod.values();
+	
+	/** Milliseconds a connection is given to send its request head before the server checks whether to keep waiting **/
+	private static final int HEAD_TIMEOUT = 1000;
+	
+	/** Answer to a request upgrading to HTTP/2, the response to the request itself follows on stream 1 **/
+	private static final byte[] SWITCHING_TO_HTTP2 = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	
+	/** Marshallers used to read and write bodies, by media type **/
+	protected static MarshallerRegistry marshallers;
+	
 	/** Logger used for output **/
 	private Logger logger;
 	
+	/** Time format of the incoming request trace **/
+	private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+	
+	/** Log of every request handled, null for none **/
+	private AccessLog accessLog;
+	
+	/** Request and connection metrics **/
+	private final Metrics metrics;
+	
+	/** Whether responses carry a Server-Timing header with the time spent in each phase **/
+	private boolean serverTiming;
+	
 	static {
-		cookieManagerServer = new HashMap<>();
 		cookieManager = new CookieManager();
 		sessionStorage = new SessionStorage();
+		marshallers = new MarshallerRegistry();
 	}
 	
 	/** Use {@link JRest#create()} to create a new JRest instance **/
 	private JRest() {
 		this.port = 80;
 		this.keepApplicationAlive = true;
+		this.acceptors = 1;
+		this.tcpNoDelay = true;
+		this.maxConcurrentStreams = 256;
+		this.webSocketPingInterval = 30000;
+		this.webSocketMaxMessageSize = 1024 * 1024;
+		this.webSocketSendQueue = 1024 * 1024;
+		this.eventStreamSendQueue = 256 * 1024;
+		this.eventStreamKeepAlive = 15000;
+		this.serverSockets = new CopyOnWriteArrayList<>();
+		this.connections = ConcurrentHashMap.newKeySet();
+		this.warmUp = new WarmUp();
+		this.addresses = new ArrayList<>();
 		this.logger = new Logger();
-		this.endpointMap = new HashMap<>();
-		this.responseHandlerMap = new HashMap<>();
+		this.metrics = new Metrics();
+		this.routes = RouteTable.EMPTY;
+		this.routeBuilder = new RouteTable.Builder();
 		this.serverName = "JRest : Lightweight REST Server";
-		cookieManagerServer.put(this, new HashMap<>());
 	}
 	
 	/** Create new JRest instance. **/
@@ -91,116 +196,252 @@ public class JRest {
 			return this;
 		}
 		
-		// Server must exist
-		if ( server == null ) {
-			this.getLogger().warn("Server is still starting... Sending flag to shutdown.");
-			started = false;
+		closeListeners();
+		this.getLogger().trace("Shutting down " + this.getServerName());
+		workers.shutdown();
+		return this;
+	}
+	
+	/**
+	 * Stop the server without dropping requests. New connections are refused straight away, requests already
+	 * received are finished and answered with Connection: close, and idle connections are closed. Connections
+	 * still busy after the timeout are closed. Runs in the background, calling onDrained (may be null) once
+	 * every connection is closed; the application is kept alive until then.
+	 */
+	public JRest drain(long timeoutMillis, Runnable onDrained) {
+		
+		// Server not started
+		if ( !started ) {
+			this.getLogger().warn("Server cannot be drained as it has not yet been started.");
 			return this;
 		}
 		
-		// Stop
-		this.started = false;
+		this.draining = true;
+		closeListeners();
+		this.getLogger().trace("Draining " + this.getServerName());
+		
+		ThreadPoolExecutor workers = this.workers;
+		workers.shutdown();
+		Thread drainer = new Thread(() -> {
+			try {
+				if ( !workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS) ) {
+					this.getLogger().warn("Closing " + connections.size() + " connections still busy after draining for " + timeoutMillis + " ms");
+					for (Socket connection : connections) {
+						try {
+							connection.close();
+						} catch (IOException e) {
+							// Closing anyway
+						}
+					}
+					workers.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			
+			this.draining = false;
+			this.getLogger().trace("Drained " + this.getServerName());
+			if ( onDrained != null )
+				onDrained.run();
+		});
+		drainer.setName("JRest Drain");
+		drainer.start();
 		return this;
 	}
+	
+	/**
+	 * Returns whether the server is draining, see {@link #drain(long, Runnable)}.
+	 */
+	public boolean isDraining() {
+		return this.draining;
+	}
+	
+	/**
+	 * Stop accepting. Closing the sockets wakes up the acceptors.
+	 */
+	private void closeListeners() {
+		this.started = false;
+		for (ServerSocket serverSocket : serverSockets) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				this.getLogger().error("Error stopping server... ", e);
+			}
+		}
+		serverSockets.clear();
+	}
 
-	/** Start server **/
+	/**
+	 * Start server. In an AppCDS training run (see {@link AppCds}) the JVM exits here once warmed up,
+	 * without running the application's own shutdown.
+	 */
 	public JRest start() {
 		
-		// Server initializing
-		if ( server != null ) {
-			this.getLogger().error("Server is already started on port: " + server.getLocalPort());
+		// Server started
+		if ( started || draining ) {
+			this.getLogger().error("Server is already started on: " + serverSockets);
 			return this;
 		}
 		
-		// Server starting
-		if ( started ) {
-			this.getLogger().warn("Server is currently initializing. Please wait");
-			return this;
-		}
+		long startTime = System.currentTimeMillis();
 		
 		// Setup cookie handler
 		cookieManager = new CookieManager();
+		error = false;
+		
+		// Compile the request pipeline before clients can reach it
+		long warmUpMillis = AppCds.isTraining() && this.warmUpMillis == 0 ? AppCds.TRAINING_WARM_UP : this.warmUpMillis;
+		if ( warmUpMillis > 0 )
+			warmUp(warmUpMillis);
+		
+		if ( AppCds.isTraining() ) {
+			this.getLogger().warn("AppCDS training run warmed up, exiting without starting the server");
+			System.exit(0);
+		}
+		
+		// Bind every address before accepting on any of them
+		List<InetSocketAddress> bind = new ArrayList<>(addresses);
+		if ( bind.isEmpty() )
+			bind.add(new InetSocketAddress(getPort()));
+		
+		try {
+			for (InetSocketAddress address : bind) {
+				ServerSocket serverSocket = tls != null ? tls.createServerSocket() : new ServerSocket();
+				serverSockets.add(serverSocket);
+				if ( receiveBufferSize > 0 )
+					serverSocket.setReceiveBufferSize(receiveBufferSize);
+				serverSocket.bind(address, backlog);
+			}
+		} catch (IOException e) {
+			this.getLogger().error("Error making server... ", e);
+			for (ServerSocket serverSocket : serverSockets) {
+				try {
+					serverSocket.close();
+				} catch (IOException e1) {
+					// Already failing
+				}
+			}
+			serverSockets.clear();
+			error = true;
+			return this;
+		}
+		
+		workers = (ThreadPoolExecutor) Executors.newCachedThreadPool((runnable) -> {
+			Thread t = Executors.defaultThreadFactory().newThread(runnable);
+			t.setDaemon(true);
+			return t;
+		});
+		metrics.setWorkers(workers);
 		started = true;
-		initializing = true;
 		
-		// Start new server
-		Thread t = new JRestServer();
-		t.setDaemon(!getKeepApplicationAlive());
-		t.start();
-
-		// Wait for server to turn on
-		while (!error && initializing) {
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				this.getLogger().error(e);
+		// Start accepting
+		for (ServerSocket serverSocket : serverSockets) {
+			for (int i = 0; i < acceptors; i++) {
+				Thread t = new JRestServer(serverSocket, workers);
+				t.setName("JRest Acceptor " + serverSocket.getLocalSocketAddress() + " #" + i);
+				t.setDaemon(!getKeepApplicationAlive());
+				t.start();
 			}
+			
+			long elaspedTime = System.currentTimeMillis() - startTime;
+			this.getLogger().trace(() -> "JREST Server started: " + (tls != null ? "https://" : "http://") + getHostAddress(serverSocket) + ":" + serverSocket.getLocalPort() + " " + elaspedTime + " ms");
 		}
 		
 		return this;
 	}
+	
+	/**
+	 * Replay the warm-up requests through the request pipeline, without the network.
+	 */
+	private void warmUp(long millis) {
+		WarmUp warmUp = this.warmUp;
+		if ( warmUp.isEmpty() ) {
+			// Every endpoint that can be called without a body
+			warmUp = new WarmUp();
+			for (String path : routes.getPaths(HttpMethod.GET))
+				warmUp.add(WarmUp.request(HttpMethod.GET, path, null, null));
+			
+			// Still exercises parsing and the not found path
+			if ( warmUp.isEmpty() )
+				warmUp.add(WarmUp.request(HttpMethod.GET, "/", null, null));
+		}
+		
+		long start = System.currentTimeMillis();
+		JRestServer pipeline = new JRestServer(null, null);
+		long replayed = warmUp.run(pipeline::readAndHandleSocket, millis);
+		this.getLogger().trace("Warmed up with " + replayed + " requests in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	/**
+	 * Address a listen socket can be reached on, the local host address for sockets bound to every interface.
+	 */
+	private static String getHostAddress(ServerSocket serverSocket) {
+		if ( !serverSocket.getInetAddress().isAnyLocalAddress() )
+			return serverSocket.getInetAddress().getHostAddress();
+		
+		try {
+			return Inet4Address.getLocalHost().getHostAddress();
+		} catch (IOException e) {
+			return serverSocket.getInetAddress().getHostAddress();
+		}
+	}
 
-	private EndPointWrapper<?, ?> getEndPoint(String endpoint, HttpMethod method) {
-		Map<HttpMethod, EndPointWrapper<?,?>> map = endpointMap.get(endpoint);
-		if (map == null)
-			return null;
-
-		return map.get(method);
+	/**
+	 * Register routes and publish them in a new table, so requests never see a table being changed.
+	 */
+	private void register(Consumer<RouteTable.Builder> registration) {
+		synchronized (routeBuilder) {
+			registration.accept(routeBuilder);
+			routes = routeBuilder.build();
+		}
 	}
 	
 	class JRestServer extends Thread implements Runnable {
 		private final JRest jrestInstance = JRest.this;
-		private final long startTime = System.currentTimeMillis();
+		
+		/** Listen socket this acceptor takes connections from, shared with the other acceptors on it **/
+		private final ServerSocket serverSocket;
+		
+		private final ExecutorService service;
+		
+		JRestServer(ServerSocket serverSocket, ExecutorService service) {
+			this.serverSocket = serverSocket;
+			this.service = service;
+		}
 		
 		public void run() {
-			try {
-				server = new ServerSocket(getPort());
-				server.setSoTimeout(0);
-				
-				long elaspedTime = System.currentTimeMillis()-startTime;
-				jrestInstance.getLogger().trace("JREST Server started: " + Inet4Address.getLocalHost().getHostAddress() + ":" + server.getLocalPort() + " " + elaspedTime + " ms");
-				
-				ExecutorService service = Executors.newCachedThreadPool((runnable) -> {
-	                Thread t = Executors.defaultThreadFactory().newThread(runnable);
-	                t.setDaemon(true);
-	                return t;
-		        });
-				initializing = false;
-				
-				while (started) {
-					try {
-						// Dont burn CPU while waiting for connections
-						Thread.yield();
-						
-						// Wait for socket
-						Socket incoming = server.accept();
-
-						// Start listening to its data
-						if (incoming != null)
-							service.submit(()->readAndHandleSocket(incoming));
-					} catch (SocketTimeoutException e) {
-						jrestInstance.getLogger().error(e);
-					} catch (IOException e) {
-						jrestInstance.getLogger().error(e);
-					}
-				}
-				
-				jrestInstance.getLogger().trace("Shutting down " + jrestInstance.getServerName());
-				service.shutdown();
-			} catch (IOException e1) {
-				jrestInstance.getLogger().error("Error making server... ", e1);
-				error = true;
-				started = false;
-				initializing = false;
-			} finally {
+			while (started && !serverSocket.isClosed()) {
+				Socket incoming = null;
 				try {
-					server.close();
+					// Wait for socket
+					incoming = serverSocket.accept();
+					incoming.setTcpNoDelay(tcpNoDelay);
+					if ( sendBufferSize > 0 )
+						incoming.setSendBufferSize(sendBufferSize);
+					
+					// Start listening to its data
+					JfrEvents.connectionAccepted(incoming);
+					Socket accepted = incoming;
+					service.submit(()->readAndHandleSocket(accepted));
+				} catch (SocketException e) {
+					// Socket closed by stop()
+					if ( started )
+						jrestInstance.getLogger().error(e);
 				} catch (IOException e) {
-					jrestInstance.getLogger().error("Error stopping server... ", e);
+					jrestInstance.getLogger().error(e);
+				} catch (RejectedExecutionException e) {
+					// Stopped while accepting
+					closeQuietly(incoming);
 				}
-				started = false;
-				initializing = false;
-				server = null;
+			}
+		}
+		
+		private void closeQuietly(Socket socket) {
+			try {
+				if ( socket != null )
+					socket.close();
+			} catch (IOException e) {
+				// Nothing more to do
 			}
 		}
 		
@@ -208,199 +449,588 @@ public class JRest {
 		 * Reads and handles an incoming socket connection
 		 */
 		private void readAndHandleSocket(Socket incoming) {
+			boolean warmingUp = incoming instanceof WarmUp.WarmUpSocket;
+			if ( !warmingUp ) {
+				metrics.connectionOpened();
+				connections.add(incoming);
+			}
 			try {
+				// One buffered stream per connection, so the head and body are read from the same buffer.
+				// The buffer belongs to this thread and is reused for the next connection it handles
+				InputStream inputStream = ConnectionBuffers.get().input(incoming.getInputStream());
+				
+				// Handshake up front, where a slow client can be given longer than for its request
+				if ( incoming instanceof SSLSocket ) {
+					incoming.setSoTimeout(tls.getHandshakeTimeout());
+					((SSLSocket) incoming).startHandshake();
+				}
+				
 				while (!incoming.isClosed()) {
+					// Read head, the body is read without a timeout as the endpoint asks for it
+					incoming.setSoTimeout(HEAD_TIMEOUT);
+					byte[] head = RestUtil.readRequestHead(inputStream);
+					incoming.setSoTimeout(0);
+					
+					// Clients that know the server speaks HTTP/2 start with its preface instead of a request
+					boolean clearText = !(incoming instanceof SSLSocket);
+					if ( http2 && clearText && Http2Connection.isPreface(head) ) {
+						new Http2Connection(jrestInstance, incoming, inputStream, workers, (stream) -> answer(incoming, stream)).serve(null, null);
+						break;
+					}
+					
 					// Parse sockets request
-					HttpRequest<?> request = parseRequest(incoming);
+					HttpRequest<?> request = parseRequest(incoming, inputStream, head);
 					if (request == null) {
+						// Nothing more is coming in before the server goes away
+						if ( draining || warmingUp )
+							break;
+						
 						Thread.sleep(1); // Dont burn CPU
 						continue;
 					}
+					
+					if ( http2 && clearText && upgrade(incoming, inputStream, request) )
+						break;
+					
+					if ( webSocket(incoming, inputStream, request) )
+						break;
+					
+					if ( eventStream(incoming, inputStream, request) )
+						break;
 
 					// Run REST endpoint logic
-					handleRequest(incoming, request);
+					handleRequest(new SocketWriter(incoming), request);
 
 					// Close socket when done
 					incoming.close();
 				}
+			} catch (EOFException e) {
+				// Client went away without sending a request
 			} catch (Exception e) {
-				jrestInstance.getLogger().error(e);
+				// Connections cut off by stopping or draining are expected to fail
+				if ( started || !incoming.isClosed() )
+					jrestInstance.getLogger().error(e);
+			} finally {
+				closeQuietly(incoming);
+				if ( !warmingUp ) {
+					connections.remove(incoming);
+					metrics.connectionClosed();
+				}
+			}
+		}
+
+		/**
+		 * Switch a connection to HTTP/2 if its request asks to, answering the request on the first stream.
+		 * Returns false if the request did not ask, or asked without valid settings, and should be answered over HTTP/1.1.
+		 */
+		private boolean upgrade(Socket incoming, InputStream inputStream, HttpRequest<?> request) throws IOException {
+			HttpHeaders headers = request.getHeaders();
+			String upgrade = headers.get(HttpHeaders.UPGRADE);
+			String settings = headers.get(HttpHeaders.HTTP2_SETTINGS);
+			if ( upgrade == null || settings == null || !Arrays.asList(upgrade.toLowerCase().split("\\s*,\\s*")).contains("h2c") )
+				return false;
+			
+			byte[] decoded;
+			try {
+				decoded = Base64.getUrlDecoder().decode(settings.trim());
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+			
+			// The body is sent over HTTP/1.1, it has to be read before switching
+			if ( request.bodyStream != null ) {
+				request.rawBody = RestUtil.readFully(request.bodyStream);
+				request.bodyStream = null;
+			}
+			
+			OutputStream output = incoming.getOutputStream();
+			output.write(SWITCHING_TO_HTTP2);
+			output.flush();
+			new Http2Connection(jrestInstance, incoming, inputStream, workers, (stream) -> answer(incoming, stream)).serve(request, decoded);
+			return true;
+		}
+		
+		/**
+		 * Switch a connection to a WebSocket if its request asks to and there is an endpoint for it, serving it until it closes.
+		 * Returns false if the request should be answered as a normal request.
+		 */
+		private boolean webSocket(Socket incoming, InputStream inputStream, HttpRequest<?> request) throws IOException {
+			HttpHeaders headers = request.getHeaders();
+			String upgrade = headers.get(HttpHeaders.UPGRADE);
+			if ( upgrade == null || !upgrade.trim().equalsIgnoreCase("websocket") )
+				return false;
+			
+			WebSocket.Route<?> route = routes.getWebSocket(request.getPath());
+			if ( route == null )
+				return false;
+			
+			String key = headers.get(HttpHeaders.SEC_WEBSOCKET_KEY);
+			if ( request.getMethod() != HttpMethod.GET || key == null || !"13".equals(headers.get(HttpHeaders.SEC_WEBSOCKET_VERSION)) ) {
+				HttpHeaders version = HttpHeaders.empty().put(HttpHeaders.SEC_WEBSOCKET_VERSION, "13");
+				new SocketWriter(incoming).write(HttpStatus.BAD_REQUEST, MediaType.TEXT_PLAIN, StringUtil.utf8("Invalid WebSocket handshake"), version, null, null);
+				return true;
+			}
+			
+			request.drainBody();
+			OutputStream output = incoming.getOutputStream();
+			output.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + WebSocket.accept(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+			
+			jrestInstance.getLogger().trace(() -> "[" + LocalTime.now().format(LOG_TIME) + "] WebSocket opened: " + request);
+			new WebSocket(jrestInstance, incoming, inputStream, workers, route, request).serve();
+			return true;
+		}
+		
+		/**
+		 * Keep the connection open as an event stream if there is an event stream endpoint for the request, until it closes.
+		 * Returns false if the request should be answered as a normal request.
+		 */
+		private boolean eventStream(Socket incoming, InputStream inputStream, HttpRequest<?> request) throws IOException {
+			if ( request.getMethod() != HttpMethod.GET )
+				return false;
+			
+			EventStreamHandler handler = routes.getEventStream(request.getPath());
+			if ( handler == null )
+				return false;
+			
+			request.drainBody();
+			jrestInstance.getLogger().trace(() -> "[" + LocalTime.now().format(LOG_TIME) + "] Event stream opened: " + request);
+			new EventStream(jrestInstance, incoming, inputStream, workers, handler, request).serve();
+			return true;
+		}
+		
+		/**
+		 * Answer the request of a HTTP/2 stream.
+		 */
+		private void answer(Socket incoming, Http2Connection.Stream stream) throws IOException {
+			HttpRequest<?> request = stream.request;
+			if ( request == null ) {
+				RequestTimer timer = new RequestTimer(serverTiming);
+				Object parseEvent = JfrEvents.beginParse();
+				
+				String target = stream.path;
+				int question = target.indexOf('?');
+				String rawPath = question == -1 ? target : target.substring(0, question);
+				byte[] query = question == -1 ? null : target.substring(question + 1).getBytes(StandardCharsets.ISO_8859_1);
+				
+				// The body ends with the stream, whether or not its length was sent
+				long contentLength = getContentLength(stream.headers);
+				InputStream body = stream.getBody();
+				BodyInputStream bodyStream = body == null ? null : new BodyInputStream(body, contentLength >= 0 ? contentLength : Long.MAX_VALUE);
+				
+				request = createRequest(incoming, getMethod(stream.method), rawPath, query, stream.headers, contentLength, bodyStream, stream.received, timer, parseEvent);
+				if ( request == null ) {
+					stream.writeEmpty(HttpStatus.BAD_REQUEST);
+					return;
+				}
 			}
+			
+			handleRequest(stream, request);
 		}
 
 		/**
 		 * Gets HttpRequest from socket connection
 		 */
-		private <T> HttpRequest<Object> parseRequest(Socket incoming) throws IOException {
-			// Get incoming info
-			String address = incoming.getInetAddress().getHostAddress();
-			int port = incoming.getPort();
-			InputStream inputStream = incoming.getInputStream();
-			
-			// Parse input into strings
-			List<String> headerData = RestUtil.readRequestData(inputStream);
-			if (headerData == null || headerData.size() == 0)
+		private <T> HttpRequest<Object> parseRequest(Socket incoming, InputStream inputStream, byte[] head) throws IOException {
+			if (head == null || head.length == 0)
 				return null;
-			Object body = headerData.remove(headerData.size() - 1);
-
-			// Must have 2 strings
-			if (headerData.size() < 2)
+			long received = System.nanoTime();
+			RequestTimer timer = new RequestTimer(serverTiming);
+			Object parseEvent = JfrEvents.beginParse();
+			
+			int lineEnd = 0;
+			while (lineEnd < head.length && head[lineEnd] != '\n')
+				lineEnd++;
+			
+			// Create headers, must have at least one
+			HttpHeaders headers = HttpHeaders.parse(head, lineEnd + 1, head.length);
+			if (headers.size() == 0)
 				return null;
 
-			// Get some header info
-			String[] t1 = headerData.get(0).split(" ");
-			HttpMethod method = HttpMethod.valueOf(t1[0]);
-			String apiString = t1[1];
-			String[] apisplit = apiString.split("\\?", 2);
-			String api = apisplit[0];
-			Map<String, String> urlparams = new HashMap<>();
-			if ( apisplit.length > 1 )
-				urlparams = convertParams(apisplit[1]);
-
-			// Create headers
-			HttpHeaders headers = new HttpHeaders();
-			for (String string : headerData) {
-				String[] split = string.split(":", 2);
-				if (split.length != 2)
-					continue;
-				String key = split[0].trim();
-				String value = split[1].trim();
-
-				headers.put(key, value);
+			// Request line: method, target and version
+			int methodEnd = indexOf(head, (byte) ' ', 0, lineEnd);
+			int targetEnd = indexOf(head, (byte) ' ', methodEnd + 1, lineEnd);
+			HttpMethod method = getMethod(head, methodEnd);
+			if (method == null || methodEnd + 1 >= targetEnd)
+				return null;
+			
+			int question = indexOf(head, (byte) '?', methodEnd + 1, targetEnd);
+			String rawPath = new String(head, methodEnd + 1, question - methodEnd - 1, StandardCharsets.ISO_8859_1);
+			byte[] query = question == targetEnd ? null : Arrays.copyOfRange(head, question + 1, targetEnd);
+			
+			long contentLength = getContentLength(headers);
+			BodyInputStream bodyStream = new BodyInputStream(inputStream, contentLength);
+			if ( contentLength == 0 || (contentLength == -1 && inputStream.available() == 0) ) {
+				// No body sent
+				bodyStream = null;
 			}
 			
-			// Setup cookies
-			CookieManager cookieManager = cookieManagerServer.get(jrestInstance).get(incoming);
-			if (cookieManager == null)
-				cookieManagerServer.get(jrestInstance).put(incoming, cookieManager = new CookieManager());
+			return createRequest(incoming, method, rawPath, query, headers, contentLength, bodyStream, received, timer, parseEvent);
+		}
+		
+		/**
+		 * Create a request from its parts, the same for every version of the protocol. The body is left
+		 * on the connection until the endpoint asks for it, unless it holds form parameters.
+		 */
+		private HttpRequest<Object> createRequest(Socket incoming, HttpMethod method, String rawPath, byte[] query, HttpHeaders headers, long contentLength, BodyInputStream bodyStream, long received, RequestTimer timer, Object parseEvent) throws IOException {
+			if (method == null)
+				return null;
 			
-			// Read in cookies
+			byte[] form = null;
+
+			// Find session, other cookies are only parsed if the endpoint asks for them
+			String cookieHeader = headers.get(HttpHeaders.COOKIE);
 			HttpSession session = null;
-			String cookiesHeader = headers.get("Cookie");
-			if (cookiesHeader != null) {
-				String[] cookiesSplit = cookiesHeader.split(";"); // TODO find a better way to split the cookies. This format is not guaranteed.
-				for (String cookieString : cookiesSplit) {
-					List<HttpCookie> cookies = HttpCookie.parse(cookieString);
-					for (HttpCookie hcookie : cookies) {
-						if ( hcookie.getName().equalsIgnoreCase(HttpSession.SESSION_NAME) ) {
-							session = sessionStorage.get(hcookie.getValue());
-						} else {
-							cookieManager.getCookieStore().add(null, hcookie);
-						}
-					}
-				}
-			}
+			String sessionId = CookieCodec.getValue(cookieHeader, HttpSession.SESSION_NAME);
+			if (sessionId != null)
+				session = sessionStorage.get(sessionId);
 
 			// Get Body
-			String host = address.replace("0:0:0:0:0:0:0:1", "127.0.0.1");
-			URI uri = URI.create("http://" + host + ":" + port + api);
-			EndPointWrapper<?, ?> endpoint = getEndPoint(uri.getPath(), method);
-			if (endpoint != null) {
-				if ( endpoint.getConsumes().equals(MediaType.APPLICATION_FORM_URLENCODED) ) {
-					urlparams = convertParams(body.toString());
-					body = null;
-				} else {
-					body = RestUtil.convertToObject(body.toString(), endpoint.getBodyType());
-				}
+			long routeStart = System.nanoTime();
+			String path = StringUtil.decodePath(rawPath);
+			EndPointWrapper<?, ?> endpoint = routes.get(path, method);
+			timer.since(RequestTimer.Phase.ROUTE, routeStart);
+			
+			// Clients over the endpoint's rate limit are answered without reading the body
+			long limited = 0;
+			boolean warmUp = incoming instanceof WarmUp.WarmUpSocket;
+			if ( endpoint != null && endpoint.rateLimit != null && !warmUp )
+				limited = endpoint.rateLimit.acquire(incoming.getInetAddress(), headers, session);
+			
+			if ( limited == 0 && bodyStream != null && endpoint != null && endpoint.getConsumes().equals(MediaType.APPLICATION_FORM_URLENCODED) ) {
+				// Form parameters are needed up front, they are part of the url parameters
+				long bodyStart = System.nanoTime();
+				form = RestUtil.readFully(bodyStream);
+				bodyStream = null;
+				timer.since(RequestTimer.Phase.BODY, bodyStart);
 			}
 			
-			// Create request object
-			HttpRequest<Object> request = new HttpRequest<>(method, headers, body);
-			request.uri = uri;
-			request.urlParams = urlparams;
-			if (cookieManagerServer.get(jrestInstance).get(incoming) != null)
-				request.cookies = new ArrayList<>(cookieManagerServer.get(jrestInstance).get(incoming).getCookieStore().getCookies());
-			else 
-				request.cookies = new ArrayList<>();
+			// Create request object, the body is left on the connection until the endpoint asks for it
+			HttpRequest<Object> request = new HttpRequest<>(method, headers);
+			request.received = received;
+			request.timer = timer;
+			request.contentLength = contentLength;
+			request.rawPath = rawPath;
+			request.remoteAddress = incoming.getInetAddress();
+			request.remotePort = incoming.getPort();
+			request.endpoint = endpoint;
+			request.warmUp = warmUp;
+			if ( limited > 0 )
+				request.retryAfter = RateLimit.retryAfterSeconds(limited);
+			if (query != null || form != null)
+				request.urlParams = new HttpParameters(query, form);
+			request.bodyStream = bodyStream;
+			request.setCookieHeader(cookieHeader);
 			
 			request.setSession(session);
+			
+			// Everything since the head was read, apart from routing and reading a form body
+			timer.add(RequestTimer.Phase.PARSE, System.nanoTime() - received - timer.get(RequestTimer.Phase.ROUTE) - timer.get(RequestTimer.Phase.BODY));
+			JfrEvents.endParse(parseEvent, request);
 
 			// Return
 			return request;
 		}
 		
 		/**
-		 * Convert standard URL Parameters to map
+		 * Index of a byte in part of the head, or the end of that part if it is not there.
 		 */
-		private Map<String, String> convertParams(String str) {
-			Map<String, String> params = new HashMap<>();
-			String[] paramsplit = str.split("&");
-			for (String paramStr : paramsplit) {
-				String[] t = paramStr.split("=", 2);
-				if (t.length == 2) {
-					params.put(t[0], t[1]);
-				}
+		private int indexOf(byte[] head, byte b, int start, int end) {
+			for (int i = start; i < end; i++)
+				if (head[i] == b)
+					return i;
+			
+			return end;
+		}
+		
+		/**
+		 * Match the method name at the start of the head without creating a String. Returns null for unknown methods.
+		 */
+		private HttpMethod getMethod(byte[] head, int length) {
+			for (HttpMethod method : METHODS) {
+				String name = method.name();
+				if (name.length() != length)
+					continue;
+				
+				int i = 0;
+				while (i < length && head[i] == name.charAt(i))
+					i++;
+				
+				if (i == length)
+					return method;
 			}
 			
-			return params;
+			return null;
 		}
-
+		
+		/**
+		 * Match a method name, as HTTP/2 sends it. Returns null for unknown methods.
+		 */
+		private HttpMethod getMethod(String name) {
+			for (HttpMethod method : METHODS) {
+				if ( method.name().equals(name) )
+					return method;
+			}
+			
+			return null;
+		}
+		
+		/**
+		 * Returns the declared length of the request body, or -1 if it was not sent.
+		 */
+		private long getContentLength(HttpHeaders headers) {
+			String contentLength = headers.get(HttpHeaders.CONTENT_LENGTH);
+			if ( contentLength == null )
+				return -1;
+			
+			try {
+				return Long.parseLong(contentLength);
+			} catch(NumberFormatException e) {
+				return -1;
+			}
+		}
+		
 		/**
 		 * Runs when client makes http request to one of our endpoints.
 		 */
+		private void handleRequest(ResponseWriter writer, HttpRequest<?> request) throws IOException {
+			RouteMetrics route = request.endpoint != null ? request.endpoint.metrics : metrics.unmatched(request.getMethod());
+			route.inFlight.increment();
+			try {
+				respond(writer, request, route);
+			} finally {
+				route.inFlight.decrement();
+			}
+		}
+		
+		/**
+		 * Run the endpoint of a request and write its response.
+		 */
 		@SuppressWarnings("unchecked")
-		private <P,Q> void handleRequest(Socket socket, HttpRequest<P> request) throws UnsupportedEncodingException, IOException {
-			// Log
-			if (request != null)
-				jrestInstance.getLogger().trace("[" + new SimpleDateFormat("HH:mm:ss").format(System.currentTimeMillis()) + "] Incoming request: " + request);
+		private <P,Q> void respond(ResponseWriter writer, HttpRequest<P> request, RouteMetrics route) throws UnsupportedEncodingException, IOException {
+			// Log, only building the message if it will be written
+			if ( !request.warmUp )
+				jrestInstance.getLogger().trace(() -> "[" + LocalTime.now().format(LOG_TIME) + "] Incoming request: " + request);
 
 			// Get matching endpoint
-			EndPointWrapper<P, Q> endpoint = (EndPointWrapper<P, Q>) getEndPoint(request.getURI().getPath(), request.getMethod());
+			EndPointWrapper<P, Q> endpoint = (EndPointWrapper<P, Q>) request.endpoint;
 			MediaType produces = MediaType.TEXT_PLAIN;
 			HttpStatus status = HttpStatus.NOT_FOUND;
 			ResponseEntity<Q> response = null;
+			long handlerTime = 0;
+			Object handlerEvent = JfrEvents.beginHandler();
 			
-			// Query endpoint
-			if (endpoint != null) {
+			// Query endpoint, unless the client is over its rate limit
+			if (endpoint != null && request.retryAfter > 0) {
+				HttpHeaders headers = HttpHeaders.empty().put(HttpHeaders.RETRY_AFTER, String.valueOf(request.retryAfter));
+				response = (ResponseEntity<Q>) new ResponseEntity<String>(HttpStatus.TOO_MANY_REQUESTS, headers, HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase());
+				status = response.getStatus();
+			} else if (endpoint != null) {
 				produces = endpoint.getProduces();
-				response = endpoint.query(request);
-				if (response == null)
-					response = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+				long handlerStart = System.nanoTime();
+				long bodyTime = request.timer.get(RequestTimer.Phase.BODY);
+				try {
+					response = endpoint.query(request);
+					if (response == null)
+						response = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+				} catch(MarshallerException e) {
+					// Body could not be decoded when the endpoint asked for it
+					jrestInstance.getLogger().debug(e.getMessage());
+					produces = MediaType.TEXT_PLAIN;
+					response = (ResponseEntity<Q>) new ResponseEntity<String>(HttpStatus.BAD_REQUEST, e.getMessage());
+				}
+				handlerTime += System.nanoTime() - handlerStart - (request.timer.get(RequestTimer.Phase.BODY) - bodyTime);
 				
 				status = response.getStatus();
 			}
 			
 			// Status Handler override
-			if ( responseHandlerMap.containsKey(status) ) {
-				endpoint = (EndPointWrapper<P, Q>) responseHandlerMap.get(status);
-				if ( endpoint != null ) {
-					produces = endpoint.getProduces();
+			EndPointWrapper<P, Q> handler = (EndPointWrapper<P, Q>) routes.getHandler(status);
+			if ( handler != null ) {
+				endpoint = handler;
+				produces = endpoint.getProduces();
+				long handlerStart = System.nanoTime();
+				long bodyTime = request.timer.get(RequestTimer.Phase.BODY);
+				try {
 					response = endpoint.query(request);
-					if (response == null)
-						response = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-					
-					status = response.getStatus();
+				} catch(MarshallerException e) {
+					jrestInstance.getLogger().debug(e.getMessage());
+					response = null;
 				}
+				handlerTime += System.nanoTime() - handlerStart - (request.timer.get(RequestTimer.Phase.BODY) - bodyTime);
+				if (response == null)
+					response = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+				
+				status = response.getStatus();
 			}
 			
+			request.timer.add(RequestTimer.Phase.HANDLER, handlerTime);
+			JfrEvents.endHandler(handlerEvent, request, status);
+			
+			// Whatever the endpoints did not read is skipped, unread data would reset the connection
+			request.drainBody();
+			
 			if ( response != null ) {
-				// Put response cookies into manager
-				for (HttpCookie cookie : response.getCookies()) {
-					cookieManagerServer.get(jrestInstance).get(socket).getCookieStore().add(null, cookie);
-				}
-
-				Object body = response.getBody();
-				if (body == null)
-					body = new String();
-
-				// Convert body
-				String writeBody = RestUtil.convertToString(body);
-
 				// Get Cookie List
-				List<HttpCookie> cookiesList = new ArrayList<>();
-				if (cookieManagerServer.get(jrestInstance).containsKey(socket))
-					for (HttpCookie cookie : cookieManagerServer.get(jrestInstance).get(socket).getCookieStore().getCookies())
-						cookiesList.add(cookie);
+				List<HttpCookie> cookiesList = new ArrayList<>(response.getCookies());
 				
 				// Add in session (only if it exists, we dont want to generate one)
 				if ( request.hasSession() && request.session().isValid() )
 					cookiesList.add(SessionUtil.toCookie(request.session()));
 				
+				Object body = response.getBody();
+				if (body == null)
+					body = new String();
+				
+				// Tell clients holding the connection open not to send anything else while draining
+				HttpHeaders headers = response.getHeaders();
+				if ( draining )
+					headers = withConnectionClose(headers);
+				
+				// Stream bodies produced lazily, element by element
+				Iterator<?> elements = getElements(body);
+				if ( elements != null ) {
+					produces = negotiate(request, produces);
+					Marshaller marshaller = marshallers.get(produces);
+					if ( marshaller == null ) {
+						produces = MediaType.APPLICATION_JSON;
+						marshaller = marshallers.get(produces);
+					}
+					
+					long bytes = -1;
+					Object writeEvent = JfrEvents.beginWrite();
+					try {
+						bytes = writer.writeStream(status, produces, marshaller, elements, headers, cookiesList, request.timer);
+					} catch(RuntimeException e) {
+						jrestInstance.getLogger().error("Streamed response failed: " + e);
+					} finally {
+						if ( body instanceof BaseStream )
+							((BaseStream<?, ?>) body).close();
+					}
+					writer.close();
+					JfrEvents.endWrite(writeEvent, request, status, bytes, true);
+					completed(request, route, status, bytes);
+					return;
+				}
+
+				// Convert body, in the format the client asked for if we have a marshaller for it
+				Object writeEvent = JfrEvents.beginWrite();
+				long encodeStart = System.nanoTime();
+				byte[] writeBody;
+				if ( body instanceof String ) {
+					writeBody = StringUtil.utf8((String) body);
+				} else {
+					produces = negotiate(request, produces);
+					Marshaller marshaller = marshallers.get(produces);
+					if ( marshaller != null )
+						writeBody = marshaller.encode(body);
+					else
+						writeBody = StringUtil.utf8(RestUtil.convertToString(body));
+				}
+				request.timer.since(RequestTimer.Phase.ENCODE, encodeStart);
+				
 				// Write response
-				RestUtil.write(socket, jrestInstance.getServerName(), status, produces, writeBody, response.getHeaders(), cookiesList);
-				socket.getOutputStream().close();
+				long bytes = writer.write(status, produces, writeBody, headers, cookiesList, request.timer);
+				writer.close();
+				JfrEvents.endWrite(writeEvent, request, status, bytes, false);
+				completed(request, route, status, bytes);
+			} else {
+				writer.writeEmpty(status);
+				completed(request, route, status, 0);
 			}
 		}
+		
+		/**
+		 * Record a handled request in the metrics, and the access log if there is one.
+		 */
+		private void completed(HttpRequest<?> request, RouteMetrics route, HttpStatus status, long bytes) {
+			if ( request.warmUp )
+				return;
+			
+			long duration = System.nanoTime() - request.received;
+			route.record(status, request.contentLength, bytes, request.timer, duration);
+			
+			AccessLog accessLog = jrestInstance.accessLog;
+			if ( accessLog != null )
+				accessLog.log(request, status, bytes, duration);
+		}
+	}
+	
+	/**
+	 * Writes responses to a HTTP/1.1 connection.
+	 */
+	private final class SocketWriter implements ResponseWriter {
+		
+		private final Socket socket;
+		
+		SocketWriter(Socket socket) {
+			this.socket = socket;
+		}
+		
+		@Override
+		public long write(HttpStatus status, MediaType produces, byte[] body, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+			return RestUtil.write(socket, getServerName(), status, produces, body, headers, cookiesList, timer);
+		}
+		
+		@Override
+		public long writeStream(HttpStatus status, MediaType produces, Marshaller marshaller, Iterator<?> elements, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+			return RestUtil.writeStream(socket, getServerName(), status, produces, marshaller, elements, headers, cookiesList, timer);
+		}
+		
+		@Override
+		public void writeEmpty(HttpStatus status) throws IOException {
+			// Closed without a response
+			close();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			socket.getOutputStream().close();
+		}
+	}
+	
+	/**
+	 * Copy of response headers with Connection: close, the endpoint's own headers may be reused across requests.
+	 */
+	private static HttpHeaders withConnectionClose(HttpHeaders headers) {
+		HttpHeaders close = HttpHeaders.empty();
+		if ( headers != null ) {
+			for (Entry<String, String> header : headers.entrySet())
+				close.add(header.getKey(), header.getValue());
+		}
+		
+		return close.put(HttpHeaders.CONNECTION, "close");
+	}
+	
+	/**
+	 * Returns the elements of a response body that should be streamed (an {@link Iterator}, {@link java.util.stream.Stream}
+	 * or {@link Spliterator}), or null if the body is written in one piece.
+	 */
+	private static Iterator<?> getElements(Object body) {
+		if ( body instanceof Iterator )
+			return (Iterator<?>) body;
+		
+		if ( body instanceof BaseStream )
+			return ((BaseStream<?, ?>) body).iterator();
+		
+		if ( body instanceof Spliterator )
+			return Spliterators.iterator((Spliterator<?>) body);
+		
+		return null;
+	}
+	
+	/**
+	 * Pick the media type a structured response body is written in. Endpoints producing
+	 * {@link MediaType#ALL} or a type with a registered marshaller can answer in any registered
+	 * format the client prefers. Anything else is written as the endpoint declared.
+	 */
+	private MediaType negotiate(HttpRequest<?> request, MediaType produces) {
+		if ( !produces.isWildcard() && marshallers.get(produces) == null )
+			return produces;
+		
+		MediaType preferred = produces.isWildcard() ? MediaType.APPLICATION_JSON : produces;
+		MediaType negotiated = marshallers.negotiate(request.getHeaders().getAccept(), preferred);
+		return negotiated == null ? preferred : negotiated;
 	}
 	
 	/**
@@ -419,6 +1049,213 @@ public class JRest {
     	return this;
     }
 
+	/**
+	 * Get the request and connection metrics of this server.
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Serve the metrics of this server in Prometheus text format with a GET endpoint, such as "/metrics".
+	 */
+	public JRest addMetricsEndpoint(String endpoint) {
+		return this.addEndpoint(HttpMethod.GET, endpoint, MediaType.ALL, new MediaType(Metrics.PROMETHEUS_CONTENT_TYPE), (request) -> {
+			return new ResponseEntity<String>(HttpStatus.OK, metrics.toPrometheus());
+		});
+	}
+	
+	/**
+	 * Returns whether responses carry a Server-Timing header.
+	 */
+	public boolean isServerTiming() {
+		return this.serverTiming;
+	}
+	
+	/**
+	 * Send the time spent in each phase of handling a request (parse, route, body, handler, encode, gzip)
+	 * to the client in a Server-Timing header, so browser dev tools can show where the time went.
+	 * The timings are always recorded in the {@link #getMetrics() metrics}.
+	 */
+	public JRest setServerTiming(boolean serverTiming) {
+		this.serverTiming = serverTiming;
+		return this;
+	}
+	
+	/**
+	 * Get the access log requests are written to, or null if requests are not logged.
+	 */
+	public AccessLog getAccessLog() {
+		return this.accessLog;
+	}
+	
+	/**
+	 * Write a line for every request handled to an access log. Null stops logging requests.
+	 */
+	public JRest setAccessLog(AccessLog accessLog) {
+		this.accessLog = accessLog;
+		return this;
+	}
+
+	/**
+	 * Returns the TLS settings of the server, or null if it listens in plain text.
+	 */
+	public TlsConfig getTls() {
+		return this.tls;
+	}
+	
+	/**
+	 * Serve HTTPS, securing every listener with TLS. Null serves plain HTTP.
+	 * Must be called before starting the server.
+	 */
+	public JRest setTls(TlsConfig tls) {
+		if ( started ) {
+			this.getLogger().error("TLS cannot be specified on a server that is starting or has been started.");
+			return this;
+		}
+		
+		this.tls = tls;
+		return this;
+	}
+	
+	/**
+	 * Returns whether clear text connections can speak HTTP/2.
+	 */
+	public boolean isHttp2() {
+		return this.http2;
+	}
+	
+	/**
+	 * Let clear text connections speak HTTP/2 (h2c), either from the start with prior knowledge or by
+	 * upgrading a HTTP/1.1 request. Each request on a connection is answered on its own worker, so one
+	 * connection carries as many requests at once as {@link #setMaxConcurrentStreams(int)} allows.
+	 */
+	public JRest setHttp2(boolean http2) {
+		this.http2 = http2;
+		return this;
+	}
+	
+	public int getMaxConcurrentStreams() {
+		return this.maxConcurrentStreams;
+	}
+	
+	/**
+	 * Set how many requests a HTTP/2 connection can have in progress at once, more are refused for the client to retry.
+	 */
+	public JRest setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = Math.max(1, maxConcurrentStreams);
+		return this;
+	}
+	
+	public long getWebSocketPingInterval() {
+		return this.webSocketPingInterval;
+	}
+	
+	/**
+	 * Set how often idle WebSocket connections are pinged, in milliseconds. Clients that answer nothing
+	 * for two intervals are disconnected. 0 turns pings off.
+	 */
+	public JRest setWebSocketPingInterval(long millis) {
+		this.webSocketPingInterval = Math.max(0, millis);
+		return this;
+	}
+	
+	public int getWebSocketMaxMessageSize() {
+		return this.webSocketMaxMessageSize;
+	}
+	
+	/**
+	 * Set the largest message a WebSocket client can send, in bytes. Larger messages close the connection.
+	 */
+	public JRest setWebSocketMaxMessageSize(int bytes) {
+		this.webSocketMaxMessageSize = Math.max(125, bytes);
+		return this;
+	}
+	
+	public int getWebSocketSendQueue() {
+		return this.webSocketSendQueue;
+	}
+	
+	/**
+	 * Set how many bytes can wait to be sent to a WebSocket client before {@link WebSocket#send(Object)} refuses
+	 * more, so a slow client can not make the server hold everything sent to it.
+	 */
+	public JRest setWebSocketSendQueue(int bytes) {
+		this.webSocketSendQueue = Math.max(0, bytes);
+		return this;
+	}
+	
+	public int getEventStreamSendQueue() {
+		return this.eventStreamSendQueue;
+	}
+	
+	/**
+	 * Set how many bytes can wait to be sent to an event stream client before events for it are refused,
+	 * see {@link EventHub.SlowConsumerPolicy}.
+	 */
+	public JRest setEventStreamSendQueue(int bytes) {
+		this.eventStreamSendQueue = Math.max(0, bytes);
+		return this;
+	}
+	
+	public long getEventStreamKeepAlive() {
+		return this.eventStreamKeepAlive;
+	}
+	
+	/**
+	 * Set how long an event stream can go without events before a comment is sent to keep proxies from
+	 * closing it, in milliseconds. Clients that went away are also found this way. 0 sends nothing.
+	 */
+	public JRest setEventStreamKeepAlive(long millis) {
+		this.eventStreamKeepAlive = Math.max(0, millis);
+		return this;
+	}
+	
+	/**
+	 * Returns the longest time requests are replayed to warm up before listening, 0 if the server does not warm up.
+	 */
+	public long getWarmUp() {
+		return this.warmUpMillis;
+	}
+	
+	/**
+	 * Replay requests through the request pipeline in {@link #start()} before listening, so parsing, routing
+	 * and writing responses are compiled by the JIT before the first client arrives. Requests are replayed until
+	 * the JIT stops compiling or the time runs out. Endpoints registered before starting are called with a GET
+	 * request each, unless requests are added with {@link #addWarmUpRequest(HttpMethod, String)}.
+	 * Warm-up requests are not counted in the metrics or written to the access log, and sessions they ask for are
+	 * not stored. Endpoints are called for real though, any other side effects of their handlers happen each replay.
+	 */
+	public JRest setWarmUp(long millis) {
+		this.warmUpMillis = millis;
+		return this;
+	}
+	
+	/**
+	 * Add a request to replay when warming up, instead of a GET request to every endpoint.
+	 * Endpoints are called for real, so only add requests that are safe to repeat.
+	 */
+	public JRest addWarmUpRequest(HttpMethod method, String path) {
+		warmUp.add(WarmUp.request(method, path, null, null));
+		return this;
+	}
+	
+	/**
+	 * Add a request with a body to replay when warming up, see {@link #addWarmUpRequest(HttpMethod, String)}.
+	 */
+	public JRest addWarmUpRequest(HttpMethod method, String path, MediaType contentType, String body) {
+		warmUp.add(WarmUp.request(method, path, contentType, body.getBytes(StandardCharsets.UTF_8)));
+		return this;
+	}
+	
+	/**
+	 * Add a recorded request to replay when warming up, the head and body exactly as a client sent them.
+	 */
+	public JRest addWarmUpRequest(byte[] request) {
+		warmUp.add(request);
+		return this;
+	}
+	
 	/**
 	 * Returns whether the rest server has finished initializing.
 	 */
@@ -450,9 +1287,12 @@ public class JRest {
 	}
 	
 	/**
-	 * Return the port the server is running on.
+	 * Return the port the server is running on. For port 0 this is the port the system picked once the server is started.
 	 */
 	public int getPort() {
+		if ( this.port == 0 && !serverSockets.isEmpty() )
+			return serverSockets.get(0).getLocalPort();
+		
 		return this.port;
 	}
 	
@@ -460,7 +1300,7 @@ public class JRest {
 	 * Set the port the server will run on. Must be called before starting the server.
 	 */
 	public JRest setPort(int port) {
-		if ( started || server != null ) {
+		if ( started ) {
 			this.getLogger().error("Port cannot be specified on a server that is starting or has been started.");
 			return this;
 		}
@@ -480,7 +1320,7 @@ public class JRest {
 	 * Set whether the application will stay alive if no other non-daemon threads are running.
 	 */
 	public JRest setKeepApplicationAlive(boolean keepApplicationAlive) {
-		if ( started || server != null ) {
+		if ( started ) {
 			this.getLogger().error("KeepApplicationAlive cannot be specified on a server that is starting or has been started.");
 			return this;
 		}
@@ -489,12 +1329,118 @@ public class JRest {
 		return this;
 	}
 	
+	/**
+	 * Listen on an address as well as any added before, instead of on {@link #getPort()} of every interface.
+	 * Must be called before starting the server.
+	 */
+	public JRest addListener(InetSocketAddress address) {
+		if ( started ) {
+			this.getLogger().error("Listeners cannot be added to a server that is starting or has been started.");
+			return this;
+		}
+		
+		this.addresses.add(address);
+		return this;
+	}
+	
+	/**
+	 * Listen on a host name or address and port, see {@link #addListener(InetSocketAddress)}.
+	 */
+	public JRest addListener(String host, int port) {
+		return this.addListener(new InetSocketAddress(host, port));
+	}
+	
+	/**
+	 * Listen on a port of every interface, see {@link #addListener(InetSocketAddress)}.
+	 */
+	public JRest addListener(int port) {
+		return this.addListener(new InetSocketAddress(port));
+	}
+	
+	/**
+	 * Returns the addresses the server is listening on. Empty when it is not started.
+	 */
+	public List<InetSocketAddress> getListeners() {
+		List<InetSocketAddress> listeners = new ArrayList<>();
+		for (ServerSocket serverSocket : serverSockets)
+			listeners.add((InetSocketAddress) serverSocket.getLocalSocketAddress());
+		
+		return listeners;
+	}
+	
+	/**
+	 * Set how many connections can wait to be accepted before new ones are refused. 0 uses the default of 50.
+	 * Must be called before starting the server.
+	 */
+	public JRest setBacklog(int backlog) {
+		if ( started ) {
+			this.getLogger().error("Backlog cannot be specified on a server that is starting or has been started.");
+			return this;
+		}
+		
+		this.backlog = backlog;
+		return this;
+	}
+	
+	/**
+	 * Set how many threads accept connections on each listen socket. They share the socket, so while
+	 * one hands a connection to a worker another is already accepting the next. Defaults to 1.
+	 * Must be called before starting the server.
+	 */
+	public JRest setAcceptors(int acceptors) {
+		if ( started ) {
+			this.getLogger().error("Acceptors cannot be specified on a server that is starting or has been started.");
+			return this;
+		}
+		
+		this.acceptors = Math.max(1, acceptors);
+		return this;
+	}
+	
+	/**
+	 * Set whether TCP_NODELAY is set on connections, so responses are sent without waiting to fill a packet. Defaults to true.
+	 */
+	public JRest setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+	
+	/**
+	 * Set the receive buffer size (SO_RCVBUF) of connections. 0 leaves the system default.
+	 * Must be called before starting the server.
+	 */
+	public JRest setReceiveBufferSize(int receiveBufferSize) {
+		if ( started ) {
+			this.getLogger().error("ReceiveBufferSize cannot be specified on a server that is starting or has been started.");
+			return this;
+		}
+		
+		this.receiveBufferSize = receiveBufferSize;
+		return this;
+	}
+	
+	/**
+	 * Set the send buffer size (SO_SNDBUF) of connections. 0 leaves the system default.
+	 */
+	public JRest setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+		return this;
+	}
+	
 	/**
 	 * Return the session storage used for this JREST server.
 	 */
 	public static SessionStorage getSessionStorage() {
 		return sessionStorage;
 	}
+	
+	/**
+	 * Return the marshallers used to read and write bodies, by media type.
+	 * Register a {@link Marshaller} here to support another format.
+	 */
+	public static MarshallerRegistry getMarshallers() {
+		return marshallers;
+	}
 
 	/**
 	 * Registers a rest response handler to the rest server. This response endpoint serves to
@@ -511,7 +1457,8 @@ public class JRest {
 			this.getLogger().error("Could not register response handler. Server failed to start.");
 			return this;
 		}
-		responseHandlerMap.put(status, new EndPointWrapper<P, Q>(endpointObject, produces, produces, bodyType));
+		EndPointWrapper<P, Q> handler = new EndPointWrapper<P, Q>(endpointObject, produces, produces, bodyType);
+		register((builder) -> builder.handler(status, handler));
 		this.getLogger().debug("Registered Response Handler\t[" + status + "]");
 		return this;
 	}
@@ -556,24 +1503,19 @@ public class JRest {
 	 * @param object   Business logic interface
 	 */
 	public <P, Q> JRest addEndpoint(HttpMethod method, String endpoint, MediaType consumes, MediaType produces, Class<P> bodyType, Class<Q> returnType, EndPoint<Q,P> object) {
+		return addEndpoint(method, endpoint, consumes, produces, bodyType, returnType, object, null);
+	}
+	
+	private <P, Q> JRest addEndpoint(HttpMethod method, String endpoint, MediaType consumes, MediaType produces, Class<P> bodyType, Class<Q> returnType, EndPoint<Q,P> object, RateLimit rateLimit) {
 		if ( this.isErrored() ) {
 			this.getLogger().error("Could not register endpoint. Server failed to start.");
 			return this;
 		}
-		if ( !this.isStarted() ) {
-			this.getLogger().error("Could not register endpoint. Server is not started.");
-			return this;
-		}
-		if (!endpointMap.containsKey(endpoint)) {
-			endpointMap.put(endpoint, new HashMap<>());
-		}
-
-		Map<HttpMethod, EndPointWrapper<?,?>> t = endpointMap.get(endpoint);
-		if (t == null)
-			return this;
-
-		t.put(method, new EndPointWrapper<P, Q>(object, consumes, produces, bodyType));
-		this.getLogger().debug("Registered endpoint\t[" + method + "]\t " + endpoint);
+		EndPointWrapper<P, Q> wrapper = new EndPointWrapper<P, Q>(object, consumes, produces, bodyType);
+		wrapper.metrics = metrics.route(method, endpoint);
+		wrapper.rateLimit = rateLimit;
+		register((builder) -> builder.route(endpoint, method, wrapper));
+		this.getLogger().debug("Registered endpoint\t[" + method + "]\t " + endpoint + (rateLimit != null ? "\t " + rateLimit : ""));
 		return this;
 	}
 
@@ -735,7 +1677,7 @@ public class JRest {
 			return this;
 		}
 		
-		return this.addEndpoint(builder.getHttpMethod(), builder.getEndpoint(), builder.getConsumes(), builder.getProduces(), builder.getReceiveType(), builder.getReturnType(), builder.getRequest());
+		return this.addEndpoint(builder.getHttpMethod(), builder.getEndpoint(), builder.getConsumes(), builder.getProduces(), builder.getReceiveType(), builder.getReturnType(), builder.getRequest(), builder.getRateLimit());
 	}
 	
 	/**
@@ -759,4 +1701,54 @@ public class JRest {
 	public <P,Q> JRest post(String endpoint, EndPoint<Q,P> object) {
 		return addEndpoint(HttpMethod.POST, endpoint, object);
 	}
+	
+	/**
+	 * Add a WebSocket endpoint. Clients upgrade a GET request to the path, messages are encoded and decoded
+	 * with the marshaller of a media type, binary messages for binary formats such as CBOR.
+	 */
+	public <T> JRest addWebSocket(String endpoint, MediaType format, Class<T> messageType, WebSocketHandler<T> handler) {
+		if ( this.isErrored() ) {
+			this.getLogger().error("Could not register WebSocket. Server failed to start.");
+			return this;
+		}
+		WebSocket.Route<T> route = new WebSocket.Route<>(format, messageType, handler);
+		register((builder) -> builder.webSocket(endpoint, route));
+		this.getLogger().debug("Registered WebSocket\t " + endpoint);
+		return this;
+	}
+	
+	/**
+	 * Add a WebSocket endpoint with JSON messages.
+	 */
+	public <T> JRest addWebSocket(String endpoint, Class<T> messageType, WebSocketHandler<T> handler) {
+		return addWebSocket(endpoint, MediaType.APPLICATION_JSON, messageType, handler);
+	}
+	
+	/**
+	 * Add a WebSocket endpoint with messages as Strings.
+	 */
+	public JRest addWebSocket(String endpoint, WebSocketHandler<String> handler) {
+		return addWebSocket(endpoint, MediaType.TEXT_PLAIN, String.class, handler);
+	}
+	
+	/**
+	 * Add an event stream endpoint (Server-Sent Events). A GET to the path is answered with a text/event-stream
+	 * response that stays open, and the handler gets the stream to send events on.
+	 */
+	public JRest addEventStream(String endpoint, EventStreamHandler handler) {
+		if ( this.isErrored() ) {
+			this.getLogger().error("Could not register event stream. Server failed to start.");
+			return this;
+		}
+		register((builder) -> builder.eventStream(endpoint, handler));
+		this.getLogger().debug("Registered event stream\t " + endpoint);
+		return this;
+	}
+	
+	/**
+	 * Add an event stream endpoint that subscribes every client to a hub.
+	 */
+	public JRest addEventStream(String endpoint, EventHub hub) {
+		return addEventStream(endpoint, hub::subscribe);
+	}
 }
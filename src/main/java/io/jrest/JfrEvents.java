@@ -0,0 +1,53 @@
+package io.jrest;
+
+import java.net.Socket;
+
+/**
+ * Hooks the server calls at each step of handling a request, so they can be recorded as JDK Flight Recorder events.
+ * <br>
+ * This is the Java 8 version and does nothing. The jar is multi-release: on Java 11 and newer the version in
+ * src/main/java11 is loaded instead, which commits jdk.jfr events. Hooks that span a step return the event
+ * from begin, to be passed to the matching end; here that is always null.
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+		//
+	}
+
+	static void connectionAccepted(Socket socket) {
+		//
+	}
+
+	static Object beginParse() {
+		return null;
+	}
+
+	static void endParse(Object event, HttpRequest<?> request) {
+		//
+	}
+
+	static Object beginHandler() {
+		return null;
+	}
+
+	static void endHandler(Object event, HttpRequest<?> request, HttpStatus status) {
+		//
+	}
+
+	static Object beginWrite() {
+		return null;
+	}
+
+	static void endWrite(Object event, HttpRequest<?> request, HttpStatus status, long bytes, boolean streamed) {
+		//
+	}
+
+	static void sessionCreated(int sessions) {
+		//
+	}
+
+	static void sessionEvicted(int sessions) {
+		//
+	}
+}
@@ -0,0 +1,61 @@
+package io.jrest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with fixed buckets. Recording is lock free: each bucket is a {@link LongAdder},
+ * so threads recording at the same time do not contend on one counter.
+ */
+class LatencyHistogram {
+
+	/** Upper bounds of the buckets in seconds, the same defaults Prometheus clients use **/
+	static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+
+	static {
+		for (int i = 0; i < BOUNDS.length; i++)
+			BOUNDS_NANOS[i] = (long) (BOUNDS[i] * 1_000_000_000L);
+	}
+
+	/** Count per bucket, the last bucket holds everything above the largest bound **/
+	private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+	private final LongAdder sum = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * Record a duration in nanoseconds.
+	 */
+	void record(long nanos) {
+		int i = 0;
+		while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i])
+			i++;
+
+		buckets[i].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Write the histogram in Prometheus text format. Buckets are written cumulative, as Prometheus expects.
+	 */
+	void write(StringBuilder out, String name, String labels) {
+		long count = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			count += buckets[i].sum();
+			out.append(name).append("_bucket{").append(labels).append(",le=\"");
+			if ( i < BOUNDS.length )
+				out.append(BOUNDS[i]);
+			else
+				out.append("+Inf");
+			out.append("\"} ").append(count).append('\n');
+		}
+
+		out.append(name).append("_sum{").append(labels).append("} ").append(sum.sum() / 1e9).append('\n');
+		out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+	}
+}
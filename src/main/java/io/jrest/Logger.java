@@ -1,12 +1,19 @@
 package io.jrest;
 
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class Logger {
     
 	/** Minimum Log Level required to log data **/
     private LogType logLevel = LogType.TRACE;
     
+    /** Writer thread output is handed to when logging asynchronously, null when logging on the calling thread **/
+    private AsyncAppender<Line> appender;
+    
     /** Standard printing output **/
     private PrintStream standardOutput = System.out;
     
@@ -23,13 +30,19 @@ public class Logger {
     		return;
     	}
     	
-        if ( type.level < logLevel.level || logLevel == LogType.NONE )
+        if ( !isEnabled(type) )
             return;
         
         PrintStream outputStream = (type == LogType.ERROR) ? errorOutput : standardOutput;
         if ( outputStream == null )
         	return;
         
+        AsyncAppender<Line> appender = this.appender;
+        if ( appender != null ) {
+        	appender.append(new Line(outputStream, format(objects)));
+        	return;
+        }
+        
         for(Object o : objects) {        	
         	if ( o instanceof Exception ) {
         		((Exception)o).printStackTrace(outputStream);
@@ -40,6 +53,22 @@ public class Logger {
         
 		outputStream.println();
     }
+    
+    /**
+     * Requests to log a message that is only built if it will be written.
+     * Use this for messages that are costly to create.
+     */
+    public void log(LogType type, Supplier<?> message) {
+    	if ( type != null && isEnabled(type) )
+    		this.log(type, message.get());
+    }
+    
+    /**
+     * Returns whether output with a given severity would be written.
+     */
+    public boolean isEnabled(LogType type) {
+    	return type.level >= logLevel.level && logLevel != LogType.NONE;
+    }
 
     /**
      * Requests to log output with {@link LogType#TRACE} severity.
@@ -48,6 +77,13 @@ public class Logger {
     public void trace(Object...objects) {
         this.log(LogType.TRACE, objects);
     }
+    
+    /**
+     * Requests to log a message with {@link LogType#TRACE} severity, only building it if it will be written.
+     */
+    public void trace(Supplier<?> message) {
+        this.log(LogType.TRACE, message);
+    }
 
     /**
      * Requests to log output with {@link LogType#DEBUG} severity.
@@ -57,6 +93,13 @@ public class Logger {
         this.log(LogType.DEBUG, objects);
     }
     
+    /**
+     * Requests to log a message with {@link LogType#DEBUG} severity, only building it if it will be written.
+     */
+    public void debug(Supplier<?> message) {
+        this.log(LogType.DEBUG, message);
+    }
+    
     /**
      * Requests to log output with {@link LogType#WARN} severity.
      * See {@link Logger#getLogType()} to get what minimum log type is required for output to be written to stream.
@@ -65,6 +108,13 @@ public class Logger {
         this.log(LogType.WARN, objects);
     }
     
+    /**
+     * Requests to log a message with {@link LogType#WARN} severity, only building it if it will be written.
+     */
+    public void warn(Supplier<?> message) {
+        this.log(LogType.WARN, message);
+    }
+    
     /**
      * Requests to log output with {@link LogType#ERROR} severity.
      * See {@link Logger#getLogType()} to get what minimum log type is required for output to be written to stream.
@@ -73,6 +123,13 @@ public class Logger {
         this.log(LogType.ERROR, objects);
     }
     
+    /**
+     * Requests to log a message with {@link LogType#ERROR} severity, only building it if it will be written.
+     */
+    public void error(Supplier<?> message) {
+        this.log(LogType.ERROR, message);
+    }
+    
     /**
      * Sets the minimum log level required to log output.
      * Output requested to be written that is below this log type will be ignored.
@@ -116,6 +173,74 @@ public class Logger {
     	this.errorOutput = stream;
     }
 
+    /**
+     * Hand output to a writer thread instead of writing it on the calling thread. Output is queued in a ring buffer
+     * of a fixed size; if the writer falls behind and the buffer fills up, new output is dropped rather than
+     * making the caller wait, and a count of what was dropped is written once the writer catches up.
+     */
+    public synchronized void setAsync(boolean async) {
+    	if ( async && appender == null ) {
+    		appender = new AsyncAppender<>("JRest Logger", 8192, this::write);
+    	} else if ( !async && appender != null ) {
+    		// Write whatever is still queued
+    		AsyncAppender<Line> old = appender;
+    		appender = null;
+    		old.close();
+    	}
+    }
+    
+    /**
+     * Returns whether output is written by a writer thread.
+     */
+    public boolean isAsync() {
+    	return this.appender != null;
+    }
+    
+    /**
+     * Number of messages dropped because the asynchronous buffer was full.
+     */
+    public long getDropped() {
+    	AsyncAppender<Line> appender = this.appender;
+    	return appender == null ? 0 : appender.getDropped();
+    }
+    
+    /**
+     * Format output in to a single String on the calling thread, so the writer thread does not touch the objects.
+     */
+    private static String format(Object...objects) {
+    	StringWriter text = new StringWriter();
+    	PrintWriter writer = new PrintWriter(text);
+    	for(Object o : objects) {
+    		if ( o instanceof Exception )
+    			((Exception)o).printStackTrace(writer);
+    		else
+    			writer.print(o);
+    	}
+    	
+    	writer.flush();
+    	return text.toString();
+    }
+    
+    private void write(List<Line> batch, long dropped) {
+    	if ( dropped > 0 && errorOutput != null )
+    		errorOutput.println("[" + dropped + " log messages dropped]");
+    	
+    	for (Line line : batch)
+    		line.output.println(line.text);
+    }
+    
+    /** Output waiting for the writer thread **/
+    private static class Line {
+    	private final PrintStream output;
+    	
+    	private final String text;
+    	
+    	Line(PrintStream output, String text) {
+    		this.output = output;
+    		this.text = text;
+    	}
+    }
+
     public static enum LogType {
         TRACE(1),
         DEBUG(2),
@@ -1,7 +1,102 @@
 package io.jrest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
 public abstract class Marshaller {
 	public abstract <T> T parse(String body, T type);
 	
 	public abstract String stringify(Object body);
+	
+	/**
+	 * Parse a body directly from a character stream. Marshallers that can decode incrementally
+	 * should override this; the default reads the whole stream in to a String first.
+	 */
+	public <T> T parse(Reader body, T type) throws IOException {
+		if ( body == null )
+			return null;
+		
+		return parse(readString(body), type);
+	}
+	
+	/**
+	 * Encode a body in to the bytes written on the wire. Text marshallers write UTF-8.
+	 */
+	public byte[] encode(Object body) throws IOException {
+		return StringUtil.utf8(stringify(body));
+	}
+	
+	/**
+	 * Begin a body made of a sequence of elements, such as a streamed response. The default opens a json array.
+	 */
+	public void writeSequenceStart(OutputStream output) throws IOException {
+		output.write('[');
+	}
+	
+	/**
+	 * Write one element of a sequence body.
+	 */
+	public void writeSequenceElement(OutputStream output, Object element, boolean first) throws IOException {
+		if ( !first )
+			output.write(',');
+		
+		output.write(encode(element));
+	}
+	
+	/**
+	 * Finish a sequence body started with {@link #writeSequenceStart(OutputStream)}.
+	 */
+	public void writeSequenceEnd(OutputStream output) throws IOException {
+		output.write(']');
+	}
+	
+	/**
+	 * Resolve how bodies of a given type are decoded. Called once per type (for example when an endpoint
+	 * is registered) so that each request takes a single direct decode path.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Decoder<T> getDecoder(Class<T> type) {
+		return (body) -> (T) parse(reader(body), (Object) type);
+	}
+	
+	/**
+	 * Read the remainder of a character stream in to a String.
+	 */
+	protected static String readString(Reader body) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[1024];
+		int read;
+		while ((read = body.read(buffer)) != -1)
+			builder.append(buffer, 0, read);
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Wrap a body stream in a UTF-8 reader.
+	 */
+	protected static Reader reader(InputStream body) {
+		return new InputStreamReader(body, StandardCharsets.UTF_8);
+	}
+	
+	@FunctionalInterface
+	public static interface Decoder<T> {
+		/**
+		 * Decode a body. Returns null for an empty body.
+		 * @throws MarshallerException if the body is not valid for the type
+		 */
+		public T decode(InputStream body) throws IOException;
+	}
+	
+	/**
+	 * Decoder for text formats, reading from a character stream.
+	 */
+	@FunctionalInterface
+	protected static interface TextDecoder<T> {
+		public T decode(Reader body) throws IOException;
+	}
 }
@@ -0,0 +1,539 @@
+package io.jrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Compact binary marshaller for {@link MediaType#APPLICATION_CBOR} (RFC 8949). Encodes the same data model
+ * as json: Maps, Lists, Strings, numbers, Booleans and null, plus byte arrays. Decoded values use the same
+ * types as {@link MarshallerJson}. DTOs use their generated serializer if they have one. Other objects (DTOs, gson trees) are converted through Gson when it is available.
+ */
+public class MarshallerCbor extends Marshaller {
+
+	/** Maximum nesting of maps and arrays accepted by the decoder **/
+	private static final int MAX_DEPTH = 512;
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int MAJOR_SIMPLE = 7;
+
+	private static final int INDEFINITE = 31;
+	private static final int BREAK = 0xff;
+
+	/** Converts unknown objects in to Maps, Lists and primitives before encoding. May be null **/
+	private final Function<Object, Object> toTree;
+
+	/** Converts decoded trees in to other classes. May be null **/
+	private final BiFunction<Object, Class<?>, Object> fromTree;
+
+	public MarshallerCbor() {
+		this(null, null);
+	}
+
+	public MarshallerCbor(Function<Object, Object> toTree, BiFunction<Object, Class<?>, Object> fromTree) {
+		this.toTree = toTree;
+		this.fromTree = fromTree;
+	}
+
+	/**
+	 * CBOR is binary. For logging, returns the json equivalent of the body.
+	 */
+	@Override
+	public String stringify(Object body) {
+		StringBuilder builder = new StringBuilder();
+		boolean convert = toTree != null && !isTree(body) && GeneratedSerializer.get(body.getClass()) == null;
+		MarshallerJson.write(convert ? toTree.apply(body) : body, builder);
+		return builder.toString();
+	}
+
+	/**
+	 * CBOR is binary. Parses the json equivalent of a body, see {@link #stringify(Object)}.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T parse(String body, T type) {
+		if ( type == null || body == null )
+			return null;
+
+		try {
+			return (T) convert(MarshallerJson.parseTree(new StringReader(body)), (Class<?>) type);
+		} catch(IOException | MarshallerException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public byte[] encode(Object body) {
+		Output output = new Output();
+		write(body, output);
+		return output.toByteArray();
+	}
+
+	@Override
+	public void writeSequenceStart(OutputStream output) throws IOException {
+		output.write((MAJOR_ARRAY << 5) | INDEFINITE);
+	}
+
+	@Override
+	public void writeSequenceElement(OutputStream output, Object element, boolean first) throws IOException {
+		output.write(encode(element));
+	}
+
+	@Override
+	public void writeSequenceEnd(OutputStream output) throws IOException {
+		output.write(BREAK);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Decoder<T> getDecoder(Class<T> type) {
+		return (body) -> {
+			Input input = new Input(body);
+			if ( input.peek() == -1 )
+				return null;
+
+			Object tree = input.readValue(0);
+			if ( input.peek() != -1 )
+				throw new MarshallerException("Unexpected data after cbor value");
+
+			return (T) convert(tree, type);
+		};
+	}
+
+	/**
+	 * Convert a decoded tree in to the requested type.
+	 */
+	private Object convert(Object tree, Class<?> type) {
+		if ( tree == null || type.isInstance(tree) )
+			return tree;
+
+		GeneratedSerializer<?> serializer = GeneratedSerializer.get(type);
+		if ( serializer != null )
+			return serializer.decode(tree);
+
+		if ( fromTree != null )
+			return fromTree.apply(tree, type);
+
+		throw new MarshallerException("Could not decode body as " + type.getSimpleName() + ": found " + tree.getClass().getSimpleName() + ". DTO/POJO bodies require Gson or @GenerateSerializer.");
+	}
+
+	private static boolean isTree(Object value) {
+		return value == null || value instanceof Map || value instanceof Iterable || value instanceof CharSequence
+				|| value instanceof Number || value instanceof Boolean || value instanceof Character
+				|| value instanceof Enum || value.getClass().isArray();
+	}
+
+	private void write(Object value, Output out) {
+		if ( value == null ) {
+			out.write(0xf6);
+		} else if ( value instanceof CharSequence || value instanceof Character ) {
+			writeText(value.toString(), out);
+		} else if ( value instanceof Boolean ) {
+			out.write(((Boolean) value).booleanValue() ? 0xf5 : 0xf4);
+		} else if ( value instanceof Double || value instanceof Float || value instanceof BigDecimal ) {
+			double d = ((Number) value).doubleValue();
+			if ( d == (long) d && Math.abs(d) < 1e15 && !(d == 0 && 1 / d < 0) ) {
+				writeInteger((long) d, out);
+			} else if ( value instanceof Float ) {
+				out.write(0xfa);
+				out.writeInt(Float.floatToIntBits((Float) value));
+			} else {
+				out.write(0xfb);
+				out.writeLong(Double.doubleToLongBits(d));
+			}
+		} else if ( value instanceof BigInteger ) {
+			BigInteger big = (BigInteger) value;
+			if ( big.bitLength() < 64 )
+				writeInteger(big.longValue(), out);
+			else
+				write(big.doubleValue(), out);
+		} else if ( value instanceof Number ) {
+			writeInteger(((Number) value).longValue(), out);
+		} else if ( value instanceof byte[] ) {
+			byte[] bytes = (byte[]) value;
+			out.writeHead(MAJOR_BYTES, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		} else if ( value instanceof Map ) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeHead(MAJOR_MAP, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeText(String.valueOf(entry.getKey()), out);
+				write(entry.getValue(), out);
+			}
+		} else if ( value instanceof Collection ) {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeHead(MAJOR_ARRAY, collection.size());
+			for (Object element : collection)
+				write(element, out);
+		} else if ( value instanceof Iterable ) {
+			// Size unknown, use an indefinite length array
+			out.write((MAJOR_ARRAY << 5) | INDEFINITE);
+			for (Object element : (Iterable<?>) value)
+				write(element, out);
+			out.write(BREAK);
+		} else if ( value.getClass().isArray() ) {
+			int length = Array.getLength(value);
+			out.writeHead(MAJOR_ARRAY, length);
+			for (int i = 0; i < length; i++)
+				write(Array.get(value, i), out);
+		} else if ( value instanceof Enum ) {
+			writeText(((Enum<?>) value).name(), out);
+		} else if ( GeneratedSerializer.get(value.getClass()) != null ) {
+			write(GeneratedSerializer.toTreeOf(value), out);
+		} else if ( toTree != null ) {
+			write(toTree.apply(value), out);
+		} else {
+			writeText(value.toString(), out);
+		}
+	}
+
+	private static void writeInteger(long value, Output out) {
+		if ( value >= 0 )
+			out.writeHead(MAJOR_UNSIGNED, value);
+		else
+			out.writeHead(MAJOR_NEGATIVE, -1 - value);
+	}
+
+	/**
+	 * Write a text string, ASCII straight in to the output buffer.
+	 */
+	private static void writeText(String string, Output out) {
+		int length = string.length();
+		int i = 0;
+		while (i < length && string.charAt(i) < 0x80)
+			i++;
+
+		if ( i == length ) {
+			out.writeHead(MAJOR_TEXT, length);
+			out.writeAscii(string);
+			return;
+		}
+
+		// Encoded first so the length in the head always matches, unpaired surrogates become '?'
+		byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+		out.writeHead(MAJOR_TEXT, encoded.length);
+		out.write(encoded, 0, encoded.length);
+	}
+
+	/**
+	 * Growable byte buffer, avoiding the synchronization of {@link ByteArrayOutputStream}.
+	 */
+	private static final class Output {
+		private byte[] buffer = new byte[256];
+
+		private int size;
+
+		void write(int b) {
+			ensure(1);
+			buffer[size++] = (byte) b;
+		}
+
+		void write(byte[] bytes, int offset, int length) {
+			ensure(length);
+			System.arraycopy(bytes, offset, buffer, size, length);
+			size += length;
+		}
+
+		void writeAscii(String string) {
+			int length = string.length();
+			ensure(length);
+			for (int i = 0; i < length; i++)
+				buffer[size++] = (byte) string.charAt(i);
+		}
+
+		void writeHead(int major, long value) {
+			int type = major << 5;
+			if ( value < 24 ) {
+				write(type | (int) value);
+			} else if ( value <= 0xff ) {
+				write(type | 24);
+				write((int) value);
+			} else if ( value <= 0xffff ) {
+				write(type | 25);
+				write((int) (value >> 8));
+				write((int) value);
+			} else if ( value <= 0xffffffffL ) {
+				write(type | 26);
+				writeInt((int) value);
+			} else {
+				write(type | 27);
+				writeLong(value);
+			}
+		}
+
+		void writeInt(int value) {
+			ensure(4);
+			buffer[size++] = (byte) (value >> 24);
+			buffer[size++] = (byte) (value >> 16);
+			buffer[size++] = (byte) (value >> 8);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >> 32));
+			writeInt((int) value);
+		}
+
+		byte[] toByteArray() {
+			byte[] result = new byte[size];
+			System.arraycopy(buffer, 0, result, 0, size);
+			return result;
+		}
+
+		private void ensure(int length) {
+			if ( size + length <= buffer.length )
+				return;
+
+			byte[] larger = new byte[Math.max(buffer.length * 2, size + length)];
+			System.arraycopy(buffer, 0, larger, 0, size);
+			buffer = larger;
+		}
+	}
+
+	/**
+	 * Buffered cbor reader.
+	 */
+	private static final class Input {
+		private final InputStream stream;
+
+		private final byte[] buffer = new byte[1024];
+
+		private int position;
+
+		private int limit;
+
+		Input(InputStream stream) {
+			this.stream = stream;
+		}
+
+		Object readValue(int depth) throws IOException {
+			int initial = read();
+			if ( initial == -1 )
+				throw new MarshallerException("Unexpected end of cbor input");
+
+			return readValue(initial, depth);
+		}
+
+		private Object readValue(int initial, int depth) throws IOException {
+			int major = initial >> 5;
+			int info = initial & 0x1f;
+
+			switch (major) {
+			case MAJOR_UNSIGNED:
+				return toNumber(readArgument(info), false);
+			case MAJOR_NEGATIVE:
+				return toNumber(readArgument(info), true);
+			case MAJOR_BYTES:
+				return readString(info, MAJOR_BYTES);
+			case MAJOR_TEXT:
+				return new String(readString(info, MAJOR_TEXT), StandardCharsets.UTF_8);
+			case MAJOR_ARRAY: {
+				checkDepth(depth);
+				List<Object> list;
+				if ( info == INDEFINITE ) {
+					list = new ArrayList<>();
+					int next;
+					while ((next = readRequired()) != BREAK)
+						list.add(readValue(next, depth + 1));
+				} else {
+					long length = readArgument(info);
+					list = new ArrayList<>((int) Math.min(length, 1024));
+					for (long i = 0; i < length; i++)
+						list.add(readValue(depth + 1));
+				}
+				return list;
+			}
+			case MAJOR_MAP: {
+				checkDepth(depth);
+				Map<String, Object> map = new LinkedHashMap<>();
+				if ( info == INDEFINITE ) {
+					int next;
+					while ((next = readRequired()) != BREAK)
+						map.put(String.valueOf(readValue(next, depth + 1)), readValue(depth + 1));
+				} else {
+					long length = readArgument(info);
+					for (long i = 0; i < length; i++)
+						map.put(String.valueOf(readValue(depth + 1)), readValue(depth + 1));
+				}
+				return map;
+			}
+			case MAJOR_TAG:
+				// Tags only add meaning to the value that follows
+				checkDepth(depth);
+				readArgument(info);
+				return readValue(depth + 1);
+			default:
+				return readSimple(info);
+			}
+		}
+
+		private Object readSimple(int info) throws IOException {
+			switch (info) {
+			case 20:
+				return Boolean.FALSE;
+			case 21:
+				return Boolean.TRUE;
+			case 22:
+			case 23:
+				return null;
+			case 25:
+				return (double) halfToFloat((readRequired() << 8) | readRequired());
+			case 26:
+				return (double) Float.intBitsToFloat((int) readUnsigned(4));
+			case 27:
+				return Double.longBitsToDouble(readUnsigned(8));
+			default:
+				throw new MarshallerException("Unsupported cbor simple value " + info);
+			}
+		}
+
+		/**
+		 * Read a byte or text string, joining chunks of indefinite length strings.
+		 */
+		private byte[] readString(int info, int major) throws IOException {
+			if ( info == INDEFINITE ) {
+				ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+				int next;
+				while ((next = readRequired()) != BREAK) {
+					if ( next >> 5 != major )
+						throw new MarshallerException("Invalid chunk in indefinite length cbor string");
+					byte[] chunk = readString(next & 0x1f, major);
+					chunks.write(chunk, 0, chunk.length);
+				}
+				return chunks.toByteArray();
+			}
+
+			long length = readArgument(info);
+			if ( length > Integer.MAX_VALUE - 8 )
+				throw new MarshallerException("Cbor string too long");
+
+			// Grow as data arrives rather than trusting the declared length
+			if ( length > 65536 ) {
+				ByteArrayOutputStream data = new ByteArrayOutputStream(65536);
+				for (long i = 0; i < length; i++)
+					data.write(readRequired());
+				return data.toByteArray();
+			}
+
+			byte[] data = new byte[(int) length];
+			int copied = 0;
+			while (copied < data.length) {
+				if ( position == limit && !fill() )
+					throw new MarshallerException("Unexpected end of cbor input");
+
+				int count = Math.min(data.length - copied, limit - position);
+				System.arraycopy(buffer, position, data, copied, count);
+				position += count;
+				copied += count;
+			}
+			return data;
+		}
+
+		private long readArgument(int info) throws IOException {
+			if ( info < 24 )
+				return info;
+
+			switch (info) {
+			case 24:
+				return readUnsigned(1);
+			case 25:
+				return readUnsigned(2);
+			case 26:
+				return readUnsigned(4);
+			case 27:
+				return readUnsigned(8);
+			default:
+				throw new MarshallerException("Invalid cbor argument " + info);
+			}
+		}
+
+		private long readUnsigned(int bytes) throws IOException {
+			long value = 0;
+			for (int i = 0; i < bytes; i++)
+				value = (value << 8) | readRequired();
+			return value;
+		}
+
+		private static Number toNumber(long value, boolean negative) {
+			// Values above Long.MAX_VALUE wrap negative
+			if ( value < 0 ) {
+				BigInteger big = new BigInteger(Long.toUnsignedString(value));
+				return negative ? big.negate().subtract(BigInteger.ONE).doubleValue() : big.doubleValue();
+			}
+
+			return negative ? -1 - value : value;
+		}
+
+		private static float halfToFloat(int half) {
+			int exponent = (half >> 10) & 0x1f;
+			int mantissa = half & 0x3ff;
+			float value;
+			if ( exponent == 0 )
+				value = mantissa * (float) Math.pow(2, -24);
+			else if ( exponent != 31 )
+				value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+			else
+				value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+
+			return (half & 0x8000) != 0 ? -value : value;
+		}
+
+		private static void checkDepth(int depth) {
+			if ( depth >= MAX_DEPTH )
+				throw new MarshallerException("Cbor nested deeper than " + MAX_DEPTH);
+		}
+
+		int peek() throws IOException {
+			if ( position == limit && !fill() )
+				return -1;
+
+			return buffer[position] & 0xff;
+		}
+
+		private int read() throws IOException {
+			if ( position == limit && !fill() )
+				return -1;
+
+			return buffer[position++] & 0xff;
+		}
+
+		private int readRequired() throws IOException {
+			int b = read();
+			if ( b == -1 )
+				throw new MarshallerException("Unexpected end of cbor input");
+
+			return b;
+		}
+
+		private boolean fill() throws IOException {
+			position = 0;
+			limit = 0;
+
+			int read = stream.read(buffer, 0, buffer.length);
+			if ( read <= 0 )
+				return false;
+
+			limit = read;
+			return true;
+		}
+	}
+}
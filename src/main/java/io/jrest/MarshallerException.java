@@ -0,0 +1,18 @@
+package io.jrest;
+
+/**
+ * Thrown by a {@link Marshaller} when a body cannot be decoded in to the requested type.
+ * The server answers these with {@link HttpStatus#BAD_REQUEST}.
+ */
+public class MarshallerException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MarshallerException(String message) {
+		super(message);
+	}
+
+	public MarshallerException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -1,13 +1,19 @@
 package io.jrest;
 
-import java.lang.reflect.Type;
-import java.util.List;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MarshallerGson extends Marshaller {
 
 	private com.google.gson.Gson gson;
 	
+	/** Decode path for each body type, resolved on first use **/
+	private final Map<Class<?>, TextDecoder<?>> decoders = new ConcurrentHashMap<>();
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T parse(String body, T type) {
@@ -17,52 +23,128 @@ public class MarshallerGson extends Marshaller {
 		if ( type == null || body == null )
 			return null;
 		
-		// Kinda ugly PLS FIX
-		if ( body.length() > 1024 ) {
-			body = body.trim();
+		try {
+			return (T) getTextDecoder((Class<?>) type).decode(new StringReader(body));
+		} catch(IOException | MarshallerException e) {
+			return null;
 		}
+	}
+	
+	/**
+	 * Deserializes straight from the reader without building an intermediate String.
+	 * @throws MarshallerException if the body is not valid json for the type
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T parse(Reader body, T type) throws IOException {
+		if ( type == null || body == null )
+			return null;
 		
-		Class<?> c = (Class<?>) type;
+		return (T) getTextDecoder((Class<?>) type).decode(body);
+	}
+	
+	@Override
+	public <T> Decoder<T> getDecoder(Class<T> type) {
+		TextDecoder<T> decoder = getTextDecoder(type);
+		return (body) -> decoder.decode(reader(body));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> TextDecoder<T> getTextDecoder(Class<T> type) {
+		return (TextDecoder<T>) decoders.computeIfAbsent(type, this::createDecoder);
+	}
+	
+	/**
+	 * Picks the single decode path used for a type.
+	 */
+	private TextDecoder<?> createDecoder(Class<?> c) {
+		if ( gson == null )
+			gson = new com.google.gson.GsonBuilder().serializeNulls().setLenient().create();
 		
-		// Convert to user specific DTO object
-		if ( !String.class.isAssignableFrom(c) ) {
-			try {
-				return (T) gson.fromJson(body, c);
-			} catch(Exception e) {
-				//
-			}
-		}
-
-		// Convert to gson tree
-		if (com.google.gson.JsonObject.class.isAssignableFrom(c)) {
-			return (T) gson.fromJson(body, c);
-		}
-
-		// json array
-		if (com.google.gson.JsonArray.class.isAssignableFrom(c)) {
-			Type empMapType = new com.google.gson.reflect.TypeToken<List<Object>>() {}.getType();
-			Object obj = gson.fromJson(body, empMapType);
-			return (T) gson.toJsonTree(obj).getAsJsonArray();
+		// Strings are not json
+		if ( String.class.isAssignableFrom(c) ) {
+			return (body) -> {
+				String text = readString(body);
+				return text.length() == 0 ? null : text;
+			};
 		}
-
-		// Convert to map
-		if (Map.class.isAssignableFrom(c)) {
-			Type empMapType = new com.google.gson.reflect.TypeToken<Map<String, Object>>() {}.getType();
-			return gson.fromJson(body, empMapType);
+		
+		// Untyped endpoints get json trees, or the raw text if the body is not json
+		if ( c == Object.class ) {
+			com.google.gson.TypeAdapter<?> adapter = gson.getAdapter(Object.class);
+			return (body) -> {
+				String text = readString(body);
+				String trimmed = text.trim();
+				if ( trimmed.startsWith("{") || trimmed.startsWith("[") )
+					return read(adapter, new StringReader(text), c);
+				
+				return text.length() == 0 ? null : text;
+			};
 		}
-
-		// Convert to list
-		if (List.class.isAssignableFrom(c)) {
-			Type empMapType = new com.google.gson.reflect.TypeToken<List<Object>>() {}.getType();
-			return gson.fromJson(body, empMapType);
+		
+		// DTOs with a generated serializer skip reflection
+		GeneratedSerializer<?> serializer = GeneratedSerializer.get(c);
+		if ( serializer != null )
+			return (body) -> serializer.decode(MarshallerJson.parseTree(body));
+		
+		// Map, list, gson tree or user specific DTO object
+		com.google.gson.TypeAdapter<?> adapter = gson.getAdapter(c);
+		return (body) -> read(adapter, body, c);
+	}
+	
+	/**
+	 * Reads one json value with a type adapter. Malformed json is reported as a {@link MarshallerException}.
+	 */
+	private Object read(com.google.gson.TypeAdapter<?> adapter, Reader body, Class<?> c) throws IOException {
+		com.google.gson.stream.JsonReader reader = gson.newJsonReader(body);
+		try {
+			if ( reader.peek() == com.google.gson.stream.JsonToken.END_DOCUMENT )
+				return null;
+		} catch(EOFException e) {
+			// Empty body
+			return null;
 		}
 		
-		return null;
+		try {
+			return adapter.read(reader);
+		} catch(com.google.gson.JsonParseException | com.google.gson.stream.MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+			throw new MarshallerException("Could not decode body as " + c.getSimpleName() + ": " + e.getMessage(), e);
+		}
 	}
 
 	@Override
 	public String stringify(Object body) {
+		if ( body != null && GeneratedSerializer.get(body.getClass()) != null ) {
+			StringBuilder builder = new StringBuilder();
+			MarshallerJson.write(body, builder);
+			return builder.toString();
+		}
+		
 		return gson.toJson(body);
 	}
+	
+	/**
+	 * Convert anything Gson can serialize (DTOs, gson trees) in to Maps, Lists and primitives without going through json text.
+	 */
+	public Object toTree(Object body) {
+		if ( gson == null )
+			gson = new com.google.gson.GsonBuilder().serializeNulls().setLenient().create();
+		
+		return gson.fromJson(gson.toJsonTree(body), Object.class);
+	}
+	
+	/**
+	 * Convert Maps, Lists and primitives in to a given type without going through json text.
+	 */
+	public <T> T fromTree(Object tree, Class<T> type) {
+		if ( gson == null )
+			gson = new com.google.gson.GsonBuilder().serializeNulls().setLenient().create();
+		
+		try {
+			return gson.fromJson(gson.toJsonTree(tree), type);
+		} catch(com.google.gson.JsonParseException | IllegalStateException | NumberFormatException e) {
+			throw new MarshallerException("Could not decode body as " + type.getSimpleName() + ": " + e.getMessage(), e);
+		}
+	}
 
 }
@@ -0,0 +1,523 @@
+package io.jrest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Built in json marshaller used when Gson is not available. Reads json in to trees of
+ * {@link LinkedHashMap}, {@link ArrayList}, String, Long, Double, Boolean and null, and writes
+ * Maps, Iterables, arrays and primitives back out. DTO/POJO classes require Gson, or a serializer generated with {@link GenerateSerializer}.
+ */
+public class MarshallerJson extends Marshaller {
+
+	/** Maximum nesting of objects and arrays accepted by the parser **/
+	private static final int MAX_DEPTH = 512;
+
+	/** Escape sequences for the first 128 characters. Null means the character is written as is **/
+	private static final String[] ESCAPES = new String[128];
+
+	static {
+		for (int i = 0; i < 0x20; i++)
+			ESCAPES[i] = String.format("\\u%04x", i);
+
+		ESCAPES['"'] = "\\\"";
+		ESCAPES['\\'] = "\\\\";
+		ESCAPES['\b'] = "\\b";
+		ESCAPES['\f'] = "\\f";
+		ESCAPES['\n'] = "\\n";
+		ESCAPES['\r'] = "\\r";
+		ESCAPES['\t'] = "\\t";
+	}
+
+	/** Decode path for each body type, resolved on first use **/
+	private final Map<Class<?>, TextDecoder<?>> decoders = new ConcurrentHashMap<>();
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T parse(String body, T type) {
+		if ( type == null || body == null )
+			return null;
+
+		try {
+			return (T) getTextDecoder((Class<?>) type).decode(new StringReader(body));
+		} catch(IOException | MarshallerException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deserializes straight from the reader without building an intermediate String.
+	 * @throws MarshallerException if the body is not valid json for the type
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T parse(Reader body, T type) throws IOException {
+		if ( type == null || body == null )
+			return null;
+
+		return (T) getTextDecoder((Class<?>) type).decode(body);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Decoder<T> getDecoder(Class<T> type) {
+		TextDecoder<T> decoder = getTextDecoder(type);
+		return (body) -> decoder.decode(reader(body));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> TextDecoder<T> getTextDecoder(Class<T> type) {
+		return (TextDecoder<T>) decoders.computeIfAbsent(type, MarshallerJson::createDecoder);
+	}
+
+	@Override
+	public String stringify(Object body) {
+		StringBuilder builder = new StringBuilder();
+		write(body, builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Picks the single decode path used for a type.
+	 */
+	private static TextDecoder<?> createDecoder(Class<?> c) {
+		// Strings are not json
+		if ( String.class.isAssignableFrom(c) ) {
+			return (body) -> {
+				String text = readString(body);
+				return text.length() == 0 ? null : text;
+			};
+		}
+
+		// Untyped endpoints get json trees, or the raw text if the body is not json
+		if ( c == Object.class ) {
+			return (body) -> {
+				String text = readString(body);
+				String trimmed = text.trim();
+				if ( trimmed.startsWith("{") || trimmed.startsWith("[") )
+					return new Parser(new StringReader(text)).parseDocument();
+
+				return text.length() == 0 ? null : text;
+			};
+		}
+
+		// DTOs with a generated serializer
+		GeneratedSerializer<?> serializer = GeneratedSerializer.get(c);
+		if ( serializer != null )
+			return (body) -> serializer.decode(new Parser(body).parseDocument());
+
+		// Map, List or a json primitive
+		return (body) -> {
+			Object value = new Parser(body).parseDocument();
+			if ( value == null || c.isInstance(value) )
+				return value;
+
+			throw new MarshallerException("Could not decode body as " + c.getSimpleName() + ": found " + value.getClass().getSimpleName() + ". DTO/POJO bodies require Gson or @GenerateSerializer.");
+		};
+	}
+
+	/**
+	 * Parse a json document in to a tree of Maps, Lists and primitives.
+	 * @throws MarshallerException if the document is not valid json
+	 */
+	public static Object parseTree(Reader body) throws IOException {
+		return new Parser(body).parseDocument();
+	}
+
+	/**
+	 * Write a value as json. Maps, Iterables and arrays are written recursively,
+	 * Numbers and Booleans as literals, DTOs with a generated serializer as objects, and anything else as a json string of its toString().
+	 */
+	public static void write(Object value, StringBuilder out) {
+		if ( value == null ) {
+			out.append("null");
+		} else if ( value instanceof CharSequence || value instanceof Character ) {
+			writeString(value.toString(), out);
+		} else if ( value instanceof Number ) {
+			writeNumber((Number) value, out);
+		} else if ( value instanceof Boolean ) {
+			out.append(((Boolean) value).booleanValue() ? "true" : "false");
+		} else if ( value instanceof Map ) {
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if ( !first )
+					out.append(',');
+				writeString(String.valueOf(entry.getKey()), out);
+				out.append(':');
+				write(entry.getValue(), out);
+				first = false;
+			}
+			out.append('}');
+		} else if ( value instanceof Iterable ) {
+			out.append('[');
+			boolean first = true;
+			for (Object element : (Iterable<?>) value) {
+				if ( !first )
+					out.append(',');
+				write(element, out);
+				first = false;
+			}
+			out.append(']');
+		} else if ( value.getClass().isArray() ) {
+			out.append('[');
+			int length = Array.getLength(value);
+			for (int i = 0; i < length; i++) {
+				if ( i > 0 )
+					out.append(',');
+				write(Array.get(value, i), out);
+			}
+			out.append(']');
+		} else if ( value instanceof Enum ) {
+			writeString(((Enum<?>) value).name(), out);
+		} else if ( !GeneratedSerializer.writeJson(value, out) ) {
+			writeString(value.toString(), out);
+		}
+	}
+
+	/**
+	 * Write a json string literal, escaping quotes, backslashes and control characters.
+	 */
+	public static void writeString(String string, StringBuilder out) {
+		out.append('"');
+
+		// Copy unescaped runs in one go
+		int start = 0;
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			char ch = string.charAt(i);
+			String escape;
+			if ( ch < 128 ) {
+				escape = ESCAPES[ch];
+			} else if ( ch == 0x2028 ) {
+				escape = "\\u2028";
+			} else if ( ch == 0x2029 ) {
+				escape = "\\u2029";
+			} else {
+				continue;
+			}
+
+			if ( escape == null )
+				continue;
+
+			out.append(string, start, i);
+			out.append(escape);
+			start = i + 1;
+		}
+
+		out.append(string, start, length);
+		out.append('"');
+	}
+
+	static void writeNumber(Number number, StringBuilder out) {
+		if ( number instanceof Double || number instanceof Float ) {
+			double d = number.doubleValue();
+			if ( Double.isNaN(d) || Double.isInfinite(d) ) {
+				out.append("null");
+				return;
+			}
+
+			// Whole numbers are written without a fraction
+			if ( d == Math.rint(d) && Math.abs(d) < 1e15 ) {
+				out.append((long) d);
+				return;
+			}
+		}
+
+		out.append(number.toString());
+	}
+
+	/**
+	 * Single use recursive descent parser reading from a buffered Reader.
+	 */
+	private static final class Parser {
+		private final Reader reader;
+
+		private final char[] buffer = new char[1024];
+
+		private final StringBuilder scratch = new StringBuilder();
+
+		private int position;
+
+		private int limit;
+
+		/** Characters consumed before the current buffer, for error messages **/
+		private long offset;
+
+		private int depth;
+
+		Parser(Reader reader) {
+			this.reader = reader;
+		}
+
+		/**
+		 * Parse one value and make sure nothing but whitespace follows it. Returns null for an empty document.
+		 */
+		Object parseDocument() throws IOException {
+			if ( skipWhitespace() == -1 )
+				return null;
+
+			Object value = readValue();
+			if ( skipWhitespace() != -1 )
+				throw error("Unexpected data after json value");
+
+			return value;
+		}
+
+		private Object readValue() throws IOException {
+			int c = skipWhitespace();
+			switch (c) {
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case '"':
+				position++;
+				return readString();
+			case 't':
+				expectLiteral("true");
+				return Boolean.TRUE;
+			case 'f':
+				expectLiteral("false");
+				return Boolean.FALSE;
+			case 'n':
+				expectLiteral("null");
+				return null;
+			case -1:
+				throw error("Unexpected end of input");
+			default:
+				if ( c == '-' || (c >= '0' && c <= '9') )
+					return readNumber();
+
+				throw error("Unexpected character '" + (char) c + "'");
+			}
+		}
+
+		private Map<String, Object> readObject() throws IOException {
+			enter();
+			position++;
+
+			Map<String, Object> map = new LinkedHashMap<>();
+			if ( skipWhitespace() == '}' ) {
+				position++;
+				depth--;
+				return map;
+			}
+
+			while (true) {
+				if ( skipWhitespace() != '"' )
+					throw error("Expected object key");
+				position++;
+				String key = readString();
+
+				if ( skipWhitespace() != ':' )
+					throw error("Expected ':'");
+				position++;
+
+				map.put(key, readValue());
+
+				int c = skipWhitespace();
+				position++;
+				if ( c == ',' )
+					continue;
+				if ( c == '}' )
+					break;
+
+				position--;
+				throw error("Expected ',' or '}'");
+			}
+
+			depth--;
+			return map;
+		}
+
+		private List<Object> readArray() throws IOException {
+			enter();
+			position++;
+
+			List<Object> list = new ArrayList<>();
+			if ( skipWhitespace() == ']' ) {
+				position++;
+				depth--;
+				return list;
+			}
+
+			while (true) {
+				list.add(readValue());
+
+				int c = skipWhitespace();
+				position++;
+				if ( c == ',' )
+					continue;
+				if ( c == ']' )
+					break;
+
+				position--;
+				throw error("Expected ',' or ']'");
+			}
+
+			depth--;
+			return list;
+		}
+
+		/**
+		 * Read a string literal. The opening quote has already been consumed.
+		 */
+		private String readString() throws IOException {
+			scratch.setLength(0);
+			while (true) {
+				if ( position == limit && !fill() )
+					throw error("Unterminated string");
+
+				// Copy plain runs straight from the buffer
+				int start = position;
+				while (position < limit) {
+					char ch = buffer[position];
+					if ( ch == '"' || ch == '\\' || ch < 0x20 )
+						break;
+					position++;
+				}
+				scratch.append(buffer, start, position - start);
+
+				if ( position == limit )
+					continue;
+
+				char ch = buffer[position++];
+				if ( ch == '"' )
+					return scratch.toString();
+				if ( ch < 0x20 ) {
+					position--;
+					throw error("Control character in string");
+				}
+
+				scratch.append(readEscape());
+			}
+		}
+
+		private char readEscape() throws IOException {
+			int c = read();
+			switch (c) {
+			case '"':
+				return '"';
+			case '\\':
+				return '\\';
+			case '/':
+				return '/';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(read(), 16);
+					if ( digit == -1 )
+						throw error("Invalid unicode escape");
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				throw error("Invalid escape sequence");
+			}
+		}
+
+		private Number readNumber() throws IOException {
+			scratch.setLength(0);
+			boolean decimal = false;
+			while (true) {
+				if ( position == limit && !fill() )
+					break;
+
+				char ch = buffer[position];
+				if ( ch >= '0' && ch <= '9' || ch == '-' ) {
+					scratch.append(ch);
+				} else if ( ch == '.' || ch == 'e' || ch == 'E' || ch == '+' ) {
+					scratch.append(ch);
+					decimal = true;
+				} else {
+					break;
+				}
+				position++;
+			}
+
+			String number = scratch.toString();
+			if ( !decimal ) {
+				try {
+					return Long.parseLong(number);
+				} catch(NumberFormatException e) {
+					// Beyond a long, or not a number at all
+				}
+			}
+
+			try {
+				return Double.parseDouble(number);
+			} catch(NumberFormatException e) {
+				throw error("Invalid number '" + number + "'");
+			}
+		}
+
+		private void expectLiteral(String literal) throws IOException {
+			for (int i = 0; i < literal.length(); i++) {
+				if ( read() != literal.charAt(i) )
+					throw error("Expected '" + literal + "'");
+			}
+		}
+
+		private void enter() {
+			if ( ++depth > MAX_DEPTH )
+				throw error("Json nested deeper than " + MAX_DEPTH);
+		}
+
+		/**
+		 * Skip whitespace and return the next character without consuming it, or -1 at the end of input.
+		 */
+		private int skipWhitespace() throws IOException {
+			while (true) {
+				if ( position == limit && !fill() )
+					return -1;
+
+				char ch = buffer[position];
+				if ( ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t' )
+					return ch;
+				position++;
+			}
+		}
+
+		private int read() throws IOException {
+			if ( position == limit && !fill() )
+				return -1;
+
+			return buffer[position++];
+		}
+
+		private boolean fill() throws IOException {
+			offset += limit;
+			position = 0;
+			limit = 0;
+
+			int read = reader.read(buffer, 0, buffer.length);
+			if ( read <= 0 )
+				return false;
+
+			limit = read;
+			return true;
+		}
+
+		private MarshallerException error(String message) {
+			return new MarshallerException(message + " at character " + (offset + position));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package io.jrest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Newline delimited json: one json value per line. Sequences (Iterables, arrays, streamed responses)
+ * are written one element per line, so a client can process each element as soon as it arrives.
+ * Elements are read and written with the json marshaller.
+ */
+public class MarshallerNdjson extends Marshaller {
+
+	private static final byte NEWLINE = '\n';
+
+	/** Marshaller for single lines **/
+	private final Marshaller json;
+
+	public MarshallerNdjson(Marshaller json) {
+		this.json = json;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T parse(String body, T type) {
+		if ( type == null || body == null )
+			return null;
+
+		try {
+			return (T) getDecoder((Class<?>) type).decode(new ByteArrayInputStream(StringUtil.utf8(body)));
+		} catch(IOException | MarshallerException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String stringify(Object body) {
+		StringBuilder builder = new StringBuilder();
+		if ( body instanceof Iterable ) {
+			for (Object element : (Iterable<?>) body)
+				builder.append(json.stringify(element)).append('\n');
+		} else if ( body != null && body.getClass().isArray() ) {
+			for (int i = 0; i < Array.getLength(body); i++)
+				builder.append(json.stringify(Array.get(body, i))).append('\n');
+		} else {
+			builder.append(json.stringify(body)).append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Lists (or Object) receive every line as an element. Any other type is decoded from the first line.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> Decoder<T> getDecoder(Class<T> type) {
+		if ( type.isAssignableFrom(ArrayList.class) ) {
+			Decoder<Object> element = json.getDecoder(Object.class);
+			return (body) -> {
+				List<Object> list = new ArrayList<>();
+				for (String line : readLines(reader(body)))
+					list.add(element.decode(new ByteArrayInputStream(StringUtil.utf8(line))));
+
+				return list.isEmpty() ? null : (T) list;
+			};
+		}
+
+		Decoder<T> element = json.getDecoder(type);
+		return (body) -> {
+			List<String> lines = readLines(reader(body));
+			if ( lines.isEmpty() )
+				return null;
+
+			return element.decode(new ByteArrayInputStream(StringUtil.utf8(lines.get(0))));
+		};
+	}
+
+	@Override
+	public void writeSequenceStart(OutputStream output) {
+		// No framing, the body is just lines
+	}
+
+	@Override
+	public void writeSequenceElement(OutputStream output, Object element, boolean first) throws IOException {
+		output.write(json.encode(element));
+		output.write(NEWLINE);
+	}
+
+	@Override
+	public void writeSequenceEnd(OutputStream output) {
+		// No framing, the body is just lines
+	}
+
+	/**
+	 * Read the non blank lines of a body.
+	 */
+	private static List<String> readLines(Reader body) throws IOException {
+		List<String> lines = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(body);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if ( line.trim().length() > 0 )
+				lines.add(line);
+		}
+
+		return lines;
+	}
+}
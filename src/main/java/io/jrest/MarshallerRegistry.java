@@ -0,0 +1,111 @@
+package io.jrest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Marshallers keyed by the media type they read and write. Used to decode request bodies by their
+ * Content-Type, and to pick the response format from the Accept header of a request.
+ * By default json ({@link MarshallerGson} or {@link MarshallerJson}) cbor ({@link MarshallerCbor}) and ndjson ({@link MarshallerNdjson}) are registered.
+ */
+public class MarshallerRegistry {
+
+	/** Registered marshallers, in registration order. Replaced, never modified, so reads need no locking **/
+	private volatile Map<MediaType, Marshaller> marshallers;
+
+	public MarshallerRegistry() {
+		this.marshallers = new LinkedHashMap<>();
+		this.register(MediaType.APPLICATION_JSON, RestUtil.getJsonMarshaller());
+		this.register(MediaType.APPLICATION_CBOR, RestUtil.getCborMarshaller());
+		this.register(MediaType.APPLICATION_NDJSON, new MarshallerNdjson(RestUtil.getJsonMarshaller()));
+	}
+
+	/**
+	 * Register a marshaller for a media type, replacing any marshaller already registered for it.
+	 */
+	public synchronized MarshallerRegistry register(MediaType type, Marshaller marshaller) {
+		Map<MediaType, Marshaller> copy = new LinkedHashMap<>(this.marshallers);
+		copy.put(type, marshaller);
+		this.marshallers = copy;
+		return this;
+	}
+
+	/**
+	 * Get the marshaller registered for a media type. Parameters such as charset are ignored.
+	 * Returns null if there is none.
+	 */
+	public Marshaller get(MediaType type) {
+		if ( type == null )
+			return null;
+
+		return this.marshallers.get(type);
+	}
+
+	/**
+	 * Get the marshaller registered for a Content-Type header value. Returns null if there is none.
+	 */
+	public Marshaller get(String contentType) {
+		if ( contentType == null )
+			return null;
+
+		return get(new MediaType(contentType));
+	}
+
+	/**
+	 * Returns all media types that have a marshaller, in registration order.
+	 */
+	public List<MediaType> getMediaTypes() {
+		return new ArrayList<>(this.marshallers.keySet());
+	}
+
+	/**
+	 * Choose the registered media type the client prefers according to an Accept header.
+	 * The preferred media type wins ties. Returns the preferred media type if there is no Accept header,
+	 * or null if the client accepts none of the registered types.
+	 */
+	public MediaType negotiate(String accept, MediaType preferred) {
+		if ( accept == null || accept.trim().length() == 0 )
+			return preferred;
+
+		List<MediaType> ranges = MediaType.parseList(accept);
+		MediaType best = null;
+		double bestQuality = 0;
+
+		if ( preferred != null && this.marshallers.containsKey(preferred) ) {
+			best = preferred;
+			bestQuality = getQuality(ranges, preferred);
+		}
+
+		for (MediaType type : this.marshallers.keySet()) {
+			double quality = getQuality(ranges, type);
+			if ( quality > bestQuality ) {
+				best = type;
+				bestQuality = quality;
+			}
+		}
+
+		return bestQuality > 0 ? best : null;
+	}
+
+	/**
+	 * Quality the most specific matching range gives a media type. Exact matches beat type/* ranges, which beat {@link MediaType#ALL}.
+	 */
+	private static double getQuality(List<MediaType> ranges, MediaType type) {
+		double quality = 0;
+		int specificity = -1;
+		for (MediaType range : ranges) {
+			if ( !range.includes(type) )
+				continue;
+
+			int rangeSpecificity = range.getBaseType().equals(MediaType.ALL_VALUE) ? 0 : range.isWildcard() ? 1 : 2;
+			if ( rangeSpecificity > specificity ) {
+				specificity = rangeSpecificity;
+				quality = range.getQuality();
+			}
+		}
+
+		return quality;
+	}
+}
@@ -1,33 +1,154 @@
 package io.jrest;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MediaType {
-	
+
 	public static final String ALL_VALUE = "*/*";
 	public static final MediaType ALL = new MediaType(ALL_VALUE);
-	
+
 	public static final String APPLICATION_JSON_VALUE = "application/json";
 	public static final MediaType APPLICATION_JSON = new MediaType(APPLICATION_JSON_VALUE);
-	
+
+	public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+	public static final MediaType APPLICATION_CBOR = new MediaType(APPLICATION_CBOR_VALUE);
+
+	public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+	public static final MediaType APPLICATION_NDJSON = new MediaType(APPLICATION_NDJSON_VALUE);
+
 	public static final String TEXT_PLAIN_VALUE = "text/plain";
 	public static final MediaType TEXT_PLAIN = new MediaType(TEXT_PLAIN_VALUE);
-	
+
 	public static final String TEXT_HTML_VALUE = "text/html";
 	public static final MediaType TEXT_HTML = new MediaType(TEXT_HTML_VALUE);
-	
+
+	public static final String TEXT_EVENT_STREAM_VALUE = "text/event-stream";
+	public static final MediaType TEXT_EVENT_STREAM = new MediaType(TEXT_EVENT_STREAM_VALUE);
+
 	public static final String APPLICATION_FORM_URLENCODED_VALUE = "application/x-www-form-urlencoded";
 	public static final MediaType APPLICATION_FORM_URLENCODED = new MediaType(APPLICATION_FORM_URLENCODED_VALUE);
-	
+
+	/** Full media type, including parameters **/
 	private final String type;
-	
+
+	/** Lower case type/subtype, without parameters **/
+	private final String baseType;
+
+	/** Value of the q parameter, 1 if not present **/
+	private final double quality;
+
 	public MediaType(String type) {
 		this.type = type;
+
+		int semicolon = type.indexOf(';');
+		this.baseType = (semicolon == -1 ? type : type.substring(0, semicolon)).trim().toLowerCase();
+		this.quality = semicolon == -1 ? 1 : parseQuality(type.substring(semicolon + 1));
 	}
-	
+
 	public String toString() {
 		return this.type;
 	}
-	
+
 	public String getType() {
 		return this.type;
 	}
+
+	/**
+	 * Returns the type/subtype of this media type without parameters, in lower case.
+	 */
+	public String getBaseType() {
+		return this.baseType;
+	}
+
+	/**
+	 * Returns the q parameter of this media type. Used when this media type is part of an Accept header.
+	 */
+	public double getQuality() {
+		return this.quality;
+	}
+
+	/**
+	 * Returns whether this media type is a range such as {@link #ALL} or text/*.
+	 */
+	public boolean isWildcard() {
+		return this.baseType.indexOf('*') != -1;
+	}
+
+	/**
+	 * Returns whether this media type (possibly a range) includes another media type.
+	 */
+	public boolean includes(MediaType other) {
+		if ( other == null )
+			return false;
+
+		if ( this.baseType.equals(ALL_VALUE) || this.baseType.equals(other.baseType) )
+			return true;
+
+		// text/* includes text/plain
+		if ( this.baseType.endsWith("/*") ) {
+			String prefix = this.baseType.substring(0, this.baseType.length() - 1);
+			return other.baseType.startsWith(prefix);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Parse a comma separated list of media types, such as an Accept header.
+	 * The list is sorted by quality, highest first. Media types with equal quality keep their order.
+	 */
+	public static List<MediaType> parseList(String header) {
+		List<MediaType> list = new ArrayList<>();
+		if ( header == null )
+			return list;
+
+		int start = 0;
+		while (start <= header.length()) {
+			int comma = header.indexOf(',', start);
+			if ( comma == -1 )
+				comma = header.length();
+
+			String part = header.substring(start, comma).trim();
+			if ( part.length() > 0 )
+				list.add(new MediaType(part));
+
+			start = comma + 1;
+		}
+
+		list.sort((a, b) -> Double.compare(b.quality, a.quality));
+		return list;
+	}
+
+	private static double parseQuality(String parameters) {
+		for (String parameter : parameters.split(";")) {
+			String[] split = parameter.split("=", 2);
+			if ( split.length != 2 || !split[0].trim().equalsIgnoreCase("q") )
+				continue;
+
+			try {
+				return Math.max(0, Math.min(1, Double.parseDouble(split[1].trim())));
+			} catch(NumberFormatException e) {
+				return 1;
+			}
+		}
+
+		return 1;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if ( this == o )
+			return true;
+
+		if ( !(o instanceof MediaType) )
+			return false;
+
+		return this.baseType.equals(((MediaType) o).baseType);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.baseType.hashCode();
+	}
 }
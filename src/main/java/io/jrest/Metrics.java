@@ -0,0 +1,164 @@
+package io.jrest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request and connection metrics of a server. Every route records its request count by status, requests in flight,
+ * bytes in and out, time spent in the endpoint and total time. Counters are {@link LongAdder}s and timings are
+ * lock free histograms, so recording costs little even when many requests finish at once.
+ * <br>
+ * Read them with {@link #toPrometheus()}, or serve them with {@link JRest#addMetricsEndpoint(String)}.
+ */
+public class Metrics {
+
+	/** Content type of the Prometheus text format **/
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/** Routes by method and path **/
+	private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+	/** Requests that matched no route, by method **/
+	private final Map<HttpMethod, RouteMetrics> unmatched = new ConcurrentHashMap<>();
+
+	private final LongAdder connections = new LongAdder();
+
+	private final LongAdder openConnections = new LongAdder();
+
+	/** Pool connections are handled on, null until the server starts **/
+	private volatile ThreadPoolExecutor workers;
+
+	/**
+	 * Metrics of a registered route, created on first use.
+	 */
+	RouteMetrics route(HttpMethod method, String route) {
+		return routes.computeIfAbsent(method + " " + route, (key) -> new RouteMetrics(method, route));
+	}
+
+	/**
+	 * Metrics of requests with a given method that matched no route.
+	 */
+	RouteMetrics unmatched(HttpMethod method) {
+		return unmatched.computeIfAbsent(method, (key) -> new RouteMetrics(method, null));
+	}
+
+	void connectionOpened() {
+		connections.increment();
+		openConnections.increment();
+	}
+
+	void connectionClosed() {
+		openConnections.decrement();
+	}
+
+	void setWorkers(ThreadPoolExecutor workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Number of connections accepted.
+	 */
+	public long getConnections() {
+		return connections.sum();
+	}
+
+	/**
+	 * Number of connections being handled right now.
+	 */
+	public long getOpenConnections() {
+		return openConnections.sum();
+	}
+
+	/**
+	 * All metrics in the Prometheus text exposition format.
+	 */
+	public String toPrometheus() {
+		StringBuilder out = new StringBuilder(4096);
+
+		out.append("# HELP jrest_connections_total Connections accepted.\n");
+		out.append("# TYPE jrest_connections_total counter\n");
+		out.append("jrest_connections_total ").append(connections.sum()).append('\n');
+		out.append("# HELP jrest_connections_open Connections being handled.\n");
+		out.append("# TYPE jrest_connections_open gauge\n");
+		out.append("jrest_connections_open ").append(openConnections.sum()).append('\n');
+
+		ThreadPoolExecutor workers = this.workers;
+		if ( workers != null ) {
+			out.append("# HELP jrest_workers Threads in the worker pool.\n");
+			out.append("# TYPE jrest_workers gauge\n");
+			out.append("jrest_workers ").append(workers.getPoolSize()).append('\n');
+			out.append("# HELP jrest_workers_active Worker threads handling a connection.\n");
+			out.append("# TYPE jrest_workers_active gauge\n");
+			out.append("jrest_workers_active ").append(workers.getActiveCount()).append('\n');
+		}
+
+		List<RouteMetrics> all = new ArrayList<>(routes.values());
+		all.addAll(unmatched.values());
+
+		out.append("# HELP jrest_requests_total Requests handled, by route and status.\n");
+		out.append("# TYPE jrest_requests_total counter\n");
+		for (RouteMetrics route : all)
+			route.writeRequests(out);
+
+		out.append("# HELP jrest_requests_in_flight Requests being handled.\n");
+		out.append("# TYPE jrest_requests_in_flight gauge\n");
+		for (RouteMetrics route : all)
+			out.append("jrest_requests_in_flight{").append(route.labels).append("} ").append(route.inFlight.sum()).append('\n');
+
+		out.append("# HELP jrest_request_bytes_total Request body bytes received.\n");
+		out.append("# TYPE jrest_request_bytes_total counter\n");
+		for (RouteMetrics route : all)
+			out.append("jrest_request_bytes_total{").append(route.labels).append("} ").append(route.bytesIn.sum()).append('\n');
+
+		out.append("# HELP jrest_response_bytes_total Response body bytes sent.\n");
+		out.append("# TYPE jrest_response_bytes_total counter\n");
+		for (RouteMetrics route : all)
+			out.append("jrest_response_bytes_total{").append(route.labels).append("} ").append(route.bytesOut.sum()).append('\n');
+
+		out.append("# HELP jrest_handler_duration_seconds Time spent in the endpoint, without decoding its body.\n");
+		out.append("# TYPE jrest_handler_duration_seconds histogram\n");
+		for (RouteMetrics route : all)
+			route.handlerTime.write(out, "jrest_handler_duration_seconds", route.labels);
+
+		out.append("# HELP jrest_phase_seconds_total Time spent in each phase of handling requests.\n");
+		out.append("# TYPE jrest_phase_seconds_total counter\n");
+		for (RouteMetrics route : all) {
+			for (RequestTimer.Phase phase : RequestTimer.PHASES)
+				out.append("jrest_phase_seconds_total{").append(route.labels).append(",phase=\"").append(phase.metric).append("\"} ").append(route.phaseTime[phase.ordinal()].sum() / 1e9).append('\n');
+		}
+
+		out.append("# HELP jrest_request_duration_seconds Time from reading the request to writing the response.\n");
+		out.append("# TYPE jrest_request_duration_seconds histogram\n");
+		for (RouteMetrics route : all)
+			route.totalTime.write(out, "jrest_request_duration_seconds", route.labels);
+
+		return out.toString();
+	}
+
+	/**
+	 * Prometheus labels of a route.
+	 */
+	static String labels(HttpMethod method, String route) {
+		StringBuilder labels = new StringBuilder();
+		labels.append("method=\"").append(method).append("\",route=\"");
+		if ( route == null ) {
+			labels.append("unmatched");
+		} else {
+			for (int i = 0; i < route.length(); i++) {
+				char c = route.charAt(i);
+				if ( c == '\\' || c == '"' )
+					labels.append('\\').append(c);
+				else if ( c == '\n' )
+					labels.append("\\n");
+				else
+					labels.append(c);
+			}
+		}
+
+		return labels.append('"').toString();
+	}
+}
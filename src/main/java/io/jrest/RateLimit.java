@@ -0,0 +1,241 @@
+package io.jrest;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often each client can call an endpoint, see {@link EndpointBuilder#setRateLimit(RateLimit)}.
+ * Every client has a token bucket holding up to a burst of requests, refilled at a steady rate. A request
+ * that finds the bucket empty is answered 429 Too Many Requests with a Retry-After header, before its body
+ * is read and without running the endpoint.
+ * <p>
+ * A bucket is a single number, the time it will be full again, updated with compare and set, so clients
+ * never wait on each other. Clients are tracked in a map bounded by {@link #setMaxClients(int)}: buckets
+ * that have filled up again are evicted, which loses nothing as a new bucket starts out full. When the map
+ * is full of clients that are all busy, new clients share one bucket until room frees up.
+ */
+public class RateLimit {
+
+	/**
+	 * What identifies a client.
+	 */
+	public enum Key {
+		/** The address the request came from **/
+		REMOTE_ADDRESS,
+
+		/** A request header such as an API key, requests without it are limited by address **/
+		HEADER,
+
+		/** The session, requests without a session the server knows are limited by address **/
+		SESSION;
+	}
+
+	/** Nanoseconds between checks for buckets to evict while the map is not full **/
+	private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+	/** Nanoseconds between checks while the map is full, so a flood of new clients does not sweep on every request **/
+	private static final long FULL_SWEEP_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final double requestsPerSecond;
+
+	private final int burst;
+
+	/** Nanoseconds it takes to earn one request **/
+	private final long interval;
+
+	/** Nanoseconds a bucket can be ahead of the clock before it is empty **/
+	private final long tolerance;
+
+	private Key key = Key.REMOTE_ADDRESS;
+
+	private String header;
+
+	private int maxClients = 10000;
+
+	/** Time each client's bucket is full again, by client **/
+	private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	/** Bucket shared by clients the map has no room for, and requests without a client address **/
+	private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private volatile long lastSweep = System.nanoTime();
+
+	/**
+	 * Allow each client requests at a steady rate, and up to a burst of requests at once after being idle.
+	 */
+	public RateLimit(double requestsPerSecond, int burst) {
+		if ( requestsPerSecond <= 0 || burst < 1 )
+			throw new IllegalArgumentException("A rate limit needs a positive rate and a burst of at least 1");
+
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+		this.tolerance = interval * (burst - 1);
+	}
+
+	/**
+	 * Allow each client requests at a steady rate, without bursts.
+	 */
+	public RateLimit(double requestsPerSecond) {
+		this(requestsPerSecond, 1);
+	}
+
+	public double getRequestsPerSecond() {
+		return this.requestsPerSecond;
+	}
+
+	public int getBurst() {
+		return this.burst;
+	}
+
+	public Key getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Name of the header clients are told apart by, with {@link Key#HEADER}.
+	 */
+	public String getHeader() {
+		return this.header;
+	}
+
+	/**
+	 * Tell clients apart by the address requests come from. The default.
+	 */
+	public RateLimit byRemoteAddress() {
+		this.key = Key.REMOTE_ADDRESS;
+		this.header = null;
+		return this;
+	}
+
+	/**
+	 * Tell clients apart by a request header, such as an API key, or X-Forwarded-For behind a proxy.
+	 */
+	public RateLimit byHeader(String header) {
+		this.key = Key.HEADER;
+		this.header = header;
+		return this;
+	}
+
+	/**
+	 * Tell clients apart by their session. Only sessions found in the session storage count, so a client
+	 * can not get a fresh bucket by making up session cookies.
+	 */
+	public RateLimit bySession() {
+		this.key = Key.SESSION;
+		this.header = null;
+		return this;
+	}
+
+	public int getMaxClients() {
+		return this.maxClients;
+	}
+
+	/**
+	 * Set how many clients are tracked at most. Clients beyond it share one bucket.
+	 */
+	public RateLimit setMaxClients(int maxClients) {
+		this.maxClients = Math.max(1, maxClients);
+		return this;
+	}
+
+	/**
+	 * Number of clients currently tracked.
+	 */
+	public int getClients() {
+		return buckets.size();
+	}
+
+	/**
+	 * Take a request from a client's bucket. Returns 0 if the request is allowed, otherwise the nanoseconds
+	 * until it would be.
+	 */
+	long acquire(InetAddress address, HttpHeaders headers, HttpSession session) {
+		String client = null;
+		if ( key == Key.HEADER )
+			client = headers.get(header);
+		else if ( key == Key.SESSION && session != null )
+			client = session.getUUID().toString();
+
+		long now = System.nanoTime();
+		if ( (client == null || client.isEmpty()) && address == null )
+			return acquire(overflow, now);
+
+		// Prefixed so a header value can not pose as an address
+		client = client == null || client.isEmpty() ? "@" + address.getHostAddress() : "#" + client;
+		AtomicLong bucket = buckets.get(client);
+		if ( bucket == null )
+			bucket = track(client, now);
+
+		return acquire(bucket, now);
+	}
+
+	/**
+	 * Take a request from a bucket at a time.
+	 */
+	private long acquire(AtomicLong bucket, long now) {
+		while (true) {
+			long full = bucket.get();
+			long start = Math.max(full, now);
+			long wait = start - now - tolerance;
+			if ( wait > 0 )
+				return wait;
+
+			if ( bucket.compareAndSet(full, start + interval) )
+				return 0;
+		}
+	}
+
+	/**
+	 * Add a bucket for a client not seen yet, evicting full buckets to make room.
+	 */
+	private AtomicLong track(String client, long now) {
+		long sinceSweep = now - lastSweep;
+		if ( sinceSweep > SWEEP_INTERVAL || (buckets.size() >= maxClients && sinceSweep > FULL_SWEEP_INTERVAL) )
+			sweep(now);
+
+		if ( buckets.size() >= maxClients )
+			return overflow;
+
+		AtomicLong bucket = new AtomicLong(now);
+		AtomicLong existing = buckets.putIfAbsent(client, bucket);
+		return existing != null ? existing : bucket;
+	}
+
+	/**
+	 * Remove buckets that have filled up again. One thread sweeps at a time, the others carry on.
+	 */
+	private void sweep(long now) {
+		if ( !sweeping.compareAndSet(false, true) )
+			return;
+
+		try {
+			Iterator<AtomicLong> iterator = buckets.values().iterator();
+			while (iterator.hasNext()) {
+				if ( iterator.next().get() - now <= 0 )
+					iterator.remove();
+			}
+			lastSweep = now;
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Retry-After value for a wait, in whole seconds rounded up.
+	 */
+	static long retryAfterSeconds(long waitNanos) {
+		return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimit[" + requestsPerSecond + "/s, burst " + burst + ", by " + (key == Key.HEADER ? header : key) + "]";
+	}
+}
@@ -2,6 +2,7 @@ package io.jrest;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -11,12 +12,30 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings({ "deprecation", "restriction" })
 public class RequestEntity<T> extends HttpEntity<T> {
 
+	/** Threads used to run hedged attempts **/
+	private static final ExecutorService clientService = Executors.newCachedThreadPool((runnable) -> {
+		Thread t = Executors.defaultThreadFactory().newThread(runnable);
+		t.setDaemon(true);
+		return t;
+	});
+
 	private HttpMethod method;
 	
+	private RetryPolicy retryPolicy;
+	
+	private boolean circuitBreaker;
+	
 	public RequestEntity() {
 		this(HttpMethod.GET, (T)null);
 	}
@@ -36,6 +55,7 @@ public class RequestEntity<T> extends HttpEntity<T> {
 	public RequestEntity(HttpMethod method, HttpHeaders headers, T body) {
 		super(headers, body);
 		this.method = method;
+		this.retryPolicy = RetryPolicy.none();
 		this.cookies = new ArrayList<HttpCookie>(JRest.cookieManager.getCookieStore().getCookies());
 	}
 	
@@ -98,114 +118,302 @@ public class RequestEntity<T> extends HttpEntity<T> {
 
 	/**
 	 * Queries a specified endpoint. Returns a response entity object describing the result.
-	 * @throws IOException
+	 * Failed attempts are retried, hedged and short-circuited according to {@link #getRetryPolicy()}
+	 * and {@link #isCircuitBreaker()}. Returns 503 Service Unavailable without trying while the circuit is open.
+	 * @throws IOException if every attempt failed without a response, the last attempt's exception
 	 */
 	public <P, Q> ResponseEntity<Q> exchange(URL url, Class<Q> responseType) throws IOException {
-		// Connect to endpoint
-		try {
-			
-			// Manual check for url form encoded
-			boolean bodyInUrl = false;
-			String urlParameters = null;
-			if ( this.getHeaders() != null && this.getHeaders().getContentType().equals(MediaType.APPLICATION_FORM_URLENCODED_VALUE) && this.getBody() instanceof Map ) {
-				bodyInUrl = true;
-				urlParameters = "";
-			    for (Object key : ((Map<?, ?>)this.getBody()).keySet())
-			    	urlParameters = urlParameters + key + "=" + ((Map<?, ?>)this.getBody()).get(key) + "&";
-			    urlParameters.substring(0, urlParameters.length()-1);
-			}
-			
-			// Connect
-			HttpURLConnection con = (HttpURLConnection) url.openConnection();
-			con.setDoInput(true);
-			if ( this.getMethod().equals(HttpMethod.POST) )
-				con.setDoOutput(true);
-			con.setRequestMethod(this.getMethod().toString());
+		CircuitBreaker breaker = CircuitBreaker.forHost(url);
+		boolean idempotent = retryPolicy.canRetry(this.getMethod());
+		int attempts = idempotent ? retryPolicy.getMaxAttempts() : 1;
+		
+		// Attempts only read these, hedged attempts run at the same time
+		HttpHeaders headers = resolveHeaders(url);
+		List<HttpCookie> cookies = new ArrayList<>(getCookies());
+		
+		ResponseEntity<Q> response = null;
+		IOException failure = null;
+		for (int attempt = 1; attempt <= attempts; attempt++) {
+			// Fail fast while the host is known to be down
+			if ( circuitBreaker && !breaker.allowRequest() )
+				return new ResponseEntity<Q>(HttpStatus.SERVICE_UNAVAILABLE);
 			
-			// Deprecated HttpsURLConnection stuff
-			/*try {
-				if ( con instanceof com.sun.net.ssl.HttpsURLConnection ) {
-					com.sun.net.ssl.HttpsURLConnection httpsCon = (com.sun.net.ssl.HttpsURLConnection)con;
-					httpsCon.setHostnameVerifier(new com.sun.net.ssl.HostnameVerifier() {
-						@Override
-						public boolean verify(String urlHostname, String certHostname) {
-							return com.sun.net.ssl.HttpsURLConnection.getDefaultHostnameVerifier().verify(urlHostname, certHostname);
-						}
-			        });
-					httpsCon.setSSLSocketFactory((javax.net.ssl.SSLSocketFactory) javax.net.ssl.SSLSocketFactory.getDefault());
+			// Back off before retrying
+			if ( attempt > 1 ) {
+				try {
+					Thread.sleep(retryPolicy.getBackoff(attempt - 1));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
 				}
-			} catch(NoClassDefFoundError e) {
-				// Do nothing. This is for Java8
-			}*/
-
-			// Hidden headers
-			if ( this.getHeaders().get(HttpHeaders.HOST) == null ) {
-				String port = url.getPort() == -1 ? "" : (":" + url.getPort());
-				this.getHeaders().put(HttpHeaders.HOST, url.getHost() + port);
 			}
 			
-			// User agent???
-			if ( this.getHeaders().get(HttpHeaders.USER_AGENT) == null ) {
-				con.setRequestProperty(HttpHeaders.USER_AGENT, "Mozilla/5.0 (" + System.getProperty("os.name") + ") Java/" + System.getProperty("java.version"));
+			// A half-open circuit lets exactly one trial through, so it is not hedged
+			try {
+				if ( idempotent && retryPolicy.isHedging() && breaker.getState() != CircuitBreaker.State.HALF_OPEN )
+					response = exchangeHedged(url, responseType, breaker, headers, cookies);
+				else
+					response = exchangeRecorded(url, responseType, breaker, headers, cookies);
+			} catch (IOException e) {
+				failure = e;
+				continue;
 			}
 			
-			// Cookies!
-			if (getCookies().size() > 0) {
-				List<HttpCookie> cookiesList = getCookies();
-				List<String> cookies = new ArrayList<>();
-				for (HttpCookie cookie : cookiesList) {
-					cookie.setVersion(0); // Sending cookies use simple version!
-					cookies.add(cookie.toString());
+			if ( !retryPolicy.isRetryStatus(response.getStatus()) )
+				return response;
+		}
+		
+		// A response the server gave says more than a later failed connection
+		if ( response != null )
+			return response;
+		
+		if ( failure != null )
+			throw failure;
+		
+		throw new InterruptedIOException("Interrupted before sending " + url);
+	}
+	
+	/**
+	 * Sends the first attempt, and if it has not completed within the hedge delay, a second attempt.
+	 * Whichever successful response arrives first is returned.
+	 * @throws IOException if no attempt got a response, the last attempt's exception
+	 */
+	private <Q> ResponseEntity<Q> exchangeHedged(URL url, Class<Q> responseType, CircuitBreaker breaker, HttpHeaders headers, List<HttpCookie> cookies) throws IOException {
+		long delay = retryPolicy.getHedgeDelay();
+		if ( delay == RetryPolicy.HEDGE_ADAPTIVE )
+			delay = breaker.getLatencyPercentileNanos(0.95);
+		else if ( delay >= 0 )
+			delay = TimeUnit.MILLISECONDS.toNanos(delay);
+		
+		// Nothing to base the hedge on yet
+		if ( delay < 0 )
+			return exchangeRecorded(url, responseType, breaker, headers, cookies);
+		
+		CompletionService<ResponseEntity<Q>> completion = new ExecutorCompletionService<>(clientService);
+		List<Future<ResponseEntity<Q>>> futures = new ArrayList<>(2);
+		HttpHeaders firstHeaders = copyHeaders(headers);
+		List<HttpCookie> firstCookies = new ArrayList<>(cookies);
+		futures.add(completion.submit(()->exchangeRecorded(url, responseType, breaker, firstHeaders, firstCookies)));
+		
+		ResponseEntity<Q> fallback = null;
+		IOException failure = null;
+		boolean hedged = false;
+		int pending = 1;
+		try {
+			while (pending > 0) {
+				Future<ResponseEntity<Q>> done = hedged ? completion.take() : completion.poll(delay, TimeUnit.NANOSECONDS);
+				
+				// First attempt is slow, fire the hedge
+				if ( done == null ) {
+					HttpHeaders hedgeHeaders = copyHeaders(headers);
+					List<HttpCookie> hedgeCookies = new ArrayList<>(cookies);
+					futures.add(completion.submit(()->exchangeRecorded(url, responseType, breaker, hedgeHeaders, hedgeCookies)));
+					hedged = true;
+					pending++;
+					continue;
+				}
+				
+				pending--;
+				ResponseEntity<Q> response;
+				try {
+					response = done.get();
+				} catch (ExecutionException e) {
+					// The other attempt may still succeed
+					if ( e.getCause() instanceof IOException ) {
+						failure = (IOException) e.getCause();
+						continue;
+					}
+					if ( e.getCause() instanceof Error )
+						throw (Error) e.getCause();
+					if ( e.getCause() instanceof RuntimeException )
+						throw (RuntimeException) e.getCause();
+					throw new IOException(e.getCause());
 				}
-				con.setRequestProperty("Cookie", String.join(";", cookies));
+				
+				if ( !retryPolicy.isRetryStatus(response.getStatus()) )
+					return response;
+				
+				fallback = response;
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for " + url);
+		} finally {
+			for (Future<ResponseEntity<Q>> future : futures)
+				future.cancel(true);
+		}
+		
+		if ( fallback != null )
+			return fallback;
+		
+		throw failure;
+	}
+	
+	/**
+	 * Performs a single attempt and records its outcome with the hosts circuit breaker.
+	 */
+	private <Q> ResponseEntity<Q> exchangeRecorded(URL url, Class<Q> responseType, CircuitBreaker breaker, HttpHeaders headers, List<HttpCookie> cookies) throws IOException {
+		long start = System.nanoTime();
+		try {
+			ResponseEntity<Q> response = exchangeOnce(url, responseType, headers, cookies);
+			if ( retryPolicy.isRetryStatus(response.getStatus()) )
+				breaker.recordFailure();
+			else
+				breaker.recordSuccess(System.nanoTime() - start);
 			
-        	// Write headers
-			for (Entry<String, String> entry : this.getHeaders().entrySet()) {
-				try { con.setRequestProperty(entry.getKey(), entry.getValue()); } catch( Exception e) {}
-			}
-            
-            // Get usable body
-        	String body = null;
-        	if ( getBody() != null && !bodyInUrl ) {
-        		body = RestUtil.convertToString(getBody());
-        	} else {
-        		body = new String();
-        	}
-        	
-        	if ( bodyInUrl )
-        		body = urlParameters;
-            
-        	// Write body
-			if ( !this.getMethod().equals(HttpMethod.GET) ) {
-	        	BufferedOutputStream b = new BufferedOutputStream(con.getOutputStream());
-	        	b.write(StringUtil.utf8(body));
-	        	b.flush();
+			return response;
+		} catch (IOException | RuntimeException | Error e) {
+			// Any failure ends a half-open trial, or the circuit would never leave it
+			breaker.recordFailure();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Copy of the request headers with the Host and User-Agent every attempt sends.
+	 */
+	private HttpHeaders resolveHeaders(URL url) {
+		HttpHeaders headers = copyHeaders(this.getHeaders());
+		if ( headers.get(HttpHeaders.HOST) == null ) {
+			String port = url.getPort() == -1 ? "" : (":" + url.getPort());
+			headers.put(HttpHeaders.HOST, url.getHost() + port);
+		}
+		
+		// User agent???
+		if ( headers.get(HttpHeaders.USER_AGENT) == null )
+			headers.put(HttpHeaders.USER_AGENT, "Mozilla/5.0 (" + System.getProperty("os.name") + ") Java/" + System.getProperty("java.version"));
+		
+		return headers;
+	}
+	
+	private static HttpHeaders copyHeaders(HttpHeaders headers) {
+		HttpHeaders copy = HttpHeaders.empty();
+		if ( headers != null ) {
+			for (Entry<String, String> header : headers.entrySet())
+				copy.add(header.getKey(), header.getValue());
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * Performs a single HTTP exchange with no retry logic.
+	 */
+	private <Q> ResponseEntity<Q> exchangeOnce(URL url, Class<Q> responseType, HttpHeaders headers, List<HttpCookie> cookies) throws IOException {
+		// Manual check for url form encoded
+		boolean bodyInUrl = false;
+		String urlParameters = null;
+		if ( MediaType.APPLICATION_FORM_URLENCODED_VALUE.equals(headers.getContentType()) && this.getBody() instanceof Map ) {
+			bodyInUrl = true;
+			urlParameters = "";
+			for (Object key : ((Map<?, ?>)this.getBody()).keySet())
+				urlParameters = urlParameters + key + "=" + ((Map<?, ?>)this.getBody()).get(key) + "&";
+			urlParameters.substring(0, urlParameters.length()-1);
+		}
+		
+		// Connect
+		HttpURLConnection con = (HttpURLConnection) url.openConnection();
+		con.setDoInput(true);
+		if ( this.getMethod().equals(HttpMethod.POST) )
+			con.setDoOutput(true);
+		con.setRequestMethod(this.getMethod().toString());
+		
+		// Deprecated HttpsURLConnection stuff
+		/*try {
+			if ( con instanceof com.sun.net.ssl.HttpsURLConnection ) {
+				com.sun.net.ssl.HttpsURLConnection httpsCon = (com.sun.net.ssl.HttpsURLConnection)con;
+				httpsCon.setHostnameVerifier(new com.sun.net.ssl.HostnameVerifier() {
+					@Override
+					public boolean verify(String urlHostname, String certHostname) {
+						return com.sun.net.ssl.HttpsURLConnection.getDefaultHostnameVerifier().verify(urlHostname, certHostname);
+					}
+				});
+				httpsCon.setSSLSocketFactory((javax.net.ssl.SSLSocketFactory) javax.net.ssl.SSLSocketFactory.getDefault());
 			}
+		} catch(NoClassDefFoundError e) {
+			// Do nothing. This is for Java8
+		}*/
 
-        	// Get response
-        	@SuppressWarnings("unchecked")
-			HttpResponse<Q> response = (HttpResponse<Q>) RestUtil.readResponse(con, responseType);
-        	con.getInputStream().close();
-        	con.disconnect();
-        	if ( response == null ) {
-        		return new ResponseEntity<Q>(HttpStatus.NOT_FOUND);
-        	} else {
-        		ResponseEntity<Q> res = new ResponseEntity<Q>(response.getStatus(), response.getHeaders(), response.getBody());
-        		res.cookies = response.cookies;
-        		for (HttpCookie cookie : res.cookies) {
-        			try {
-						JRest.cookieManager.getCookieStore().add(url.toURI(), cookie);
-					} catch (URISyntaxException e) {
-						//
-					}
-        		}
-        		return res;
-        	}
-		} catch (IOException e) {
-			e.printStackTrace();
+		// Cookies!
+		if (cookies.size() > 0) {
+			con.setRequestProperty(HttpHeaders.COOKIE, CookieCodec.encodeCookies(cookies));
 		}
 		
-		return new ResponseEntity<Q>(HttpStatus.BAD_REQUEST);
+		// Write headers, Host and User-Agent were resolved before the first attempt
+		for (Entry<String, String> entry : headers.entrySet()) {
+			try { con.setRequestProperty(entry.getKey(), entry.getValue()); } catch( Exception e) {}
+		}
+		
+		// Get usable body, encoded by the marshaller for its Content-Type if there is one
+		byte[] body = null;
+		if ( bodyInUrl ) {
+			body = StringUtil.utf8(urlParameters);
+		} else if ( getBody() == null ) {
+			body = new byte[0];
+		} else if ( getBody() instanceof String ) {
+			body = StringUtil.utf8((String) getBody());
+		} else {
+			Marshaller marshaller = JRest.marshallers.get(headers.getContentType());
+			if ( marshaller != null )
+				body = marshaller.encode(getBody());
+			else
+				body = StringUtil.utf8(RestUtil.convertToString(getBody()));
+		}
+		
+		// Write body
+		if ( !this.getMethod().equals(HttpMethod.GET) ) {
+			BufferedOutputStream b = new BufferedOutputStream(con.getOutputStream());
+			b.write(body);
+			b.flush();
+		}
+
+		// Get response
+		@SuppressWarnings("unchecked")
+		HttpResponse<Q> response = (HttpResponse<Q>) RestUtil.readResponse(con, responseType);
+		con.disconnect();
+		if ( response == null ) {
+			return new ResponseEntity<Q>(HttpStatus.NOT_FOUND);
+		} else {
+			ResponseEntity<Q> res = new ResponseEntity<Q>(response.getStatus(), response.getHeaders(), response.getBody());
+			res.cookies = response.cookies;
+			for (HttpCookie cookie : res.cookies) {
+				try {
+					JRest.cookieManager.getCookieStore().add(url.toURI(), cookie);
+				} catch (URISyntaxException e) {
+					//
+				}
+			}
+			return res;
+		}
+	}
+	
+	/**
+	 * Returns the policy used to retry and hedge failed or slow requests.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return this.retryPolicy;
+	}
+	
+	/**
+	 * Sets the policy used to retry and hedge failed or slow requests.
+	 */
+	public RequestEntity<T> setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy == null ? RetryPolicy.none() : retryPolicy;
+		return this;
+	}
+	
+	/**
+	 * Returns whether requests fail fast with {@link HttpStatus#SERVICE_UNAVAILABLE} while the hosts {@link CircuitBreaker} is open.
+	 */
+	public boolean isCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+	
+	/**
+	 * Sets whether requests fail fast with {@link HttpStatus#SERVICE_UNAVAILABLE} while the hosts {@link CircuitBreaker} is open.
+	 */
+	public RequestEntity<T> setCircuitBreaker(boolean circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+		return this;
 	}
 }
@@ -0,0 +1,79 @@
+package io.jrest;
+
+/**
+ * Time spent in each phase of handling one request, in nanoseconds.
+ * A phase can be added to more than once, for example when a response handler runs after the endpoint.
+ */
+class RequestTimer {
+
+	/**
+	 * Phases of handling a request, in the order they happen.
+	 */
+	enum Phase {
+		/** Parsing the request head, parameters and cookies **/
+		PARSE("parse"),
+		/** Finding the endpoint **/
+		ROUTE("route"),
+		/** Reading and decoding the request body **/
+		BODY("body"),
+		/** Running the endpoint, without decoding its body **/
+		HANDLER("handler"),
+		/** Converting the response body to bytes **/
+		ENCODE("encode"),
+		/** Compressing the response body **/
+		GZIP("gzip"),
+		/** Writing the response to the socket **/
+		WRITE("write");
+
+		/** Metric name used in the Server-Timing header and in metrics **/
+		final String metric;
+
+		Phase(String metric) {
+			this.metric = metric;
+		}
+	}
+
+	static final Phase[] PHASES = Phase.values();
+
+	private final long[] nanos = new long[PHASES.length];
+
+	/** Whether the timings are sent to the client in a Server-Timing header **/
+	final boolean sendHeader;
+
+	RequestTimer(boolean sendHeader) {
+		this.sendHeader = sendHeader;
+	}
+
+	/**
+	 * Add time to a phase, from a {@link System#nanoTime()} start until now.
+	 */
+	void since(Phase phase, long start) {
+		nanos[phase.ordinal()] += System.nanoTime() - start;
+	}
+
+	void add(Phase phase, long time) {
+		nanos[phase.ordinal()] += time;
+	}
+
+	long get(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * Value of a Server-Timing header with the phases timed so far, durations in milliseconds.
+	 */
+	String toServerTiming() {
+		StringBuilder header = new StringBuilder(96);
+		for (Phase phase : PHASES) {
+			long time = nanos[phase.ordinal()];
+			if ( time == 0 )
+				continue;
+
+			if ( header.length() > 0 )
+				header.append(", ");
+			header.append(phase.metric).append(";dur=").append(time / 1000 / 1000.0);
+		}
+
+		return header.toString();
+	}
+}
@@ -0,0 +1,32 @@
+package io.jrest;
+
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Where the response to a request is written: a HTTP/1.1 connection, or a stream of a HTTP/2 connection.
+ */
+interface ResponseWriter {
+
+	/**
+	 * Write a response with an already encoded body. Returns the number of body bytes written.
+	 */
+	long write(HttpStatus status, MediaType produces, byte[] body, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException;
+
+	/**
+	 * Write a response with a body encoded element by element. Returns the number of body bytes written.
+	 */
+	long writeStream(HttpStatus status, MediaType produces, Marshaller marshaller, Iterator<?> elements, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException;
+
+	/**
+	 * Finish a request that nothing answered.
+	 */
+	void writeEmpty(HttpStatus status) throws IOException;
+
+	/**
+	 * Finish the response. A response that was not completely written is cut off.
+	 */
+	void close() throws IOException;
+}
@@ -1,22 +1,25 @@
 package io.jrest;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -26,24 +29,49 @@ public class RestUtil {
 	
 	private static final Set<String> ignoreCustomHeaders;
 	
-	private static MarshallerNashorn nashorn;
+	/** Largest request head accepted **/
+	private static final int MAX_HEAD_SIZE = 64 * 1024;
+	
+	private static MarshallerJson json;
+	
+	private static MarshallerCbor cbor;
 	
 	private static MarshallerGson gson;
 
 	static {
-		ignoreCustomHeaders = new HashSet<>();
+		ignoreCustomHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
 		ignoreCustomHeaders.add(HttpHeaders.CONTENT_TYPE);
-		ignoreCustomHeaders.add("Content-Length");
+		ignoreCustomHeaders.add(HttpHeaders.CONTENT_LENGTH);
 		
+		json = new MarshallerJson();
 		try {
-			nashorn = new MarshallerNashorn();
 			gson = new MarshallerGson();
-			gson.parse(null, null);
+			gson.parse((String) null, null);
 			
 			canUseGson = true;
-		} catch (Exception e) {
-			System.err.println("Could not locate Gson dependency, will not serialize Java classes to DTO/POJO. Using Nashorn engine as fallback Map/List serializer.");
+		} catch (Exception | LinkageError e) {
+			System.err.println("Could not locate Gson dependency, will not serialize Java classes to DTO/POJO. Using built-in json marshaller as fallback Map/List serializer.");
 		}
+		
+		// Cbor can carry DTOs when Gson is there to convert them
+		if (canUseGson)
+			cbor = new MarshallerCbor(gson::toTree, gson::fromTree);
+		else
+			cbor = new MarshallerCbor();
+	}
+	
+	/**
+	 * Returns the marshaller used for json bodies. Gson when it is available, otherwise {@link MarshallerJson}.
+	 */
+	protected static Marshaller getJsonMarshaller() {
+		return canUseGson ? gson : json;
+	}
+	
+	/**
+	 * Returns the marshaller used for cbor bodies.
+	 */
+	protected static Marshaller getCborMarshaller() {
+		return cbor;
 	}
 
 	/**
@@ -56,43 +84,34 @@ public class RestUtil {
 		if (canUseGson)
 			return gson.stringify(object);
 
-		// Oh boy manual json serialization...
-		if (object instanceof Map || object instanceof List)
-			return StringUtil.serializeJson(object);
+		// Built in json for Maps, Lists and arrays
+		if (object instanceof Map || object instanceof Iterable || object.getClass().isArray())
+			return json.stringify(object);
 
 		// Fallback
 		return object.toString();
 	}
 
 	/**
-	 * Attempt to deserialize a string in to a specified type.
+	 * Attempt to deserialize a string in to a specified type. Returns null if it cannot be converted.
 	 */
 	@SuppressWarnings("unchecked")
 	protected static <T> T convertToObject(String bodyString, T type) {
 		if (bodyString == null || bodyString.length() == 0)
 			return (T) null;
 
-		Class<?> c = (Class<?>) type;
-		
-		// Try gson
-		if (canUseGson) {
-			T result = gson.parse(bodyString, type);
-			if ( result != null )
-				return result;
-		}
-		
-		// Try nashorn
-		T result = nashorn.parse(bodyString, type);
-		if ( result != null )
-			return result;
-		
-		// Convert to String if its the type
-		if (String.class.isAssignableFrom(c)) {
-			return (T) bodyString.toString();
-		}
-		
-		// If we can't convert, we must return null.
-		return (T) null;
+		return getJsonMarshaller().parse(bodyString, type);
+	}
+
+	/**
+	 * Resolve the decode path for a body type. Uses Gson when it is available,
+	 * otherwise the built-in {@link MarshallerJson} for Maps and Lists.
+	 */
+	protected static <T> Marshaller.Decoder<T> getDecoder(Class<T> type) {
+		if (canUseGson)
+			return gson.getDecoder(type);
+
+		return json.getDecoder(type);
 	}
 
 	/**
@@ -146,46 +165,64 @@ public class RestUtil {
 	 * Reads a connection-stream and parses into HttpResponse object.
 	 * @throws IOException
 	 */
+	@SuppressWarnings("unchecked")
 	protected static <T> HttpResponse<T> readResponse(HttpURLConnection connection, T type) throws IOException {
 		// Create response headers
-		HttpHeaders headers = new HttpHeaders();
+		HttpHeaders headers = HttpHeaders.empty();
 		Map<String, List<String>> map = connection.getHeaderFields();
 		for (Map.Entry<String, List<String>> entry : map.entrySet()) {
-			String vals = "";
-			for (String val : entry.getValue()) {
-				if ( vals.length() > 0 )
-					val += ", ";
-				
-				vals += val;
-			}
-			headers.put(entry.getKey(), vals);
+			// The status line has no name
+			if ( entry.getKey() == null )
+				continue;
+			
+			for (String value : entry.getValue())
+				headers.add(entry.getKey(), value);
 		}
 		
-		// Grab input stream
-		InputStream inputStream = connection.getInputStream();
-		if ( connection.getContentEncoding() != null && connection.getContentEncoding().contains("gzip") ) {
+		// Grab input stream (error statuses are read from the error stream so the real status reaches the caller)
+		int responseCode = connection.getResponseCode();
+		InputStream inputStream = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if ( inputStream != null && connection.getContentLengthLong() == 0 ) {
+			inputStream.close();
+			inputStream = null;
+		}
+		if ( inputStream != null && connection.getContentEncoding() != null && connection.getContentEncoding().contains("gzip") ) {
 			inputStream = new GZIPInputStream(inputStream);
 		} else if ( connection.getContentEncoding() != null && connection.getContentEncoding().contains("br") ) {
 			throw new RuntimeException("Cannot decode payload. Brotli decoding is not natively supported by Java. Please use a supported Accept-Encoding header parameter.");
 		}
 			
 		// Read body
-		String body = StringUtil.utf8(RestUtil.readAll(inputStream));
+		byte[] body = new byte[0];
+		if ( inputStream != null ) {
+			body = RestUtil.readFully(inputStream);
+			inputStream.close();
+		}
 
 		// Update cookies
-		List<String> cookiesHeader = map.get("Cookie");
-		if (cookiesHeader != null) {
-			for (String cookie : cookiesHeader) {
-				List<HttpCookie> cookies = HttpCookie.parse(cookie);
-				for (HttpCookie hcookie : cookies) {
+		List<String> cookiesHeader = headers.getAll(HttpHeaders.SET_COOKIE);
+		for (String cookie : cookiesHeader) {
+			try {
+				for (HttpCookie hcookie : HttpCookie.parse(cookie))
 					JRest.cookieManager.getCookieStore().add(null, hcookie);
-				}
+			} catch(IllegalArgumentException e) {
+				// Invalid cookie, ignore it
 			}
 		}
 
-		// Create response object
-		T tBody = RestUtil.convertToObject(body, type);
-		HttpResponse<T> request = new HttpResponse<>(HttpStatus.valueOf(connection.getResponseCode()), headers, tBody);
+		// Create response object, decoding with the marshaller registered for its Content-Type
+		T tBody = null;
+		Marshaller marshaller = JRest.marshallers.get(connection.getContentType());
+		if ( marshaller != null && body != null ) {
+			try {
+				tBody = (T) marshaller.getDecoder((Class<?>) type).decode(new ByteArrayInputStream(body));
+			} catch (MarshallerException e) {
+				tBody = null;
+			}
+		} else {
+			tBody = RestUtil.convertToObject(StringUtil.utf8(body), type);
+		}
+		HttpResponse<T> request = new HttpResponse<>(HttpStatus.valueOf(responseCode), headers, tBody);
 		request.cookies = new ArrayList<>(JRest.cookieManager.getCookieStore().getCookies());
 
 		// Return
@@ -193,56 +230,185 @@ public class RestUtil {
 	}
 	
 	/**
-	 * Reads an input stream until it is no longer available.
-	 * Returns a list of Strings representing the request.
-	 * This list represents the header, body, and all other data sent during the request.
-	 * @throws IOException
+	 * Reads the request line and headers of a HTTP message, leaving the stream positioned at the start of the body.
+	 * The head is returned as raw bytes, up to and including the blank line, so headers are only decoded when read.
+	 * Returns an empty array if no data arrives before the socket's read timeout.
+	 * The stream should be buffered and reused for the body, see {@link BodyInputStream}.
+	 * @throws EOFException if the client closed the connection before sending anything
 	 */
-	protected static List<String> readRequestData(InputStream inputStream) throws IOException {
-		long TIMEOUT = System.currentTimeMillis() + 1000;
+	protected static byte[] readRequestHead(InputStream inputStream) throws IOException {
+		// Wait for the request without spinning, encrypted connections only know they have data once they read it
+		int c;
+		try {
+			c = inputStream.read();
+		} catch (SocketTimeoutException e) {
+			return new byte[0];
+		}
+		
+		if ( c == -1 )
+			throw new EOFException("Connection closed before a request was sent");
 
-		/** TODO Replace this with {@link #readAll(InputStream)} */
-		BufferedInputStream bufferedInput = new BufferedInputStream(inputStream);
-		while (bufferedInput.available() == 0) {
-			if (System.currentTimeMillis() > TIMEOUT) {
-				bufferedInput.close();
-				return Arrays.asList();
+		// Read in to this thread's scratch buffer, only the final head is copied out
+		ConnectionBuffers buffers = ConnectionBuffers.get();
+		byte[] head = buffers.head(1024);
+		int length = 0;
+		int lineLength = 0;
+		do {
+			if ( length == head.length ) {
+				if ( length >= MAX_HEAD_SIZE )
+					throw new IOException("Request head is larger than " + MAX_HEAD_SIZE + " bytes");
+				head = buffers.head(length * 2);
 			}
-		}
 
-		// Parse input into strings
-		List<String> headerData = new ArrayList<String>();
-		boolean buildingHeader = true;
-		StringBuilder builder = new StringBuilder();
-		while (bufferedInput.available() > 0) {
-			int c = bufferedInput.read();
-			char ch = (char) (c);
-			if (ch == '\r')
+			head[length++] = (byte) c;
+			if ( c == '\r' )
 				continue;
 
-			if (ch == '\n' && buildingHeader) {
-				if (builder.length() == 0)
-					buildingHeader = false;
+			if ( c == '\n' ) {
+				// Blank line ends the head
+				if ( lineLength == 0 )
+					break;
 
-				if (buildingHeader) {
-					headerData.add(builder.toString().trim());
-					builder.setLength(0);
-				}
+				lineLength = 0;
 			} else {
-				builder.append(ch);
+				lineLength++;
 			}
-		}
+		} while ((c = inputStream.read()) != -1);
 
-		// BODY IS LAST
-		headerData.add(builder.toString());
-		return headerData;
+		return Arrays.copyOf(head, length);
+	}
+
+	/**
+	 * Read an input stream until it ends and return its data.
+	 */
+	protected static byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1)
+			output.write(buffer, 0, read);
+		
+		return output.toByteArray();
 	}
 
 	/**
 	 * Write http message to a socket.
 	 */
 	public static void write(Socket socket, String serverName, HttpStatus status, MediaType produces, String body, HttpHeaders headers, List<HttpCookie> cookiesList) throws IOException {
-		Map<String, String> defaultHeaders = new HashMap<>();
+		write(socket, serverName, status, produces, StringUtil.utf8(body), headers, cookiesList, null);
+	}
+
+	/**
+	 * Write http message with an already encoded body to a socket.
+	 */
+	public static void write(Socket socket, String serverName, HttpStatus status, MediaType produces, byte[] body, HttpHeaders headers, List<HttpCookie> cookiesList) throws IOException {
+		write(socket, serverName, status, produces, body, headers, cookiesList, null);
+	}
+
+	/**
+	 * Write http message with an already encoded body to a socket, adding the time spent compressing and writing to a timer.
+	 * Returns the number of body bytes written, for the access log.
+	 */
+	static long write(Socket socket, String serverName, HttpStatus status, MediaType produces, byte[] body, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+		Map<String, String> defaultHeaders = getResponseHeaders(serverName, headers);
+		
+		// Get final body
+		byte[] finalBody = isGzip(defaultHeaders) ? gzip(body, timer) : body;
+		
+		// Everything but the write itself is known by now
+		if ( timer != null && timer.sendHeader )
+			defaultHeaders.put(HttpHeaders.SERVER_TIMING, timer.toServerTiming());
+		
+		// Write http status
+		long start = System.nanoTime();
+		OutputStream b = ConnectionBuffers.get().output(socket.getOutputStream());
+		writeHead(b, status, defaultHeaders, cookiesList);
+		
+		// Write content predata
+		b.write(StringUtil.utf8("Content-Length: " + finalBody.length + "\n"));
+		b.write(StringUtil.utf8("Content-Type: " + produces.getType() + "\n"));
+		
+		// Tell the parser that we are going to begin writing data
+		b.write(StringUtil.utf8("\n"));
+		
+		// Write data
+		b.write(finalBody);
+		b.flush();
+		if ( timer != null )
+			timer.since(RequestTimer.Phase.WRITE, start);
+		
+		return finalBody.length;
+	}
+	
+	/**
+	 * Write http message with a streamed body to a socket. Elements are encoded one at a time with the
+	 * marshaller and sent with chunked transfer encoding, so the whole body never has to be held in memory.
+	 * If the iterator fails part way through, the connection is closed without finishing the body,
+	 * so the client sees a truncated response rather than a complete but wrong one.
+	 */
+	public static void writeStream(Socket socket, String serverName, HttpStatus status, MediaType produces, Marshaller marshaller, Iterator<?> elements, HttpHeaders headers, List<HttpCookie> cookiesList) throws IOException {
+		writeStream(socket, serverName, status, produces, marshaller, elements, headers, cookiesList, null);
+	}
+	
+	/**
+	 * Write http message with a streamed body to a socket, adding the time spent producing and writing the elements to a timer.
+	 * Returns the number of body bytes written, not counting the chunk framing, for the access log.
+	 */
+	static long writeStream(Socket socket, String serverName, HttpStatus status, MediaType produces, Marshaller marshaller, Iterator<?> elements, HttpHeaders headers, List<HttpCookie> cookiesList, RequestTimer timer) throws IOException {
+		Map<String, String> defaultHeaders = getResponseHeaders(serverName, headers);
+		if ( timer != null && timer.sendHeader )
+			defaultHeaders.put(HttpHeaders.SERVER_TIMING, timer.toServerTiming());
+		
+		// Write http status
+		long start = System.nanoTime();
+		OutputStream b = ConnectionBuffers.get().output(socket.getOutputStream());
+		writeHead(b, status, defaultHeaders, cookiesList);
+		b.write(StringUtil.utf8("Transfer-Encoding: chunked\n"));
+		b.write(StringUtil.utf8("Content-Type: " + produces.getType() + "\n"));
+		b.write(StringUtil.utf8("\n"));
+		
+		ChunkedOutputStream chunked = new ChunkedOutputStream(b);
+		OutputStream output = isGzip(defaultHeaders) ? new GZIPOutputStream(chunked, true) : chunked;
+		
+		// Write elements as they are produced
+		boolean first = true;
+		marshaller.writeSequenceStart(output);
+		while (elements.hasNext()) {
+			marshaller.writeSequenceElement(output, elements.next(), first);
+			
+			// Get the first element to the client straight away
+			if ( first )
+				output.flush();
+			first = false;
+		}
+		marshaller.writeSequenceEnd(output);
+		output.close();
+		if ( timer != null )
+			timer.since(RequestTimer.Phase.WRITE, start);
+		
+		return chunked.getCount();
+	}
+	
+	/**
+	 * Compress a body, adding the time spent to a timer.
+	 */
+	static byte[] gzip(byte[] body, RequestTimer timer) throws IOException {
+		long start = System.nanoTime();
+		ByteArrayOutputStream byteArrayOS = new ByteArrayOutputStream();
+		GZIPOutputStream gzipBodyStream = new GZIPOutputStream(byteArrayOS);
+		gzipBodyStream.write(body);
+		gzipBodyStream.close();
+		
+		if ( timer != null )
+			timer.since(RequestTimer.Phase.GZIP, start);
+		return byteArrayOS.toByteArray();
+	}
+	
+	/**
+	 * Merge the default response headers with the headers set by an endpoint.
+	 */
+	static Map<String, String> getResponseHeaders(String serverName, HttpHeaders headers) {
+		Map<String, String> defaultHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 		defaultHeaders.put(HttpHeaders.KEEP_ALIVE, "timeout=5, max=99");
 		defaultHeaders.put(HttpHeaders.SERVER, serverName);
 		defaultHeaders.put(HttpHeaders.CONNECTION, "Keep-Alive");
@@ -256,17 +422,25 @@ public class RestUtil {
 			}
 		}
 		
+		// Closing, so there is nothing to keep alive
+		if ( "close".equalsIgnoreCase(defaultHeaders.get(HttpHeaders.CONNECTION)) )
+			defaultHeaders.remove(HttpHeaders.KEEP_ALIVE);
+		
 		// Dont support Brotli
 		if ( defaultHeaders.get(HttpHeaders.CONTENT_ENCODING) != null && defaultHeaders.get(HttpHeaders.CONTENT_ENCODING).contains("br") )
 			throw new RuntimeException("Cannot write data. Brotli encoding is not natively supported by Java. Please use a different encoding parameter.");
 		
-		// Write http status
-		OutputStream outputStream = socket.getOutputStream();
-		BufferedOutputStream b = new BufferedOutputStream(outputStream);
+		return defaultHeaders;
+	}
+	
+	/**
+	 * Write the status line, headers and cookies of a response. Content headers are left to the caller.
+	 */
+	private static void writeHead(OutputStream b, HttpStatus status, Map<String, String> headers, List<HttpCookie> cookiesList) throws IOException {
 		b.write(StringUtil.utf8("HTTP/1.1 " + status.value() + " " + status.getReasonPhrase() + "\n"));
 		
 		// Write headers
-		for (Entry<String, String> set : defaultHeaders.entrySet()) {
+		for (Entry<String, String> set : headers.entrySet()) {
 			String header = set.getKey() + ": " + set.getValue();
 			b.write(StringUtil.utf8(header + "\n"));
 		}
@@ -274,35 +448,14 @@ public class RestUtil {
 		// Write cookies to user
 		if (cookiesList != null && cookiesList.size() > 0) {
 			for (HttpCookie cookie : cookiesList) {
-				String cookieHeader = new String("Set-Cookie: " + cookie + "\n");
+				String cookieHeader = HttpHeaders.SET_COOKIE + ": " + CookieCodec.encodeSetCookie(cookie) + "\n";
 				b.write(StringUtil.utf8(cookieHeader));
 			}
 		}
-		
-		// Get final body
-		byte[] finalBody = null;
-		if ( defaultHeaders.get(HttpHeaders.CONTENT_ENCODING) != null && defaultHeaders.get(HttpHeaders.CONTENT_ENCODING).contains("gzip") ) {
-			ByteArrayOutputStream byteArrayOS = new ByteArrayOutputStream();
-			GZIPOutputStream gzipBodyStream = new GZIPOutputStream(byteArrayOS);
-			gzipBodyStream.write(StringUtil.utf8(body));
-			gzipBodyStream.close();
-			gzipBodyStream = null;
-			
-			finalBody = byteArrayOS.toByteArray();
-		} else {
-			finalBody = StringUtil.utf8(body);
-		}
-		
-		// Write content predata
-		b.write(StringUtil.utf8("Content-Length: " + finalBody.length + "\n"));
-		b.write(StringUtil.utf8("Content-Type: " + produces.getType() + "\n"));
-		
-		// Tell the parser that we are going to begin writing data
-		b.write(StringUtil.utf8("\n"));
-		
-		// Write data
-		b.write(finalBody);
-		b.flush();
+	}
+	
+	static boolean isGzip(Map<String, String> headers) {
+		return headers.get(HttpHeaders.CONTENT_ENCODING) != null && headers.get(HttpHeaders.CONTENT_ENCODING).contains("gzip");
 	}
 	
 	public static String escape(String string) {
@@ -0,0 +1,145 @@
+package io.jrest;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes how a {@link RequestEntity} should react to failed or slow exchanges.
+ * Only idempotent methods are retried or hedged unless {@link #setRetryMethods(HttpMethod...)} says otherwise.
+ */
+public class RetryPolicy {
+
+	/** Hedge delay value telling the client to use the p95 latency observed for the host **/
+	public static final long HEDGE_ADAPTIVE = -1;
+
+	/** Hedge delay value that disables hedged requests **/
+	public static final long HEDGE_DISABLED = 0;
+
+	/** Maximum number of attempts, including the first one **/
+	private int maxAttempts;
+
+	/** Base delay in milliseconds used for exponential backoff **/
+	private long baseDelay;
+
+	/** Upper bound in milliseconds for a single backoff **/
+	private long maxDelay;
+
+	/** Delay in milliseconds before a hedged attempt is fired **/
+	private long hedgeDelay;
+
+	/** Methods that are safe to send more than once **/
+	private Set<HttpMethod> retryMethods;
+
+	/** Response statuses that count as a failed attempt **/
+	private Set<Integer> retryStatuses;
+
+	public RetryPolicy() {
+		this.maxAttempts = 3;
+		this.baseDelay = 50;
+		this.maxDelay = 2000;
+		this.hedgeDelay = HEDGE_DISABLED;
+		this.retryMethods = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.TRACE);
+		this.retryStatuses = new HashSet<>();
+		this.retryStatuses.add(HttpStatus.BAD_GATEWAY.value());
+		this.retryStatuses.add(HttpStatus.SERVICE_UNAVAILABLE.value());
+		this.retryStatuses.add(HttpStatus.GATEWAY_TIMEOUT.value());
+	}
+
+	/**
+	 * Policy that never retries or hedges. Matches the behavior of a plain {@link RequestEntity}.
+	 */
+	public static RetryPolicy none() {
+		return new RetryPolicy().setMaxAttempts(1);
+	}
+
+	public RetryPolicy setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		return this;
+	}
+
+	public int getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	public RetryPolicy setBaseDelay(long millis) {
+		this.baseDelay = Math.max(0, millis);
+		return this;
+	}
+
+	public long getBaseDelay() {
+		return this.baseDelay;
+	}
+
+	public RetryPolicy setMaxDelay(long millis) {
+		this.maxDelay = Math.max(0, millis);
+		return this;
+	}
+
+	public long getMaxDelay() {
+		return this.maxDelay;
+	}
+
+	/**
+	 * Set how long to wait for the first attempt before firing a second, hedged attempt.
+	 * Use {@link #HEDGE_ADAPTIVE} to derive the delay from the hosts p95 latency, or {@link #HEDGE_DISABLED} to turn hedging off.
+	 */
+	public RetryPolicy setHedgeDelay(long millis) {
+		this.hedgeDelay = millis;
+		return this;
+	}
+
+	public long getHedgeDelay() {
+		return this.hedgeDelay;
+	}
+
+	public RetryPolicy setRetryMethods(HttpMethod...methods) {
+		this.retryMethods = EnumSet.noneOf(HttpMethod.class);
+		for (HttpMethod method : methods)
+			this.retryMethods.add(method);
+		return this;
+	}
+
+	public RetryPolicy setRetryStatuses(HttpStatus...statuses) {
+		this.retryStatuses = new HashSet<>();
+		for (HttpStatus status : statuses)
+			this.retryStatuses.add(status.value());
+		return this;
+	}
+
+	/**
+	 * Returns whether a request with the given method may be sent more than once.
+	 */
+	public boolean canRetry(HttpMethod method) {
+		return this.retryMethods.contains(method);
+	}
+
+	/**
+	 * Returns whether a response with the given status should be treated as a failed attempt.
+	 */
+	public boolean isRetryStatus(HttpStatus status) {
+		return status != null && this.retryStatuses.contains(status.value());
+	}
+
+	/**
+	 * Returns whether hedged attempts are enabled.
+	 */
+	public boolean isHedging() {
+		return this.hedgeDelay != HEDGE_DISABLED;
+	}
+
+	/**
+	 * Returns the time to sleep before the given retry (1 based). Uses exponential backoff with full jitter.
+	 */
+	public long getBackoff(int retry) {
+		if ( baseDelay == 0 )
+			return 0;
+
+		long ceiling = baseDelay << Math.min(retry - 1, 20);
+		if ( ceiling <= 0 || ceiling > maxDelay )
+			ceiling = maxDelay;
+
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+}
@@ -0,0 +1,80 @@
+package io.jrest;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of one route (method and path) of a server.
+ */
+class RouteMetrics {
+
+	final HttpMethod method;
+
+	/** Route as it was registered, or null for requests that matched no route **/
+	final String route;
+
+	/** Prometheus labels of the route **/
+	final String labels;
+
+	/** Requests by status code, created the first time a status is seen **/
+	private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(600);
+
+	final LongAdder inFlight = new LongAdder();
+
+	final LongAdder bytesIn = new LongAdder();
+
+	final LongAdder bytesOut = new LongAdder();
+
+	/** Time spent in each {@link RequestTimer.Phase} **/
+	final LongAdder[] phaseTime = new LongAdder[RequestTimer.PHASES.length];
+
+	/** Time spent in the endpoint **/
+	final LatencyHistogram handlerTime = new LatencyHistogram();
+
+	/** Time from reading the request head to writing the response **/
+	final LatencyHistogram totalTime = new LatencyHistogram();
+
+	RouteMetrics(HttpMethod method, String route) {
+		this.method = method;
+		this.route = route;
+		this.labels = Metrics.labels(method, route);
+		for (int i = 0; i < phaseTime.length; i++)
+			phaseTime[i] = new LongAdder();
+	}
+
+	/**
+	 * Record a finished request.
+	 */
+	void record(HttpStatus status, long requestBytes, long responseBytes, RequestTimer timer, long totalNanos) {
+		int code = Math.min(Math.max(status.value(), 0), statuses.length() - 1);
+		LongAdder count = statuses.get(code);
+		if ( count == null ) {
+			statuses.compareAndSet(code, null, new LongAdder());
+			count = statuses.get(code);
+		}
+		count.increment();
+
+		if ( requestBytes > 0 )
+			bytesIn.add(requestBytes);
+		if ( responseBytes > 0 )
+			bytesOut.add(responseBytes);
+		for (int i = 0; i < phaseTime.length; i++) {
+			long time = timer.get(RequestTimer.PHASES[i]);
+			if ( time > 0 )
+				phaseTime[i].add(time);
+		}
+		handlerTime.record(timer.get(RequestTimer.Phase.HANDLER));
+		totalTime.record(totalNanos);
+	}
+
+	/**
+	 * Write the request counts of this route in Prometheus text format.
+	 */
+	void writeRequests(StringBuilder out) {
+		for (int code = 0; code < statuses.length(); code++) {
+			LongAdder count = statuses.get(code);
+			if ( count != null )
+				out.append("jrest_requests_total{").append(labels).append(",status=\"").append(code).append("\"} ").append(count.sum()).append('\n');
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package io.jrest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Routes and response handlers of a server. A table is never changed once built: registering a route
+ * builds a new table, which the server swaps in with a single volatile write. Requests look routes up
+ * without locking, and registering never makes them wait or shows them a table half way through a change.
+ */
+final class RouteTable {
+
+	static final RouteTable EMPTY = new Builder().build();
+
+	private static final int METHODS = HttpMethod.values().length;
+
+	/** Highest status code a response handler can be registered for **/
+	private static final int MAX_STATUS = 599;
+
+	/** Endpoints of each path, indexed by method ordinal **/
+	private final Map<String, EndPointWrapper<?, ?>[]> routes;
+
+	/** Response handlers indexed by status code, null when none are registered **/
+	private final EndPointWrapper<?, ?>[] handlers;
+
+	/** WebSocket endpoints by path **/
+	private final Map<String, WebSocket.Route<?>> webSockets;
+
+	/** Event stream endpoints by path **/
+	private final Map<String, EventStreamHandler> eventStreams;
+
+	private RouteTable(Map<String, EndPointWrapper<?, ?>[]> routes, EndPointWrapper<?, ?>[] handlers, Map<String, WebSocket.Route<?>> webSockets, Map<String, EventStreamHandler> eventStreams) {
+		this.routes = routes;
+		this.handlers = handlers;
+		this.webSockets = webSockets;
+		this.eventStreams = eventStreams;
+	}
+
+	/**
+	 * Endpoint registered for a decoded path and method, or null.
+	 */
+	EndPointWrapper<?, ?> get(String path, HttpMethod method) {
+		EndPointWrapper<?, ?>[] methods = routes.get(path);
+		if ( methods == null )
+			return null;
+
+		return methods[method.ordinal()];
+	}
+
+	/**
+	 * Response handler registered for a status, or null.
+	 */
+	EndPointWrapper<?, ?> getHandler(HttpStatus status) {
+		int code = status.value();
+		if ( handlers == null || code < 0 || code >= handlers.length )
+			return null;
+
+		return handlers[code];
+	}
+
+	/**
+	 * WebSocket endpoint registered for a decoded path, or null.
+	 */
+	WebSocket.Route<?> getWebSocket(String path) {
+		return webSockets.isEmpty() ? null : webSockets.get(path);
+	}
+
+	/**
+	 * Event stream endpoint registered for a decoded path, or null.
+	 */
+	EventStreamHandler getEventStream(String path) {
+		return eventStreams.isEmpty() ? null : eventStreams.get(path);
+	}
+
+	/**
+	 * Paths with an endpoint for a method.
+	 */
+	List<String> getPaths(HttpMethod method) {
+		List<String> paths = new ArrayList<>();
+		for (Entry<String, EndPointWrapper<?, ?>[]> route : routes.entrySet()) {
+			if ( route.getValue()[method.ordinal()] != null )
+				paths.add(route.getKey());
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Routes being registered. Not thread safe, the server registers under its own lock.
+	 */
+	static final class Builder {
+
+		private final Map<String, EndPointWrapper<?, ?>[]> routes = new HashMap<>();
+
+		private final EndPointWrapper<?, ?>[] handlers = new EndPointWrapper<?, ?>[MAX_STATUS + 1];
+
+		private boolean hasHandlers;
+
+		private final Map<String, WebSocket.Route<?>> webSockets = new HashMap<>();
+
+		private final Map<String, EventStreamHandler> eventStreams = new HashMap<>();
+
+		Builder route(String path, HttpMethod method, EndPointWrapper<?, ?> endpoint) {
+			routes.computeIfAbsent(path, (key) -> new EndPointWrapper<?, ?>[METHODS])[method.ordinal()] = endpoint;
+			return this;
+		}
+
+		Builder handler(HttpStatus status, EndPointWrapper<?, ?> handler) {
+			int code = status.value();
+			if ( code < 0 || code > MAX_STATUS )
+				throw new IllegalArgumentException("Response handlers can only be registered for status codes 0 to " + MAX_STATUS + ", not " + code);
+
+			handlers[code] = handler;
+			hasHandlers = true;
+			return this;
+		}
+
+		Builder webSocket(String path, WebSocket.Route<?> route) {
+			webSockets.put(path, route);
+			return this;
+		}
+
+		Builder eventStream(String path, EventStreamHandler handler) {
+			eventStreams.put(path, handler);
+			return this;
+		}
+
+		/**
+		 * Copy the routes registered so far in to a table.
+		 */
+		RouteTable build() {
+			Map<String, EndPointWrapper<?, ?>[]> table = new HashMap<>((int) (routes.size() / 0.75f) + 1);
+			for (Entry<String, EndPointWrapper<?, ?>[]> route : routes.entrySet())
+				table.put(route.getKey(), route.getValue().clone());
+
+			return new RouteTable(table, hasHandlers ? handlers.clone() : null, new HashMap<>(webSockets), new HashMap<>(eventStreams));
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package io.jrest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleTypeVisitor8;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor generating a {@link GeneratedSerializer} for every class annotated with {@link GenerateSerializer}.
+ * Generated serializers are listed in META-INF/services so they are registered at runtime without any configuration.
+ * Registered through META-INF/services/javax.annotation.processing.Processor, so it runs whenever JRest is on the compile class path.
+ */
+public class SerializerProcessor extends AbstractProcessor {
+
+	private static final String SUFFIX = "_JRestSerializer";
+
+	private static final String SERVICE_FILE = "META-INF/services/" + GeneratedSerializer.class.getName();
+
+	/** Generated serializer class names, written to the service file in the last round **/
+	private final List<String> generated = new ArrayList<>();
+
+	/** DTO classes the serializers were generated from **/
+	private final List<Element> originating = new ArrayList<>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(GenerateSerializer.class.getName());
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (Element element : round.getElementsAnnotatedWith(GenerateSerializer.class)) {
+			if ( element.getKind() != ElementKind.CLASS ) {
+				error(element, "@GenerateSerializer can only be used on classes");
+				continue;
+			}
+
+			try {
+				generate((TypeElement) element);
+			} catch(IOException e) {
+				error(element, "Could not write serializer: " + e.getMessage());
+			}
+		}
+
+		if ( round.processingOver() && !generated.isEmpty() )
+			writeServiceFile();
+
+		return true;
+	}
+
+	/**
+	 * Generate the serializer source for a DTO class.
+	 */
+	private void generate(TypeElement dto) throws IOException {
+		Elements elements = processingEnv.getElementUtils();
+		PackageElement pkg = elements.getPackageOf(dto);
+		String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String dtoName = dto.getQualifiedName().toString();
+		String className = getSerializerName(dto);
+
+		if ( !check(dto, packageName) )
+			return;
+
+		// Work out how each field is read and written
+		Map<String, Property> properties = new LinkedHashMap<>();
+		for (TypeElement type = dto; type != null; type = getSuperclass(type)) {
+			for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if ( modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT) )
+					continue;
+
+				String name = field.getSimpleName().toString();
+				if ( properties.containsKey(name) )
+					continue;
+
+				Property property = getProperty(dto, field, packageName);
+				if ( property == null )
+					return;
+
+				properties.put(name, property);
+			}
+		}
+
+		StringBuilder source = new StringBuilder();
+		if ( !packageName.isEmpty() )
+			source.append("package ").append(packageName).append(";\n\n");
+
+		source.append("/**\n");
+		source.append(" * Serializer for {@link ").append(dtoName).append("}, generated by ").append(SerializerProcessor.class.getName()).append(". Do not edit.\n");
+		source.append(" */\n");
+		source.append("public final class ").append(className).append(" extends io.jrest.GeneratedSerializer<").append(dtoName).append("> {\n\n");
+
+		// Type
+		source.append("\t@Override\n");
+		source.append("\tpublic Class<").append(dtoName).append("> getType() {\n");
+		source.append("\t\treturn ").append(dtoName).append(".class;\n");
+		source.append("\t}\n\n");
+
+		// Json
+		source.append("\t@Override\n");
+		source.append("\tpublic void write(").append(dtoName).append(" value, StringBuilder out) {\n");
+		boolean first = true;
+		for (Map.Entry<String, Property> entry : properties.entrySet()) {
+			source.append("\t\tout.append(\"").append(first ? "{" : ",").append("\\\"").append(entry.getKey()).append("\\\":\");\n");
+			source.append("\t\t").append(getWriteStatement(entry.getValue().type, entry.getValue().getter)).append(";\n");
+			first = false;
+		}
+		source.append("\t\tout.append(\"").append(first ? "{}" : "}").append("\");\n");
+		source.append("\t}\n\n");
+
+		// Tree
+		source.append("\t@Override\n");
+		source.append("\tpublic java.util.Map<String, Object> toTree(").append(dtoName).append(" value) {\n");
+		source.append("\t\tjava.util.Map<String, Object> tree = new java.util.LinkedHashMap<>(").append(Math.max(4, properties.size() * 2)).append(");\n");
+		for (Map.Entry<String, Property> entry : properties.entrySet())
+			source.append("\t\ttree.put(\"").append(entry.getKey()).append("\", ").append(entry.getValue().getter).append(");\n");
+		source.append("\t\treturn tree;\n");
+		source.append("\t}\n\n");
+
+		// Decode
+		source.append("\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		source.append("\t@Override\n");
+		source.append("\tprotected ").append(dtoName).append(" fromTree(java.util.Map<?, ?> tree) {\n");
+		source.append("\t\t").append(dtoName).append(" value = new ").append(dtoName).append("();\n");
+		source.append("\t\tObject v;\n");
+		for (Map.Entry<String, Property> entry : properties.entrySet()) {
+			Property property = entry.getValue();
+			source.append("\t\tif ( (v = tree.get(\"").append(entry.getKey()).append("\")) != null )\n");
+			source.append("\t\t\t").append(String.format(property.setter, property.reader)).append(";\n");
+		}
+		source.append("\t\treturn value;\n");
+		source.append("\t}\n");
+		source.append("}\n");
+
+		String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+		try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, dto).openWriter()) {
+			writer.write(source.toString());
+		}
+
+		generated.add(qualifiedName);
+		originating.add(dto);
+	}
+
+	/**
+	 * Check the DTO can be instantiated from the generated serializer.
+	 */
+	private boolean check(TypeElement dto, String packageName) {
+		if ( dto.getModifiers().contains(Modifier.ABSTRACT) ) {
+			error(dto, "@GenerateSerializer classes can not be abstract");
+			return false;
+		}
+
+		if ( !dto.getTypeParameters().isEmpty() ) {
+			error(dto, "@GenerateSerializer classes can not be generic");
+			return false;
+		}
+
+		for (Element e = dto; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			TypeElement type = (TypeElement) e;
+			if ( type.getModifiers().contains(Modifier.PRIVATE) ) {
+				error(dto, "@GenerateSerializer classes can not be private");
+				return false;
+			}
+
+			if ( type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC) ) {
+				error(dto, "@GenerateSerializer classes must be top level or static");
+				return false;
+			}
+		}
+
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(dto.getEnclosedElements())) {
+			if ( constructor.getParameters().isEmpty() && isAccessible(constructor, packageName) )
+				return true;
+		}
+
+		error(dto, "@GenerateSerializer classes need a non private no-argument constructor");
+		return false;
+	}
+
+	/**
+	 * Work out how a field is accessed. Reports an error and returns null if it can not be.
+	 */
+	private Property getProperty(TypeElement dto, VariableElement field, String packageName) {
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror type = types.asMemberOf((DeclaredType) dto.asType(), field);
+		String name = field.getSimpleName().toString();
+		String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		boolean fieldAccessible = isAccessible(field, packageName);
+
+		// Read the field directly, or with a getter
+		String getter = null;
+		if ( fieldAccessible ) {
+			getter = "value." + name;
+		} else {
+			for (ExecutableElement method : getMethods(dto)) {
+				String methodName = method.getSimpleName().toString();
+				boolean named = methodName.equals("get" + capitalized) || ( type.getKind() == TypeKind.BOOLEAN && methodName.equals("is" + capitalized) );
+				if ( named && method.getParameters().isEmpty() && isAccessible(method, packageName) && types.isSameType(types.asMemberOf((DeclaredType) dto.asType(), method).accept(new ReturnType(), null), type) ) {
+					getter = "value." + methodName + "()";
+					break;
+				}
+			}
+		}
+
+		// Write the field directly, or with a setter
+		String setter = null;
+		if ( fieldAccessible && !field.getModifiers().contains(Modifier.FINAL) ) {
+			setter = "value." + name + " = %s";
+		} else {
+			for (ExecutableElement method : getMethods(dto)) {
+				if ( method.getSimpleName().toString().equals("set" + capitalized) && method.getParameters().size() == 1 && isAccessible(method, packageName)
+						&& types.isSameType(method.getParameters().get(0).asType(), type) ) {
+					setter = "value.set" + capitalized + "(%s)";
+					break;
+				}
+			}
+		}
+
+		if ( getter == null || setter == null ) {
+			error(field, "Field " + name + " needs to be accessible, or have a get" + capitalized + " and set" + capitalized + " method, to generate a serializer");
+			return null;
+		}
+
+		String reader = getReadExpression(type);
+		if ( reader == null ) {
+			error(field, "Field " + name + " has a type generated serializers do not support: " + type);
+			return null;
+		}
+
+		return new Property(type, getter, setter, reader);
+	}
+
+	/**
+	 * Java expression converting the decoded value v to a type. Returns null if the type is not supported.
+	 */
+	private String getReadExpression(TypeMirror type) {
+		Types types = processingEnv.getTypeUtils();
+		Elements elements = processingEnv.getElementUtils();
+
+		switch (type.getKind()) {
+			case INT: return "toInt(v)";
+			case LONG: return "toLong(v)";
+			case SHORT: return "toShort(v)";
+			case BYTE: return "toByte(v)";
+			case DOUBLE: return "toDouble(v)";
+			case FLOAT: return "toFloat(v)";
+			case BOOLEAN: return "toBoolean(v)";
+			case CHAR: return "toChar(v)";
+			case ARRAY:
+				TypeMirror component = ((ArrayType) type).getComponentType();
+				if ( component.getKind() != TypeKind.DECLARED || !((DeclaredType) component).getTypeArguments().isEmpty() )
+					return null;
+				return "toList(v, " + component + ".class).toArray(new " + component + "[0])";
+			case DECLARED:
+				break;
+			default:
+				return null;
+		}
+
+		// Boxed primitives
+		try {
+			return getReadExpression(types.unboxedType(type));
+		} catch(IllegalArgumentException e) {
+			// Not a boxed type
+		}
+
+		DeclaredType declared = (DeclaredType) type;
+		TypeElement element = (TypeElement) declared.asElement();
+		String erasure = types.erasure(type).toString();
+		if ( erasure.equals(String.class.getName()) )
+			return "toStr(v)";
+
+		if ( element.getKind() == ElementKind.ENUM )
+			return erasure + ".valueOf(toStr(v))";
+
+		// Collections and Maps of a single element type
+		List<? extends TypeMirror> arguments = declared.getTypeArguments();
+		TypeMirror collection = types.erasure(elements.getTypeElement("java.util.Collection").asType());
+		TypeMirror map = types.erasure(elements.getTypeElement("java.util.Map").asType());
+		if ( arguments.size() == 1 && types.isAssignable(types.erasure(type), collection) ) {
+			String elementClass = types.erasure(arguments.get(0)) + ".class";
+			if ( isAssignableFrom(type, "java.util.ArrayList") )
+				return "toList(v, " + elementClass + ")";
+			if ( isAssignableFrom(type, "java.util.LinkedHashSet") )
+				return "toSet(v, " + elementClass + ")";
+			return null;
+		}
+
+		if ( arguments.size() == 2 && types.isAssignable(types.erasure(type), map) ) {
+			if ( !types.erasure(arguments.get(0)).toString().equals(String.class.getName()) || !isAssignableFrom(type, "java.util.LinkedHashMap") )
+				return null;
+			return "toMap(v, " + types.erasure(arguments.get(1)) + ".class)";
+		}
+
+		// Nested DTOs, Objects and raw Maps/Lists
+		return "(" + type + ") convert(v, " + erasure + ".class)";
+	}
+
+	/**
+	 * Java statement writing a value of a type as json.
+	 */
+	private static String getWriteStatement(TypeMirror type, String value) {
+		switch (type.getKind()) {
+			case INT:
+			case LONG:
+			case SHORT:
+			case BYTE:
+			case BOOLEAN:
+				return "out.append(" + value + ")";
+			case DOUBLE:
+			case FLOAT:
+				return "writeNumber(" + value + ", out)";
+			case CHAR:
+				return "writeString(String.valueOf(" + value + "), out)";
+			default:
+				if ( type.toString().equals(String.class.getName()) )
+					return "writeString(" + value + ", out)";
+				return "io.jrest.MarshallerJson.write(" + value + ", out)";
+		}
+	}
+
+	/**
+	 * Whether a value of the given class can be assigned to a field of a (possibly parameterized) type.
+	 */
+	private boolean isAssignableFrom(TypeMirror type, String className) {
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror candidate = types.erasure(processingEnv.getElementUtils().getTypeElement(className).asType());
+		return types.isAssignable(candidate, types.erasure(type));
+	}
+
+	/**
+	 * Whether generated code in the DTO's package can use an element.
+	 */
+	private boolean isAccessible(Element element, String packageName) {
+		Set<Modifier> modifiers = element.getModifiers();
+		if ( modifiers.contains(Modifier.PUBLIC) )
+			return true;
+
+		if ( modifiers.contains(Modifier.PRIVATE) )
+			return false;
+
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+		return (pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString()).equals(packageName);
+	}
+
+	private List<ExecutableElement> getMethods(TypeElement type) {
+		return ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if ( superclass.getKind() != TypeKind.DECLARED )
+			return null;
+
+		TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+		return element.getQualifiedName().contentEquals(Object.class.getName()) ? null : element;
+	}
+
+	/**
+	 * Serializer class name, such as Outer_Inner_JRestSerializer for a nested class.
+	 */
+	private static String getSerializerName(TypeElement dto) {
+		String name = dto.getSimpleName().toString();
+		for (Element e = dto.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement())
+			name = e.getSimpleName() + "_" + name;
+
+		return name + SUFFIX;
+	}
+
+	private void writeServiceFile() {
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE, originating.toArray(new Element[0]));
+			try (Writer writer = file.openWriter()) {
+				for (String name : generated)
+					writer.write(name + "\n");
+			}
+		} catch(IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + SERVICE_FILE + ": " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	/**
+	 * Return type of a method type.
+	 */
+	private static class ReturnType extends SimpleTypeVisitor8<TypeMirror, Void> {
+		@Override
+		public TypeMirror visitExecutable(ExecutableType t, Void p) {
+			return t.getReturnType();
+		}
+	}
+
+	/**
+	 * How one field of a DTO is read and written.
+	 */
+	private static class Property {
+		final TypeMirror type;
+
+		/** Expression reading the field from value **/
+		final String getter;
+
+		/** Statement format setting the field on value **/
+		final String setter;
+
+		/** Expression converting the decoded value v to the field type **/
+		final String reader;
+
+		Property(TypeMirror type, String getter, String setter, String reader) {
+			this.type = type;
+			this.getter = getter;
+			this.setter = setter;
+			this.reader = reader;
+		}
+	}
+}
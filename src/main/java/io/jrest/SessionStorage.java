@@ -1,18 +1,25 @@
 package io.jrest;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SessionStorage {
-	private Map<String, HttpSession> storage = new HashMap<>();
+	private Map<String, HttpSession> storage = new ConcurrentHashMap<>();
 	
 	/**
-	 * Get a session by its uuid string.
+	 * Get a session by its uuid string. Invalidated sessions are removed from the storage, and not returned.
 	 */
 	public HttpSession get(String uuid) {
-		return storage.get(uuid);
+		HttpSession session = storage.get(uuid);
+		if ( session != null && !session.isValid() ) {
+			if ( storage.remove(uuid, session) )
+				JfrEvents.sessionEvicted(storage.size());
+			return null;
+		}
+		
+		return session;
 	}
 	
 	/**
@@ -21,6 +28,7 @@ public class SessionStorage {
 	public HttpSession create() {
 		HttpSession session = new HttpSession();
 		storage.put(session.getUUID().toString(), session);
+		JfrEvents.sessionCreated(storage.size());
 		return session;
 	}
 	
@@ -1,7 +1,9 @@
 package io.jrest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +29,33 @@ public class StringUtil {
 		return new String(data, Charset.forName("UTF-8"));
 	}
 
+	/**
+	 * Percent-decode a url path as UTF-8. Unlike form encoding, '+' is left as it is.
+	 * The path holds the raw bytes of the request target, one char per byte as read with ISO-8859-1,
+	 * so bytes sent without percent encoding are decoded as UTF-8 too.
+	 * Returns the path itself when there is nothing to decode.
+	 */
+	public static String decodePath(String path) {
+		int i = 0;
+		while (i < path.length() && path.charAt(i) != '%' && path.charAt(i) < 0x80)
+			i++;
+		if ( i == path.length() )
+			return path;
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(path.length());
+		for (i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if ( c == '%' && i + 2 < path.length() && Character.digit(path.charAt(i + 1), 16) != -1 && Character.digit(path.charAt(i + 2), 16) != -1 ) {
+				out.write(Character.digit(path.charAt(i + 1), 16) << 4 | Character.digit(path.charAt(i + 2), 16));
+				i += 2;
+			} else {
+				out.write((byte) c);
+			}
+		}
+		
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
 	/**
 	 * Naive string escaping function. Replaces single quotes, Double quotes, and Tildes with escaped characters.
 	 */
@@ -39,54 +68,23 @@ public class StringUtil {
 	
 	/**
 	 * Manual json serialization. Should only used if Gson is not available.
+	 * See {@link MarshallerJson#write(Object, StringBuilder)}.
 	 */
-	@SuppressWarnings("unchecked")
 	public static String serializeJson(Object object) {
+		if (!(object instanceof Map) && !(object instanceof List))
+			return new String();
 
-		if (object instanceof Map) {
-			String str = "{";
-			boolean first = true;
-			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) object).entrySet()) {
-				if (!first)
-					str += ", ";
-				str += getSerializedJSONValue(entry.getKey().toString()) + ": "
-						+ getSerializedJSONValue(entry.getValue());
-				first = false;
-			}
-			str += "}";
-			return str;
-		} else if (object instanceof List) {
-			String str = "[";
-			boolean first = true;
-			for (Object obj : (List<Object>) object) {
-				if (!first)
-					str += ", ";
-				str += getSerializedJSONValue(obj);
-				first = false;
-			}
-			str += "]";
-			return str;
-		}
-
-		return new String();
+		StringBuilder builder = new StringBuilder();
+		MarshallerJson.write(object, builder);
+		return builder.toString();
 	}
 
 	/**
 	 * Returns the value associated with a json key as a String. Should only be used if gson is unavailable.
 	 */
 	public static String getSerializedJSONValue(Object value) {
-		if (value == null)
-			return "null";
-		else if (value instanceof List)
-			return serializeJson(value);
-		else if (value instanceof Map)
-			return serializeJson(value);
-		else if (value instanceof Number || value instanceof Boolean)
-			return value.toString();
-		else if (value instanceof String)
-			return "\"" + value.toString() + "\"";
-
-		// Cant be serialized
-		return "null";
+		StringBuilder builder = new StringBuilder();
+		MarshallerJson.write(value, builder);
+		return builder.toString();
 	}
 }
@@ -0,0 +1,198 @@
+package io.jrest;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Key material and settings a server terminates TLS with, see {@link JRest#setTls(TlsConfig)}.
+ * <br>
+ * Sessions are cached by the server so returning clients resume them with an abbreviated handshake
+ * instead of a full one. With session tickets the session state is handed to the client instead,
+ * so resumption also works for sessions that have left the cache.
+ */
+public class TlsConfig {
+
+	/** System property the JDK (13 and newer) reads once, when TLS is first used, to enable session tickets **/
+	private static final String SESSION_TICKET_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+	private final KeyStore keyStore;
+
+	private final char[] keyPassword;
+
+	/** Protocols offered to clients **/
+	private String[] protocols;
+
+	/** Sessions kept for resumption, 0 for no limit **/
+	private int sessionCacheSize;
+
+	/** Seconds a session can be resumed for **/
+	private int sessionTimeout;
+
+	private boolean sessionTickets;
+
+	/** Longest time in milliseconds a client is given to finish the handshake **/
+	private int handshakeTimeout;
+
+	/** Built the first time it is needed **/
+	private SSLContext context;
+
+	/**
+	 * Use the first key in a key store file. The type is JKS for files ending in .jks, PKCS12 otherwise.
+	 */
+	public TlsConfig(String keyStorePath, String password) throws IOException {
+		this(load(keyStorePath, password.toCharArray()), password.toCharArray());
+	}
+
+	public TlsConfig(KeyStore keyStore, char[] keyPassword) {
+		this.keyStore = keyStore;
+		this.keyPassword = keyPassword;
+		this.protocols = new String[] { "TLSv1.3", "TLSv1.2" };
+		this.sessionCacheSize = 20000;
+		this.sessionTimeout = 3600;
+		this.sessionTickets = true;
+		this.handshakeTimeout = 10000;
+	}
+
+	private static KeyStore load(String path, char[] password) throws IOException {
+		try (InputStream input = new FileInputStream(path)) {
+			KeyStore keyStore = KeyStore.getInstance(path.toLowerCase().endsWith(".jks") ? "JKS" : "PKCS12");
+			keyStore.load(input, password);
+			return keyStore;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Could not load key store " + path, e);
+		}
+	}
+
+	public TlsConfig setProtocols(String... protocols) {
+		this.protocols = protocols;
+		return this;
+	}
+
+	public String[] getProtocols() {
+		return this.protocols;
+	}
+
+	/**
+	 * Set how many sessions the server keeps for clients to resume. 0 keeps every session until it times out.
+	 */
+	public TlsConfig setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = Math.max(0, sessionCacheSize);
+		return this;
+	}
+
+	public int getSessionCacheSize() {
+		return this.sessionCacheSize;
+	}
+
+	/**
+	 * Set how many seconds a session can be resumed for.
+	 */
+	public TlsConfig setSessionTimeout(int seconds) {
+		this.sessionTimeout = Math.max(0, seconds);
+		return this;
+	}
+
+	public int getSessionTimeout() {
+		return this.sessionTimeout;
+	}
+
+	/**
+	 * Set whether sessions are resumed from tickets held by the client (Java 13 and newer).
+	 * The JDK reads this once for the whole JVM, when TLS is first used, so it only has an effect
+	 * if no TLS connection has been made before the server starts.
+	 */
+	public TlsConfig setSessionTickets(boolean sessionTickets) {
+		this.sessionTickets = sessionTickets;
+		return this;
+	}
+
+	public boolean isSessionTickets() {
+		return this.sessionTickets;
+	}
+
+	public TlsConfig setHandshakeTimeout(int millis) {
+		this.handshakeTimeout = Math.max(0, millis);
+		return this;
+	}
+
+	public int getHandshakeTimeout() {
+		return this.handshakeTimeout;
+	}
+
+	/**
+	 * The context connections are secured with. Sockets and engines created from it share its session cache.
+	 */
+	public synchronized SSLContext getContext() throws IOException {
+		if ( context != null )
+			return context;
+
+		if ( System.getProperty(SESSION_TICKET_PROPERTY) == null )
+			System.setProperty(SESSION_TICKET_PROPERTY, String.valueOf(sessionTickets));
+
+		try {
+			KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keyManagers.init(keyStore, keyPassword);
+
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keyManagers.getKeyManagers(), null, null);
+
+			SSLSessionContext sessions = context.getServerSessionContext();
+			sessions.setSessionCacheSize(sessionCacheSize);
+			sessions.setSessionTimeout(sessionTimeout);
+
+			this.context = context;
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Could not create TLS context", e);
+		}
+	}
+
+	/**
+	 * Unbound server socket that accepts TLS connections.
+	 */
+	ServerSocket createServerSocket() throws IOException {
+		SSLServerSocket serverSocket = (SSLServerSocket) getContext().getServerSocketFactory().createServerSocket();
+		serverSocket.setEnabledProtocols(enabledProtocols(serverSocket.getSupportedProtocols()));
+		return serverSocket;
+	}
+
+	/**
+	 * Server side engine for servers that do their own non-blocking I/O, sharing this config's session cache.
+	 */
+	public SSLEngine createEngine() throws IOException {
+		SSLEngine engine = getContext().createSSLEngine();
+		engine.setUseClientMode(false);
+		engine.setEnabledProtocols(enabledProtocols(engine.getSupportedProtocols()));
+		return engine;
+	}
+
+	/**
+	 * The configured protocols this JRE supports, so TLSv1.3 is left out on Java 8 releases without it.
+	 */
+	private String[] enabledProtocols(String[] supported) throws IOException {
+		List<String> available = Arrays.asList(supported);
+		List<String> enabled = new ArrayList<>(protocols.length);
+		for (String protocol : protocols) {
+			if ( available.contains(protocol) )
+				enabled.add(protocol);
+		}
+
+		if ( enabled.isEmpty() )
+			throw new IOException("None of the TLS protocols " + Arrays.toString(protocols) + " are supported, supported are " + available);
+
+		return enabled.toArray(new String[0]);
+	}
+}
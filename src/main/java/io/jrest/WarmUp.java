@@ -0,0 +1,155 @@
+package io.jrest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Requests replayed through the request pipeline before a server starts listening, so the parse, route
+ * and write paths are compiled by the JIT before real clients arrive. Requests are fed to the pipeline
+ * through in-memory sockets, nothing goes over the network.
+ */
+class WarmUp {
+
+	/** Requests replayed between checks of whether the JIT is still compiling **/
+	private static final int ROUND = 500;
+
+	/** Rounds in a row without new compilation before warming up stops **/
+	private static final int QUIET_ROUNDS = 2;
+
+	/** Raw requests, head and body, as they would arrive on a connection **/
+	private final List<byte[]> requests = new ArrayList<>();
+
+	void add(byte[] request) {
+		requests.add(request);
+	}
+
+	boolean isEmpty() {
+		return requests.isEmpty();
+	}
+
+	/**
+	 * Raw bytes of a request with an optional body.
+	 */
+	static byte[] request(HttpMethod method, String path, MediaType contentType, byte[] body) {
+		StringBuilder head = new StringBuilder(128);
+		head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+		head.append(HttpHeaders.HOST).append(": localhost\r\n");
+		head.append(HttpHeaders.ACCEPT).append(": */*\r\n");
+		if ( body != null ) {
+			head.append(HttpHeaders.CONTENT_TYPE).append(": ").append(contentType.getType()).append("\r\n");
+			head.append(HttpHeaders.CONTENT_LENGTH).append(": ").append(body.length).append("\r\n");
+		}
+		head.append("\r\n");
+
+		byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+		if ( body == null )
+			return headBytes;
+
+		byte[] request = new byte[headBytes.length + body.length];
+		System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+		System.arraycopy(body, 0, request, headBytes.length, body.length);
+		return request;
+	}
+
+	/**
+	 * Replay the requests through a pipeline in rounds, until a round goes by without the JIT compiling
+	 * anything or the time runs out. Without compilation monitoring every round is run until the time runs out.
+	 * Returns the number of requests replayed.
+	 */
+	long run(Consumer<Socket> pipeline, long millis) {
+		CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+		boolean monitored = jit != null && jit.isCompilationTimeMonitoringSupported();
+
+		long deadline = System.currentTimeMillis() + millis;
+		long compiling = monitored ? jit.getTotalCompilationTime() : 0;
+		long replayed = 0;
+		int quiet = 0;
+		while (System.currentTimeMillis() < deadline) {
+			for (int i = 0; i < ROUND; i++)
+				pipeline.accept(new WarmUpSocket(requests.get((int) (replayed++ % requests.size()))));
+
+			if ( monitored ) {
+				long compiled = jit.getTotalCompilationTime();
+				quiet = compiled == compiling ? quiet + 1 : 0;
+				compiling = compiled;
+				if ( quiet >= QUIET_ROUNDS )
+					break;
+			}
+		}
+
+		return replayed;
+	}
+
+	/**
+	 * Connection that reads a request from memory and throws the response away.
+	 */
+	static class WarmUpSocket extends Socket {
+
+		private final InputStream input;
+
+		private boolean closed;
+
+		WarmUpSocket(byte[] request) {
+			this.input = new ByteArrayInputStream(request);
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return input;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) {
+					//
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					//
+				}
+
+				@Override
+				public void close() {
+					closed = true;
+				}
+			};
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return InetAddress.getLoopbackAddress();
+		}
+
+		@Override
+		public int getPort() {
+			return 0;
+		}
+
+		@Override
+		public void setSoTimeout(int timeout) {
+			//
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,595 @@
+package io.jrest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A WebSocket connection (RFC 6455) of a client to a WebSocket endpoint. The thread that accepted the
+ * connection reads its frames and hands complete messages to the endpoint's {@link WebSocketHandler}.
+ * Messages sent to the client are queued and written by a worker, so sending never waits on a slow
+ * client. The queue is bounded: once it holds {@link JRest#setWebSocketSendQueue(int)} bytes, sends are
+ * refused until the client catches up.
+ */
+public class WebSocket {
+
+	/** Appended to the client's key to accept the handshake **/
+	private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	public static final int NORMAL_CLOSURE = 1000;
+
+	public static final int GOING_AWAY = 1001;
+
+	public static final int PROTOCOL_ERROR = 1002;
+
+	public static final int UNSUPPORTED_DATA = 1003;
+
+	/** Close frame without a code, never sent **/
+	public static final int NO_STATUS = 1005;
+
+	/** Connection lost without a close frame, never sent **/
+	public static final int ABNORMAL_CLOSURE = 1006;
+
+	public static final int INVALID_PAYLOAD = 1007;
+
+	public static final int MESSAGE_TOO_BIG = 1009;
+
+	public static final int INTERNAL_ERROR = 1011;
+
+	private static final int CONTINUATION = 0x0;
+	private static final int TEXT = 0x1;
+	private static final int BINARY = 0x2;
+	private static final int CLOSE = 0x8;
+	private static final int PING = 0x9;
+	private static final int PONG = 0xA;
+
+	/** Milliseconds between checks of the connection while the client sends nothing **/
+	private static final int IDLE_CHECK = 1000;
+
+	/** Milliseconds to wait for the client to answer a close frame, and for queued frames to be written **/
+	private static final int CLOSE_TIMEOUT = 2000;
+
+	private final JRest server;
+
+	private final Socket socket;
+
+	private final InputStream input;
+
+	/** Written only by the worker draining the queue **/
+	private final OutputStream output;
+
+	private final Executor workers;
+
+	private final Route<?> route;
+
+	private final HttpRequest<?> request;
+
+	/** Frames waiting to be written, guarded by itself **/
+	private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+	private int queuedBytes;
+
+	/** Whether a worker is draining the queue **/
+	private boolean writing;
+
+	/** Whether a close frame was queued, nothing can be sent after it **/
+	private boolean closeSent;
+
+	private long closeSentAt;
+
+	private volatile boolean open;
+
+	private final int maxQueuedBytes;
+
+	private final int maxMessageSize;
+
+	private final long pingInterval;
+
+	WebSocket(JRest server, Socket socket, InputStream input, Executor workers, Route<?> route, HttpRequest<?> request) throws IOException {
+		this.server = server;
+		this.socket = socket;
+		this.input = input;
+		this.output = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		this.workers = workers;
+		this.route = route;
+		this.request = request;
+		this.maxQueuedBytes = server.getWebSocketSendQueue();
+		this.maxMessageSize = server.getWebSocketMaxMessageSize();
+		this.pingInterval = server.getWebSocketPingInterval();
+	}
+
+	/**
+	 * The request the client opened the connection with, for its headers, parameters and session.
+	 */
+	public HttpRequest<?> getRequest() {
+		return this.request;
+	}
+
+	/**
+	 * Returns whether messages can be sent.
+	 */
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Bytes queued that the client has not been sent yet.
+	 */
+	public int getQueuedBytes() {
+		synchronized (queue) {
+			return this.queuedBytes;
+		}
+	}
+
+	/**
+	 * Send a message, encoded with the endpoint's marshaller. Strings are sent as they are in a text message
+	 * and byte arrays in a binary message. Returns false if the connection is closed or the send queue is full.
+	 */
+	public boolean send(Object message) {
+		if ( message instanceof String )
+			return sendText((String) message);
+
+		if ( message instanceof byte[] )
+			return sendBinary((byte[]) message);
+
+		byte[] encoded;
+		try {
+			encoded = route.marshaller.encode(message);
+		} catch (IOException e) {
+			throw new MarshallerException("Could not encode message: " + e.getMessage(), e);
+		}
+
+		return enqueue(frame(route.binary ? BINARY : TEXT, encoded, encoded.length), false);
+	}
+
+	/**
+	 * Send a text message. Returns false if the connection is closed or the send queue is full.
+	 */
+	public boolean sendText(String message) {
+		byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+		return enqueue(frame(TEXT, payload, payload.length), false);
+	}
+
+	/**
+	 * Send a binary message. Returns false if the connection is closed or the send queue is full.
+	 */
+	public boolean sendBinary(byte[] message) {
+		return enqueue(frame(BINARY, message, message.length), false);
+	}
+
+	/**
+	 * Start closing the connection. It closes once the client answers, or after a timeout.
+	 */
+	public void close(int code, String reason) {
+		byte[] reasonBytes = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+		int reasonLength = Math.min(reasonBytes.length, 123);
+		byte[] payload = new byte[2 + reasonLength];
+		payload[0] = (byte) (code >>> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(reasonBytes, 0, payload, 2, reasonLength);
+
+		byte[] frame = frame(CLOSE, payload, payload.length);
+		synchronized (queue) {
+			if ( closeSent )
+				return;
+
+			enqueue(frame, true);
+			closeSent = true;
+			closeSentAt = System.currentTimeMillis();
+			open = false;
+		}
+	}
+
+	public void close() {
+		close(NORMAL_CLOSURE, "");
+	}
+
+	/**
+	 * Value of the Sec-WebSocket-Accept header answering a client's Sec-WebSocket-Key.
+	 */
+	static String accept(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	/**
+	 * An unmasked frame holding a whole message, as servers send them.
+	 */
+	private static byte[] frame(int opcode, byte[] payload, int length) {
+		int headLength = length < 126 ? 2 : length < 65536 ? 4 : 10;
+		byte[] frame = new byte[headLength + length];
+		frame[0] = (byte) (0x80 | opcode);
+		if ( length < 126 ) {
+			frame[1] = (byte) length;
+		} else if ( length < 65536 ) {
+			frame[1] = 126;
+			frame[2] = (byte) (length >>> 8);
+			frame[3] = (byte) length;
+		} else {
+			frame[1] = 127;
+			for (int i = 0; i < 8; i++)
+				frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+		}
+
+		System.arraycopy(payload, 0, frame, headLength, length);
+		return frame;
+	}
+
+	/**
+	 * Queue a frame, starting a worker to write it if none is. Control frames are queued even when the queue is full.
+	 */
+	private boolean enqueue(byte[] frame, boolean control) {
+		synchronized (queue) {
+			if ( closeSent )
+				return false;
+
+			// A message larger than the whole queue still goes out on its own
+			if ( !control && queuedBytes > 0 && queuedBytes + frame.length > maxQueuedBytes )
+				return false;
+
+			queue.add(frame);
+			queuedBytes += frame.length;
+			if ( writing )
+				return true;
+
+			writing = true;
+		}
+
+		try {
+			workers.execute(this::writeQueued);
+		} catch (RejectedExecutionException e) {
+			// Server stopped, nothing will write the queue
+			abort();
+		}
+		return true;
+	}
+
+	/**
+	 * Write queued frames until the queue is empty.
+	 */
+	private void writeQueued() {
+		try {
+			while (true) {
+				byte[] frame;
+				synchronized (queue) {
+					frame = queue.poll();
+				}
+
+				if ( frame == null ) {
+					// Flush outside the lock, then check again for frames queued meanwhile
+					output.flush();
+					synchronized (queue) {
+						if ( queue.isEmpty() ) {
+							writing = false;
+							queue.notifyAll();
+							return;
+						}
+					}
+					continue;
+				}
+
+				output.write(frame);
+				synchronized (queue) {
+					queuedBytes -= frame.length;
+				}
+			}
+		} catch (IOException e) {
+			abort();
+		}
+	}
+
+	/**
+	 * Drop the connection without a closing handshake, the reader stops with {@link #ABNORMAL_CLOSURE}.
+	 */
+	private void abort() {
+		synchronized (queue) {
+			queue.clear();
+			queuedBytes = 0;
+			writing = false;
+			closeSent = true;
+			open = false;
+			queue.notifyAll();
+		}
+
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Closed already
+		}
+	}
+
+	/**
+	 * Wait for queued frames to be written, so a close frame reaches the client before the connection closes.
+	 */
+	private void awaitWritten(long millis) throws InterruptedIOException {
+		long deadline = System.currentTimeMillis() + millis;
+		synchronized (queue) {
+			long left;
+			while (writing && (left = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					queue.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted writing the close frame");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read frames and handle messages until the connection closes.
+	 */
+	@SuppressWarnings("unchecked")
+	void serve() {
+		WebSocketHandler<Object> handler = (WebSocketHandler<Object>) route.handler;
+		open = true;
+		int code = ABNORMAL_CLOSURE;
+		String reason = "";
+		try {
+			socket.setSoTimeout(pingInterval > 0 ? (int) Math.max(1, Math.min(IDLE_CHECK, pingInterval / 2)) : IDLE_CHECK);
+			handler.onOpen(this);
+
+			ByteArrayOutputStream message = null;
+			int messageOpcode = 0;
+			long lastReceived = System.currentTimeMillis();
+			long lastPing = lastReceived;
+			byte[] head = new byte[8];
+			while (true) {
+				if ( open && (server.isDraining() || !server.isStarted()) )
+					close(GOING_AWAY, "Server going away");
+
+				int first;
+				try {
+					first = input.read();
+				} catch (SocketTimeoutException e) {
+					long now = System.currentTimeMillis();
+					synchronized (queue) {
+						if ( closeSent && now - closeSentAt > CLOSE_TIMEOUT )
+							break;
+					}
+
+					// Keep the connection alive through proxies, and find clients that went away
+					if ( pingInterval > 0 ) {
+						if ( now - lastReceived > 2 * pingInterval )
+							break;
+						if ( now - Math.max(lastReceived, lastPing) >= pingInterval ) {
+							enqueue(frame(PING, new byte[0], 0), true);
+							lastPing = now;
+						}
+					}
+					continue;
+				}
+
+				if ( first == -1 )
+					break;
+
+				lastReceived = System.currentTimeMillis();
+				readFully(head, 0, 1);
+				boolean fin = (first & 0x80) != 0;
+				int opcode = first & 0x0f;
+				boolean masked = (head[0] & 0x80) != 0;
+				long length = head[0] & 0x7f;
+				if ( (first & 0x70) != 0 )
+					throw new WebSocketException(PROTOCOL_ERROR, "Extension bits set without an extension");
+				if ( !masked )
+					throw new WebSocketException(PROTOCOL_ERROR, "Client frames must be masked");
+
+				if ( length == 126 ) {
+					readFully(head, 0, 2);
+					length = ((head[0] & 0xff) << 8) | (head[1] & 0xff);
+				} else if ( length == 127 ) {
+					readFully(head, 0, 8);
+					length = ByteBuffer.wrap(head).getLong();
+				}
+
+				boolean control = opcode >= CLOSE;
+				if ( control && (!fin || length > 125) )
+					throw new WebSocketException(PROTOCOL_ERROR, "Invalid control frame");
+
+				int buffered = message == null ? 0 : message.size();
+				if ( length < 0 || length + buffered > maxMessageSize )
+					throw new WebSocketException(MESSAGE_TOO_BIG, "Message is larger than " + maxMessageSize + " bytes");
+
+				byte[] mask = new byte[4];
+				readFully(mask, 0, 4);
+				byte[] payload = new byte[(int) length];
+				readFully(payload, 0, payload.length);
+				for (int i = 0; i < payload.length; i++)
+					payload[i] ^= mask[i & 3];
+
+				switch (opcode) {
+					case PING:
+						enqueue(frame(PONG, payload, payload.length), true);
+						break;
+					case PONG:
+						break;
+					case CLOSE:
+						code = payload.length >= 2 ? ((payload[0] & 0xff) << 8) | (payload[1] & 0xff) : NO_STATUS;
+						reason = payload.length > 2 ? utf8(payload, 2) : "";
+
+						// Answer with the same code, unless this answers our own close
+						close(code == NO_STATUS ? NORMAL_CLOSURE : code, "");
+						return;
+					case TEXT:
+					case BINARY:
+						if ( message != null )
+							throw new WebSocketException(PROTOCOL_ERROR, "New message before the last one was finished");
+
+						if ( fin ) {
+							deliver(handler, opcode, payload);
+						} else {
+							message = new ByteArrayOutputStream(Math.max(payload.length * 2, 256));
+							message.write(payload);
+							messageOpcode = opcode;
+						}
+						break;
+					case CONTINUATION:
+						if ( message == null )
+							throw new WebSocketException(PROTOCOL_ERROR, "Continuation without a message");
+
+						message.write(payload);
+						if ( fin ) {
+							deliver(handler, messageOpcode, message.toByteArray());
+							message = null;
+						}
+						break;
+					default:
+						throw new WebSocketException(PROTOCOL_ERROR, "Unknown opcode " + opcode);
+				}
+			}
+		} catch (WebSocketException e) {
+			code = e.code;
+			reason = e.getMessage();
+			close(code, reason);
+		} catch (IOException e) {
+			// Connection lost
+		} catch (RuntimeException e) {
+			server.getLogger().error(e);
+			code = INTERNAL_ERROR;
+			close(code, "");
+		} finally {
+			try {
+				awaitWritten(CLOSE_TIMEOUT);
+			} catch (InterruptedIOException e) {
+				// Closing anyway
+			}
+
+			open = false;
+			try {
+				handler.onClose(this, code, reason);
+			} catch (RuntimeException e) {
+				server.getLogger().error(e);
+			}
+		}
+	}
+
+	/**
+	 * Decode a complete message and hand it to the handler.
+	 */
+	private void deliver(WebSocketHandler<Object> handler, int opcode, byte[] payload) throws WebSocketException {
+		// Closing, what the client still sends is ignored
+		if ( !open )
+			return;
+
+		Object message;
+		try {
+			if ( route.type == byte[].class )
+				message = payload;
+			else if ( route.type == String.class )
+				message = opcode == TEXT ? utf8(payload, 0) : new String(payload, StandardCharsets.UTF_8);
+			else
+				message = route.decoder.decode(new ByteArrayInputStream(payload));
+		} catch (MarshallerException | IOException e) {
+			throw new WebSocketException(INVALID_PAYLOAD, "Could not decode message: " + e.getMessage());
+		}
+
+		handler.onMessage(this, message);
+	}
+
+	/**
+	 * Decode text that has to be valid UTF-8.
+	 */
+	private static String utf8(byte[] payload, int offset) throws WebSocketException {
+		try {
+			return StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(payload, offset, payload.length - offset))
+					.toString();
+		} catch (CharacterCodingException e) {
+			throw new WebSocketException(INVALID_PAYLOAD, "Text is not valid UTF-8");
+		}
+	}
+
+	private void readFully(byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read;
+			try {
+				read = input.read(buffer, offset, length);
+			} catch (SocketTimeoutException e) {
+				// The rest of the frame is on its way
+				continue;
+			}
+
+			if ( read == -1 )
+				throw new EOFException("Connection closed in the middle of a frame");
+
+			offset += read;
+			length -= read;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocket[" + request.getPath() + ", " + request.getRemoteAddress() + ":" + request.getRemotePort() + "]";
+	}
+
+	/**
+	 * The client broke the protocol, the connection is closed with a code.
+	 */
+	private static class WebSocketException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int code;
+
+		WebSocketException(int code, String message) {
+			super(message);
+			this.code = code;
+		}
+	}
+
+	/**
+	 * A WebSocket endpoint: its handler and how its messages are encoded.
+	 */
+	static final class Route<T> {
+
+		final Class<T> type;
+
+		final Marshaller marshaller;
+
+		/** Decodes messages in to the message type **/
+		final Marshaller.Decoder<T> decoder;
+
+		/** Whether encoded messages are sent as binary rather than text messages **/
+		final boolean binary;
+
+		final WebSocketHandler<T> handler;
+
+		Route(MediaType format, Class<T> type, WebSocketHandler<T> handler) {
+			if ( format.isWildcard() )
+				format = MediaType.APPLICATION_JSON;
+
+			Marshaller marshaller = JRest.marshallers.get(format);
+			if ( marshaller == null )
+				marshaller = RestUtil.getJsonMarshaller();
+
+			this.type = type;
+			this.marshaller = marshaller;
+			this.decoder = marshaller == RestUtil.getJsonMarshaller() ? RestUtil.getDecoder(type) : marshaller.getDecoder(type);
+			this.binary = !format.getBaseType().startsWith("text/") && !format.getBaseType().endsWith("json");
+			this.handler = handler;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package io.jrest;
+
+/**
+ * Business logic of a WebSocket endpoint, see {@link JRest#addWebSocket(String, Class, WebSocketHandler)}.
+ * Messages of a connection are handled one at a time, in the order the client sent them.
+ */
+@FunctionalInterface
+public interface WebSocketHandler<T> {
+
+	/**
+	 * A client connected. Messages can be sent from here on, from any thread.
+	 */
+	public default void onOpen(WebSocket socket) {
+		//
+	}
+
+	/**
+	 * A complete message arrived, decoded in to the endpoint's message type.
+	 */
+	public void onMessage(WebSocket socket, T message);
+
+	/**
+	 * The connection closed, with the code and reason of the close frame. {@link WebSocket#ABNORMAL_CLOSURE}
+	 * if the connection was lost without one.
+	 */
+	public default void onClose(WebSocket socket, int code, String reason) {
+		//
+	}
+}
@@ -0,0 +1,228 @@
+package io.jrest;
+
+import java.net.Socket;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Hooks the server calls at each step of handling a request, recorded as JDK Flight Recorder events.
+ * Events are only created when they are enabled in a recording, so the hooks cost next to nothing otherwise.
+ * <br>
+ * This is the Java 11 version, packaged under META-INF/versions/11 of the multi-release jar.
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+		//
+	}
+
+	static void connectionAccepted(Socket socket) {
+		ConnectionAccepted event = new ConnectionAccepted();
+		if ( !event.isEnabled() )
+			return;
+
+		event.remoteAddress = socket.getInetAddress() == null ? null : socket.getInetAddress().getHostAddress();
+		event.remotePort = socket.getPort();
+		event.commit();
+	}
+
+	static Object beginParse() {
+		RequestParsed event = new RequestParsed();
+		if ( !event.isEnabled() )
+			return null;
+
+		event.begin();
+		return event;
+	}
+
+	static void endParse(Object begun, HttpRequest<?> request) {
+		if ( begun == null )
+			return;
+
+		RequestParsed event = (RequestParsed) begun;
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.method = request.getMethodValue();
+			event.path = request.getPath();
+			event.route = getRoute(request);
+			event.requestBytes = request.contentLength;
+			event.commit();
+		}
+	}
+
+	static Object beginHandler() {
+		HandlerExecuted event = new HandlerExecuted();
+		if ( !event.isEnabled() )
+			return null;
+
+		event.begin();
+		return event;
+	}
+
+	static void endHandler(Object begun, HttpRequest<?> request, HttpStatus status) {
+		if ( begun == null )
+			return;
+
+		HandlerExecuted event = (HandlerExecuted) begun;
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.method = request.getMethodValue();
+			event.route = getRoute(request);
+			event.status = status.value();
+			event.commit();
+		}
+	}
+
+	static Object beginWrite() {
+		ResponseWritten event = new ResponseWritten();
+		if ( !event.isEnabled() )
+			return null;
+
+		event.begin();
+		return event;
+	}
+
+	static void endWrite(Object begun, HttpRequest<?> request, HttpStatus status, long bytes, boolean streamed) {
+		if ( begun == null )
+			return;
+
+		ResponseWritten event = (ResponseWritten) begun;
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.method = request.getMethodValue();
+			event.route = getRoute(request);
+			event.status = status.value();
+			event.responseBytes = bytes;
+			event.streamed = streamed;
+			event.requestDuration = System.nanoTime() - request.received;
+			event.commit();
+		}
+	}
+
+	static void sessionCreated(int sessions) {
+		SessionCreated event = new SessionCreated();
+		if ( event.isEnabled() ) {
+			event.sessions = sessions;
+			event.commit();
+		}
+	}
+
+	static void sessionEvicted(int sessions) {
+		SessionEvicted event = new SessionEvicted();
+		if ( event.isEnabled() ) {
+			event.sessions = sessions;
+			event.commit();
+		}
+	}
+
+	private static String getRoute(HttpRequest<?> request) {
+		if ( request.endpoint == null || request.endpoint.metrics == null )
+			return null;
+
+		return request.endpoint.metrics.route;
+	}
+
+	@Name("io.jrest.ConnectionAccepted")
+	@Label("Connection Accepted")
+	@Category("JRest")
+	@StackTrace(false)
+	static class ConnectionAccepted extends Event {
+		@Label("Remote Address")
+		String remoteAddress;
+
+		@Label("Remote Port")
+		int remotePort;
+	}
+
+	@Name("io.jrest.RequestParsed")
+	@Label("Request Parsed")
+	@Description("Parsing the request head, routing it and reading form parameters")
+	@Category("JRest")
+	@StackTrace(false)
+	static class RequestParsed extends Event {
+		@Label("Method")
+		String method;
+
+		@Label("Path")
+		String path;
+
+		@Label("Route")
+		@Description("Route the request matched, null if it matched none")
+		String route;
+
+		@Label("Request Bytes")
+		@Description("Content-Length of the request, -1 if it was not sent")
+		@DataAmount
+		long requestBytes;
+	}
+
+	@Name("io.jrest.HandlerExecuted")
+	@Label("Handler Executed")
+	@Description("Running the endpoint and any response handler, including decoding the body")
+	@Category("JRest")
+	@StackTrace(false)
+	static class HandlerExecuted extends Event {
+		@Label("Method")
+		String method;
+
+		@Label("Route")
+		String route;
+
+		@Label("Status")
+		int status;
+	}
+
+	@Name("io.jrest.ResponseWritten")
+	@Label("Response Written")
+	@Description("Encoding, compressing and writing the response")
+	@Category("JRest")
+	@StackTrace(false)
+	static class ResponseWritten extends Event {
+		@Label("Method")
+		String method;
+
+		@Label("Route")
+		String route;
+
+		@Label("Status")
+		int status;
+
+		@Label("Response Bytes")
+		@DataAmount
+		long responseBytes;
+
+		@Label("Streamed")
+		boolean streamed;
+
+		@Label("Request Duration")
+		@Description("Time from reading the request head to the end of the response")
+		@Timespan(Timespan.NANOSECONDS)
+		long requestDuration;
+	}
+
+	@Name("io.jrest.SessionCreated")
+	@Label("Session Created")
+	@Category("JRest")
+	static class SessionCreated extends Event {
+		@Label("Sessions")
+		@Description("Sessions in storage after this one was added")
+		int sessions;
+	}
+
+	@Name("io.jrest.SessionEvicted")
+	@Label("Session Evicted")
+	@Description("An invalidated session was removed from storage")
+	@Category("JRest")
+	static class SessionEvicted extends Event {
+		@Label("Sessions")
+		@Description("Sessions in storage after this one was removed")
+		int sessions;
+	}
+}
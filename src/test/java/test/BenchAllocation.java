@@ -0,0 +1,88 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.ResponseEntity;
+import io.jrest.Logger.LogType;
+
+/**
+ * Measures bytes allocated by the server per request, over all threads except the client.
+ * Needs a HotSpot JVM (com.sun.management.ThreadMXBean).
+ */
+public class BenchAllocation {
+
+	private static final int WARMUP = 5000;
+
+	private static final int REQUESTS = 20000;
+
+	private static final byte[] REQUEST = ("GET /hello?name=bench&lang=en HTTP/1.1\r\n"
+			+ "Host: localhost:8084\r\n"
+			+ "User-Agent: BenchAllocation\r\n"
+			+ "Accept: */*\r\n"
+			+ "Accept-Encoding: identity\r\n"
+			+ "Accept-Language: en-US,en;q=0.9\r\n"
+			+ "Cookie: theme=dark; tracking=abc123\r\n"
+			+ "Cache-Control: no-cache\r\n"
+			+ "Connection: close\r\n"
+			+ "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		JRest server = JRest.create()
+				.setServerName("Allocation Bench Server")
+				.setLogType(LogType.WARN)
+				.setPort(8084)
+				.start();
+
+		server.addEndpoint(HttpMethod.GET, "/hello", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Hello");
+		});
+
+		for (int i = 0; i < WARMUP; i++)
+			send();
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long client = Thread.currentThread().getId();
+		long before = getAllocated(threads) - threads.getThreadAllocatedBytes(client);
+		for (int i = 0; i < REQUESTS; i++)
+			send();
+		Thread.sleep(200);
+		long after = getAllocated(threads) - threads.getThreadAllocatedBytes(client);
+
+		System.out.println("Server bytes allocated per request: " + (after - before) / REQUESTS);
+		server.stop();
+		System.exit(0);
+	}
+
+	private static void send() throws IOException {
+		try (Socket socket = new Socket("localhost", 8084)) {
+			OutputStream output = socket.getOutputStream();
+			output.write(REQUEST);
+			output.flush();
+
+			InputStream input = socket.getInputStream();
+			byte[] buffer = new byte[1024];
+			while (input.read(buffer) != -1) {
+				//
+			}
+		}
+	}
+
+	/**
+	 * Bytes allocated by all live threads. Threads of the cached server pool stay alive between requests.
+	 */
+	private static long getAllocated(com.sun.management.ThreadMXBean threads) {
+		long total = 0;
+		for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			total += Math.max(0, allocated);
+
+		return total;
+	}
+}
@@ -0,0 +1,178 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import io.jrest.GenerateSerializer;
+import io.jrest.GeneratedSerializer;
+import io.jrest.Marshaller;
+import io.jrest.MarshallerGson;
+import io.jrest.MarshallerJson;
+
+/**
+ * Compares DTO serialization through Gson reflection with the serializer generated for {@link Department}.
+ * Both must produce the same json before they are timed. Numbers are ops/second.
+ */
+public class BenchDto {
+
+	private static final int WARMUP_MILLIS = 3000;
+
+	private static final int MEASURE_MILLIS = 5000;
+
+	private static Object sink;
+
+	public static void main(String[] args) throws IOException {
+		Department department = createDepartment(50);
+		Gson gson = new Gson();
+		MarshallerJson json = new MarshallerJson();
+		MarshallerGson marshallerGson = new MarshallerGson();
+		if ( GeneratedSerializer.get(Department.class) == null )
+			throw new IllegalStateException("No generated serializer for Department");
+
+		// Generated and reflective serializers must agree before we time them
+		String text = json.stringify(department);
+		if ( !gson.toJsonTree(department).equals(gson.toJsonTree(gson.fromJson(text, Department.class))) )
+			throw new IllegalStateException("Generated json differs from Gson: " + text);
+
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		Marshaller.Decoder<Department> generated = json.getDecoder(Department.class);
+		Marshaller.Decoder<Department> marshallerDecoder = marshallerGson.getDecoder(Department.class);
+		Department decoded = generated.decode(new ByteArrayInputStream(bytes));
+		if ( !gson.toJson(decoded).equals(gson.toJson(department)) )
+			throw new IllegalStateException("Generated decoder differs from Gson: " + gson.toJson(decoded));
+
+		System.out.println("Payload: " + text.length() + " chars");
+		bench("write  generated", () -> sink = json.stringify(department));
+		bench("write  Gson     ", () -> sink = gson.toJson(department));
+		bench("parse  generated", () -> sink = generated.decode(new ByteArrayInputStream(bytes)));
+		bench("parse  Gson     ", () -> sink = gson.fromJson(text, Department.class));
+		bench("parse  MarshallerGson (uses generated)", () -> sink = marshallerDecoder.decode(new ByteArrayInputStream(bytes)));
+	}
+
+	private static void bench(String name, Task task) throws IOException {
+		run(task, WARMUP_MILLIS);
+		long ops = run(task, MEASURE_MILLIS);
+		System.out.println(name + "\t" + (ops * 1000 / MEASURE_MILLIS) + " ops/s");
+	}
+
+	private static long run(Task task, long millis) throws IOException {
+		long end = System.currentTimeMillis() + millis;
+		long ops = 0;
+		while (System.currentTimeMillis() < end) {
+			for (int i = 0; i < 16; i++)
+				task.run();
+			ops += 16;
+		}
+		return ops;
+	}
+
+	private static Department createDepartment(int members) {
+		Department department = new Department();
+		department.name = "Research \"R&D\"";
+		department.budget = 1250000.75;
+		department.active = true;
+		department.code = 'R';
+		department.kind = Kind.ENGINEERING;
+		department.members = new ArrayList<>();
+		department.scores = new LinkedHashMap<>();
+		for (int i = 0; i < members; i++) {
+			Member member = new Member();
+			member.setId(i);
+			member.setName("Member " + i);
+			member.setManager(i % 7 == 0);
+			member.setRating(i % 3 == 0 ? null : i * 1.5);
+			member.tags = new String[] { "a", "b" + i };
+			department.members.add(member);
+			department.scores.put("m" + i, (long) i * 10);
+		}
+		department.lead = department.members.get(0);
+		return department;
+	}
+
+	@FunctionalInterface
+	private static interface Task {
+		public void run() throws IOException;
+	}
+
+	enum Kind {
+		ENGINEERING, SALES
+	}
+
+	/**
+	 * Fields of a base class are serialized too.
+	 */
+	static class Entity {
+		private long id;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+	}
+
+	@GenerateSerializer
+	static class Member extends Entity {
+		private String name;
+
+		private boolean manager;
+
+		private Double rating;
+
+		String[] tags;
+
+		transient int ignored = 5;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public boolean isManager() {
+			return manager;
+		}
+
+		public void setManager(boolean manager) {
+			this.manager = manager;
+		}
+
+		public Double getRating() {
+			return rating;
+		}
+
+		public void setRating(Double rating) {
+			this.rating = rating;
+		}
+	}
+
+	@GenerateSerializer
+	static class Department {
+		String name;
+
+		double budget;
+
+		boolean active;
+
+		char code;
+
+		Kind kind;
+
+		Member lead;
+
+		List<Member> members;
+
+		Map<String, Long> scores;
+	}
+}
@@ -0,0 +1,129 @@
+package test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import io.jrest.MarshallerJson;
+
+/**
+ * Rough throughput comparison of the built-in json marshaller against Gson and the
+ * old String concatenating fallback serializer. Run with a warmed up JVM, numbers are ops/second.
+ */
+public class BenchJson {
+
+	private static final int WARMUP_MILLIS = 3000;
+
+	private static final int MEASURE_MILLIS = 5000;
+
+	private static Object sink;
+
+	public static void main(String[] args) throws IOException {
+		Map<String, Object> payload = createPayload(200);
+		Gson gson = new Gson();
+		MarshallerJson json = new MarshallerJson();
+		String text = json.stringify(payload);
+
+		// Both parsers must agree before we time them
+		Object ours = MarshallerJson.parseTree(new StringReader(text));
+		if ( !gson.toJsonTree(ours).equals(gson.toJsonTree(gson.fromJson(text, Object.class))) )
+			throw new IllegalStateException("Parsers disagree");
+
+		// Integers are kept exact up to the size of a long
+		if ( !Long.valueOf(Long.MAX_VALUE).equals(MarshallerJson.parseTree(new StringReader(String.valueOf(Long.MAX_VALUE)))) )
+			throw new IllegalStateException("Long.MAX_VALUE lost precision");
+
+		System.out.println("Payload: " + text.length() + " chars");
+		bench("write  MarshallerJson", () -> sink = json.stringify(payload));
+		bench("write  Gson          ", () -> sink = gson.toJson(payload));
+		bench("write  legacy (+=)   ", () -> sink = legacySerialize(payload));
+		bench("parse  MarshallerJson", () -> sink = MarshallerJson.parseTree(new StringReader(text)));
+		bench("parse  Gson          ", () -> sink = gson.fromJson(new StringReader(text), Object.class));
+	}
+
+	private static void bench(String name, Task task) throws IOException {
+		run(task, WARMUP_MILLIS);
+		long ops = run(task, MEASURE_MILLIS);
+		System.out.println(name + "\t" + (ops * 1000 / MEASURE_MILLIS) + " ops/s");
+	}
+
+	private static long run(Task task, long millis) throws IOException {
+		long end = System.currentTimeMillis() + millis;
+		long ops = 0;
+		while (System.currentTimeMillis() < end) {
+			for (int i = 0; i < 16; i++)
+				task.run();
+			ops += 16;
+		}
+		return ops;
+	}
+
+	private static Map<String, Object> createPayload(int employees) {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < employees; i++) {
+			Map<String, Object> employee = new LinkedHashMap<>();
+			employee.put("id", i);
+			employee.put("name", "Employee \"" + i + "\"");
+			employee.put("salary", 1000.5 * i);
+			employee.put("active", i % 2 == 0);
+			employee.put("tags", new ArrayList<>(java.util.Arrays.asList("a", "b\nc", "d")));
+			list.add(employee);
+		}
+
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("employees", list);
+		payload.put("count", employees);
+		return payload;
+	}
+
+	/**
+	 * Copy of the serializer JRest used before the built-in marshaller.
+	 */
+	@SuppressWarnings("unchecked")
+	private static String legacySerialize(Object object) {
+		if (object instanceof Map) {
+			String str = "{";
+			boolean first = true;
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) object).entrySet()) {
+				if (!first)
+					str += ", ";
+				str += legacyValue(entry.getKey().toString()) + ": " + legacyValue(entry.getValue());
+				first = false;
+			}
+			return str + "}";
+		} else if (object instanceof List) {
+			String str = "[";
+			boolean first = true;
+			for (Object obj : (List<Object>) object) {
+				if (!first)
+					str += ", ";
+				str += legacyValue(obj);
+				first = false;
+			}
+			return str + "]";
+		}
+		return new String();
+	}
+
+	private static String legacyValue(Object value) {
+		if (value == null)
+			return "null";
+		else if (value instanceof List || value instanceof Map)
+			return legacySerialize(value);
+		else if (value instanceof Number || value instanceof Boolean)
+			return value.toString();
+		else if (value instanceof String)
+			return "\"" + value.toString() + "\"";
+		return "null";
+	}
+
+	@FunctionalInterface
+	private static interface Task {
+		public void run() throws IOException;
+	}
+}
@@ -0,0 +1,144 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.ResponseEntity;
+import io.jrest.TlsConfig;
+import io.jrest.Logger.LogType;
+
+/**
+ * Loopback benchmark of TLS: connections per second with full and with resumed handshakes, and
+ * throughput of large responses over TLS and plain text. Creates a self signed key with keytool.
+ */
+public class BenchTls {
+
+	private static final int CONNECTIONS = 500;
+
+	private static final int TRANSFERS = 100;
+
+	private static final String PASSWORD = "benchpass";
+
+	public static void main(String[] args) throws Exception {
+		File keyStore = new File(Files.createTempDirectory("jrest").toFile(), "bench.p12");
+		int exit = new ProcessBuilder(System.getProperty("java.home") + "/bin/keytool", "-genkeypair", "-alias", "bench", "-keyalg", "EC",
+				"-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.getPath(),
+				"-storepass", PASSWORD, "-keypass", PASSWORD).inheritIO().start().waitFor();
+		if ( exit != 0 )
+			throw new IOException("keytool exited with " + exit);
+
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 1024 * 1024)
+			large.append("0123456789abcdef");
+		String body = large.toString();
+
+		JRest tls = JRest.create()
+				.setServerName("TLS Bench Server")
+				.setLogType(LogType.WARN)
+				.setPort(8093)
+				.setTls(new TlsConfig(keyStore.getPath(), PASSWORD));
+		JRest plain = JRest.create()
+				.setServerName("Plain Bench Server")
+				.setLogType(LogType.WARN)
+				.setPort(8094);
+		for (JRest server : new JRest[] { tls, plain }) {
+			server.addEndpoint(HttpMethod.GET, "/hello", (request)->new ResponseEntity<String>(HttpStatus.OK, "Hello"));
+			server.addEndpoint(HttpMethod.GET, "/large", (request)->new ResponseEntity<String>(HttpStatus.OK, body));
+			server.start();
+		}
+
+		// Client trusting the self signed key
+		KeyStore trusted = KeyStore.getInstance("PKCS12");
+		try (InputStream input = Files.newInputStream(keyStore.toPath())) {
+			trusted.load(input, PASSWORD.toCharArray());
+		}
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(trusted);
+		SSLContext client = SSLContext.getInstance("TLS");
+		client.init(null, trust.getTrustManagers(), null);
+
+		// Warm up
+		for (int i = 0; i < CONNECTIONS; i++) {
+			send(client, true, "/hello");
+			send(client, false, "/hello");
+			send(null, false, "/hello");
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < CONNECTIONS; i++)
+			send(client, true, "/hello");
+		report("Full handshake", start, CONNECTIONS);
+
+		start = System.nanoTime();
+		for (int i = 0; i < CONNECTIONS; i++)
+			send(client, false, "/hello");
+		report("Resumed handshake", start, CONNECTIONS);
+
+		start = System.nanoTime();
+		for (int i = 0; i < CONNECTIONS; i++)
+			send(null, false, "/hello");
+		report("Plain text", start, CONNECTIONS);
+
+		long bytes = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < TRANSFERS; i++)
+			bytes += send(client, false, "/large");
+		System.out.println(String.format("TLS throughput: %.1f MB/s", bytes / 1e6 / ((System.nanoTime() - start) / 1e9)));
+
+		bytes = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < TRANSFERS; i++)
+			bytes += send(null, false, "/large");
+		System.out.println(String.format("Plain throughput: %.1f MB/s", bytes / 1e6 / ((System.nanoTime() - start) / 1e9)));
+
+		tls.stop();
+		plain.stop();
+		System.exit(0);
+	}
+
+	/**
+	 * Make one request on a new connection, plain text when there is no client context.
+	 * Invalidating the session afterwards makes the next connection do a full handshake.
+	 * Returns the bytes read.
+	 */
+	private static long send(SSLContext client, boolean invalidate, String path) throws IOException {
+		Socket socket = client == null ? new Socket("localhost", 8094) : client.getSocketFactory().createSocket("localhost", 8093);
+		socket.setTcpNoDelay(true);
+		try {
+			OutputStream output = socket.getOutputStream();
+			output.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: identity\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+
+			long read = 0;
+			int length;
+			InputStream input = socket.getInputStream();
+			byte[] buffer = new byte[16384];
+			while ((length = input.read(buffer)) != -1)
+				read += length;
+
+			if ( invalidate )
+				((SSLSocket) socket).getSession().invalidate();
+			return read;
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void report(String name, long start, int connections) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%s: %.0f connections/s, %.2f ms each", name, connections / seconds, seconds * 1000 / connections));
+	}
+}
@@ -0,0 +1,64 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.util.List;
+
+import io.jrest.AccessLog;
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestAccessLog {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		File directory = Files.createTempDirectory("jrest").toFile();
+		String path = directory + "/access.log";
+		
+		// Small files so they roll over
+		AccessLog accessLog = new AccessLog(path).setMaxFileSize(1024).setMaxFiles(2);
+
+		/**
+		 * Start server
+		 */
+		JRest server = JRest.create()
+				.setServerName("Access Log Test Server")
+				.setPort(8085)
+				.setAccessLog(accessLog)
+				.start();
+		server.getLogger().setAsync(true);
+
+		server.setResponseHandler(HttpStatus.NOT_FOUND, (request) -> {
+			return new ResponseEntity<String>(HttpStatus.NOT_FOUND, "Not Found");
+		});
+
+		server.addEndpoint(HttpMethod.GET, "/hello", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Hello!");
+		});
+
+		for (int i = 0; i < 20; i++)
+			new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8085/hello?i=" + i, String.class);
+		new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8085/missing", String.class);
+		
+		// The server logs after the response is sent, give it a moment, then write out what is queued
+		try {
+			Thread.sleep(100);
+		} catch(InterruptedException e) {
+			//
+		}
+		accessLog.close();
+		server.getLogger().setAsync(false);
+
+		List<String> lines = Files.readAllLines(new File(path).toPath());
+		System.out.println("Last line: " + lines.get(lines.size() - 1));
+		System.out.println("Files: " + new File(path + ".1").exists() + " " + new File(path + ".2").exists() + " " + new File(path + ".3").exists());
+		System.out.println("Dropped: " + accessLog.getDropped());
+
+		server.stop();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,54 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonObject;
+
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.MarshallerCbor;
+import io.jrest.MarshallerException;
+import io.jrest.MediaType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestCbor {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+
+		// Ask for cbor instead of json
+		HttpHeaders headers = new HttpHeaders().setContentEncoding("identity");
+		headers.setAccept(MediaType.APPLICATION_CBOR);
+		RequestEntity<String> request1 = new RequestEntity<>(HttpMethod.GET, headers);
+		ResponseEntity<JsonObject> response1 = request1.exchange("http://localhost/testJson", JsonObject.class);
+		System.out.println(response1.getHeaders().getContentType() + ": " + response1.getBody());
+
+		// Send a cbor body
+		Map<String, Object> body = new HashMap<>();
+		body.put("id", 2);
+		HttpHeaders headers2 = new HttpHeaders().setContentEncoding("identity").setContentType(MediaType.APPLICATION_CBOR);
+		RequestEntity<Map<String, Object>> request2 = new RequestEntity<>(HttpMethod.POST, headers2, body);
+		ResponseEntity<JsonObject> response2 = request2.exchange("http://localhost/GetEmployee", JsonObject.class);
+		System.out.println(response2.getHeaders().getContentType() + ": " + response2.getBody());
+
+		// A body of nothing but tags is refused like any other deeply nested body
+		MarshallerCbor cbor = new MarshallerCbor();
+		byte[] tags = new byte[200 * 1024];
+		Arrays.fill(tags, (byte) 0xC0);
+		try {
+			cbor.getDecoder(Object.class).decode(new ByteArrayInputStream(tags));
+			System.out.println("Nested tags: decoded");
+		} catch (MarshallerException e) {
+			System.out.println("Nested tags: " + e.getMessage());
+		}
+
+		// An unpaired surrogate is written as one byte, matching the length in the head
+		byte[] text = cbor.encode("a\uD800b");
+		System.out.println("Unpaired surrogate: " + text.length + " bytes, decodes to " + cbor.getDecoder(String.class).decode(new ByteArrayInputStream(text)));
+	}
+}
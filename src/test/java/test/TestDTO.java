@@ -5,6 +5,7 @@ import java.net.MalformedURLException;
 
 import com.google.gson.JsonObject;
 
+import io.jrest.GenerateSerializer;
 import io.jrest.HttpMethod;
 import io.jrest.RequestEntity;
 
@@ -32,6 +33,7 @@ public class TestDTO {
 /**
  * DTO used to represent employee information sent from server.
  */
+@GenerateSerializer
 class Employee {
 	private int id;
 	
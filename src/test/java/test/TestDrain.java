@@ -0,0 +1,69 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestDrain {
+
+	public static void main(String[] args) throws MalformedURLException, IOException, InterruptedException {
+
+		/**
+		 * Start server
+		 */
+		JRest server = JRest.create()
+				.setServerName("Drain Test Server")
+				.setPort(8090)
+				.start();
+
+		server.addEndpoint(HttpMethod.GET, "/slow", (request)->{
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {
+				//
+			}
+			return new ResponseEntity<String>(HttpStatus.OK, "Finished");
+		});
+
+		// Requests in flight when draining starts
+		CountDownLatch answered = new CountDownLatch(3);
+		for (int i = 0; i < 3; i++) {
+			new RequestEntity<String>(HttpMethod.GET).exchangeAsync("http://localhost:8090/slow", String.class, (response)->{
+				System.out.println("In flight: " + response.getStatus() + " " + response.getBody() + ", Connection: " + response.getHeaders().get(HttpHeaders.CONNECTION));
+				answered.countDown();
+			});
+		}
+		
+		// A client that connected but has not sent anything yet
+		Socket idle = new Socket("localhost", 8090);
+		Thread.sleep(100);
+
+		CountDownLatch drained = new CountDownLatch(1);
+		server.drain(5000, () -> {
+			System.out.println("Drained");
+			drained.countDown();
+		});
+		System.out.println("Draining: " + server.isDraining());
+
+		// New connections are refused
+		try (Socket refused = new Socket("localhost", 8090)) {
+			System.out.println("New connection: accepted");
+		} catch(IOException e) {
+			System.out.println("New connection: " + e);
+		}
+
+		answered.await();
+		drained.await();
+		System.out.println("Idle connection closed: " + (idle.getInputStream().read() == -1));
+		idle.close();
+		System.out.println("Draining: " + server.isDraining());
+	}
+}
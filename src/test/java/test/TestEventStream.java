@@ -0,0 +1,153 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.jrest.EventHub;
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.JRest;
+import io.jrest.Logger.LogType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+/**
+ * Event streams: one client's own events, a broadcast to many subscribers, and slow subscribers
+ * that stop reading.
+ */
+public class TestEventStream {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		EventHub news = new EventHub();
+		EventHub strict = new EventHub(EventHub.SlowConsumerPolicy.DISCONNECT);
+
+		JRest server = JRest.create()
+				.setServerName("Event Stream Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8099)
+				.setEventStreamSendQueue(64 * 1024)
+				.start();
+
+		server.addEventStream("/progress", (stream)->{
+			for (int i = 1; i <= 3; i++)
+				stream.send(String.valueOf(i), "progress", progress(i * 33));
+			stream.send("done", "Line one\nLine two");
+			stream.close();
+		});
+		server.addEventStream("/news", news);
+		server.addEventStream("/strict", strict);
+
+		// A stream that ends is read to its end
+		ResponseEntity<String> progress = new RequestEntity<String>(HttpMethod.GET, HttpHeaders.empty()).exchange("http://localhost:8099/progress", String.class);
+		System.out.println(progress.getStatus() + " " + progress.getHeaders().get(HttpHeaders.CONTENT_TYPE));
+		System.out.print(progress.getBody());
+
+		// One encoded event for many subscribers
+		int count = 1000;
+		List<Subscriber> subscribers = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			subscribers.add(new Subscriber("/news"));
+		while (news.getSubscriberCount() < count)
+			Thread.sleep(10);
+
+		long start = System.nanoTime();
+		int sent = 0;
+		for (int i = 0; i < 10; i++)
+			sent += news.broadcast(String.valueOf(i), "news", "Story " + i);
+		System.out.println("10 events queued " + sent + " times in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		int received = 0;
+		for (Subscriber subscriber : subscribers) {
+			if ( subscriber.readData(10).equals("Story 9") )
+				received++;
+		}
+		System.out.println(received + " of " + count + " subscribers received every event");
+		for (Subscriber subscriber : subscribers)
+			subscriber.socket.close();
+		while (news.getSubscriberCount() > 0)
+			Thread.sleep(10);
+		System.out.println("Subscribers left after disconnecting: " + news.getSubscriberCount());
+
+		// Subscribers that never read fall behind
+		char[] large = new char[32 * 1024];
+		Arrays.fill(large, 'x');
+		String event = new String(large);
+
+		Subscriber stalled = new Subscriber("/news");
+		Subscriber reading = new Subscriber("/news");
+		while (news.getSubscriberCount() < 2)
+			Thread.sleep(10);
+		Thread reader = new Thread(() -> reading.readData(Integer.MAX_VALUE));
+		reader.start();
+		for (int i = 0; i < 1000; i++) {
+			news.broadcast(event);
+			Thread.sleep(1);
+		}
+		System.out.println("Drop policy: events dropped " + (news.getDroppedEvents() > 0) + ", subscribers " + news.getSubscriberCount());
+
+		Subscriber stalledStrict = new Subscriber("/strict");
+		while (strict.getSubscriberCount() < 1)
+			Thread.sleep(10);
+		for (int i = 0; i < 1000 && strict.getSubscriberCount() > 0; i++)
+			strict.broadcast(event);
+		System.out.println("Disconnect policy: disconnected " + strict.getDisconnected() + ", subscribers " + strict.getSubscriberCount());
+
+		stalled.socket.close();
+		stalledStrict.socket.close();
+		server.stop();
+		reader.join(5000);
+		System.exit(0);
+	}
+
+	private static Map<String, Object> progress(int percent) {
+		Map<String, Object> progress = new HashMap<>();
+		progress.put("percent", percent);
+		return progress;
+	}
+
+	/**
+	 * A client on a plain socket, so a thousand of them only need one thread.
+	 */
+	private static class Subscriber {
+		private final Socket socket;
+
+		private final BufferedReader reader;
+
+		Subscriber(String path) throws IOException {
+			socket = new Socket("localhost", 8099);
+			socket.setReceiveBufferSize(8192);
+			OutputStream output = socket.getOutputStream();
+			output.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Read until a number of data lines arrived or the stream ends, returning the last one.
+		 */
+		String readData(int events) {
+			String last = "";
+			try {
+				String line;
+				while (events > 0 && (line = reader.readLine()) != null) {
+					if ( line.startsWith("data: ") ) {
+						last = line.substring(6);
+						events--;
+					}
+				}
+			} catch (IOException e) {
+				// Closed
+			}
+			return last;
+		}
+	}
+}
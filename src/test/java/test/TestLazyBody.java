@@ -0,0 +1,26 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.MediaType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestLazyBody {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		HttpHeaders headers = new HttpHeaders().setContentEncoding("identity").setContentType(MediaType.APPLICATION_JSON);
+		RequestEntity<String> request = new RequestEntity<>(HttpMethod.POST, headers, "{not json");
+		
+		// Endpoint only passes the body on, it is never decoded
+		ResponseEntity<String> response1 = request.exchange("http://localhost/testRawBody", String.class);
+		System.out.println("Raw: " + response1.getStatus() + " " + response1.getBody());
+		
+		// Endpoint decodes the body when it reads it
+		ResponseEntity<String> response2 = request.exchange("http://localhost/GetEmployee", String.class);
+		System.out.println("Decoded: " + response2.getStatus() + " " + response2.getBody());
+	}
+}
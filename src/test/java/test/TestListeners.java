@@ -0,0 +1,54 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestListeners {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		
+		/**
+		 * Two servers in one JVM, the second listening on two ports with two acceptors each
+		 */
+		JRest first = JRest.create()
+				.setServerName("First Listener Test Server")
+				.setPort(8087)
+				.start();
+		
+		JRest second = JRest.create()
+				.setServerName("Second Listener Test Server")
+				.addListener("localhost", 8088)
+				.addListener(8089)
+				.setAcceptors(2)
+				.setBacklog(128)
+				.setReceiveBufferSize(64 * 1024)
+				.setSendBufferSize(64 * 1024)
+				.start();
+
+		first.addEndpoint(HttpMethod.GET, "/name", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "first");
+		});
+		
+		second.addEndpoint(HttpMethod.GET, "/name", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "second");
+		});
+		
+		System.out.println("Listening: " + first.getListeners() + " " + second.getListeners());
+		
+		for (int port = 8087; port <= 8089; port++) {
+			ResponseEntity<String> response = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:" + port + "/name", String.class);
+			System.out.println(port + ": " + response.getBody());
+		}
+		
+		// Stopping closes the listen sockets, so the acceptor threads end and the JVM exits on its own
+		first.stop();
+		second.stop();
+		System.out.println("Stopped: " + first.getListeners() + " " + second.getListeners());
+	}
+}
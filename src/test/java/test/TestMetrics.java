@@ -0,0 +1,31 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+import io.jrest.HttpMethod;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestMetrics {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		
+		// Some traffic to count
+		for (int i = 0; i < 5; i++)
+			new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost/testAPI", String.class);
+		
+		// Time spent in each phase
+		ResponseEntity<String> timed = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost/testAPI", String.class);
+		System.out.println("Server-Timing: " + timed.getHeaders().get("Server-Timing"));
+		new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost/nothing", String.class);
+		
+		// Print the request counters and the metrics endpoint itself
+		ResponseEntity<String> response = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost/metrics", String.class);
+		System.out.println("Content type: " + response.getHeaders().getContentType());
+		for (String line : response.getBody().split("\n")) {
+			if ( line.startsWith("jrest_requests_total") || line.startsWith("jrest_connections_total") || ((line.startsWith("jrest_handler_duration_seconds_count") || line.startsWith("jrest_phase_seconds_total")) && line.contains("/testAPI")) )
+				System.out.println(line);
+		}
+	}
+}
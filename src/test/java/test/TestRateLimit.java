@@ -0,0 +1,120 @@
+package test;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.jrest.EndpointBuilder;
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.Logger.LogType;
+import io.jrest.RateLimit;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+import io.jrest.RetryPolicy;
+
+/**
+ * Per client rate limits: bursts, refills, limits by API key, and bounded tracking of clients.
+ */
+public class TestRateLimit {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		AtomicInteger handled = new AtomicInteger();
+		RateLimit byKey = new RateLimit(1, 2).byHeader("X-Api-Key").setMaxClients(3);
+
+		JRest server = JRest.create()
+				.setServerName("Rate Limit Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8100)
+				.start();
+
+		server.addEndpoint(new EndpointBuilder<String, String>("/limited")
+				.setHttpMethod(HttpMethod.POST)
+				.setRateLimit(new RateLimit(5, 5))
+				.setOnRequest((request)->{
+					handled.incrementAndGet();
+					return new ResponseEntity<String>(HttpStatus.OK, "Got " + request.getBody().length());
+				}));
+
+		server.addEndpoint(new EndpointBuilder<String, String>("/keyed")
+				.setRateLimit(byKey)
+				.setOnRequest((request)->{
+					return new ResponseEntity<String>(HttpStatus.OK, "Hello " + request.getHeaders().get("X-Api-Key"));
+				}));
+
+		RateLimit bySession = new RateLimit(1, 1).bySession();
+		server.addEndpoint(new EndpointBuilder<String, String>("/session")
+				.setRateLimit(bySession)
+				.setOnRequest((request)->{
+					return new ResponseEntity<String>(HttpStatus.OK, "Session");
+				}));
+
+		server.addEndpoint(HttpMethod.GET, "/open", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Not limited");
+		});
+
+		// A burst of 5 is allowed, the rest is refused without running the endpoint
+		AtomicInteger ok = new AtomicInteger();
+		AtomicInteger limited = new AtomicInteger();
+		AtomicReference<String> retryAfter = new AtomicReference<>();
+		CountDownLatch answered = new CountDownLatch(20);
+		for (int i = 0; i < 20; i++) {
+			request(HttpMethod.POST, HttpHeaders.empty(), "body " + i).exchangeAsync("http://localhost:8100/limited", String.class, (response)->{
+				if ( response.getStatus().value() == 200 ) {
+					ok.incrementAndGet();
+				} else if ( response.getStatus().value() == 429 ) {
+					limited.incrementAndGet();
+					retryAfter.set(response.getHeaders().get(HttpHeaders.RETRY_AFTER));
+				}
+				answered.countDown();
+			});
+		}
+		answered.await();
+		System.out.println("Burst: " + ok.get() + " ok, " + limited.get() + " limited, Retry-After " + retryAfter.get() + ", handler ran " + handled.get() + " times");
+
+		// Refilled at 5 a second
+		Thread.sleep(1000);
+		int refilled = 0;
+		for (int i = 0; i < 10; i++) {
+			if ( request(HttpMethod.POST, HttpHeaders.empty(), "again").exchange("http://localhost:8100/limited", String.class).getStatus().value() == 200 )
+				refilled++;
+		}
+		System.out.println("After a second: " + refilled + " ok");
+
+		// Each API key has its own bucket
+		for (String key : new String[] { "alpha", "alpha", "alpha", "beta", "beta", "beta" }) {
+			ResponseEntity<String> response = request(HttpMethod.GET, HttpHeaders.empty().put("X-Api-Key", key), null).exchange("http://localhost:8100/keyed", String.class);
+			System.out.println(key + ": " + response.getStatus() + " " + response.getBody());
+		}
+
+		// Only a few clients are tracked, idle ones make room for new ones
+		Thread.sleep(2000);
+		for (int i = 0; i < 10; i++)
+			request(HttpMethod.GET, HttpHeaders.empty().put("X-Api-Key", "client" + i), null).exchange("http://localhost:8100/keyed", String.class);
+		System.out.println("Clients tracked: " + byKey.getClients() + " of at most " + byKey.getMaxClients());
+
+		// Made up session cookies are limited by address, like requests without a session
+		int sessionOk = 0;
+		for (int i = 0; i < 5; i++) {
+			if ( request(HttpMethod.GET, HttpHeaders.empty().put(HttpHeaders.COOKIE, "JRESTSESSID=" + UUID.randomUUID()), null).exchange("http://localhost:8100/session", String.class).getStatus().value() == 200 )
+				sessionOk++;
+		}
+		System.out.println("Made up sessions: " + sessionOk + " ok, clients tracked " + bySession.getClients());
+
+		System.out.println("Without a limit: " + request(HttpMethod.GET, HttpHeaders.empty(), null).exchange("http://localhost:8100/open", String.class).getStatus().value());
+
+		server.stop();
+		System.exit(0);
+	}
+
+	/**
+	 * A request that is sent once, a 429 is what is being tested.
+	 */
+	private static RequestEntity<String> request(HttpMethod method, HttpHeaders headers, String body) {
+		return new RequestEntity<String>(method, headers, body).setRetryPolicy(RetryPolicy.none());
+	}
+}
@@ -0,0 +1,129 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.jrest.CircuitBreaker;
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+import io.jrest.RetryPolicy;
+import io.jrest.Logger.LogType;
+
+public class TestRetry {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		AtomicInteger flakyCalls = new AtomicInteger();
+		AtomicInteger slowCalls = new AtomicInteger();
+		AtomicInteger fastCalls = new AtomicInteger();
+
+		/**
+		 * Start server
+		 */
+		JRest server = JRest.create()
+				.setServerName("Retry Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8081)
+				.start();
+
+		/**
+		 * Fails twice before succeeding.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/flaky", (request)->{
+			if ( flakyCalls.incrementAndGet() <= 2 )
+				return new ResponseEntity<String>(HttpStatus.SERVICE_UNAVAILABLE, "Try again");
+
+			return new ResponseEntity<String>(HttpStatus.OK, "Recovered after " + flakyCalls.get() + " attempts");
+		});
+
+		/**
+		 * Every other call is very slow.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/slow", (request)->{
+			if ( slowCalls.incrementAndGet() % 2 == 1 ) {
+				try {
+					Thread.sleep(2000);
+				} catch (InterruptedException e) {
+					//
+				}
+			}
+
+			return new ResponseEntity<String>(HttpStatus.OK, "Answered by call " + slowCalls.get());
+		});
+
+		/**
+		 * Answers in well under a millisecond.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/fast", (request)->{
+			fastCalls.incrementAndGet();
+			return new ResponseEntity<String>(HttpStatus.OK, "Fast");
+		});
+
+		// Retry with jittered backoff
+		RequestEntity<String> retry = new RequestEntity<String>(HttpMethod.GET)
+				.setRetryPolicy(new RetryPolicy().setMaxAttempts(4));
+		ResponseEntity<String> response1 = retry.exchange("http://localhost:8081/flaky", String.class);
+		System.out.println("Retry: " + response1.getStatus() + " " + response1.getBody());
+
+		// Hedged request. The second attempt should win.
+		long start = System.currentTimeMillis();
+		RequestEntity<String> hedge = new RequestEntity<String>(HttpMethod.GET)
+				.setRetryPolicy(new RetryPolicy().setHedgeDelay(200));
+		ResponseEntity<String> response2 = hedge.exchange("http://localhost:8081/slow", String.class);
+		System.out.println("Hedge: " + response2.getBody() + " in " + (System.currentTimeMillis() - start) + " ms");
+
+		// Adaptive hedging against a fast host only hedges the rare slow request
+		RequestEntity<String> adaptive = new RequestEntity<String>(HttpMethod.GET)
+				.setRetryPolicy(new RetryPolicy().setHedgeDelay(RetryPolicy.HEDGE_ADAPTIVE));
+		for (int i = 0; i < 50; i++)
+			adaptive.exchange("http://localhost:8081/fast", String.class);
+		fastCalls.set(0);
+		for (int i = 0; i < 50; i++)
+			adaptive.exchange("http://localhost:8081/fast", String.class);
+		System.out.println("Adaptive hedge: 50 requests made " + fastCalls.get() + " calls");
+
+		// A half-open trial that fails with a RuntimeException (a Brotli body the client can not decode)
+		// opens the circuit again instead of leaving it half-open for good
+		ServerSocket brotli = new ServerSocket(0);
+		Thread brotliServer = new Thread(()->{
+			try (Socket socket = brotli.accept()) {
+				socket.getInputStream().read(new byte[4096]);
+				socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Encoding: br\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+			} catch (IOException e) {
+				//
+			}
+		});
+		brotliServer.start();
+		CircuitBreaker trial = CircuitBreaker.forHost("localhost:" + brotli.getLocalPort()).setFailureThreshold(1).setOpenDuration(0);
+		trial.recordFailure();
+		try {
+			new RequestEntity<String>(HttpMethod.GET).setCircuitBreaker(true).exchange("http://localhost:" + brotli.getLocalPort() + "/", String.class);
+		} catch (RuntimeException e) {
+			System.out.println("Trial failed: " + e.getMessage().substring(0, 24));
+		}
+		System.out.println("Breaker after failed trial: " + trial.getState());
+		brotli.close();
+
+		// Circuit breaker against a port with nothing listening
+		CircuitBreaker.forHost("localhost:8082").setFailureThreshold(2);
+		for (int i = 0; i < 4; i++) {
+			RequestEntity<String> broken = new RequestEntity<String>(HttpMethod.GET)
+					.setRetryPolicy(RetryPolicy.none().setBaseDelay(0))
+					.setCircuitBreaker(true);
+			try {
+				ResponseEntity<String> response3 = broken.exchange("http://localhost:8082/down", String.class);
+				System.out.println("Breaker attempt " + i + ": " + response3.getStatus() + " " + CircuitBreaker.forHost("localhost:8082").getState());
+			} catch (IOException e) {
+				System.out.println("Breaker attempt " + i + ": " + e.getClass().getSimpleName() + " " + CircuitBreaker.forHost("localhost:8082").getState());
+			}
+		}
+
+		server.stop();
+	}
+}
@@ -0,0 +1,72 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.Logger.LogType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestRouteTable {
+
+	public static void main(String[] args) throws MalformedURLException, IOException, InterruptedException {
+
+		/**
+		 * Routes registered before starting
+		 */
+		JRest server = JRest.create()
+				.setServerName("Route Table Test Server")
+				.setPort(8092)
+				.setLogType(LogType.WARN);
+
+		server.addEndpoint(HttpMethod.GET, "/stable", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Stable");
+		});
+		server.start();
+
+		// Clients keep calling a route while new ones are registered
+		AtomicInteger ok = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		Thread[] clients = new Thread[4];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = new Thread(() -> {
+				for (int j = 0; j < 100; j++) {
+					try {
+						ResponseEntity<String> response = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8092/stable", String.class);
+						if ( "Stable".equals(response.getBody()) )
+							ok.incrementAndGet();
+						else
+							failed.incrementAndGet();
+					} catch(IOException e) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+			clients[i].start();
+		}
+
+		for (int i = 0; i < 500; i++) {
+			int route = i;
+			server.addEndpoint(HttpMethod.GET, "/route" + i, (request)->{
+				return new ResponseEntity<String>(HttpStatus.OK, "Route " + route);
+			});
+		}
+		server.setResponseHandler(HttpStatus.NOT_FOUND, (request) -> {
+			return new ResponseEntity<String>(HttpStatus.NOT_FOUND, "Not Found");
+		});
+
+		for (Thread client : clients)
+			client.join();
+
+		System.out.println("Stable: " + ok.get() + " ok, " + failed.get() + " failed");
+		System.out.println("Registered: " + new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8092/route499", String.class).getBody());
+		System.out.println("Missing: " + new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8092/route500", String.class).getBody());
+
+		server.stop();
+		System.exit(0);
+	}
+}
@@ -1,6 +1,7 @@
 package test;
 
 import java.net.HttpCookie;
+import java.util.List;
 
 import com.google.gson.JsonObject;
 
@@ -30,9 +31,15 @@ public class TestServer {
 		JRest server = JRest.create()
 				.setServerName("Test Server")
 				.setLogType(LogType.TRACE)
+				.setServerTiming(true)
 				.setPort(80)
 				.start();
 		
+		/**
+		 * Prometheus metrics of this server.
+		 */
+		server.addMetricsEndpoint("/metrics");
+		
 		/**
 		 * 404 page. (Optional to have custom 404 page).
 		 */
@@ -82,6 +89,14 @@ public class TestServer {
 			return new ResponseEntity<JsonObject>(HttpStatus.OK, response);
 		});
 		
+		/**
+		 * Test raw body. Passes the body on without decoding it.
+		 */
+		server.addEndpoint(HttpMethod.POST, "/testRawBody", MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN, JsonObject.class, (request)->{
+			byte[] body = request.getRawBody();
+			return new ResponseEntity<String>(HttpStatus.OK, "Received " + body.length + " bytes");
+		});
+		
 		/**
 		 * Test Post endpoint. Returns your posted data back to you.
 		 */
@@ -91,6 +106,22 @@ public class TestServer {
 			return new ResponseEntity<String>(HttpStatus.OK, name);
 		});
 		
+		/**
+		 * Test repeated and percent encoded url parameters.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/testParams", (request)->{
+			String search = request.getParameters().getFirst("q");
+			List<String> tags = request.getParameters().getAll("tag");
+			return new ResponseEntity<String>(HttpStatus.OK, search + " " + tags);
+		});
+		
+		/**
+		 * Test a path with characters outside ASCII, sent percent encoded or as raw UTF-8.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/caf\u00e9", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Found " + request.getPath());
+		});
+		
 		/**
 		 * Test JSON endpoint. Returns a JSON object.
 		 */
@@ -0,0 +1,108 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import io.jrest.HttpHeaders;
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.MediaType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+import io.jrest.Logger.LogType;
+
+public class TestStream {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+
+		/**
+		 * Start server
+		 */
+		JRest server = JRest.create()
+				.setServerName("Stream Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8083)
+				.start();
+
+		/**
+		 * Rows are produced while the response is written.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/rows", MediaType.ALL, MediaType.APPLICATION_JSON, (request)->{
+			Stream<Map<String, Object>> rows = IntStream.range(0, 10000).mapToObj((i)->{
+				Map<String, Object> row = new HashMap<>();
+				row.put("id", i);
+				row.put("name", "Row " + i);
+				return row;
+			});
+
+			return new ResponseEntity<Stream<Map<String, Object>>>(HttpStatus.OK, rows);
+		});
+
+		/**
+		 * Compressed while streaming.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/gzipRows", MediaType.ALL, MediaType.APPLICATION_NDJSON, (request)->{
+			HttpHeaders headers = new HttpHeaders().setContentEncoding("gzip");
+			return new ResponseEntity<Iterator<Integer>>(HttpStatus.OK, headers, IntStream.range(0, 1000).iterator());
+		});
+
+		/**
+		 * Fails part way through.
+		 */
+		server.addEndpoint(HttpMethod.GET, "/broken", MediaType.ALL, MediaType.APPLICATION_JSON, (request)->{
+			Iterator<Integer> broken = new Iterator<Integer>() {
+				int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return true;
+				}
+
+				@Override
+				public Integer next() {
+					if ( i == 3 )
+						throw new IllegalStateException("Database went away");
+					return i++;
+				}
+			};
+
+			return new ResponseEntity<Iterator<Integer>>(HttpStatus.OK, broken);
+		});
+
+		// Json array
+		@SuppressWarnings("rawtypes") ResponseEntity<List> response1 = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8083/rows", List.class);
+		System.out.println("Json: " + response1.getHeaders().getContentType() + " " + response1.getBody().size() + " rows");
+
+		// Newline delimited json
+		HttpHeaders headers = new HttpHeaders().setAccept(MediaType.APPLICATION_NDJSON);
+		@SuppressWarnings("rawtypes") ResponseEntity<List> response2 = new RequestEntity<String>(HttpMethod.GET, headers).exchange("http://localhost:8083/rows", List.class);
+		System.out.println("NDJson: " + response2.getHeaders().getContentType() + " " + response2.getBody().size() + " rows, last " + response2.getBody().get(9999));
+
+		// Cbor
+		HttpHeaders headers3 = new HttpHeaders().setAccept(MediaType.APPLICATION_CBOR);
+		@SuppressWarnings("rawtypes") ResponseEntity<List> response3 = new RequestEntity<String>(HttpMethod.GET, headers3).exchange("http://localhost:8083/rows", List.class);
+		System.out.println("Cbor: " + response3.getHeaders().getContentType() + " " + response3.getBody().size() + " rows");
+
+		// Gzip
+		@SuppressWarnings("rawtypes") ResponseEntity<List> response5 = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8083/gzipRows", List.class);
+		System.out.println("Gzip: " + response5.getHeaders().getContentType() + " " + response5.getBody().size() + " rows");
+
+		// Truncated
+		try {
+			@SuppressWarnings("rawtypes") ResponseEntity<List> response4 = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8083/broken", List.class);
+			System.out.println("Broken: " + response4.getBody());
+		} catch(Exception e) {
+			System.out.println("Broken: " + e);
+		}
+
+		server.stop();
+		System.exit(0);
+	}
+}
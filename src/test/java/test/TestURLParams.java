@@ -1,7 +1,11 @@
 package test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 
 import com.google.gson.JsonObject;
 
@@ -20,5 +24,24 @@ public class TestURLParams {
 			String name = response.getBody();
 			System.out.println("User name: " + name);
 		});
+		
+		// Repeated and percent encoded parameters
+		request.exchangeAsync("http://localhost/testParams?q=caf%C3%A9+au+lait&tag=a&tag=b%26c&flag", String.class, (response)->{
+			System.out.println("Params: " + response.getBody());
+		});
+		
+		// Path outside ASCII, percent encoded and as raw UTF-8 bytes
+		request.exchangeAsync("http://localhost/caf%C3%A9", String.class, (response)->{
+			System.out.println("Encoded path: " + response.getStatus() + " " + response.getBody());
+		});
+		try (Socket socket = new Socket("localhost", 80)) {
+			socket.getOutputStream().write("GET /caf\u00e9 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String status = reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null && !line.isEmpty())
+				continue;
+			System.out.println("Raw UTF-8 path: " + status + " " + reader.readLine());
+		}
 	}
 }
\ No newline at end of file
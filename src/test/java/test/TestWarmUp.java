@@ -0,0 +1,57 @@
+package test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonObject;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.MediaType;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+
+public class TestWarmUp {
+
+	public static void main(String[] args) throws MalformedURLException, IOException {
+		AtomicInteger hellos = new AtomicInteger();
+		AtomicInteger echoes = new AtomicInteger();
+
+		/**
+		 * Endpoints registered before starting are warmed up
+		 */
+		JRest server = JRest.create()
+				.setServerName("Warm Up Test Server")
+				.setPort(8091)
+				.setWarmUp(3000);
+
+		server.addEndpoint(HttpMethod.GET, "/hello", (request)->{
+			hellos.incrementAndGet();
+			request.session().put("seen", true);
+			return new ResponseEntity<String>(HttpStatus.OK, "Hello!");
+		});
+
+		server.addEndpoint(HttpMethod.POST, "/echo", JsonObject.class, (request)->{
+			echoes.incrementAndGet();
+			return new ResponseEntity<JsonObject>(HttpStatus.OK, request.getBody());
+		});
+
+		server.addWarmUpRequest(HttpMethod.GET, "/hello")
+				.addWarmUpRequest(HttpMethod.POST, "/echo", MediaType.APPLICATION_JSON, "{\"id\": 1}")
+				.start();
+
+		System.out.println("Warm up calls: " + (hellos.get() > 0) + " " + (echoes.get() > 0));
+		System.out.println("Connections counted: " + server.getMetrics().getConnections());
+		System.out.println("Sessions stored: " + JRest.getSessionStorage().getSessions().size());
+
+		long start = System.nanoTime();
+		ResponseEntity<String> response = new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8091/hello", String.class);
+		System.out.println("First request: " + response.getBody() + " " + (System.nanoTime() - start) / 1000 + " us");
+		System.out.println("Connections counted: " + server.getMetrics().getConnections());
+
+		server.stop();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,79 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.RequestEntity;
+import io.jrest.ResponseEntity;
+import io.jrest.Logger.LogType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Records the JRest events with JDK Flight Recorder. Needs Java 11 or newer, compiled by the java11-tests
+ * profile, and the packaged multi-release jar on the class path, the classes directory only has the Java 8 hooks.
+ */
+public class TestFlightRecorder {
+
+	public static void main(String[] args) throws IOException {
+		JRest server = JRest.create()
+				.setServerName("JFR Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8086)
+				.start();
+
+		server.addEndpoint(HttpMethod.GET, "/hello", (request)->{
+			request.session();
+			return new ResponseEntity<String>(HttpStatus.OK, "Hello!");
+		});
+
+		server.addEndpoint(HttpMethod.GET, "/logout", (request)->{
+			request.session().invalidate();
+			return new ResponseEntity<String>(HttpStatus.OK, "Bye!");
+		});
+
+		File file = File.createTempFile("jrest", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("io.jrest.ConnectionAccepted");
+			recording.enable("io.jrest.RequestParsed");
+			recording.enable("io.jrest.HandlerExecuted");
+			recording.enable("io.jrest.ResponseWritten");
+			recording.enable("io.jrest.SessionCreated");
+			recording.enable("io.jrest.SessionEvicted");
+			recording.start();
+
+			for (int i = 0; i < 3; i++)
+				new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8086/hello", String.class);
+
+			// The invalidated session is evicted on the next request, which gets a new one
+			new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8086/logout", String.class);
+			new RequestEntity<String>(HttpMethod.GET).exchange("http://localhost:8086/hello", String.class);
+
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+
+		// Count the events, and show one response
+		Map<String, Integer> counts = new TreeMap<>();
+		RecordedEvent written = null;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			counts.merge(event.getEventType().getName(), 1, Integer::sum);
+			if ( event.getEventType().getName().equals("io.jrest.ResponseWritten") )
+				written = event;
+		}
+		file.delete();
+
+		System.out.println("Events: " + counts);
+		if ( written != null )
+			System.out.println("Response: route=" + written.getString("route") + " status=" + written.getInt("status") + " bytes=" + written.getLong("responseBytes"));
+
+		server.stop();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,94 @@
+package test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import io.jrest.HttpMethod;
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.Logger.LogType;
+import io.jrest.MediaType;
+import io.jrest.ResponseEntity;
+
+/**
+ * Many requests at once over one clear text HTTP/2 connection, upgraded from HTTP/1.1 by the JDK client.
+ * Needs Java 11 or newer, compiled by the java11-tests profile.
+ */
+public class TestHttp2 {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		JRest server = JRest.create()
+				.setServerName("HTTP/2 Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8096)
+				.setHttp2(true)
+				.start();
+
+		server.addEndpoint(HttpMethod.GET, "/hello", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Hello over " + request.getHeaders().get("Host"));
+		});
+
+		// Slow endpoint, only fast in total if the requests run at the same time
+		server.addEndpoint(HttpMethod.GET, "/slow", (request)->{
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new ResponseEntity<String>(HttpStatus.OK, "Slow " + request.getUrlParameters().get("id"));
+		});
+
+		server.addEndpoint(HttpMethod.POST, "/echo", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Received " + request.getRawBody().length + " bytes");
+		});
+
+		server.addEndpoint(HttpMethod.GET, "/rows", MediaType.ALL, MediaType.APPLICATION_JSON, (request)->{
+			return new ResponseEntity<Stream<Integer>>(HttpStatus.OK, Stream.iterate(0, (i) -> i + 1).limit(50000));
+		});
+
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+
+		// First request upgrades the connection, the rest use it
+		HttpResponse<String> hello = client.send(request("/hello").build(), HttpResponse.BodyHandlers.ofString());
+		System.out.println(hello.version() + " " + hello.statusCode() + ": " + hello.body());
+
+		long start = System.currentTimeMillis();
+		List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+		for (int i = 0; i < 200; i++)
+			responses.add(client.sendAsync(request("/slow?id=" + i).build(), HttpResponse.BodyHandlers.ofString()));
+
+		int ok = 0;
+		for (CompletableFuture<HttpResponse<String>> response : responses) {
+			if ( response.join().version() == HttpClient.Version.HTTP_2 && response.join().statusCode() == 200 )
+				ok++;
+		}
+		System.out.println("200 slow requests, " + ok + " ok over HTTP/2 in " + (System.currentTimeMillis() - start) + " ms");
+
+		// Larger than the windows in both directions
+		byte[] body = new byte[4 * 1024 * 1024];
+		Arrays.fill(body, (byte) 'a');
+		HttpResponse<String> echo = client.send(request("/echo").POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(), HttpResponse.BodyHandlers.ofString());
+		System.out.println(echo.version() + " " + echo.statusCode() + ": " + echo.body());
+
+		HttpResponse<String> rows = client.send(request("/rows").build(), HttpResponse.BodyHandlers.ofString());
+		System.out.println(rows.version() + " " + rows.statusCode() + ": streamed " + rows.body().length() + " characters, ends with " + rows.body().substring(rows.body().length() - 10));
+
+		HttpResponse<String> missing = client.send(request("/missing").build(), HttpResponse.BodyHandlers.ofString());
+		System.out.println(missing.version() + " " + missing.statusCode());
+
+		server.stop();
+		System.exit(0);
+	}
+
+	private static HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder(URI.create("http://localhost:8096" + path)).header("Accept-Encoding", "identity");
+	}
+}
@@ -0,0 +1,173 @@
+package test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.jrest.HttpStatus;
+import io.jrest.JRest;
+import io.jrest.Logger.LogType;
+import io.jrest.ResponseEntity;
+import io.jrest.HttpMethod;
+import io.jrest.WebSocketHandler;
+
+/**
+ * Echo, JSON messages, server push and close over WebSockets, with the JDK client.
+ * Needs Java 11 or newer, compiled by the java11-tests profile.
+ */
+public class TestWebSocket {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		CopyOnWriteArrayList<io.jrest.WebSocket> subscribers = new CopyOnWriteArrayList<>();
+
+		JRest server = JRest.create()
+				.setServerName("WebSocket Test Server")
+				.setLogType(LogType.WARN)
+				.setPort(8098)
+				.setWebSocketPingInterval(500)
+				.start();
+
+		server.addWebSocket("/echo", (socket, message)->{
+			socket.send("Echo: " + message);
+		});
+
+		// JSON messages are decoded to the message type and sent back encoded
+		server.addWebSocket("/json", Map.class, (socket, message)->{
+			Map<?, ?> received = message;
+			Map<String, Object> reply = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : received.entrySet())
+				reply.put(String.valueOf(entry.getKey()), entry.getValue());
+			reply.put("seen", true);
+			socket.send(reply);
+		});
+
+		server.addWebSocket("/feed", new WebSocketHandler<String>() {
+			@Override
+			public void onOpen(io.jrest.WebSocket socket) {
+				subscribers.add(socket);
+			}
+
+			@Override
+			public void onMessage(io.jrest.WebSocket socket, String message) {
+				//
+			}
+
+			@Override
+			public void onClose(io.jrest.WebSocket socket, int code, String reason) {
+				subscribers.remove(socket);
+				System.out.println("Server saw close " + code + " " + reason);
+			}
+		});
+
+		server.addEndpoint(HttpMethod.GET, "/echo", (request)->{
+			return new ResponseEntity<String>(HttpStatus.OK, "Plain GET still works");
+		});
+
+		HttpClient client = HttpClient.newHttpClient();
+
+		Listener echo = new Listener();
+		WebSocket socket = client.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:8098/echo"), echo).join();
+		socket.sendText("Hello", true).join();
+		System.out.println(echo.next());
+
+		// Fragmented message is reassembled before the handler gets it
+		socket.sendText("Hel", false).join();
+		socket.sendText("lo again", true).join();
+		System.out.println(echo.next());
+
+		// Pings are answered, and the server pings an idle client itself
+		socket.sendPing(ByteBuffer.wrap(new byte[] { 1, 2, 3 })).join();
+		System.out.println(echo.next());
+		Thread.sleep(1500);
+		System.out.println("Server pings received: " + (echo.pings > 0));
+		socket.sendClose(WebSocket.NORMAL_CLOSURE, "done").join();
+		System.out.println(echo.next());
+
+		Listener json = new Listener();
+		WebSocket jsonSocket = client.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:8098/json"), json).join();
+		jsonSocket.sendText("{\"id\": 1, \"name\": \"Frank\"}", true).join();
+		System.out.println(json.next());
+		jsonSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+		json.next();
+
+		// Push to subscribers without them asking
+		Listener[] feeds = new Listener[3];
+		for (int i = 0; i < feeds.length; i++) {
+			feeds[i] = new Listener();
+			client.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:8098/feed"), feeds[i]).join();
+		}
+		while (subscribers.size() < feeds.length)
+			Thread.sleep(10);
+		for (io.jrest.WebSocket subscriber : subscribers)
+			subscriber.send("Pushed to " + subscribers.size());
+		for (Listener feed : feeds)
+			System.out.println(feed.next());
+
+		// Server side close
+		subscribers.get(0).close(io.jrest.WebSocket.GOING_AWAY, "Bye");
+		System.out.println(feeds[0].next());
+
+		// A GET without the upgrade is answered by the normal endpoint
+		java.net.http.HttpResponse<String> plain = client.send(java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:8098/echo")).build(), java.net.http.HttpResponse.BodyHandlers.ofString());
+		System.out.println(plain.statusCode() + ": " + plain.body());
+
+		server.stop();
+		Thread.sleep(200);
+		System.exit(0);
+	}
+
+	/**
+	 * Collects what the client receives.
+	 */
+	private static class Listener implements WebSocket.Listener {
+		private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+		private volatile int pings;
+
+		@Override
+		public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+			received.add("Text: " + data);
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+			pings++;
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+			received.add("Pong: " + message.remaining() + " bytes");
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+			received.add("Closed: " + statusCode + " " + reason);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void onError(WebSocket webSocket, Throwable error) {
+			received.add("Error: " + error);
+		}
+
+		String next() throws InterruptedException {
+			String message = received.poll(5, TimeUnit.SECONDS);
+			return message == null ? "Nothing received" : message;
+		}
+	}
+}